@@ -11,8 +11,10 @@ import helium314.keyboard.latin.utils.Log;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import helium314.keyboard.latin.Dictionary;
+import helium314.keyboard.latin.ExpandableBinaryDictionary;
 import helium314.keyboard.latin.NgramContext;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
@@ -24,15 +26,18 @@ import helium314.keyboard.latin.makedict.DictionaryHeader;
 import helium314.keyboard.latin.makedict.FormatSpec.DictionaryOptions;
 import helium314.keyboard.latin.makedict.UnsupportedFormatException;
 import helium314.keyboard.latin.makedict.WordProperty;
+import helium314.keyboard.latin.personalization.LearningJournal;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import com.android.inputmethod.latin.utils.BinaryDictionaryUtils;
 import helium314.keyboard.latin.utils.JniUtils;
+import helium314.keyboard.latin.utils.Tracer;
 import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -40,7 +45,8 @@ import java.util.Map;
  * Implements a static, compacted, binary dictionary of standard words.
  */
 // TODO: All methods which should be locked need to have a suffix "Locked".
-public final class BinaryDictionary extends Dictionary {
+public final class BinaryDictionary extends Dictionary
+        implements ExpandableBinaryDictionary.GCOnCopy {
     private static final String TAG = BinaryDictionary.class.getSimpleName();
 
     // The cutoff returned by native for auto-commit confidence.
@@ -50,10 +56,29 @@ public final class BinaryDictionary extends Dictionary {
     public static final int DICTIONARY_MAX_WORD_LENGTH = 48;
     public static final int MAX_PREV_WORD_COUNT_FOR_N_GRAM = 3;
 
+    // Layout of the entries for addEntries(), must match the native side.
+    public static final int ENTRY_PROBABILITY = 0;
+    public static final int ENTRY_TIMESTAMP = 1;
+    public static final int ENTRY_LEVEL = 2;
+    public static final int ENTRY_COUNT = 3;
+    public static final int ENTRY_FLAGS = 4;
+    public static final int ENTRY_WORD_START = 5;
+    public static final int ENTRY_WORD_LENGTH = 6;
+    public static final int ENTRY_PREV_WORD_COUNT = 7;
+    // Start and length of each previous word.
+    public static final int ENTRY_PREV_WORDS = 8;
+    public static final int ENTRY_SIZE = ENTRY_PREV_WORDS + 2 * MAX_PREV_WORD_COUNT_FOR_N_GRAM;
+    public static final int ENTRY_FLAG_NOT_A_WORD = 0x1;
+    public static final int ENTRY_FLAG_POSSIBLY_OFFENSIVE = 0x2;
+    // Shifted left by the index of the previous word.
+    public static final int ENTRY_FLAG_PREV_WORD_IS_BEGINNING_OF_SENTENCE = 0x4;
+
     public static final String UNIGRAM_COUNT_QUERY = "UNIGRAM_COUNT";
     public static final String BIGRAM_COUNT_QUERY = "BIGRAM_COUNT";
     public static final String MAX_UNIGRAM_COUNT_QUERY = "MAX_UNIGRAM_COUNT";
     public static final String MAX_BIGRAM_COUNT_QUERY = "MAX_BIGRAM_COUNT";
+    // Completed and total GC steps as "completed/total", see runGCOnCopy().
+    public static final String GC_PROGRESS_QUERY = "GC_PROGRESS";
 
     public static final int NOT_A_VALID_TIMESTAMP = -1;
 
@@ -72,15 +97,31 @@ public final class BinaryDictionary extends Dictionary {
     public static final int FORMAT_WORD_PROPERTY_LEVEL_INDEX = 2;
     public static final int FORMAT_WORD_PROPERTY_COUNT_INDEX = 3;
 
+    // Memory for caching the trie near the root of read-only dictionaries, see PtNodeArrayCache.
+    public static final int DEFAULT_PREFIX_CACHE_SIZE = 256 * 1024;
+
     public static final String DICT_FILE_NAME_SUFFIX_FOR_MIGRATION = ".migrate";
     public static final String DIR_NAME_SUFFIX_FOR_RECORD_MIGRATION = ".migrating";
+    private static final String DICT_FILE_NAME_SUFFIX_FOR_GC_SNAPSHOT = ".gcsnapshot";
+    private static final String DICT_FILE_NAME_SUFFIX_FOR_GC = ".gc";
 
     private long mNativeDict;
     private final long mDictSize;
     private final String mDictFilePath;
     private final boolean mUseFullEditDistance;
     private final boolean mIsUpdatable;
+    private final int mPrefixCacheSize;
     private boolean mHasUpdated;
+    // Changed whenever the dictionary contents or the native dictionary change.
+    private int mUpdateCount;
+
+    // Native dictionary of the copy GC is running on, 0 if none.
+    private long mGCCopyNativeDict;
+    private final Object mGCCopyLock = new Object();
+
+    // Journal of updates not written to the dictionary file yet, null if not used.
+    @Nullable
+    private LearningJournal mJournal;
 
     private final SparseArray<DicTraverseSession> mDicTraverseSessions = new SparseArray<>();
 
@@ -109,10 +150,29 @@ public final class BinaryDictionary extends Dictionary {
     public BinaryDictionary(final String filename, final long offset, final long length,
             final boolean useFullEditDistance, final Locale locale, final String dictType,
             final boolean isUpdatable) {
+        this(filename, offset, length, useFullEditDistance, locale, dictType, isUpdatable,
+                0 /* prefixCacheSize */);
+    }
+
+    /**
+     * Constructs binary dictionary using existing dictionary file.
+     * @param filename the name of the file to read through native code.
+     * @param offset the offset of the dictionary data within the file.
+     * @param length the length of the binary data.
+     * @param useFullEditDistance whether to use the full edit distance in suggestions
+     * @param dictType the dictionary type, as a human-readable string
+     * @param isUpdatable whether to open the dictionary file in writable mode.
+     * @param prefixCacheSize the maximum memory in bytes for caching the decoded trie nodes of
+     *        the first letters, 0 to disable. Only used for read-only dictionaries.
+     */
+    public BinaryDictionary(final String filename, final long offset, final long length,
+            final boolean useFullEditDistance, final Locale locale, final String dictType,
+            final boolean isUpdatable, final int prefixCacheSize) {
         super(dictType, locale);
         mDictSize = length;
         mDictFilePath = filename;
         mIsUpdatable = isUpdatable;
+        mPrefixCacheSize = prefixCacheSize;
         mHasUpdated = false;
         mUseFullEditDistance = useFullEditDistance;
         loadDictionary(filename, offset, length, isUpdatable);
@@ -134,6 +194,7 @@ public final class BinaryDictionary extends Dictionary {
         mDictFilePath = filename;
         // On memory dictionary is always updatable.
         mIsUpdatable = true;
+        mPrefixCacheSize = 0;
         mHasUpdated = false;
         mUseFullEditDistance = useFullEditDistance;
         final String[] keyArray = new String[attributeMap.size()];
@@ -153,7 +214,7 @@ public final class BinaryDictionary extends Dictionary {
     }
 
     private static native long openNative(String sourceDir, long dictOffset, long dictSize,
-            boolean isUpdatable);
+            boolean isUpdatable, int prefixCacheSize);
     private static native long createOnMemoryNative(long formatVersion,
             String locale, String[] attributeKeyStringArray, String[] attributeValueStringArray);
     private static native void getHeaderInfoNative(long dict, int[] outHeaderSize,
@@ -198,6 +259,8 @@ public final class BinaryDictionary extends Dictionary {
             int[] word, boolean isValidWord, int count, int timestamp);
     private static native int updateEntriesForInputEventsNative(long dict,
             WordInputEventForPersonalization[] inputEvents, int startIndex);
+    private static native int addEntriesNative(long dict, int[] codePoints, int[] entries,
+            int entryCount, int startIndex, int[] outFailedCount);
     private static native String getPropertyNative(long dict, String query);
     private static native boolean isCorruptedNative(long dict);
     private static native boolean migrateNative(long dict, String dictFilePath,
@@ -207,7 +270,53 @@ public final class BinaryDictionary extends Dictionary {
     private void loadDictionary(final String path, final long startOffset,
             final long length, final boolean isUpdatable) {
         mHasUpdated = false;
-        mNativeDict = openNative(path, startOffset, length, isUpdatable);
+        mUpdateCount++;
+        final long traceStart = Tracer.begin();
+        mNativeDict = openNative(path, startOffset, length, isUpdatable, mPrefixCacheSize);
+        Tracer.end("open dictionary " + mDictType, traceStart);
+    }
+
+    /**
+     * Sets the journal for recording updates by {@link #updateEntriesForWordWithNgramContext}.
+     * The journal is cleared whenever the dictionary is written to its file.
+     */
+    public void setJournal(@Nullable final LearningJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Applies the updates recorded in the journal, which have not been written to the dictionary
+     * file. Called after loading the dictionary.
+     * @return the number of applied updates.
+     */
+    public int replayJournal() {
+        if (mJournal == null || !isValidDictionary()) {
+            return 0;
+        }
+        final List<LearningJournal.Event> events = mJournal.read();
+        for (int i = 0; i < events.size(); i++) {
+            if (needsToRunGC(true /* mindsBlockByGC */)) {
+                if (!flushWithGC()) {
+                    return i;
+                }
+                // Writing the dictionary cleared the journal, so record the remaining updates again.
+                mJournal.append(events.subList(i, events.size()));
+            }
+            final LearningJournal.Event event = events.get(i);
+            if (updateEntriesForWordWithNgramContextNative(mNativeDict,
+                    event.prevWordCodePointArrays, event.isBeginningOfSentenceArray, event.word,
+                    event.isValidWord, event.count, event.timestamp)) {
+                mHasUpdated = true;
+                mUpdateCount++;
+            }
+        }
+        return events.size();
+    }
+
+    private void clearJournal() {
+        if (mJournal != null) {
+            mJournal.clear();
+        }
     }
 
     // TODO: Check isCorrupted() for main dictionaries.
@@ -443,6 +552,7 @@ public final class BinaryDictionary extends Dictionary {
             return false;
         }
         mHasUpdated = true;
+        mUpdateCount++;
         return true;
     }
 
@@ -456,6 +566,7 @@ public final class BinaryDictionary extends Dictionary {
             return false;
         }
         mHasUpdated = true;
+        mUpdateCount++;
         return true;
     }
 
@@ -474,6 +585,7 @@ public final class BinaryDictionary extends Dictionary {
             return false;
         }
         mHasUpdated = true;
+        mUpdateCount++;
         return true;
     }
 
@@ -492,6 +604,11 @@ public final class BinaryDictionary extends Dictionary {
             return false;
         }
         mHasUpdated = true;
+        mUpdateCount++;
+        if (mJournal != null) {
+            mJournal.append(prevWordCodePointArrays, isBeginningOfSentenceArray, wordCodePoints,
+                    isValidWord, count, timestamp);
+        }
         return true;
     }
 
@@ -507,12 +624,45 @@ public final class BinaryDictionary extends Dictionary {
             processedEventCount = updateEntriesForInputEventsNative(mNativeDict, inputEvents,
                     processedEventCount);
             mHasUpdated = true;
+            mUpdateCount++;
             if (processedEventCount <= 0) {
                 return;
             }
         }
     }
 
+    /**
+     * Adds unigram and n-gram entries with a single native call, running GC in between only if
+     * the dictionary would not accept more entries otherwise. The caller should run GC at the end.
+     * N-grams can only be added for existing words, so unigram entries should come first.
+     * @param codePoints code points of all words, referenced by start and length in entries
+     * @param entries {@link #ENTRY_SIZE} ints per entry, an entry without previous words is a unigram
+     * @return the number of entries that could not be added.
+     */
+    public int addEntries(final int[] codePoints, final int[] entries, final int entryCount) {
+        if (!isValidDictionary()) {
+            return entryCount;
+        }
+        final int[] failedCount = new int[1];
+        int totalFailedCount = 0;
+        int processedEntryCount = 0;
+        while (processedEntryCount < entryCount) {
+            if (needsToRunGC(true /* mindsBlockByGC */) && !flushWithGC()) {
+                break;
+            }
+            final int nextIndex = addEntriesNative(mNativeDict, codePoints, entries, entryCount,
+                    processedEntryCount, failedCount);
+            if (nextIndex <= processedEntryCount) {
+                break;
+            }
+            processedEntryCount = nextIndex;
+            totalFailedCount += failedCount[0];
+            mHasUpdated = true;
+            mUpdateCount++;
+        }
+        return totalFailedCount + entryCount - processedEntryCount;
+    }
+
     private void reopen() {
         close();
         final File dictFile = new File(mDictFilePath);
@@ -532,6 +682,7 @@ public final class BinaryDictionary extends Dictionary {
             if (!flushNative(mNativeDict, mDictFilePath)) {
                 return false;
             }
+            clearJournal();
             reopen();
         }
         return true;
@@ -553,10 +704,89 @@ public final class BinaryDictionary extends Dictionary {
         if (!flushWithGCNative(mNativeDict, mDictFilePath)) {
             return false;
         }
+        clearJournal();
         reopen();
         return true;
     }
 
+    @Override
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Runs GC on a copy of the dictionary, and writes the result next to the dictionary file.
+     * This dictionary is only read, so it can still be used for suggestions while GC is running,
+     * but it must not be updated. Progress is available through {@link #GC_PROGRESS_QUERY}.
+     */
+    @Override
+    public boolean runGCOnCopy() {
+        if (!isValidDictionary()) {
+            return false;
+        }
+        final File snapshotFile = new File(mDictFilePath + DICT_FILE_NAME_SUFFIX_FOR_GC_SNAPSHOT);
+        final File gcFile = new File(mDictFilePath + DICT_FILE_NAME_SUFFIX_FOR_GC);
+        FileUtils.deleteRecursively(snapshotFile);
+        FileUtils.deleteRecursively(gcFile);
+        if (!flushNative(mNativeDict, snapshotFile.getAbsolutePath())) {
+            FileUtils.deleteRecursively(snapshotFile);
+            return false;
+        }
+        final long copyNativeDict = openNative(snapshotFile.getAbsolutePath(), 0 /* dictOffset */,
+                snapshotFile.length(), true /* isUpdatable */, 0 /* prefixCacheSize */);
+        if (copyNativeDict == 0) {
+            FileUtils.deleteRecursively(snapshotFile);
+            return false;
+        }
+        final boolean success;
+        synchronized (mGCCopyLock) {
+            mGCCopyNativeDict = copyNativeDict;
+        }
+        try {
+            success = flushWithGCNative(copyNativeDict, gcFile.getAbsolutePath());
+        } finally {
+            synchronized (mGCCopyLock) {
+                mGCCopyNativeDict = 0;
+            }
+            closeNative(copyNativeDict);
+            FileUtils.deleteRecursively(snapshotFile);
+        }
+        if (!success) {
+            FileUtils.deleteRecursively(gcFile);
+        }
+        return success;
+    }
+
+    /**
+     * Replaces the dictionary with the result of {@link #runGCOnCopy}. The caller must make sure
+     * the dictionary has not been updated since, and needs exclusive access to the dictionary.
+     */
+    @Override
+    public boolean replaceWithGCResult() {
+        final File gcFile = new File(mDictFilePath + DICT_FILE_NAME_SUFFIX_FOR_GC);
+        if (!gcFile.exists()) {
+            return false;
+        }
+        close();
+        final File dictFile = new File(mDictFilePath);
+        if (dictFile.exists() && !FileUtils.deleteRecursively(dictFile)) {
+            return false;
+        }
+        if (!BinaryDictionaryUtils.renameDict(gcFile, dictFile)) {
+            return false;
+        }
+        // The result contains all updates, as the dictionary has not been updated since.
+        clearJournal();
+        loadDictionary(dictFile.getAbsolutePath(), 0 /* startOffset */,
+                dictFile.length(), mIsUpdatable);
+        return true;
+    }
+
+    @Override
+    public void discardGCResult() {
+        FileUtils.deleteRecursively(new File(mDictFilePath + DICT_FILE_NAME_SUFFIX_FOR_GC));
+    }
+
     /**
      * Checks whether GC is needed to run or not.
      * @param mindsBlockByGC Whether to mind operations blocked by GC. We don't need to care about
@@ -610,6 +840,13 @@ public final class BinaryDictionary extends Dictionary {
     }
 
     public String getPropertyForGettingStats(final String query) {
+        if (GC_PROGRESS_QUERY.equals(query)) {
+            synchronized (mGCCopyLock) {
+                if (mGCCopyNativeDict != 0) {
+                    return getPropertyNative(mGCCopyNativeDict, query);
+                }
+            }
+        }
         if (!isValidDictionary()) {
             return "";
         }
@@ -640,6 +877,7 @@ public final class BinaryDictionary extends Dictionary {
         if (mNativeDict != 0) {
             closeNative(mNativeDict);
             mNativeDict = 0;
+            mUpdateCount++;
         }
     }
 
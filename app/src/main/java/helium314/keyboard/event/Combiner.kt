@@ -6,8 +6,6 @@
 
 package helium314.keyboard.event
 
-import java.util.*
-
 /**
  * A generic interface for combiners. Combiners are objects that transform chains of input events
  * into committable strings and manage feedback to show to the user on the combining state.
@@ -19,11 +17,11 @@ interface Combiner {
      * If this event does not result in any new event getting passed down the chain, this method
      * returns null. It may also modify the previous event list if appropriate.
      *
-     * @param previousEvents the previous events in this composition.
+     * @param previousEvents the previous events in this composition, not to be modified.
      * @param event the event to combine with the existing state.
      * @return the resulting event.
      */
-    fun processEvent(previousEvents: ArrayList<Event>?, event: Event): Event
+    fun processEvent(previousEvents: List<Event>, event: Event): Event
 
     /**
      * Get the feedback that should be shown to the user for the current state of this combiner.
@@ -31,6 +29,12 @@ interface Combiner {
      */
     val combiningStateFeedback: CharSequence
 
+    /**
+     * Whether this combiner currently holds state, i.e. whether the feedback is not empty.
+     * Checked for every event, so it should not create the feedback.
+     */
+    val hasCombiningState: Boolean get() = combiningStateFeedback.isNotEmpty()
+
     /**
      * Reset the state of this combiner, for example when the cursor was moved.
      */
@@ -7,9 +7,7 @@
 package helium314.keyboard.event
 
 import android.text.SpannableStringBuilder
-import android.text.TextUtils
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
-import java.util.*
 
 /**
  * This class implements the logic chain between receiving events and generating code points.
@@ -27,6 +25,8 @@ import java.util.*
  * For example, if the input language is Japanese, the combining chain will typically perform
  * kana conversion. This takes a string for initial text, taken to be present before the
  * cursor: we'll start after this.
+ * While no combiner holds state, e.g. for plain latin input, processing and applying events
+ * doesn't allocate anything.
  * @param initialText The text that has already been combined so far.
  */
 class CombinerChain(initialText: String) {
@@ -34,6 +34,8 @@ class CombinerChain(initialText: String) {
     private val mCombinedText = StringBuilder(initialText)
     // The feedback on the composing state, as described above
     private val mStateFeedback = SpannableStringBuilder()
+    // Whether mStateFeedback may be non-empty, so it's not accessed for plain input
+    private var mHasStateFeedback = false
     private val mCombiners = ArrayList<Combiner>()
     // Hangul combiner affects other scripts, e.g. period is seen as port of a word for latin,
     // so we need to remove the combiner when not writing in hangul script.
@@ -58,32 +60,46 @@ class CombinerChain(initialText: String) {
     fun reset() {
         mCombinedText.setLength(0)
         mStateFeedback.clear()
+        mHasStateFeedback = false
         for (c in mCombiners) {
             c.reset()
         }
     }
 
     private fun updateStateFeedback() {
+        if (!hasCombiningState()) {
+            if (mHasStateFeedback) mStateFeedback.clear()
+            mHasStateFeedback = false
+            return
+        }
         mStateFeedback.clear()
+        mHasStateFeedback = true
         for (i in mCombiners.indices.reversed()) {
             mStateFeedback.append(mCombiners[i].combiningStateFeedback)
         }
     }
 
+    // indexed loops, as iterators would be allocated for every event
+    private fun hasCombiningState(): Boolean {
+        for (i in mCombiners.indices) {
+            if (mCombiners[i].hasCombiningState) return true
+        }
+        return false
+    }
+
     /**
      * Process an event through the combining chain, and return a processed event to apply.
-     * @param previousEvents the list of previous events in this composition
+     * @param previousEvents the list of previous events in this composition, not modified
      * @param newEvent the new event to process
      * @return the processed event. It may be the same event, or a consumed event, or a completely
      * new event. However it may never be null.
      */
-    fun processEvent(previousEvents: ArrayList<Event>?, newEvent: Event): Event {
-        val modifiablePreviousEvents = ArrayList(previousEvents!!)
+    fun processEvent(previousEvents: List<Event>, newEvent: Event): Event {
         var event = newEvent
-        for (combiner in mCombiners) {
+        for (i in mCombiners.indices) {
             // A combiner can never return more than one event; it can return several
             // code points, but they should be encapsulated within one event.
-            event = combiner.processEvent(modifiablePreviousEvents, event)
+            event = mCombiners[i].processEvent(previousEvents, event)
             if (event.isConsumed) {
                 // If the event is consumed, then we don't pass it to subsequent combiners:
                 // they should not see it at all.
@@ -107,10 +123,7 @@ class CombinerChain(initialText: String) {
                     mCombinedText.delete(length - Character.charCount(lastCodePoint), length)
                 }
             } else {
-                val textToCommit = event.textToCommit
-                if (!TextUtils.isEmpty(textToCommit)) {
-                    mCombinedText.append(textToCommit)
-                }
+                event.appendTextToCommit(mCombinedText)
             }
         }
         updateStateFeedback()
@@ -118,10 +131,12 @@ class CombinerChain(initialText: String) {
 
     /**
      * Get the char sequence that should be displayed as the composing word. It may include
-     * styling spans.
+     * styling spans. It may change when the chain changes, so use toString() for keeping it.
      */
     val composingWordWithCombiningFeedback: CharSequence
         get() {
+            // without feedback there are no spans, so the combined text can be used directly
+            if (!mHasStateFeedback) return mCombinedText
             val s = SpannableStringBuilder(mCombinedText)
             return s.append(mStateFeedback)
         }
@@ -6,12 +6,10 @@
 
 package helium314.keyboard.event
 
-import android.text.TextUtils
 import android.util.SparseIntArray
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
 import helium314.keyboard.latin.common.Constants
 import java.text.Normalizer
-import java.util.*
 
 /**
  * A combiner that handles dead keys.
@@ -194,8 +192,8 @@ class DeadKeyCombiner : Combiner {
     // TODO: make this a list of events instead
     val mDeadSequence = StringBuilder()
 
-    override fun processEvent(previousEvents: ArrayList<Event>?, event: Event): Event {
-        if (TextUtils.isEmpty(mDeadSequence)) { // No dead char is currently being tracked: this is the most common case.
+    override fun processEvent(previousEvents: List<Event>, event: Event): Event {
+        if (mDeadSequence.isEmpty()) { // No dead char is currently being tracked: this is the most common case.
             if (event.isDead) { // The event was a dead key. Start tracking it.
                 mDeadSequence.appendCodePoint(event.mCodePoint)
                 return Event.createConsumedEvent(event)
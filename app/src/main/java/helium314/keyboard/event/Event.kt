@@ -93,6 +93,17 @@ class Event private constructor(
             throw RuntimeException("Unknown event type: $mEventType")
         }
 
+    /** Appends [textToCommit] to [sb], without creating a string for a single code point. */
+    fun appendTextToCommit(sb: StringBuilder) {
+        if (isConsumed || EVENT_TYPE_INPUT_KEYPRESS != mEventType) {
+            textToCommit?.let { sb.append(it) }
+        } else if (Character.charCount(mCodePoint) == 1) {
+            sb.append(mCodePoint.toChar()) // same as in StringUtils.newSingleCodePointString
+        } else {
+            sb.appendCodePoint(mCodePoint)
+        }
+    }
+
     companion object {
         // Should the types below be represented by separate classes instead? It would be cleaner
         // but probably a bit too much
@@ -0,0 +1,241 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.event
+
+import java.text.Normalizer
+
+/**
+ * Hangul jamo and syllable tables shared by [HangulCombiner] and KoreanDictionary.
+ * Jamo are code points, with [NONE] for a missing jamo, so composing doesn't create any objects.
+ * Keyboards input compatibility jamo (consonants and vowels), or conjoining jamo (initials, medials
+ * and finals) for sebeolsik layouts. Dictionaries contain conjoining jamo.
+ */
+object Hangul {
+    const val NONE = 0
+
+    const val COMPAT_CONSONANTS = "ㄱㄲㄳㄴㄵㄶㄷㄸㄹㄺㄻㄼㄽㄾㄿㅀㅁㅂㅃㅄㅅㅆㅇㅈㅉㅊㅋㅌㅍㅎ"
+    const val COMPAT_VOWELS = "ㅏㅐㅑㅒㅓㅔㅕㅖㅗㅘㅙㅚㅛㅜㅝㅞㅟㅠㅡㅢㅣ"
+    const val CONVERT_INITIALS = "ᄀᄁ\u0000ᄂ\u0000\u0000ᄃᄄᄅ\u0000\u0000\u0000\u0000\u0000\u0000\u0000ᄆᄇᄈ\u0000ᄉᄊᄋᄌᄍᄎᄏᄐᄑᄒ"
+    const val CONVERT_MEDIALS = "ᅡᅢᅣᅤᅥᅦᅧᅨᅩᅪᅫᅬᅭᅮᅯᅰᅱᅲᅳᅴᅵ"
+    const val CONVERT_FINALS = "ᆨᆩᆪᆫᆬᆭᆮ\u0000ᆯᆰᆱᆲᆳᆴᆵᆶᆷᆸ\u0000ᆹᆺᆻᆼᆽ\u0000ᆾᆿᇀᇁᇂ"
+
+    private const val COMPAT_CONSONANT_FIRST = 0x3131
+    private const val COMPAT_VOWEL_FIRST = 0x314f
+    private const val COMPAT_LAST = 0x3163
+    private const val INITIAL_FIRST = 0x1100
+    private const val MEDIAL_FIRST = 0x1160
+    private const val FINAL_FIRST = 0x11a8
+    private const val JAMO_LAST = 0x11ff
+
+    // modern jamo can be composed to syllables
+    private const val MODERN_INITIAL_FIRST = 0x1100
+    private const val MODERN_INITIAL_COUNT = 19
+    private const val MODERN_MEDIAL_FIRST = 0x1161
+    private const val MODERN_MEDIAL_COUNT = 21
+    private const val MODERN_FINAL_FIRST = 0x11a8
+    private const val MODERN_FINAL_COUNT = 27
+
+    private const val SYLLABLE_FIRST = 0xac00
+    private const val SYLLABLE_COUNT = MODERN_INITIAL_COUNT * MODERN_MEDIAL_COUNT * (MODERN_FINAL_COUNT + 1)
+
+    // indexed by offset from the first compatibility consonant
+    private val CONSONANT_TO_INITIAL = IntArray(COMPAT_CONSONANTS.length) { CONVERT_INITIALS[it].code }
+    private val CONSONANT_TO_FINAL = IntArray(COMPAT_CONSONANTS.length) { CONVERT_FINALS[it].code }
+    // indexed by offset from the first modern initial / final
+    private val INITIAL_TO_CONSONANT = IntArray(MODERN_INITIAL_COUNT).also { table ->
+        CONVERT_INITIALS.forEachIndexed { i, c -> if (c.code != NONE) table[c.code - MODERN_INITIAL_FIRST] = COMPAT_CONSONANTS[i].code }
+    }
+    private val FINAL_TO_CONSONANT = IntArray(MODERN_FINAL_COUNT).also { table ->
+        CONVERT_FINALS.forEachIndexed { i, c -> if (c.code != NONE) table[c.code - MODERN_FINAL_FIRST] = COMPAT_CONSONANTS[i].code }
+    }
+
+    // Combinations of two modern jamo of the same kind, indexed by first * count + second.
+    // Dubeolsik has a single key for double initials, and combines consonants only as finals.
+    private val DUBEOLSIK_MEDIALS = combinationTable(MODERN_MEDIAL_FIRST, MODERN_MEDIAL_COUNT, MEDIAL_COMBINATIONS)
+    private val DUBEOLSIK_FINALS = combinationTable(MODERN_FINAL_FIRST, MODERN_FINAL_COUNT, FINAL_COMBINATIONS)
+    private val SEBEOLSIK_INITIALS = combinationTable(MODERN_INITIAL_FIRST, MODERN_INITIAL_COUNT, INITIAL_COMBINATIONS)
+    private val SEBEOLSIK_MEDIALS = DUBEOLSIK_MEDIALS
+    private val SEBEOLSIK_FINALS = combinationTable(MODERN_FINAL_FIRST, MODERN_FINAL_COUNT,
+        FINAL_COMBINATIONS + SEBEOLSIK_DOUBLE_FINAL_COMBINATIONS)
+
+    fun isJamo(codePoint: Int) = codePoint in COMPAT_CONSONANT_FIRST..COMPAT_LAST || codePoint in INITIAL_FIRST..JAMO_LAST
+    fun isCompatConsonant(codePoint: Int) = codePoint in COMPAT_CONSONANT_FIRST until COMPAT_VOWEL_FIRST
+    fun isCompatVowel(codePoint: Int) = codePoint in COMPAT_VOWEL_FIRST..COMPAT_LAST
+    fun isInitial(codePoint: Int) = codePoint in INITIAL_FIRST until MEDIAL_FIRST
+    fun isMedial(codePoint: Int) = codePoint in MEDIAL_FIRST until FINAL_FIRST
+    fun isFinal(codePoint: Int) = codePoint in FINAL_FIRST..JAMO_LAST
+
+    private fun isModernInitial(codePoint: Int) = codePoint - MODERN_INITIAL_FIRST in 0 until MODERN_INITIAL_COUNT
+    private fun isModernMedial(codePoint: Int) = codePoint - MODERN_MEDIAL_FIRST in 0 until MODERN_MEDIAL_COUNT
+    private fun isModernFinal(codePoint: Int) = codePoint - MODERN_FINAL_FIRST in 0 until MODERN_FINAL_COUNT
+
+    /** Initial for the compatibility consonant, or [NONE] if it can't be an initial. */
+    fun consonantToInitial(codePoint: Int) =
+        if (isCompatConsonant(codePoint)) CONSONANT_TO_INITIAL[codePoint - COMPAT_CONSONANT_FIRST] else NONE
+
+    /** Final for the compatibility consonant, or [NONE] if it can't be a final. */
+    fun consonantToFinal(codePoint: Int) =
+        if (isCompatConsonant(codePoint)) CONSONANT_TO_FINAL[codePoint - COMPAT_CONSONANT_FIRST] else NONE
+
+    fun vowelToMedial(codePoint: Int) =
+        if (isCompatVowel(codePoint)) codePoint - COMPAT_VOWEL_FIRST + MODERN_MEDIAL_FIRST else NONE
+
+    fun initialToConsonant(codePoint: Int) =
+        if (isModernInitial(codePoint)) INITIAL_TO_CONSONANT[codePoint - MODERN_INITIAL_FIRST] else NONE
+
+    fun medialToVowel(codePoint: Int) =
+        if (isModernMedial(codePoint)) codePoint - MODERN_MEDIAL_FIRST + COMPAT_VOWEL_FIRST else NONE
+
+    fun finalToConsonant(codePoint: Int) =
+        if (isModernFinal(codePoint)) FINAL_TO_CONSONANT[codePoint - MODERN_FINAL_FIRST] else NONE
+
+    /** Combination of two initials, medials or finals on dubeolsik layouts, or [NONE]. */
+    fun combineDubeolsik(first: Int, second: Int) = when {
+        isModernMedial(first) -> combine(DUBEOLSIK_MEDIALS, first, second, MODERN_MEDIAL_FIRST, MODERN_MEDIAL_COUNT)
+        isModernFinal(first) -> combine(DUBEOLSIK_FINALS, first, second, MODERN_FINAL_FIRST, MODERN_FINAL_COUNT)
+        else -> NONE
+    }
+
+    /** Combination of two initials, medials or finals on sebeolsik layouts, or [NONE]. */
+    fun combineSebeolsik(first: Int, second: Int) = when {
+        isModernInitial(first) -> combine(SEBEOLSIK_INITIALS, first, second, MODERN_INITIAL_FIRST, MODERN_INITIAL_COUNT)
+        isModernMedial(first) -> combine(SEBEOLSIK_MEDIALS, first, second, MODERN_MEDIAL_FIRST, MODERN_MEDIAL_COUNT)
+        isModernFinal(first) -> combine(SEBEOLSIK_FINALS, first, second, MODERN_FINAL_FIRST, MODERN_FINAL_COUNT)
+        else -> NONE
+    }
+
+    private fun combine(table: IntArray, first: Int, second: Int, base: Int, count: Int): Int {
+        val secondIndex = second - base
+        if (secondIndex !in 0 until count) return NONE
+        return table[(first - base) * count + secondIndex]
+    }
+
+    /**
+     * Appends the syllable of the given jamo, any of which may be [NONE]. Modern jamo with initial
+     * and medial are composed to a syllable, otherwise the jamo are appended as compatibility jamo.
+     */
+    fun appendSyllable(sb: StringBuilder, initial: Int, medial: Int, final: Int) {
+        if (isModernInitial(initial) && isModernMedial(medial) && (final == NONE || isModernFinal(final))) {
+            sb.append(composeSyllable(initial, medial, final).toChar())
+            return
+        }
+        appendIfNotNone(sb, initialToConsonant(initial))
+        appendIfNotNone(sb, medialToVowel(medial))
+        appendIfNotNone(sb, finalToConsonant(final))
+    }
+
+    private fun appendIfNotNone(sb: StringBuilder, codePoint: Int) {
+        if (codePoint != NONE) sb.append(codePoint.toChar())
+    }
+
+    private fun composeSyllable(initial: Int, medial: Int, final: Int) = SYLLABLE_FIRST +
+            ((initial - MODERN_INITIAL_FIRST) * MODERN_MEDIAL_COUNT + medial - MODERN_MEDIAL_FIRST) * (MODERN_FINAL_COUNT + 1) +
+            if (final == NONE) 0 else final - MODERN_FINAL_FIRST + 1
+
+    /**
+     * Converts text to the form used in dictionaries: syllables are decomposed to conjoining jamo,
+     * and compatibility jamo are converted to initials and medials, as in Unicode NFD.
+     */
+    @JvmStatic
+    fun toDictionaryForm(text: CharSequence): String {
+        val sb = StringBuilder(text.length * 3)
+        for (i in text.indices) {
+            val c = text[i].code
+            val syllableIndex = c - SYLLABLE_FIRST
+            when {
+                syllableIndex in 0 until SYLLABLE_COUNT -> {
+                    val finalIndex = syllableIndex % (MODERN_FINAL_COUNT + 1)
+                    val medialIndex = syllableIndex / (MODERN_FINAL_COUNT + 1) % MODERN_MEDIAL_COUNT
+                    sb.append((MODERN_INITIAL_FIRST + syllableIndex / (MODERN_FINAL_COUNT + 1) / MODERN_MEDIAL_COUNT).toChar())
+                    sb.append((MODERN_MEDIAL_FIRST + medialIndex).toChar())
+                    if (finalIndex > 0) sb.append((MODERN_FINAL_FIRST + finalIndex - 1).toChar())
+                }
+                isCompatConsonant(c) -> sb.append(consonantToInitial(c).let { if (it == NONE) c else it }.toChar())
+                isCompatVowel(c) -> sb.append(vowelToMedial(c).toChar())
+                c < 0x80 || isJamo(c) -> sb.append(c.toChar())
+                // other text may need decomposing too
+                else -> return toDictionaryFormNormalized(text)
+            }
+        }
+        return sb.toString()
+    }
+
+    private fun toDictionaryFormNormalized(text: CharSequence): String {
+        val normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+        val sb = StringBuilder(normalized.length)
+        for (c in normalized) {
+            when {
+                isCompatConsonant(c.code) -> sb.append(consonantToInitial(c.code).let { if (it == NONE) c.code else it }.toChar())
+                isCompatVowel(c.code) -> sb.append(vowelToMedial(c.code).toChar())
+                else -> sb.append(c)
+            }
+        }
+        return sb.toString()
+    }
+
+    /** Converts text from dictionaries back to syllables, as in Unicode NFC. */
+    @JvmStatic
+    fun fromDictionaryForm(text: CharSequence): String {
+        val sb = StringBuilder(text.length)
+        var i = 0
+        while (i < text.length) {
+            val c = text[i].code
+            when {
+                isModernInitial(c) && i + 1 < text.length && isModernMedial(text[i + 1].code) -> {
+                    val final = if (i + 2 < text.length && isModernFinal(text[i + 2].code)) text[i + 2].code else NONE
+                    sb.append(composeSyllable(c, text[i + 1].code, final).toChar())
+                    i += if (final == NONE) 2 else 3
+                    continue
+                }
+                c < 0x80 || isJamo(c) -> sb.append(c.toChar())
+                // other text, including syllables that may combine with a following final
+                else -> return Normalizer.normalize(text, Normalizer.Form.NFC)
+            }
+            i++
+        }
+        return sb.toString()
+    }
+
+    private fun combinationTable(base: Int, count: Int, combinations: IntArray): IntArray {
+        val table = IntArray(count * count)
+        for (i in combinations.indices step 3) {
+            table[(combinations[i] - base) * count + combinations[i + 1] - base] = combinations[i + 2]
+        }
+        return table
+    }
+}
+
+// first, second, combination
+private val INITIAL_COMBINATIONS = intArrayOf(
+    0x1100, 0x1100, 0x1101, // ㄲ
+    0x1103, 0x1103, 0x1104, // ㄸ
+    0x1107, 0x1107, 0x1108, // ㅃ
+    0x1109, 0x1109, 0x110a, // ㅆ
+    0x110c, 0x110c, 0x110d, // ㅉ
+)
+private val MEDIAL_COMBINATIONS = intArrayOf(
+    0x1169, 0x1161, 0x116a, // ㅘ
+    0x1169, 0x1162, 0x116b, // ㅙ
+    0x1169, 0x1175, 0x116c, // ㅚ
+    0x116e, 0x1165, 0x116f, // ㅝ
+    0x116e, 0x1166, 0x1170, // ㅞ
+    0x116e, 0x1175, 0x1171, // ㅟ
+    0x1173, 0x1175, 0x1174, // ㅢ
+)
+private val FINAL_COMBINATIONS = intArrayOf(
+    0x11a8, 0x11ba, 0x11aa, // ㄳ
+    0x11ab, 0x11bd, 0x11ac, // ㄵ
+    0x11ab, 0x11c2, 0x11ad, // ㄶ
+    0x11af, 0x11a8, 0x11b0, // ㄺ
+    0x11af, 0x11b7, 0x11b1, // ㄻ
+    0x11af, 0x11b8, 0x11b2, // ㄼ
+    0x11af, 0x11ba, 0x11b3, // ㄽ
+    0x11af, 0x11c0, 0x11b4, // ㄾ
+    0x11af, 0x11c1, 0x11b5, // ㄿ
+    0x11af, 0x11c2, 0x11b6, // ㅀ
+    0x11b8, 0x11ba, 0x11b9, // ㅄ
+)
+private val SEBEOLSIK_DOUBLE_FINAL_COMBINATIONS = intArrayOf(
+    0x11a8, 0x11a8, 0x11a9, // ㄲ
+    0x11ba, 0x11ba, 0x11bb, // ㅆ
+)
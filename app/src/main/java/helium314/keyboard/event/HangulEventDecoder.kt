@@ -5,8 +5,6 @@ package helium314.keyboard.event
 import android.view.KeyEvent
 import helium314.keyboard.latin.RichInputMethodSubtype
 
-import helium314.keyboard.event.HangulCombiner.HangulJamo
-
 object HangulEventDecoder {
 
     @JvmStatic
@@ -20,7 +18,7 @@ object HangulEventDecoder {
     @JvmStatic
     fun decodeSoftwareKeyEvent(event: Event): Event {
         if (event.isCombining) return event
-        return if (HangulJamo.of(event.mCodePoint) is HangulJamo.NonHangul) event
+        return if (!Hangul.isJamo(event.mCodePoint)) event
         else Event.createCombiningEvent(event)
     }
 
@@ -31,6 +31,7 @@ import helium314.keyboard.keyboard.KeyboardLayoutSet.KeyboardLayoutSetException;
 import helium314.keyboard.keyboard.clipboard.ClipboardHistoryView;
 import helium314.keyboard.keyboard.emoji.EmojiPalettesView;
 import helium314.keyboard.keyboard.internal.KeyboardState;
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode;
 import helium314.keyboard.latin.InputView;
 import helium314.keyboard.latin.KeyboardWrapperView;
 import helium314.keyboard.latin.LatinIME;
@@ -38,6 +39,7 @@ import helium314.keyboard.latin.R;
 import helium314.keyboard.latin.RichInputMethodManager;
 import helium314.keyboard.latin.RichInputMethodSubtype;
 import helium314.keyboard.latin.WordComposer;
+import helium314.keyboard.latin.common.Constants;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsValues;
 import helium314.keyboard.latin.utils.AdditionalSubtypeUtils;
@@ -47,6 +49,7 @@ import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.RecapitalizeStatus;
 import helium314.keyboard.latin.utils.ResourceUtils;
 import helium314.keyboard.latin.utils.ScriptUtils;
+import helium314.keyboard.latin.utils.Tracer;
 
 public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     private static final String TAG = KeyboardSwitcher.class.getSimpleName();
@@ -67,6 +70,10 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     private boolean mIsHardwareAcceleratedDrawingEnabled;
 
     private KeyboardState mState;
+    // Emoji or clipboard search query typed on the main keyboard, null if not searching.
+    // Key input is added here instead of to the text field, see LatinIME#onEvent.
+    private StringBuilder mSearchQuery;
+    private boolean mIsClipboardSearch;
 
     private KeyboardLayoutSet mKeyboardLayoutSet;
 
@@ -132,6 +139,8 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
 
     public void loadKeyboard(final EditorInfo editorInfo, final SettingsValues settingsValues,
             final int currentAutoCapsState, final int currentRecapitalizeState) {
+        final long traceStart = Tracer.begin();
+        mSearchQuery = null;
         final KeyboardLayoutSet.Builder builder = new KeyboardLayoutSet.Builder(
                 mThemeContext, editorInfo);
         final Resources res = mThemeContext.getResources();
@@ -168,6 +177,7 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
                 Log.e(TAG, "even fallback to qwerty failed: " + e2.mKeyboardId, e2.getCause());
             }
         }
+        Tracer.end("KeyboardSwitcher.loadKeyboard", traceStart);
     }
 
     public void saveKeyboardState() {
@@ -177,6 +187,10 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     }
 
     public void onHideWindow() {
+        mSearchQuery = null;
+        if (mEmojiPalettesView != null) {
+            mEmojiPalettesView.saveRecentKeys();
+        }
         if (mKeyboardView != null) {
             mKeyboardView.onHideWindow();
         }
@@ -310,9 +324,21 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         mMainKeyboardFrame.setVisibility(visibility);
         mEmojiPalettesView.setVisibility(View.GONE);
         mEmojiPalettesView.stopEmojiPalettes();
-        mEmojiTabStripView.setVisibility(View.GONE);
-        mClipboardStripScrollView.setVisibility(View.GONE);
-        mSuggestionStripView.setVisibility(View.VISIBLE);
+        // while searching, the emoji tab strip or clipboard strip shows the query instead of the suggestions
+        final boolean isEmojiSearchActive = isEmojiSearchActive();
+        final boolean isClipboardSearchActive = isClipboardSearchActive();
+        if (!isEmojiSearchActive) {
+            mEmojiPalettesView.setSearchQuery("");
+        }
+        if (isClipboardSearchActive) {
+            // the search field is at the start of the strip
+            mClipboardStripScrollView.post(() -> mClipboardStripScrollView.fullScroll(HorizontalScrollView.FOCUS_LEFT));
+        } else {
+            mClipboardHistoryView.setSearchQuery("");
+        }
+        mEmojiTabStripView.setVisibility(isEmojiSearchActive ? View.VISIBLE : View.GONE);
+        mClipboardStripScrollView.setVisibility(isClipboardSearchActive ? View.VISIBLE : View.GONE);
+        mSuggestionStripView.setVisibility(isSearchActive() ? View.GONE : View.VISIBLE);
         mClipboardHistoryView.setVisibility(View.GONE);
         mClipboardHistoryView.stopClipboardHistory();
     }
@@ -323,6 +349,8 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         if (DEBUG_ACTION) {
             Log.d(TAG, "setEmojiKeyboard");
         }
+        mSearchQuery = null; // the palettes show the results
+        mClipboardHistoryView.setSearchQuery("");
         final Keyboard keyboard = mKeyboardLayoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET);
         mMainKeyboardFrame.setVisibility(View.VISIBLE);
         // The visibility of {@link #mKeyboardView} must be aligned with {@link #MainKeyboardFrame}.
@@ -344,6 +372,8 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         if (DEBUG_ACTION) {
             Log.d(TAG, "setClipboardKeyboard");
         }
+        mSearchQuery = null; // the clipboard history shows the results
+        mEmojiPalettesView.setSearchQuery("");
         final Keyboard keyboard = mKeyboardLayoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET);
         mMainKeyboardFrame.setVisibility(View.VISIBLE);
         // The visibility of {@link #mKeyboardView} must be aligned with {@link #MainKeyboardFrame}.
@@ -560,6 +590,79 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         mState.onEvent(event, currentAutoCapsState, currentRecapitalizeState);
     }
 
+    public boolean isSearchActive() {
+        return mSearchQuery != null;
+    }
+
+    public boolean isEmojiSearchActive() {
+        return mSearchQuery != null && !mIsClipboardSearch;
+    }
+
+    public boolean isClipboardSearchActive() {
+        return mSearchQuery != null && mIsClipboardSearch;
+    }
+
+    /**
+     * Shows the main keyboard for typing an emoji search query, starting with the given query.
+     * The query is shown in the emoji tab strip, and the results when the emoji palettes are shown again.
+     */
+    public void startEmojiSearch(@NonNull final String query) {
+        startSearch(query, false);
+    }
+
+    /**
+     * Shows the main keyboard for typing a clipboard search query, starting with the given query.
+     * The query is shown in the clipboard strip, and the results when the clipboard history is shown again.
+     */
+    public void startClipboardSearch(@NonNull final String query) {
+        startSearch(query, true);
+    }
+
+    private void startSearch(@NonNull final String query, final boolean isClipboardSearch) {
+        mSearchQuery = new StringBuilder(query);
+        mIsClipboardSearch = isClipboardSearch;
+        mState.onEvent(createKeyCodeEvent(KeyCode.ALPHA), Constants.TextUtils.CAP_MODE_OFF,
+                RecapitalizeStatus.NOT_A_RECAPITALIZE_MODE);
+    }
+
+    /** Shows the emoji palettes or clipboard history with the results for the current query. */
+    public void finishSearch() {
+        if (mSearchQuery == null) return;
+        mState.onEvent(createKeyCodeEvent(mIsClipboardSearch ? KeyCode.CLIPBOARD : KeyCode.EMOJI),
+                Constants.TextUtils.CAP_MODE_OFF, RecapitalizeStatus.NOT_A_RECAPITALIZE_MODE);
+    }
+
+    /** Handles key input while a search is active, instead of sending it to the text field. */
+    public void onSearchEvent(@NonNull final Event event) {
+        final StringBuilder query = mSearchQuery;
+        if (query == null) return;
+        if (event.getMCodePoint() == Constants.CODE_ENTER) {
+            finishSearch();
+            return;
+        }
+        if (event.getMKeyCode() == KeyCode.DELETE) {
+            if (query.length() > 0) {
+                query.setLength(query.offsetByCodePoints(query.length(), -1));
+            }
+        } else if (event.getMText() != null) {
+            query.append(event.getMText());
+        } else if (!event.isFunctionalKeyEvent()) {
+            query.appendCodePoint(event.getMCodePoint());
+        }
+        if (mIsClipboardSearch) {
+            mClipboardHistoryView.setSearchQuery(query.toString());
+        } else {
+            mEmojiPalettesView.setSearchQuery(query.toString());
+        }
+        // switches layouts and updates the shift state, and shows the palettes or history for the emoji or clipboard key
+        mState.onEvent(event, Constants.TextUtils.CAP_MODE_OFF, RecapitalizeStatus.NOT_A_RECAPITALIZE_MODE);
+    }
+
+    private static Event createKeyCodeEvent(final int keyCode) {
+        return Event.createSoftwareKeypressEvent(Event.NOT_A_CODE_POINT, keyCode, 0,
+                Constants.NOT_A_COORDINATE, Constants.NOT_A_COORDINATE, false);
+    }
+
     public boolean isShowingKeyboardId(@NonNull int... keyboardIds) {
         if (mKeyboardView == null || !mKeyboardView.isShown()) {
             return false;
@@ -203,6 +203,11 @@ public class KeyboardView extends View {
         return mVerticalCorrection;
     }
 
+    // no shadow if not positive
+    protected float getKeyTextShadowRadius() {
+        return mKeyTextShadowRadius;
+    }
+
     @NonNull
     protected KeyDrawParams getKeyDrawParams() {
         return mKeyDrawParams;
@@ -6,6 +6,7 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.util.AttributeSet
 import android.util.TypedValue
+import android.view.Gravity
 import android.view.View
 import android.view.inputmethod.EditorInfo
 import android.widget.ImageButton
@@ -50,6 +51,7 @@ class ClipboardHistoryView @JvmOverloads constructor(
 
     private lateinit var clipboardRecyclerView: ClipboardHistoryRecyclerView
     private lateinit var placeholderView: TextView
+    private lateinit var searchField: TextView
     private val toolbarKeys = mutableListOf<ImageButton>()
     private lateinit var clipboardAdapter: ClipboardAdapter
 
@@ -92,6 +94,20 @@ class ClipboardHistoryView @JvmOverloads constructor(
             pinnedIconResId = pinIconId
         }
         placeholderView = findViewById(R.id.clipboard_empty_view)
+        // not an EditText, as the keyboard can't type into its own window
+        // the query is typed on the main keyboard instead, see KeyboardSwitcher.startClipboardSearch
+        searchField = TextView(context).apply {
+            setHint(R.string.label_search_key)
+            isSingleLine = true
+            gravity = Gravity.CENTER_VERTICAL
+            setTextColor(colors.get(ColorType.KEY_TEXT))
+            setHintTextColor(colors.get(ColorType.KEY_HINT_TEXT))
+            setOnClickListener {
+                val switcher = KeyboardSwitcher.getInstance()
+                if (switcher.isClipboardSearchActive) switcher.finishSearch()
+                else switcher.startClipboardSearch(text.toString())
+            }
+        }
         clipboardRecyclerView = findViewById<ClipboardHistoryRecyclerView>(R.id.clipboard_list).apply {
             val colCount = resources.getInteger(R.integer.config_clipboard_keyboard_col_count)
             layoutManager = StaggeredGridLayoutManager(colCount, StaggeredGridLayoutManager.VERTICAL)
@@ -101,6 +117,7 @@ class ClipboardHistoryView @JvmOverloads constructor(
             placeholderView = this@ClipboardHistoryView.placeholderView
         }
         val clipboardStrip = KeyboardSwitcher.getInstance().clipboardStrip
+        clipboardStrip.addView(searchField)
         toolbarKeys.forEach {
             clipboardStrip.addView(it)
             it.setOnClickListener(this@ClipboardHistoryView)
@@ -122,8 +139,10 @@ class ClipboardHistoryView @JvmOverloads constructor(
 
     private fun setupToolbarKeys() {
         // set layout params
-        val toolbarKeyLayoutParams = LayoutParams(resources.getDimensionPixelSize(R.dimen.config_suggestions_strip_edge_key_width), LayoutParams.MATCH_PARENT)
+        val toolbarKeyWidth = resources.getDimensionPixelSize(R.dimen.config_suggestions_strip_edge_key_width)
+        val toolbarKeyLayoutParams = LayoutParams(toolbarKeyWidth, LayoutParams.MATCH_PARENT)
         toolbarKeys.forEach { it.layoutParams = toolbarKeyLayoutParams }
+        searchField.layoutParams = LayoutParams(toolbarKeyWidth * SEARCH_FIELD_WIDTH_IN_TOOLBAR_KEYS, LayoutParams.MATCH_PARENT)
     }
 
     private fun setupBottomRowKeyboard(editorInfo: EditorInfo, listener: KeyboardActionListener) {
@@ -150,6 +169,7 @@ class ClipboardHistoryView @JvmOverloads constructor(
         initialize()
         setupToolbarKeys()
         historyManager.prepareClipboardHistory()
+        historyManager.setSearchQuery(searchField.text.toString().trim())
         historyManager.setHistoryChangeListener(this)
         clipboardHistoryManager = historyManager
         clipboardAdapter.clipboardHistoryManager = historyManager
@@ -159,6 +179,10 @@ class ClipboardHistoryView @JvmOverloads constructor(
         setupClipKey(params)
         setupBottomRowKeyboard(editorInfo, keyboardActionListener)
 
+        searchField.apply {
+            typeface = params.mTypeface
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, params.mLabelSize.toFloat())
+        }
         placeholderView.apply {
             typeface = params.mTypeface
             setTextColor(params.mTextColor)
@@ -170,6 +194,15 @@ class ClipboardHistoryView @JvmOverloads constructor(
         }
     }
 
+    /**
+     * Sets the search query shown in the clipboard strip. Only matching clips are shown when the
+     * history is started, an empty query shows all clips again.
+     */
+    fun setSearchQuery(query: String) {
+        if (!initialized || query.contentEquals(searchField.text)) return
+        searchField.text = query
+    }
+
     fun stopClipboardHistory() {
         if (!initialized) return
         clipboardRecyclerView.adapter = null
@@ -232,4 +265,13 @@ class ClipboardHistoryView @JvmOverloads constructor(
         clipboardAdapter.notifyItemChanged(to)
         if (to < from) clipboardRecyclerView.smoothScrollToPosition(to)
     }
-}
\ No newline at end of file
+
+    @SuppressLint("NotifyDataSetChanged") // whole history may have changed
+    override fun onClipboardHistoryReloaded() {
+        clipboardAdapter.notifyDataSetChanged()
+    }
+
+    companion object {
+        private const val SEARCH_FIELD_WIDTH_IN_TOOLBAR_KEYS = 4
+    }
+}
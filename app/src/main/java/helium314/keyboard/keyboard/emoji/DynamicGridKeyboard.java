@@ -9,6 +9,8 @@ package helium314.keyboard.keyboard.emoji;
 import static helium314.keyboard.keyboard.internal.keyboard_parser.EmojiParserKt.EMOJI_HINT_LABEL;
 
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import helium314.keyboard.latin.utils.Log;
 
@@ -25,7 +27,10 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * This is a Keyboard class where you can add keys dynamically shown in a grid layout
@@ -34,6 +39,25 @@ final class DynamicGridKeyboard extends Keyboard {
     private static final String TAG = DynamicGridKeyboard.class.getSimpleName();
     private static final int TEMPLATE_KEY_CODE_0 = 0x30;
     private static final int TEMPLATE_KEY_CODE_1 = 0x31;
+    // recent keys are written at most this often, and when the emoji palette is closed
+    private static final long SAVE_RECENT_KEYS_DELAY_MILLIS = 5000;
+    // There is a single delayed save for all recents keyboards, which saves the keyboard that was
+    // changed last. So a keyboard that is dropped (e.g. on clearing the keyboard cache) can't
+    // overwrite the keys of a newer one with its outdated keys.
+    private static final Object sSaveLock = new Object();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static DynamicGridKeyboard sRecentsKeyboardToSave;
+    private static final Runnable sSaveRecentKeysRunnable = () -> {
+        final DynamicGridKeyboard keyboard;
+        synchronized (sSaveLock) {
+            keyboard = sRecentsKeyboardToSave;
+            sRecentsKeyboardToSave = null;
+        }
+        if (keyboard == null) return;
+        synchronized (keyboard.mLock) {
+            keyboard.saveRecentKeys();
+        }
+    };
     private final Object mLock = new Object();
 
     private final SharedPreferences mPrefs;
@@ -44,6 +68,9 @@ final class DynamicGridKeyboard extends Keyboard {
     private final int mMaxKeyCount;
     private final boolean mIsRecents;
     private final ArrayDeque<GridKey> mGridKeys = new ArrayDeque<>();
+    private final HashSet<GridKey> mGridKeySet = new HashSet<>();
+    // grid index for the next key added last, may differ from key count because of empty columns
+    private int mNextGridIndex = 0;
     private final ArrayDeque<Key> mPendingKeys = new ArrayDeque<>();
 
     private List<Key> mCachedGridKeys;
@@ -125,19 +152,35 @@ final class DynamicGridKeyboard extends Keyboard {
         }
     }
 
+    /** Adds the pending keys, and saves the recent keys if they changed since the last save. */
     public void flushPendingRecentKeys() {
         synchronized (mLock) {
+            boolean changed = !mPendingKeys.isEmpty();
             while (!mPendingKeys.isEmpty()) {
                 addKey(mPendingKeys.pollFirst(), true);
             }
-            saveRecentKeys();
+            synchronized (sSaveLock) {
+                if (sRecentsKeyboardToSave == this) {
+                    sRecentsKeyboardToSave = null;
+                    sHandler.removeCallbacks(sSaveRecentKeysRunnable);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                saveRecentKeys();
+            }
         }
     }
 
     public void addKeyFirst(final Key usedKey) {
         addKey(usedKey, true);
         if (mIsRecents) {
-            saveRecentKeys();
+            synchronized (sSaveLock) {
+                final boolean isSavePending = sRecentsKeyboardToSave != null;
+                sRecentsKeyboardToSave = this;
+                if (isSavePending) return;
+            }
+            sHandler.postDelayed(sSaveRecentKeysRunnable, SAVE_RECENT_KEYS_DELAY_MILLIS);
         }
     }
 
@@ -161,8 +204,16 @@ final class DynamicGridKeyboard extends Keyboard {
                     dropPopupKeys ? null : usedKey.getPopupKeys(),
                     dropHintLabel ? null : usedKey.getHintLabel(),
                     mIsRecents ? Key.BACKGROUND_TYPE_EMPTY : usedKey.getBackgroundType());
-            while (mGridKeys.remove(key)) {
-                // Remove duplicate keys.
+            if (!addFirst && mGridKeys.size() < mMaxKeyCount && !mGridKeySet.contains(key)) {
+                // no other key moves, so only the new key needs to be placed
+                mGridKeys.addLast(key);
+                mGridKeySet.add(key);
+                mNextGridIndex = placeKey(key, mNextGridIndex);
+                return;
+            }
+            if (mGridKeySet.contains(key)) {
+                // Remove duplicate key, there can be only one.
+                mGridKeys.remove(key);
             }
             if (addFirst) {
                 mGridKeys.addFirst(key);
@@ -172,19 +223,23 @@ final class DynamicGridKeyboard extends Keyboard {
             while (mGridKeys.size() > mMaxKeyCount) {
                 mGridKeys.removeLast();
             }
+            mGridKeySet.clear();
+            mGridKeySet.addAll(mGridKeys);
             int index = 0;
             for (final GridKey gridKey : mGridKeys) {
-                while (mEmptyColumnIndices.contains(index % mColumnsNum)) {
-                    index++;
-                }
-                final int keyX0 = getKeyX0(index);
-                final int keyY0 = getKeyY0(index);
-                final int keyX1 = getKeyX1(index);
-                final int keyY1 = getKeyY1(index);
-                gridKey.updateCoordinates(keyX0, keyY0, keyX1, keyY1);
-                index++;
+                index = placeKey(gridKey, index);
             }
+            mNextGridIndex = index;
+        }
+    }
+
+    // Places the key at the first grid index not in an empty column, and returns the next index.
+    private int placeKey(final GridKey key, int index) {
+        while (mEmptyColumnIndices.contains(index % mColumnsNum)) {
+            index++;
         }
+        key.updateCoordinates(getKeyX0(index), getKeyY0(index), getKeyX1(index), getKeyY1(index));
+        return index + 1;
     }
 
     private void saveRecentKeys() {
@@ -200,44 +255,39 @@ final class DynamicGridKeyboard extends Keyboard {
         Settings.writeEmojiRecentKeys(mPrefs, jsonStr);
     }
 
-    private Key getKeyByCode(final Collection<DynamicGridKeyboard> keyboards,
-            final int code) {
-        for (final DynamicGridKeyboard keyboard : keyboards) {
-            for (final Key key : keyboard.getSortedKeys()) {
-                if (key.getCode() == code) {
-                    return key;
-                }
-            }
-        }
-
-        // fall back to creating the key
-        return new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, code, null);
-    }
-
-    private Key getKeyByOutputText(final Collection<DynamicGridKeyboard> keyboards,
-            final String outputText) {
+    // Keys by output text, or by code if they have no output text. Same format as saved recent keys.
+    private static HashMap<Object, Key> createKeyIndex(final Collection<DynamicGridKeyboard> keyboards) {
+        final HashMap<Object, Key> index = new HashMap<>();
         for (final DynamicGridKeyboard keyboard : keyboards) {
             for (final Key key : keyboard.getSortedKeys()) {
-                if (outputText.equals(key.getOutputText())) {
-                    return key;
+                // first key wins, as with searching the keyboards in order
+                if (key.getOutputText() != null) {
+                    index.putIfAbsent(key.getOutputText(), key);
+                } else {
+                    index.putIfAbsent(key.getCode(), key);
                 }
             }
         }
-
-        // fall back to creating the key
-        return new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, 0, outputText);
+        return index;
     }
 
     public void loadRecentKeys(final Collection<DynamicGridKeyboard> keyboards) {
         final String str = Settings.readEmojiRecentKeys(mPrefs);
         final List<Object> keys = JsonUtils.jsonStrToList(str);
+        if (keys.isEmpty()) return;
+        final HashMap<Object, Key> keyIndex = createKeyIndex(keyboards);
         for (final Object o : keys) {
-            final Key key;
+            Key key = keyIndex.get(o);
+            if (key != null) {
+                addKeyLast(key);
+                continue;
+            }
+            // fall back to creating the key
             if (o instanceof Integer) {
                 final int code = (Integer)o;
-                key = getKeyByCode(keyboards, code);
+                key = new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, code, null);
             } else if (o instanceof final String outputText) {
-                key = getKeyByOutputText(keyboards, outputText);
+                key = new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, 0, outputText);
             } else {
                 Log.w(TAG, "Invalid object: " + o);
                 continue;
@@ -246,6 +296,16 @@ final class DynamicGridKeyboard extends Keyboard {
         }
     }
 
+    /** Adds a key for the emoji, without popup keys. */
+    public void addEmojiKeyLast(final String emoji) {
+        final Key templateKey = getTemplateKey(TEMPLATE_KEY_CODE_0);
+        if (emoji.codePointCount(0, emoji.length()) == 1) {
+            addKeyLast(new Key(templateKey, null, null, Key.BACKGROUND_TYPE_EMPTY, emoji.codePointAt(0), null));
+        } else {
+            addKeyLast(new Key(templateKey, null, null, Key.BACKGROUND_TYPE_EMPTY, 0, emoji));
+        }
+    }
+
     private int getKeyX0(final int index) {
         final int column = index % mColumnsNum;
         return column * mHorizontalStep + mHorizontalGap / 2;
@@ -319,6 +379,11 @@ final class DynamicGridKeyboard extends Keyboard {
             return TextUtils.equals(getOutputText(), key.getOutputText());
         }
 
+        @Override
+        public int hashCode() {
+            return Objects.hash(getCode(), getLabel(), getOutputText());
+        }
+
         @NonNull
         @Override
         public String toString() {
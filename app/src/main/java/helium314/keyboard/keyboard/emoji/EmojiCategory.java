@@ -6,11 +6,16 @@
 
 package helium314.keyboard.keyboard.emoji;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.Build;
+import android.util.SparseArray;
+
+import helium314.keyboard.keyboard.internal.keyboard_parser.EmojiParser;
 import helium314.keyboard.latin.utils.Log;
 
 import androidx.core.graphics.PaintCompat;
@@ -113,6 +118,7 @@ final class EmojiCategory {
             KeyboardId.ELEMENT_EMOJI_CATEGORY10 };
 
     private final SharedPreferences mPrefs;
+    private final Context mContext;
     private final Resources mRes;
     private final int mMaxRecentsKeyCount;
     private final KeyboardLayoutSet mLayoutSet;
@@ -120,15 +126,21 @@ final class EmojiCategory {
     private final int[] mCategoryTabIconId = new int[sCategoryName.length];
     private final ArrayList<CategoryProperties> mShownCategories = new ArrayList<>();
     private final ConcurrentHashMap<Long, DynamicGridKeyboard> mCategoryKeyboardMap = new ConcurrentHashMap<>();
+    // keys of each category, sorted in display order
+    private final SparseArray<List<Key>> mSortedCategoryKeys = new SparseArray<>();
+    private int mMaxKeyCountPerPage = 0;
+    // emojis matching the search query, shown instead of the current category; null if not searching
+    private DynamicGridKeyboard mSearchResultsKeyboard;
 
     private int mCurrentCategoryId = EmojiCategory.ID_UNSPECIFIED;
     private int mCurrentCategoryPageId = 0;
 
-    public EmojiCategory(final SharedPreferences prefs, final Resources res,
+    public EmojiCategory(final SharedPreferences prefs, final Context context,
             final KeyboardLayoutSet layoutSet, final TypedArray emojiPaletteViewAttr) {
         mPrefs = prefs;
-        mRes = res;
-        mMaxRecentsKeyCount = res.getInteger(R.integer.config_emoji_keyboard_max_recents_key_count);
+        mContext = context;
+        mRes = context.getResources();
+        mMaxRecentsKeyCount = mRes.getInteger(R.integer.config_emoji_keyboard_max_recents_key_count);
         mLayoutSet = layoutSet;
         for (int i = 0; i < sCategoryName.length; ++i) {
             mCategoryNameToIdMap.put(sCategoryName[i], i);
@@ -162,13 +174,23 @@ final class EmojiCategory {
             mCurrentCategoryId = defaultCategoryId;
         }
 
-        if (mCurrentCategoryPageId >= computeCategoryPageCount(mCurrentCategoryId)) {
+        if (mCurrentCategoryPageId >= getCurrentCategoryPageCount()) {
             mCurrentCategoryPageId = 0;
         }
     }
 
     public void clearKeyboardCache() {
-        mCategoryKeyboardMap.clear();
+        synchronized (mCategoryKeyboardMap) {
+            // the new recents keyboard loads the saved keys
+            final DynamicGridKeyboard recentsKeyboard =
+                    mCategoryKeyboardMap.get(getCategoryKeyboardMapKey(EmojiCategory.ID_RECENTS, 0));
+            if (recentsKeyboard != null) {
+                recentsKeyboard.flushPendingRecentKeys();
+            }
+            mCategoryKeyboardMap.clear();
+            mSortedCategoryKeys.clear();
+            mMaxKeyCountPerPage = 0;
+        }
     }
 
     private void addShownCategoryId(final int categoryId) {
@@ -212,9 +234,35 @@ final class EmojiCategory {
     }
 
     public int getCurrentCategoryPageCount() {
+        if (mSearchResultsKeyboard != null) return 1;
         return getCategoryPageCount(mCurrentCategoryId);
     }
 
+    /**
+     * Shows emojis with keywords starting with the query as a single page instead of the current
+     * category, or the current category again if the query is empty.
+     */
+    public void setSearchQuery(final String query) {
+        if (query.isEmpty()) {
+            mSearchResultsKeyboard = null;
+            return;
+        }
+        final DynamicGridKeyboard kbd = new DynamicGridKeyboard(mPrefs,
+                mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS), getMaxKeyCountPerPage(),
+                ID_UNSPECIFIED, ResourceUtils.getKeyboardWidth(mRes, Settings.getInstance().getCurrent()));
+        final EmojiKeywordIndex index = EmojiKeywordIndex.getInstance(mContext, Settings.getInstance().getCurrent().mLocale);
+        if (index != null) {
+            for (final String emoji : index.search(query, getMaxKeyCountPerPage())) {
+                kbd.addEmojiKeyLast(emoji);
+            }
+        }
+        mSearchResultsKeyboard = kbd;
+    }
+
+    public boolean isSearching() {
+        return mSearchResultsKeyboard != null;
+    }
+
     public int getCategoryPageCount(final int categoryId) {
         for (final CategoryProperties prop : mShownCategories) {
             if (prop.mCategoryId == categoryId) {
@@ -272,13 +320,17 @@ final class EmojiCategory {
         return getTabIdFromCategoryId(EmojiCategory.ID_RECENTS);
     }
 
+    // counts the emojis in the category instead of creating the keyboard
     private int computeCategoryPageCount(final int categoryId) {
-        final Keyboard keyboard = mLayoutSet.getKeyboard(sCategoryElementId[categoryId]);
-        return (keyboard.getSortedKeys().size() - 1) / computeMaxKeyCountPerPage() + 1;
+        final int keyCount = EmojiParser.getEmojiCount(mContext, sCategoryElementId[categoryId]);
+        return (keyCount - 1) / getMaxKeyCountPerPage() + 1;
     }
 
     // Returns a keyboard from the recycler view's adapter position.
     public DynamicGridKeyboard getKeyboardFromAdapterPosition(final int position) {
+        if (mSearchResultsKeyboard != null) {
+            return position == 0 ? mSearchResultsKeyboard : null;
+        }
         if (position >= 0 && position < getCurrentCategoryPageCount()) {
             return getKeyboard(mCurrentCategoryId, position);
         }
@@ -307,31 +359,41 @@ final class EmojiCategory {
                 return kbd;
             }
 
-            final Keyboard keyboard = mLayoutSet.getKeyboard(sCategoryElementId[categoryId]);
-            final int keyCountPerPage = computeMaxKeyCountPerPage();
-            final Key[][] sortedKeysPages = sortKeysGrouped(
-                    keyboard.getSortedKeys(), keyCountPerPage);
-            for (int pageId = 0; pageId < sortedKeysPages.length; ++pageId) {
-                final DynamicGridKeyboard tempKeyboard = new DynamicGridKeyboard(mPrefs,
-                        mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS),
-                        keyCountPerPage, categoryId, currentWidth);
-                for (final Key emojiKey : sortedKeysPages[pageId]) {
-                    if (emojiKey == null) {
-                        break;
-                    }
-                    tempKeyboard.addKeyLast(emojiKey);
-                }
-                mCategoryKeyboardMap.put(getCategoryKeyboardMapKey(categoryId, pageId), tempKeyboard);
+            // only create the requested page
+            final List<Key> sortedKeys = getSortedCategoryKeys(categoryId);
+            final int keyCountPerPage = getMaxKeyCountPerPage();
+            final DynamicGridKeyboard kbd = new DynamicGridKeyboard(mPrefs,
+                    mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS),
+                    keyCountPerPage, categoryId, currentWidth);
+            final int end = Math.min(sortedKeys.size(), (id + 1) * keyCountPerPage);
+            for (int i = id * keyCountPerPage; i < end; ++i) {
+                kbd.addKeyLast(sortedKeys.get(i));
             }
-            return mCategoryKeyboardMap.get(categoryKeyboardMapKey);
+            mCategoryKeyboardMap.put(categoryKeyboardMapKey, kbd);
+            return kbd;
         }
     }
 
-    private int computeMaxKeyCountPerPage() {
-        final DynamicGridKeyboard tempKeyboard = new DynamicGridKeyboard(mPrefs,
-                mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS),
-                0, 0, ResourceUtils.getKeyboardWidth(mRes, Settings.getInstance().getCurrent()));
-        return MAX_LINE_COUNT_PER_PAGE * tempKeyboard.getColumnsCount();
+    private List<Key> getSortedCategoryKeys(final int categoryId) {
+        List<Key> keys = mSortedCategoryKeys.get(categoryId);
+        if (keys == null) {
+            final Keyboard keyboard = mLayoutSet.getKeyboard(sCategoryElementId[categoryId]);
+            final ArrayList<Key> sortedKeys = new ArrayList<>(keyboard.getSortedKeys());
+            Collections.sort(sortedKeys, EMOJI_KEY_COMPARATOR);
+            keys = sortedKeys;
+            mSortedCategoryKeys.put(categoryId, keys);
+        }
+        return keys;
+    }
+
+    private int getMaxKeyCountPerPage() {
+        if (mMaxKeyCountPerPage == 0) {
+            final DynamicGridKeyboard tempKeyboard = new DynamicGridKeyboard(mPrefs,
+                    mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS),
+                    0, 0, ResourceUtils.getKeyboardWidth(mRes, Settings.getInstance().getCurrent()));
+            mMaxKeyCountPerPage = MAX_LINE_COUNT_PER_PAGE * tempKeyboard.getColumnsCount();
+        }
+        return mMaxKeyCountPerPage;
     }
 
     private static final Comparator<Key> EMOJI_KEY_COMPARATOR = (lhs, rhs) -> {
@@ -353,21 +415,16 @@ final class EmojiCategory {
         return lhs.getCode() < rhs.getCode() ? -1 : 1;
     };
 
-    private static Key[][] sortKeysGrouped(final List<Key> inKeys, final int maxPageCount) {
-        final ArrayList<Key> keys = new ArrayList<>(inKeys);
-        Collections.sort(keys, EMOJI_KEY_COMPARATOR);
-        final int pageCount = (keys.size() - 1) / maxPageCount + 1;
-        final Key[][] retval = new Key[pageCount][maxPageCount];
-        for (int i = 0; i < keys.size(); ++i) {
-            retval[i / maxPageCount][i % maxPageCount] = keys.get(i);
-        }
-        return retval;
-    }
-
-    private static boolean canShowFlagEmoji() {
+    // glyph support only changes with system updates, so the result is stored for the current build
+    private boolean canShowFlagEmoji() {
+        if (Build.FINGERPRINT.equals(mPrefs.getString(Settings.PREF_EMOJI_GLYPH_PROBE_FINGERPRINT, null)))
+            return mPrefs.getBoolean(Settings.PREF_EMOJI_GLYPH_PROBE_FLAGS, true);
         Paint paint = new Paint();
         String switzerland = "\uD83C\uDDE8\uD83C\uDDED"; //  U+1F1E8 U+1F1ED Flag for Switzerland
-        return PaintCompat.hasGlyph(paint, switzerland);
+        final boolean hasFlagGlyph = PaintCompat.hasGlyph(paint, switzerland);
+        mPrefs.edit().putString(Settings.PREF_EMOJI_GLYPH_PROBE_FINGERPRINT, Build.FINGERPRINT)
+                .putBoolean(Settings.PREF_EMOJI_GLYPH_PROBE_FLAGS, hasFlagGlyph).apply();
+        return hasFlagGlyph;
     }
 
 }
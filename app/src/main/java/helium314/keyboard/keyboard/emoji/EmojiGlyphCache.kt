@@ -0,0 +1,124 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.keyboard.emoji
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.Typeface
+import android.os.Handler
+import android.os.Looper
+import android.util.LruCache
+import helium314.keyboard.latin.utils.ExecutorUtils
+import helium314.keyboard.latin.utils.TypefaceUtils
+import kotlin.math.ceil
+
+/**
+ * Emoji rasterized to bitmaps, so emoji pages can be drawn with bitmap blits instead of shaping
+ * and rendering color glyphs on every draw.
+ *
+ * Glyphs are keyed by text, text size, typeface (by identity), color and text shadow, and rasterized
+ * on a background thread. The color matters for emojis drawn as monochrome text, and alpha is
+ * applied when drawing the bitmap. The cache is bounded by the total bitmap size, least recently
+ * drawn glyphs are evicted first. Listeners are notified once for all glyphs rasterized since the
+ * last notification, so a page showing many new emojis is redrawn only once.
+ * All methods must be called on the main thread.
+ */
+object EmojiGlyphCache {
+    private val MAX_CACHE_BYTES = (Runtime.getRuntime().maxMemory() / 16).coerceAtMost(16L * 1024 * 1024).toInt()
+
+    /** A rasterized emoji, with offsets of the bitmap from the key center. */
+    class Glyph(val bitmap: Bitmap, val offsetX: Float, val offsetY: Float)
+
+    fun interface OnGlyphsRasterizedListener {
+        fun onGlyphsRasterized()
+    }
+
+    private val cache = object : LruCache<GlyphKey, Glyph>(MAX_CACHE_BYTES) {
+        override fun sizeOf(key: GlyphKey, value: Glyph) = value.bitmap.byteCount
+    }
+    private val pending = HashSet<GlyphKey>()
+    private val handler = Handler(Looper.getMainLooper())
+    private val listenersToNotify = LinkedHashSet<OnGlyphsRasterizedListener>()
+    private val notifyListeners = Runnable {
+        val listeners = listenersToNotify.toList()
+        listenersToNotify.clear()
+        listeners.forEach { it.onGlyphsRasterized() }
+    }
+
+    /**
+     * Returns the glyph for [text] drawn with the opaque [color] and a text shadow with [shadowRadius] (none if not
+     * positive), or null if it's not rasterized yet. In this case the glyph is rasterized in background, and [listener]
+     * is called once it's available.
+     */
+    fun get(text: String, textSize: Float, typeface: Typeface?, color: Int, shadowRadius: Float, shadowColor: Int,
+            listener: OnGlyphsRasterizedListener): Glyph? {
+        val key = GlyphKey(text, textSize, typeface, color, shadowRadius, if (shadowRadius > 0f) shadowColor else 0)
+        cache.get(key)?.let { return it }
+        if (!pending.add(key)) return null
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            val glyph = rasterize(key)
+            handler.post {
+                pending.remove(key)
+                if (glyph != null) cache.put(key, glyph)
+                if (listenersToNotify.isEmpty()) handler.post(notifyListeners)
+                listenersToNotify.add(listener)
+            }
+        }
+        return null
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    /** Draws the text as it would be drawn centered on a key, see KeyboardView.onDrawKeyTopVisuals. */
+    private fun rasterize(key: GlyphKey): Glyph? {
+        val text = key.text
+        val paint = Paint(Paint.ANTI_ALIAS_FLAG)
+        paint.color = key.color
+        paint.typeface = key.typeface
+        paint.textSize = key.textSize
+        paint.textAlign = Paint.Align.LEFT
+        if (key.shadowRadius > 0f)
+            paint.setShadowLayer(key.shadowRadius, 0f, 0f, key.shadowColor)
+        val bounds = Rect()
+        paint.getTextBounds(text, 0, text.length, bounds)
+        if (bounds.isEmpty) return null
+        // leave room for the shadow
+        if (key.shadowRadius > 0f) {
+            val shadow = ceil(key.shadowRadius).toInt()
+            bounds.inset(-shadow, -shadow)
+        }
+        val bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888)
+        Canvas(bitmap).drawText(text, -bounds.left.toFloat(), -bounds.top.toFloat(), paint)
+        // label is drawn with center alignment at the key center, and baseline at half char height below center
+        val offsetX = bounds.left - paint.measureText(text) / 2
+        val offsetY = TypefaceUtils.getReferenceCharHeight(paint) / 2 + bounds.top
+        return Glyph(bitmap, offsetX, offsetY)
+    }
+
+    /** Compares the typeface by identity, as different typefaces may have the same hash code. */
+    private class GlyphKey(
+        val text: String,
+        val textSize: Float,
+        val typeface: Typeface?,
+        val color: Int,
+        val shadowRadius: Float,
+        val shadowColor: Int
+    ) {
+        override fun equals(other: Any?) = other is GlyphKey && text == other.text && textSize == other.textSize
+                && typeface === other.typeface && color == other.color
+                && shadowRadius == other.shadowRadius && shadowColor == other.shadowColor
+
+        override fun hashCode(): Int {
+            var result = text.hashCode()
+            result = 31 * result + textSize.hashCode()
+            result = 31 * result + System.identityHashCode(typeface)
+            result = 31 * result + color
+            result = 31 * result + shadowRadius.hashCode()
+            return 31 * result + shadowColor
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.keyboard.emoji
+
+import android.content.Context
+import helium314.keyboard.keyboard.internal.keyboard_parser.EmojiCatalog
+import helium314.keyboard.latin.utils.Log
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.util.Locale
+
+/**
+ * Keywords to emojis for one language, generated by tools/make-emoji-keys, see EmojiKeywordIndexWriter
+ * there for the format. Keywords are sorted by their UTF-8 bytes, so lookups are a binary search on
+ * the memory-mapped file, and emojis are stored as indices into the [EmojiCatalog].
+ * Only reads from the buffer, so it can be used from any thread.
+ */
+class EmojiKeywordIndex private constructor(
+    private val buffer: ByteBuffer,
+    // emoji for a catalog index, or null if it is not supported
+    private val getEmoji: (Int) -> String?,
+    private val locale: Locale
+) {
+    private val keywordCount = buffer.getInt(KEYWORD_COUNT_OFFSET)
+
+    /** Emojis for the keyword [word] (ignoring case), best matches first. */
+    fun getEmojisForKeyword(word: String, limit: Int): List<String> {
+        val key = toKey(word) ?: return emptyList()
+        val index = lowerBound(key)
+        if (index == keywordCount || compare(recordOffset(index), key) != 0) return emptyList()
+        val result = LinkedHashSet<String>()
+        addEmojis(recordOffset(index), result, limit)
+        return result.toList()
+    }
+
+    /** Emojis for all keywords starting with [prefix] (ignoring case), emojis for an exact match first. */
+    fun search(prefix: String, limit: Int): List<String> {
+        val key = toKey(prefix) ?: return emptyList()
+        val result = LinkedHashSet<String>()
+        var index = lowerBound(key)
+        // an exact match is the first keyword starting with the prefix
+        while (index < keywordCount && result.size < limit && startsWith(recordOffset(index), key)) {
+            addEmojis(recordOffset(index), result, limit)
+            index++
+        }
+        return result.toList()
+    }
+
+    private fun toKey(word: String): ByteArray? {
+        val key = word.lowercase(locale).toByteArray()
+        return if (key.isEmpty() || key.size > 255) null else key
+    }
+
+    private fun recordOffset(index: Int) = buffer.getInt(KEYWORD_OFFSETS_OFFSET + index * 4)
+
+    // index of the first keyword not smaller than key
+    private fun lowerBound(key: ByteArray): Int {
+        var low = 0
+        var high = keywordCount
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (compare(recordOffset(mid), key) < 0) low = mid + 1
+            else high = mid
+        }
+        return low
+    }
+
+    // unsigned byte comparison, which is the same as comparing code points
+    private fun compare(offset: Int, key: ByteArray): Int {
+        val length = buffer.get(offset).toInt() and 0xFF
+        for (i in 0 until minOf(length, key.size)) {
+            val c = (buffer.get(offset + 1 + i).toInt() and 0xFF) - (key[i].toInt() and 0xFF)
+            if (c != 0) return c
+        }
+        return length - key.size
+    }
+
+    private fun startsWith(offset: Int, key: ByteArray): Boolean {
+        if ((buffer.get(offset).toInt() and 0xFF) < key.size) return false
+        for (i in key.indices) {
+            if (buffer.get(offset + 1 + i) != key[i]) return false
+        }
+        return true
+    }
+
+    private fun addEmojis(offset: Int, result: MutableSet<String>, limit: Int) {
+        val countOffset = offset + 1 + (buffer.get(offset).toInt() and 0xFF)
+        val count = buffer.get(countOffset).toInt() and 0xFF
+        for (i in 0 until count) {
+            if (result.size >= limit) return
+            val emoji = getEmoji(buffer.getShort(countOffset + 1 + i * 2).toInt() and 0xFFFF) ?: continue
+            result.add(emoji)
+        }
+    }
+
+    companion object {
+        private const val TAG = "EmojiKeywordIndex"
+        private const val ASSET_PATH_PREFIX = "emoji/keywords_"
+        private const val MAGIC = 0x4842454B // "HBEK"
+        private const val VERSION = 1
+        private const val KEYWORD_COUNT_OFFSET = 6
+        private const val KEYWORD_OFFSETS_OFFSET = 10
+
+        // by language, null if there is no index for the language
+        private val instances = HashMap<String, EmojiKeywordIndex?>()
+
+        /** Returns the index for the language of [locale], or null if there is none. */
+        @JvmStatic
+        fun getInstance(context: Context, locale: Locale): EmojiKeywordIndex? {
+            synchronized(instances) {
+                // not getOrPut, languages without index would be loaded again
+                if (instances.containsKey(locale.language)) return instances[locale.language]
+                val index = load(context, locale)
+                instances[locale.language] = index
+                return index
+            }
+        }
+
+        /** Returns the index stored in [buffer], or null if it's not a valid index. */
+        fun create(buffer: ByteBuffer, getEmoji: (Int) -> String?, locale: Locale): EmojiKeywordIndex? {
+            if (buffer.capacity() < KEYWORD_OFFSETS_OFFSET || buffer.getInt(0) != MAGIC || buffer.getShort(4).toInt() != VERSION)
+                return null
+            return EmojiKeywordIndex(buffer, getEmoji, locale)
+        }
+
+        private fun load(context: Context, locale: Locale): EmojiKeywordIndex? {
+            val catalog = EmojiCatalog.getInstance(context) ?: return null
+            val buffer = try {
+                EmojiCatalog.mapAsset(context, "$ASSET_PATH_PREFIX${locale.language}.bin")
+            } catch (e: FileNotFoundException) {
+                return null // no keywords for this language
+            } catch (e: IOException) {
+                Log.w(TAG, "can't load emoji keywords for ${locale.language}", e)
+                return null
+            }
+            val index = create(buffer, catalog::getEmoji, locale)
+            if (index == null)
+                Log.w(TAG, "invalid emoji keywords for ${locale.language}")
+            return index
+        }
+    }
+}
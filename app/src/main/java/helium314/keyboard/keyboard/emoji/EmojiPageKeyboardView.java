@@ -8,9 +8,11 @@ package helium314.keyboard.keyboard.emoji;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Typeface;
 import android.os.Handler;
 import android.util.AttributeSet;
 import helium314.keyboard.latin.utils.Log;
@@ -35,9 +37,11 @@ import helium314.keyboard.keyboard.KeyboardView;
 import helium314.keyboard.keyboard.PopupKeysKeyboard;
 import helium314.keyboard.keyboard.PopupKeysKeyboardView;
 import helium314.keyboard.keyboard.PopupKeysPanel;
+import helium314.keyboard.keyboard.internal.KeyDrawParams;
 import helium314.keyboard.keyboard.internal.PopupKeySpec;
 import helium314.keyboard.latin.R;
 import helium314.keyboard.latin.common.CoordinateUtils;
+import helium314.keyboard.latin.common.StringUtils;
 import helium314.keyboard.latin.settings.Settings;
 
 import java.util.WeakHashMap;
@@ -47,7 +51,7 @@ import java.util.WeakHashMap;
  * Multi-touch unsupported. No gesture support.
  */
 public final class EmojiPageKeyboardView extends KeyboardView implements
-        PopupKeysPanel.Controller {
+        PopupKeysPanel.Controller, EmojiGlyphCache.OnGlyphsRasterizedListener {
     private static final String TAG = "EmojiPageKeyboardView";
     private static final boolean LOG = false;
     private static final long KEY_PRESS_DELAY_TIME = 250;  // msec
@@ -81,6 +85,8 @@ public final class EmojiPageKeyboardView extends KeyboardView implements
     // TODO: Consider extending to support multiple popup keys panels
     private PopupKeysPanel mPopupKeysPanel;
 
+    private final Paint mGlyphPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
     public EmojiPageKeyboardView(final Context context, final AttributeSet attrs) {
         this(context, attrs, R.attr.keyboardViewStyle);
     }
@@ -168,6 +174,41 @@ public final class EmojiPageKeyboardView extends KeyboardView implements
         }
     }
 
+    // Draw emoji from the glyph cache if possible, falling back to text rendering until the glyph is rasterized.
+    @Override
+    protected void onDrawKeyTopVisuals(@NonNull final Key key, @NonNull final Canvas canvas,
+            @NonNull final Paint paint, @NonNull final KeyDrawParams params) {
+        final String label = key.getLabel();
+        if (label == null || !key.isEnabled() || key.getHintLabel() != null || key.needsAutoXScale()
+                || !StringUtils.mightBeEmoji(label)) {
+            super.onDrawKeyTopVisuals(key, canvas, paint, params);
+            return;
+        }
+        final Typeface typeface = key.selectTypeface(params);
+        final float textSize = key.selectTextSize(params);
+        // same color as for emoji text in KeyboardView, alpha is applied when drawing the bitmap
+        final int color = key.selectTextColor(params) | 0xFF000000;
+        final EmojiGlyphCache.Glyph glyph = EmojiGlyphCache.INSTANCE.get(label, textSize, typeface, color,
+                getKeyTextShadowRadius(), params.mTextShadowColor, this);
+        if (glyph == null) {
+            super.onDrawKeyTopVisuals(key, canvas, paint, params);
+            return;
+        }
+        mGlyphPaint.setAlpha(params.mAnimAlpha);
+        canvas.drawBitmap(glyph.getBitmap(), key.getDrawWidth() * 0.5f + glyph.getOffsetX(),
+                key.getHeight() * 0.5f + glyph.getOffsetY(), mGlyphPaint);
+        if (key.hasPopupHint() && key.getPopupKeys() != null) {
+            paint.setTypeface(typeface);
+            paint.setTextSize(textSize);
+            drawKeyPopupHint(key, canvas, paint, params);
+        }
+    }
+
+    @Override
+    public void onGlyphsRasterized() {
+        invalidateAllKeys();
+    }
+
     @Nullable
     public PopupKeysPanel showPopupKeysKeyboard(@NonNull final Key key, final int lastX, final int lastY) {
         final PopupKeySpec[] popupKeys = key.getPopupKeys();
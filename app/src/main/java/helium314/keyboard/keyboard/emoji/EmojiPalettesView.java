@@ -11,11 +11,14 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -58,6 +61,7 @@ import static helium314.keyboard.latin.common.Constants.NOT_A_COORDINATE;
  */
 public final class EmojiPalettesView extends LinearLayout
         implements View.OnClickListener, OnKeyEventListener {
+    private static final float SEARCH_FIELD_WEIGHT = 3f; // relative to a category tab
     private boolean initialized = false;
     // keep the indicator in case emoji view is changed to tabs / viewpager
     private final boolean mCategoryIndicatorEnabled;
@@ -70,6 +74,7 @@ public final class EmojiPalettesView extends LinearLayout
     private final LinearLayoutManager mEmojiLayoutManager;
 
     private LinearLayout mTabStrip;
+    private TextView mSearchField;
     private RecyclerView mEmojiRecyclerView;
     private EmojiCategoryPageIndicatorView mEmojiCategoryPageIndicatorView;
 
@@ -96,7 +101,7 @@ public final class EmojiPalettesView extends LinearLayout
         final TypedArray emojiPalettesViewAttr = context.obtainStyledAttributes(attrs,
                 R.styleable.EmojiPalettesView, defStyle, R.style.EmojiPalettesView);
         mEmojiCategory = new EmojiCategory(DeviceProtectedUtils.getSharedPreferences(context),
-                res, layoutSet, emojiPalettesViewAttr);
+                context, layoutSet, emojiPalettesViewAttr);
         mCategoryIndicatorEnabled = emojiPalettesViewAttr.getBoolean(
                 R.styleable.EmojiPalettesView_categoryIndicatorEnabled, false);
         mCategoryIndicatorDrawableResId = emojiPalettesViewAttr.getResourceId(
@@ -141,11 +146,33 @@ public final class EmojiPalettesView extends LinearLayout
         iconView.setOnClickListener(this);
     }
 
+    // not an EditText, as the keyboard can't type into its own window
+    // the query is typed on the main keyboard instead, see KeyboardSwitcher.startEmojiSearch
+    private void addSearchField(final LinearLayout host) {
+        mSearchField = new TextView(getContext());
+        mSearchField.setHint(R.string.label_search_key);
+        mSearchField.setSingleLine(true);
+        mSearchField.setGravity(Gravity.CENTER_VERTICAL);
+        mSearchField.setTextColor(mColors.get(ColorType.KEY_TEXT));
+        mSearchField.setHintTextColor(mColors.get(ColorType.KEY_HINT_TEXT));
+        mSearchField.setOnClickListener(v -> {
+            final KeyboardSwitcher switcher = KeyboardSwitcher.getInstance();
+            if (switcher.isEmojiSearchActive()) {
+                switcher.finishSearch();
+            } else {
+                switcher.startEmojiSearch(mSearchField.getText().toString());
+            }
+        });
+        host.addView(mSearchField);
+        mSearchField.setLayoutParams(new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.MATCH_PARENT, SEARCH_FIELD_WEIGHT));
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     public void initialize() { // needs to be delayed for access to EmojiTabStrip, which is not a child of this view
         if (initialized) return;
         mEmojiCategory.initialize();
         mTabStrip = (LinearLayout) KeyboardSwitcher.getInstance().getEmojiTabStrip();
+        addSearchField(mTabStrip);
         for (final EmojiCategory.CategoryProperties properties : mEmojiCategory.getShownCategories()) {
             addTab(mTabStrip, properties.mCategoryId);
         }
@@ -188,6 +215,7 @@ public final class EmojiPalettesView extends LinearLayout
                 final float b = percentage * currentCategorySize - a;
                 mEmojiCategoryPageIndicatorView.setCategoryPageId(currentCategorySize, a, b);
 
+                if (mEmojiCategory.isSearching()) return; // keep the page of the category
                 final int firstCompleteVisibleBoard = mEmojiLayoutManager.findFirstCompletelyVisibleItemPosition();
                 final int firstVisibleBoard = mEmojiLayoutManager.findFirstVisibleItemPosition();
                 mEmojiCategory.setCurrentCategoryPageId(
@@ -218,8 +246,15 @@ public final class EmojiPalettesView extends LinearLayout
         if (tag instanceof Long) {
             AudioAndHapticFeedbackManager.getInstance().performHapticAndAudioFeedback(KeyCode.NOT_SPECIFIED, this);
             final int categoryId = ((Long) tag).intValue();
-            if (categoryId != mEmojiCategory.getCurrentCategoryId()) {
-                setCurrentCategoryAndPageId(categoryId, 0, false);
+            final boolean wasSearching = mEmojiCategory.isSearching() || mSearchField.length() > 0;
+            if (wasSearching) {
+                setSearchQuery("");
+                mEmojiCategory.setSearchQuery("");
+                // the tabs are also shown while typing the query
+                KeyboardSwitcher.getInstance().finishSearch();
+            }
+            if (wasSearching || categoryId != mEmojiCategory.getCurrentCategoryId()) {
+                setCurrentCategoryAndPageId(categoryId, 0, wasSearching);
                 updateEmojiCategoryPageIdView();
             }
         }
@@ -269,10 +304,31 @@ public final class EmojiPalettesView extends LinearLayout
         setupBottomRowKeyboard(editorInfo, keyboardActionListener);
         final KeyDrawParams params = new KeyDrawParams();
         params.updateParams(mEmojiLayoutParams.getBottomRowKeyboardHeight(), keyVisualAttr);
+        mSearchField.setTypeface(params.mTypeface);
+        mSearchField.setTextSize(TypedValue.COMPLEX_UNIT_PX, params.mLabelSize);
+        // search only works if there are keywords for the language
+        final boolean hasKeywords = EmojiKeywordIndex.getInstance(getContext(), Settings.getInstance().getCurrent().mLocale) != null;
+        mSearchField.setVisibility(hasKeywords ? View.VISIBLE : View.GONE);
+        mEmojiCategory.setSearchQuery(mSearchField.getText().toString().trim());
         if (mEmojiRecyclerView.getAdapter() == null) {
             mEmojiRecyclerView.setAdapter(mEmojiPalettesAdapter);
             setCurrentCategoryAndPageId(mEmojiCategory.getCurrentCategoryId(), mEmojiCategory.getCurrentCategoryPageId(), true);
+        } else {
+            mEmojiPalettesAdapter.notifyDataSetChanged();
+        }
+        if (mEmojiCategory.isSearching()) {
+            mEmojiRecyclerView.scrollToPosition(0);
         }
+        updateEmojiCategoryPageIdView();
+    }
+
+    /**
+     * Sets the emoji search query shown in the tab strip. Matching emojis are shown instead of the
+     * current category when the palettes are started, an empty query shows the category again.
+     */
+    public void setSearchQuery(@NonNull final String query) {
+        if (!initialized || query.contentEquals(mSearchField.getText())) return;
+        mSearchField.setText(query);
     }
 
     private void setupBottomRowKeyboard(final EditorInfo editorInfo, final KeyboardActionListener keyboardActionListener) {
@@ -291,6 +347,12 @@ public final class EmojiPalettesView extends LinearLayout
         mEmojiRecyclerView.setAdapter(null);
     }
 
+    // recent keys are not saved immediately, make sure they are not lost if the process is killed while hidden
+    public void saveRecentKeys() {
+        if (!initialized) return;
+        mEmojiPalettesAdapter.flushPendingRecentKeys();
+    }
+
     public void setKeyboardActionListener(final KeyboardActionListener listener) {
         mKeyboardActionListener = listener;
     }
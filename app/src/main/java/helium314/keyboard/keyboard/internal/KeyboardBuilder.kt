@@ -22,6 +22,7 @@ import helium314.keyboard.latin.common.Constants
 import helium314.keyboard.latin.define.DebugFlags
 import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.Log
+import helium314.keyboard.latin.utils.Tracer
 import helium314.keyboard.latin.utils.sumOf
 import org.xmlpull.v1.XmlPullParser
 
@@ -100,13 +101,13 @@ open class KeyboardBuilder<KP : KeyboardParams>(protected val mContext: Context,
         mParams.mProximityCharsCorrectionEnabled = enabled
     }
 
-    open fun build(): Keyboard {
+    open fun build(): Keyboard = Tracer.trace("KeyboardBuilder.build") {
         if (mParams.mId.mIsSplitLayout
                 && mParams.mId.mElementId in KeyboardId.ELEMENT_ALPHABET..KeyboardId.ELEMENT_SYMBOLS_SHIFTED) {
             addSplit()
         }
         addKeysToParams()
-        return Keyboard(mParams)
+        Keyboard(mParams)
     }
 
     // determine key size and positions using relative width and height
@@ -0,0 +1,130 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal.keyboard_parser
+
+import android.content.Context
+import android.os.Build
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
+import helium314.keyboard.latin.utils.Log
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Reads the emoji catalog generated by tools/make-emoji-keys, see EmojiCatalogWriter there for the format.
+ * The catalog contains the same emojis as the emoji string arrays, but with decoded code points, so
+ * emoji keys can be created without parsing strings. It's memory-mapped, and only read when creating keys.
+ * Categories are numbered from 0, in the order of emoji categories in the keyboard.
+ */
+class EmojiCatalog private constructor(private val buffer: ByteBuffer) {
+    private val categoryCount = buffer.get(CATEGORY_COUNT_OFFSET).toInt()
+    private val supportedEmojiCounts = IntArray(categoryCount) { -1 }
+
+    val size get() = categoryCount
+
+    /** Number of emojis in the category that are supported on this API level. */
+    fun getSupportedEmojiCount(category: Int): Int {
+        if (supportedEmojiCounts[category] < 0) {
+            var count = 0
+            forEachEmojiOffset(category) { if (isSupported(it)) count++ }
+            supportedEmojiCounts[category] = count
+        }
+        return supportedEmojiCounts[category]
+    }
+
+    /** Calls [action] for each emoji supported on this API level, with label, code and labels of supported variants. */
+    fun forEachSupportedEmoji(category: Int, action: (label: String, code: Int, variants: List<String>) -> Unit) {
+        forEachEmojiOffset(category) { offset ->
+            if (!isSupported(offset)) return@forEachEmojiOffset
+            val codePointCount = buffer.get(offset + 2).toInt()
+            val label = readLabel(offset)
+            val code = if (codePointCount == 1) buffer.getInt(offset + 3) else KeyCode.MULTIPLE_CODE_POINTS
+            var position = offset + 3 + codePointCount * 4
+            val variantCount = buffer.get(position++).toInt()
+            val variants = ArrayList<String>(variantCount)
+            for (i in 0 until variantCount) {
+                if (isSupported(position))
+                    variants.add(readLabel(position))
+                position += 3 + buffer.get(position + 2) * 4
+            }
+            action(label, code, variants)
+        }
+    }
+
+    /** Label of the emoji at the given index over all categories, or null if not supported on this API level. */
+    fun getEmoji(index: Int): String? {
+        if (index < 0 || index >= totalEmojiCount) return null
+        val offset = buffer.getInt(CATEGORIES_OFFSET + categoryCount * 8 + 4 + index * 4)
+        return if (isSupported(offset)) readLabel(offset) else null
+    }
+
+    private val totalEmojiCount get() = buffer.getInt(CATEGORIES_OFFSET + categoryCount * 8)
+
+    private inline fun forEachEmojiOffset(category: Int, action: (Int) -> Unit) {
+        val categoryOffset = CATEGORIES_OFFSET + category * 8
+        val first = buffer.getInt(categoryOffset)
+        val count = buffer.getInt(categoryOffset + 4)
+        val offsetsStart = CATEGORIES_OFFSET + categoryCount * 8 + 4
+        for (i in first until first + count)
+            action(buffer.getInt(offsetsStart + i * 4))
+    }
+
+    // code points are stored as short minimum sdk, byte count, int code points
+    private fun isSupported(offset: Int) = buffer.getShort(offset) <= Build.VERSION.SDK_INT
+
+    private fun readLabel(offset: Int): String {
+        val codePoints = IntArray(buffer.get(offset + 2).toInt()) { buffer.getInt(offset + 3 + it * 4) }
+        return String(codePoints, 0, codePoints.size)
+    }
+
+    companion object {
+        private const val TAG = "EmojiCatalog"
+        private const val ASSET_PATH = "emoji/emoji_catalog.bin"
+        private const val MAGIC = 0x48424543 // "HBEC"
+        private const val VERSION = 1
+        private const val CATEGORY_COUNT_OFFSET = 6
+        private const val CATEGORIES_OFFSET = 7
+
+        @Volatile private var instance: EmojiCatalog? = null
+        private var loadFailed = false
+
+        /** Returns the catalog, or null if it can't be loaded. */
+        @JvmStatic
+        fun getInstance(context: Context): EmojiCatalog? {
+            instance?.let { return it }
+            synchronized(this) {
+                instance?.let { return it }
+                if (loadFailed) return null
+                val catalog = try {
+                    load(context)
+                } catch (e: IOException) {
+                    Log.w(TAG, "can't load emoji catalog", e)
+                    null
+                }
+                if (catalog == null) loadFailed = true
+                instance = catalog
+                return catalog
+            }
+        }
+
+        /** Memory-maps the asset, or reads it if it's compressed. */
+        @Throws(IOException::class)
+        fun mapAsset(context: Context, path: String): ByteBuffer = try {
+            context.assets.openFd(path).use { afd ->
+                afd.createInputStream().channel.use { it.map(FileChannel.MapMode.READ_ONLY, afd.startOffset, afd.declaredLength) }
+            }
+        } catch (e: FileNotFoundException) {
+            // openFd fails if the asset is compressed, but also if it doesn't exist
+            ByteBuffer.wrap(context.assets.open(path).use { it.readBytes() })
+        }
+
+        private fun load(context: Context): EmojiCatalog? {
+            val buffer = mapAsset(context, ASSET_PATH)
+            if (buffer.capacity() <= CATEGORIES_OFFSET || buffer.getInt(0) != MAGIC || buffer.getShort(4).toInt() != VERSION) {
+                Log.w(TAG, "invalid emoji catalog")
+                return null
+            }
+            return EmojiCatalog(buffer)
+        }
+    }
+}
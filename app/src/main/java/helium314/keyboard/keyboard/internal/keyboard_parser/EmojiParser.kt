@@ -17,27 +17,7 @@ import kotlin.math.sqrt
 class EmojiParser(private val params: KeyboardParams, private val context: Context) {
 
     fun parse(): ArrayList<ArrayList<KeyParams>> {
-        val emojiArrayId = when (params.mId.mElementId) {
-            KeyboardId.ELEMENT_EMOJI_RECENTS -> R.array.emoji_recents
-            KeyboardId.ELEMENT_EMOJI_CATEGORY1 -> R.array.emoji_smileys_emotion
-            KeyboardId.ELEMENT_EMOJI_CATEGORY2 -> R.array.emoji_people_body
-            KeyboardId.ELEMENT_EMOJI_CATEGORY3 -> R.array.emoji_animals_nature
-            KeyboardId.ELEMENT_EMOJI_CATEGORY4 -> R.array.emoji_food_drink
-            KeyboardId.ELEMENT_EMOJI_CATEGORY5 -> R.array.emoji_travel_places
-            KeyboardId.ELEMENT_EMOJI_CATEGORY6 -> R.array.emoji_activities
-            KeyboardId.ELEMENT_EMOJI_CATEGORY7 -> R.array.emoji_objects
-            KeyboardId.ELEMENT_EMOJI_CATEGORY8 -> R.array.emoji_symbols
-            KeyboardId.ELEMENT_EMOJI_CATEGORY9 -> R.array.emoji_flags
-            KeyboardId.ELEMENT_EMOJI_CATEGORY10 -> R.array.emoji_emoticons
-            else -> throw(IllegalStateException("can only parse emoji categories where an array exists"))
-        }
-        val emojiArray = context.resources.getStringArray(emojiArrayId)
-        val popupEmojisArray = if (params.mId.mElementId != KeyboardId.ELEMENT_EMOJI_CATEGORY2) null
-            else context.resources.getStringArray(R.array.emoji_people_body_more)
-        if (popupEmojisArray != null && emojiArray.size != popupEmojisArray.size)
-            throw(IllegalStateException("Inconsistent array size between codesArray and popupKeysArray"))
-
-        val row = ArrayList<KeyParams>(emojiArray.size)
+        val row = ArrayList<KeyParams>()
         var currentX = params.mLeftPadding.toFloat()
         val currentY = params.mTopPadding.toFloat() // no need to ever change, assignment to rows into rows is done in DynamicGridKeyboard
 
@@ -50,8 +30,7 @@ class EmojiParser(private val params: KeyboardParams, private val context: Conte
         val emojiKeyboardHeight = ResourceUtils.getDefaultKeyboardHeight(context.resources, false) * 0.75f + params.mVerticalGap - defaultBottomPadding - context.resources.getDimensionPixelSize(R.dimen.config_emoji_category_page_id_height)
         val keyHeight = emojiKeyboardHeight * params.mDefaultRowHeight * Settings.getInstance().current.mKeyboardHeightScale // still apply height scale to key
 
-        emojiArray.forEachIndexed { i, codeArraySpec ->
-            val keyParams = parseEmojiKey(codeArraySpec, popupEmojisArray?.get(i)?.takeIf { it.isNotEmpty() }) ?: return@forEachIndexed
+        fun addKey(keyParams: KeyParams) {
             keyParams.xPos = currentX
             keyParams.yPos = currentY
             keyParams.mAbsoluteWidth = keyWidth
@@ -59,12 +38,31 @@ class EmojiParser(private val params: KeyboardParams, private val context: Conte
             currentX += keyParams.mAbsoluteWidth
             row.add(keyParams)
         }
+
+        val catalog = EmojiCatalog.getInstance(context)
+        val catalogCategory = getCatalogCategory(params.mId.mElementId, catalog)
+        if (catalog != null && catalogCategory >= 0) {
+            catalog.forEachSupportedEmoji(catalogCategory) { label, code, variants ->
+                addKey(createEmojiKey(label, code, variants.takeIf { it.isNotEmpty() }?.joinToString(",")))
+            }
+            return arrayListOf(row)
+        }
+
+        val emojiArray = context.resources.getStringArray(getEmojiArrayId(params.mId.mElementId))
+        val popupEmojisArray = if (params.mId.mElementId != KeyboardId.ELEMENT_EMOJI_CATEGORY2) null
+            else context.resources.getStringArray(R.array.emoji_people_body_more)
+        if (popupEmojisArray != null && emojiArray.size != popupEmojisArray.size)
+            throw(IllegalStateException("Inconsistent array size between codesArray and popupKeysArray"))
+        emojiArray.forEachIndexed { i, codeArraySpec ->
+            val keyParams = parseEmojiKey(codeArraySpec, popupEmojisArray?.get(i)?.takeIf { it.isNotEmpty() }) ?: return@forEachIndexed
+            addKey(keyParams)
+        }
         return arrayListOf(row)
     }
 
     private fun getLabelAndCode(spec: String): Pair<String, Int>? {
+        if (!isSupportedOnThisSdk(spec)) return null
         val specAndSdk = spec.split("||")
-        if (specAndSdk.getOrNull(1)?.toIntOrNull()?.let { it > Build.VERSION.SDK_INT } == true) return null
         if ("," !in specAndSdk.first()) {
             val code = specAndSdk.first().toIntOrNull(16) ?: return specAndSdk.first() to KeyCode.MULTIPLE_CODE_POINTS // text emojis
             val label = StringUtils.newSingleCodePointString(code)
@@ -91,6 +89,10 @@ class EmojiParser(private val params: KeyboardParams, private val context: Conte
             sb.deleteCharAt(sb.length - 1)
             sb.toString()
         } else null
+        return createEmojiKey(label, code, popupKeysSpec)
+    }
+
+    private fun createEmojiKey(label: String, code: Int, popupKeysSpec: String?): KeyParams {
         return KeyParams(
             label,
             code,
@@ -100,6 +102,48 @@ class EmojiParser(private val params: KeyboardParams, private val context: Conte
             params
         )
     }
+
+    companion object {
+        private fun getEmojiArrayId(elementId: Int) = when (elementId) {
+            KeyboardId.ELEMENT_EMOJI_RECENTS -> R.array.emoji_recents
+            KeyboardId.ELEMENT_EMOJI_CATEGORY1 -> R.array.emoji_smileys_emotion
+            KeyboardId.ELEMENT_EMOJI_CATEGORY2 -> R.array.emoji_people_body
+            KeyboardId.ELEMENT_EMOJI_CATEGORY3 -> R.array.emoji_animals_nature
+            KeyboardId.ELEMENT_EMOJI_CATEGORY4 -> R.array.emoji_food_drink
+            KeyboardId.ELEMENT_EMOJI_CATEGORY5 -> R.array.emoji_travel_places
+            KeyboardId.ELEMENT_EMOJI_CATEGORY6 -> R.array.emoji_activities
+            KeyboardId.ELEMENT_EMOJI_CATEGORY7 -> R.array.emoji_objects
+            KeyboardId.ELEMENT_EMOJI_CATEGORY8 -> R.array.emoji_symbols
+            KeyboardId.ELEMENT_EMOJI_CATEGORY9 -> R.array.emoji_flags
+            KeyboardId.ELEMENT_EMOJI_CATEGORY10 -> R.array.emoji_emoticons
+            else -> throw(IllegalStateException("can only parse emoji categories where an array exists"))
+        }
+
+        // spec may end with ||<minimum sdk>
+        private fun isSupportedOnThisSdk(spec: String): Boolean {
+            val sdkStart = spec.indexOf("||")
+            if (sdkStart < 0) return true
+            val sdk = spec.substring(sdkStart + 2).toIntOrNull() ?: return true
+            return sdk <= Build.VERSION.SDK_INT
+        }
+
+        // emoji categories in the catalog are in the same order as the element ids, but emoticons and recents are not contained
+        private fun getCatalogCategory(elementId: Int, catalog: EmojiCatalog?): Int {
+            if (catalog == null) return -1
+            val category = elementId - KeyboardId.ELEMENT_EMOJI_CATEGORY1
+            return if (category >= 0 && category < catalog.size) category else -1
+        }
+
+        /** Number of keys [parse] creates for the element, without parsing the emojis. */
+        @JvmStatic
+        fun getEmojiCount(context: Context, elementId: Int): Int {
+            val catalog = EmojiCatalog.getInstance(context)
+            val catalogCategory = getCatalogCategory(elementId, catalog)
+            if (catalog != null && catalogCategory >= 0)
+                return catalog.getSupportedEmojiCount(catalogCategory)
+            return context.resources.getStringArray(getEmojiArrayId(elementId)).count { isSupportedOnThisSdk(it) }
+        }
+    }
 }
 
 const val EMOJI_HINT_LABEL = "◥"
\ No newline at end of file
@@ -8,6 +8,10 @@ package helium314.keyboard.latin;
 
 import android.content.Context;
 import android.media.AudioManager;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.view.HapticFeedbackConstants;
 import android.view.View;
@@ -16,18 +20,48 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode;
 import helium314.keyboard.latin.common.Constants;
 import helium314.keyboard.latin.settings.SettingsValues;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * This class gathers audio feedback and haptic feedback functions.
  * <p>
  * It offers a consistent and simple interface that allows LatinIME to forget about the
  * complexity of settings and the like.
+ * <p>
+ * Vibrating and playing sounds are binder calls that may take a while, so they are dispatched
+ * to a dedicated thread instead of running on the touch handling path. Feedback that could not
+ * be started within {@link #MAX_FEEDBACK_DELAY_MILLIS} is dropped, as late feedback is worse
+ * than none.
  */
 public final class AudioAndHapticFeedbackManager {
+    private static final long MAX_FEEDBACK_DELAY_MILLIS = 50;
+
     private AudioManager mAudioManager;
     private Vibrator mVibrator;
 
-    private SettingsValues mSettingsValues;
-    private boolean mSoundOn;
+    private volatile SettingsValues mSettingsValues;
+    private volatile boolean mSoundOn;
+    // only used on API 26+, created when the vibration duration setting changes
+    private volatile VibrationEffect mVibrationEffect;
+
+    private final ExecutorService mFeedbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            runnable.run();
+        }, "Feedback");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // latency between the feedback request and starting it, and for running it, in ms
+    // only written on the feedback thread
+    private volatile long mFeedbackCount;
+    private volatile long mDroppedFeedbackCount;
+    private volatile long mTotalDelayMillis;
+    private volatile long mMaxDelayMillis;
+    private volatile long mTotalDurationMillis;
+    private volatile long mMaxDurationMillis;
 
     private static final AudioAndHapticFeedbackManager sInstance =
             new AudioAndHapticFeedbackManager();
@@ -87,18 +121,29 @@ public final class AudioAndHapticFeedbackManager {
             case Constants.CODE_SPACE -> AudioManager.FX_KEYPRESS_SPACEBAR;
             default -> AudioManager.FX_KEYPRESS_STANDARD;
         };
-        mAudioManager.playSoundEffect(sound, mSettingsValues.mKeypressSoundVolume);
+        final float volume = mSettingsValues.mKeypressSoundVolume;
+        dispatch(() -> mAudioManager.playSoundEffect(sound, volume));
     }
 
     public void performHapticFeedback(final View viewToPerformHapticFeedbackOn) {
-        if (!mSettingsValues.mVibrateOn) {
+        final SettingsValues settingsValues = mSettingsValues;
+        if (!settingsValues.mVibrateOn) {
             return;
         }
-        if (mSettingsValues.mKeypressVibrationDuration >= 0) {
-            vibrate(mSettingsValues.mKeypressVibrationDuration);
+        if (settingsValues.mKeypressVibrationDuration >= 0) {
+            if (mVibrator == null) {
+                return;
+            }
+            final VibrationEffect effect = mVibrationEffect;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && effect != null) {
+                dispatch(() -> mVibrator.vibrate(effect));
+            } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                final long duration = settingsValues.mKeypressVibrationDuration;
+                dispatch(() -> mVibrator.vibrate(duration));
+            }
             return;
         }
-        // Go ahead with the system default
+        // Go ahead with the system default, this needs to happen on the view's thread
         if (viewToPerformHapticFeedbackOn != null) {
             viewToPerformHapticFeedbackOn.performHapticFeedback(
                     HapticFeedbackConstants.KEYBOARD_TAP,
@@ -106,12 +151,51 @@ public final class AudioAndHapticFeedbackManager {
         }
     }
 
+    private void dispatch(final Runnable feedback) {
+        final long requestTime = SystemClock.uptimeMillis();
+        mFeedbackExecutor.execute(() -> {
+            final long startTime = SystemClock.uptimeMillis();
+            final long delay = startTime - requestTime;
+            if (delay > MAX_FEEDBACK_DELAY_MILLIS) {
+                mDroppedFeedbackCount++;
+                return;
+            }
+            feedback.run();
+            final long duration = SystemClock.uptimeMillis() - startTime;
+            mFeedbackCount++;
+            mTotalDelayMillis += delay;
+            mMaxDelayMillis = Math.max(mMaxDelayMillis, delay);
+            mTotalDurationMillis += duration;
+            mMaxDurationMillis = Math.max(mMaxDurationMillis, duration);
+        });
+    }
+
     public void onSettingsChanged(final SettingsValues settingsValues) {
+        final SettingsValues previous = mSettingsValues;
         mSettingsValues = settingsValues;
         mSoundOn = reevaluateIfSoundIsOn();
+        if (mSoundOn && (previous == null || !previous.mSoundOn)) {
+            // make sure the sounds are loaded before the first key press instead of on it
+            mFeedbackExecutor.execute(mAudioManager::loadSoundEffects);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && (previous == null
+                || previous.mKeypressVibrationDuration != settingsValues.mKeypressVibrationDuration)) {
+            final int duration = settingsValues.mKeypressVibrationDuration;
+            mVibrationEffect = duration > 0
+                    ? VibrationEffect.createOneShot(duration, VibrationEffect.DEFAULT_AMPLITUDE)
+                    : null;
+        }
     }
 
     public void onRingerModeChanged() {
         mSoundOn = reevaluateIfSoundIsOn();
     }
+
+    public String dump() {
+        final long count = mFeedbackCount;
+        if (count == 0) return "  no feedback performed";
+        return "  performed " + count + ", dropped " + mDroppedFeedbackCount
+                + "\n  delay avg " + mTotalDelayMillis / count + " ms, max " + mMaxDelayMillis + " ms"
+                + "\n  duration avg " + mTotalDurationMillis / count + " ms, max " + mMaxDurationMillis + " ms";
+    }
 }
@@ -2,32 +2,38 @@
 
 package helium314.keyboard.latin
 
-import kotlinx.serialization.KSerializer
-import kotlinx.serialization.Serializable
-import kotlinx.serialization.descriptors.PrimitiveKind
-import kotlinx.serialization.descriptors.PrimitiveSerialDescriptor
-import kotlinx.serialization.encoding.Decoder
-import kotlinx.serialization.encoding.Encoder
-
-@Serializable
-data class ClipboardHistoryEntry (
+/**
+ * A clipboard history entry, identified by the hash of its content.
+ * Only a bounded [preview] is always kept in memory. The full content of large clips is stored
+ * on disk and read by [contentLoader] each time [content] is accessed, i.e. when pasting.
+ * Transient entries (i.e. sensitive clips) are never written to disk.
+ */
+class ClipboardHistoryEntry (
         var timeStamp: Long,
-        @Serializable(with = CharSequenceStringSerializer::class)
-        val content: CharSequence,
-        var isPinned: Boolean = false
+        val contentHash: String,
+        val preview: CharSequence,
+        private val storedContent: CharSequence?,
+        var isPinned: Boolean = false,
+        val isTransient: Boolean = false,
+        private val contentLoader: (() -> CharSequence)? = null
 ) : Comparable<ClipboardHistoryEntry> {
+
+    /** The full content. Not cached for large clips, so avoid accessing it except for pasting. */
+    val content: CharSequence get() = storedContent ?: contentLoader?.invoke() ?: preview
+
     override fun compareTo(other: ClipboardHistoryEntry): Int {
         val result = other.isPinned.compareTo(isPinned)
         return if (result != 0) result else other.timeStamp.compareTo(timeStamp)
     }
-}
 
-class CharSequenceStringSerializer : KSerializer<CharSequence> {
-    override val descriptor = PrimitiveSerialDescriptor("CharSequence", PrimitiveKind.STRING)
+    companion object {
+        const val PREVIEW_LENGTH = 1000
 
-    override fun serialize(encoder: Encoder, value: CharSequence) {
-        encoder.encodeString(value.toString())
+        fun createPreview(content: CharSequence): CharSequence {
+            if (content.length <= PREVIEW_LENGTH) return content
+            // don't split surrogate pairs
+            val end = if (Character.isHighSurrogate(content[PREVIEW_LENGTH - 1])) PREVIEW_LENGTH - 1 else PREVIEW_LENGTH
+            return content.subSequence(0, end).toString()
+        }
     }
-
-    override fun deserialize(decoder: Decoder) = decoder.decodeString()
-}
\ No newline at end of file
+}
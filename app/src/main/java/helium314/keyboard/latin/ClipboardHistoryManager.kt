@@ -10,19 +10,19 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.view.inputmethod.EditorInfo
+import androidx.core.os.UserManagerCompat
 import androidx.core.view.isGone
-import kotlinx.serialization.encodeToString
-import kotlinx.serialization.json.Json
 import helium314.keyboard.compat.ClipboardManagerCompat
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
 import helium314.keyboard.latin.common.ColorType
 import helium314.keyboard.latin.common.isValidNumber
 import helium314.keyboard.latin.databinding.ClipboardSuggestionBinding
 import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.settings.SettingsValues
 import helium314.keyboard.latin.utils.DeviceProtectedUtils
 import helium314.keyboard.latin.utils.InputTypeUtils
 import helium314.keyboard.latin.utils.ToolbarKey
-import kotlin.collections.ArrayList
+import java.io.File
 
 class ClipboardHistoryManager(
         private val latinIME: LatinIME
@@ -31,12 +31,23 @@ class ClipboardHistoryManager(
     private lateinit var clipboardManager: ClipboardManager
     private var onHistoryChangeListener: OnHistoryChangeListener? = null
     private var clipboardSuggestionView: View? = null
+    private val historyEntries get() = historyStore!!
+    // entries matching the current search query, null if not searching
+    private var filteredEntries: List<ClipboardHistoryEntry>? = null
+    private var searchQuery = ""
 
     fun onCreate() {
+        if (historyStore == null) {
+            val persistUnpinned = Settings.readPersistClipboardHistory(DeviceProtectedUtils.getSharedPreferences(latinIME))
+            historyStore = ClipboardHistoryStore(File(latinIME.filesDir, "clipboard"), persistUnpinned)
+        }
         clipboardManager = latinIME.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
         clipboardManager.addPrimaryClipChangedListener(this)
-        if (historyEntries.isEmpty())
-            loadPinnedClips()
+    }
+
+    /** Loads the stored history and adds the current clip, not necessary for showing the keyboard. */
+    fun loadHistory() {
+        loadStoredHistory()
         if (Settings.readClipboardHistoryEnabled(DeviceProtectedUtils.getSharedPreferences(latinIME)))
             fetchPrimaryClip()
     }
@@ -45,6 +56,10 @@ class ClipboardHistoryManager(
         clipboardManager.removePrimaryClipChangedListener(this)
     }
 
+    fun onSettingsChanged(settingsValues: SettingsValues) {
+        historyStore?.persistUnpinned = settingsValues.mPersistClipboardHistory
+    }
+
     override fun onPrimaryClipChanged() {
         // Make sure we read clipboard content only if history settings is set
         if (latinIME.mSettings.current?.mClipboardHistoryEnabled == true) {
@@ -60,62 +75,81 @@ class ClipboardHistoryManager(
             val timeStamp = ClipboardManagerCompat.getClipTimestamp(clipData) ?: System.currentTimeMillis()
             val content = clipItem.coerceToText(latinIME)
             if (TextUtils.isEmpty(content)) return
+            val contentHash = ClipboardHistoryStore.contentHash(content)
 
-            val duplicateEntryIndex = historyEntries.indexOfFirst { it.content.toString() == content.toString() }
-            if (duplicateEntryIndex != -1) {
-                val existingEntry = historyEntries[duplicateEntryIndex]
+            val existingEntry = historyEntries.getByHash(contentHash)
+            if (existingEntry != null) {
                 if (existingEntry.timeStamp == timeStamp) return // nothing to change (may occur frequently starting with API 30)
-                // older entry with the same text already exists, update the timestamp and re-sort the list
-                existingEntry.timeStamp = timeStamp
-                historyEntries.removeAt(duplicateEntryIndex)
-                historyEntries.add(0, existingEntry)
-                sortHistoryEntries()
-                val newIndex = historyEntries.indexOf(existingEntry)
-                onHistoryChangeListener?.onClipboardHistoryEntryMoved(duplicateEntryIndex, newIndex)
+                // older entry with the same text already exists, update the timestamp and move it
+                val from = historyEntries.indexOf(existingEntry)
+                val to = historyEntries.update(existingEntry, timeStamp, existingEntry.isPinned)
+                if (filteredEntries == null) onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
+                else updateSearchResults()
                 return
             }
-            if (historyEntries.any { it.content.toString() == content.toString() }) return
 
-            val entry = ClipboardHistoryEntry(timeStamp, content)
-            historyEntries.add(entry)
-            sortHistoryEntries()
-            val at = historyEntries.indexOf(entry)
+            // sensitive clips (e.g. passwords) are only kept in memory
+            val isSensitive = ClipboardManagerCompat.getClipSensitivity(clipData.description) == true
+            val at = historyEntries.add(timeStamp, contentHash, content, isSensitive)
+            if (filteredEntries != null) {
+                historyEntries.evictOldEntries { }
+                updateSearchResults()
+                return
+            }
             onHistoryChangeListener?.onClipboardHistoryEntryAdded(at)
+            historyEntries.evictOldEntries { onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(it, 1) }
         }
     }
 
     fun toggleClipPinned(ts: Long) {
-        val from = historyEntries.indexOfFirst { it.timeStamp == ts }
-        val historyEntry = historyEntries[from].apply {
-            timeStamp = System.currentTimeMillis()
-            isPinned = !isPinned
-        }
-        sortHistoryEntries()
-        val to = historyEntries.indexOf(historyEntry)
-        onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
-        savePinnedClips()
+        val historyEntry = historyEntries.getByTimeStamp(ts) ?: return
+        val from = historyEntries.indexOf(historyEntry)
+        val to = historyEntries.update(historyEntry, System.currentTimeMillis(), !historyEntry.isPinned)
+        if (filteredEntries == null) onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
+        else updateSearchResults()
     }
 
     fun clearHistory() {
         ClipboardManagerCompat.clearPrimaryClip(clipboardManager)
-        val pos = historyEntries.indexOfFirst { !it.isPinned }
-        val count = historyEntries.count { !it.isPinned }
-        historyEntries.removeAll { !it.isPinned }
-        if (onHistoryChangeListener != null) {
+        val pos = historyEntries.firstUnpinnedIndex()
+        val count = historyEntries.removeIf { !it.isPinned }
+        if (filteredEntries != null) {
+            updateSearchResults()
+        } else if (onHistoryChangeListener != null) {
             onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(pos, count)
         }
         removeClipboardSuggestion()
     }
 
-    fun canRemove(index: Int) = historyEntries.getOrNull(index)?.isPinned != true
+    fun canRemove(index: Int) = getHistoryEntryOrNull(index)?.isPinned != true
 
     fun removeEntry(index: Int) {
-        if (canRemove(index))
+        if (!canRemove(index)) return
+        val filtered = filteredEntries
+        if (filtered == null) {
             historyEntries.removeAt(index)
+            return
+        }
+        val entry = filtered[index]
+        historyEntries.removeAt(historyEntries.indexOf(entry))
+        filteredEntries = filtered.filterIndexed { i, _ -> i != index }
     }
 
-    private fun sortHistoryEntries() {
-        historyEntries.sort()
+    /**
+     * Shows only entries containing [query] (ignoring case), or all entries if [query] is empty.
+     * The query is typed on the main keyboard, see KeyboardSwitcher.startClipboardSearch.
+     * The search index is kept up to date when entries are added or removed, so this is fast even
+     * for large histories.
+     */
+    fun setSearchQuery(query: String) {
+        if (query == searchQuery) return
+        searchQuery = query
+        updateSearchResults()
+    }
+
+    private fun updateSearchResults() {
+        filteredEntries = if (searchQuery.isEmpty()) null else historyEntries.search(searchQuery)
+        onHistoryChangeListener?.onClipboardHistoryReloaded()
     }
 
     private fun checkClipRetentionElapsed() {
@@ -123,18 +157,26 @@ class ClipboardHistoryManager(
         if (mins <= 0) return // No retention limit
         val maxClipRetentionTime = mins * 60 * 1000L
         val now = System.currentTimeMillis()
-        historyEntries.removeAll { !it.isPinned && (now - it.timeStamp) > maxClipRetentionTime }
+        historyEntries.removeIf { !it.isPinned && (now - it.timeStamp) > maxClipRetentionTime }
     }
 
     // We do not want to update history while user is visualizing it, so we check retention only
     // when history is about to be shown
-    fun prepareClipboardHistory() = checkClipRetentionElapsed()
+    // The search results are re-computed afterwards, see ClipboardHistoryView.startClipboardHistory
+    fun prepareClipboardHistory() {
+        checkClipRetentionElapsed()
+        searchQuery = ""
+        filteredEntries = null
+    }
+
+    fun getHistorySize() = filteredEntries?.size ?: historyEntries.size
 
-    fun getHistorySize() = historyEntries.size
+    fun getHistoryEntry(position: Int) = filteredEntries.let { if (it == null) historyEntries[position] else it[position] }
 
-    fun getHistoryEntry(position: Int) = historyEntries[position]
+    private fun getHistoryEntryOrNull(position: Int) =
+        filteredEntries.let { if (it == null) historyEntries.getOrNull(position) else it.getOrNull(position) }
 
-    fun getHistoryEntryContent(timeStamp: Long) = historyEntries.first { it.timeStamp == timeStamp }
+    fun getHistoryEntryContent(timeStamp: Long) = historyEntries.getByTimeStamp(timeStamp)
 
     fun setHistoryChangeListener(l: OnHistoryChangeListener?) {
         onHistoryChangeListener = l
@@ -151,29 +193,24 @@ class ClipboardHistoryManager(
         return InputTypeUtils.isPasswordInputType(inputType)
     }
 
-    // pinned clips are stored in default shared preferences, not in device protected preferences!
-    private fun loadPinnedClips() {
-        val pinnedClipString = Settings.readPinnedClipString(latinIME)
-        if (pinnedClipString.isEmpty()) return
-        val pinnedClips: List<ClipboardHistoryEntry> = Json.decodeFromString(pinnedClipString)
-        historyEntries.addAll(pinnedClips)
-        sortHistoryEntries()
-        if (onHistoryChangeListener != null) {
-            pinnedClips.forEach {
-                onHistoryChangeListener?.onClipboardHistoryEntryAdded(historyEntries.indexOf(it))
-            }
-        }
-    }
-
-    private fun savePinnedClips() {
-        val pinnedClips = Json.encodeToString(historyEntries.filter { it.isPinned })
-        Settings.writePinnedClipString(latinIME, pinnedClips)
+    // history is stored in credential encrypted storage, not in device protected storage!
+    // so it can only be loaded once the user unlocked the device
+    private fun loadStoredHistory() {
+        val store = historyEntries
+        if (store.isLoaded || !UserManagerCompat.isUserUnlocked(latinIME)) return
+        // pinned clips were stored in default shared preferences by previous versions
+        val migrated = store.load { Settings.readPinnedClipString(latinIME) }
+        if (migrated)
+            Settings.writePinnedClipString(latinIME, "")
+        if (filteredEntries != null) updateSearchResults()
+        else onHistoryChangeListener?.onClipboardHistoryReloaded()
     }
 
     interface OnHistoryChangeListener {
         fun onClipboardHistoryEntryAdded(at: Int)
         fun onClipboardHistoryEntriesRemoved(pos: Int, count: Int)
         fun onClipboardHistoryEntryMoved(from: Int, to: Int)
+        fun onClipboardHistoryReloaded()
     }
 
     fun getClipboardSuggestionView(editorInfo: EditorInfo?, parent: ViewGroup?): View? {
@@ -198,7 +235,9 @@ class ClipboardHistoryManager(
         // create the view
         val binding = ClipboardSuggestionBinding.inflate(LayoutInflater.from(latinIME), parent, false)
         val textView = binding.clipboardSuggestionText
-        textView.text = if (isClipSensitive(inputType)) "*".repeat(content.length) else content
+        // only use a preview of the content, clips may be huge
+        textView.text = if (isClipSensitive(inputType)) "*".repeat(minOf(content.length, MAX_SENSITIVE_MASK_LENGTH))
+            else ClipboardHistoryEntry.createPreview(content)
         val clipIcon = latinIME.mKeyboardSwitcher.keyboard.mIconsSet.getIconDrawable(ToolbarKey.PASTE.name.lowercase())
         textView.setCompoundDrawablesRelativeWithIntrinsicBounds(clipIcon, null, null, null)
         textView.setOnClickListener {
@@ -233,9 +272,10 @@ class ClipboardHistoryManager(
     }
 
     companion object {
-        // store pinned clips in companion object so they survive a keyboard switch (which destroys the current instance)
-        private val historyEntries: MutableList<ClipboardHistoryEntry> = ArrayList()
+        // store clips in companion object so they survive a keyboard switch (which destroys the current instance)
+        private var historyStore: ClipboardHistoryStore? = null
         private var dontShowCurrentSuggestion: Boolean = false
         const val RECENT_TIME_MILLIS = 3 * 60 * 1000L // 3 minutes (for clipboard suggestions)
+        private const val MAX_SENSITIVE_MASK_LENGTH = 20
     }
 }
@@ -0,0 +1,424 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.utils.Log
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+
+/**
+ * Clipboard history entries in the order they are shown (pinned first, then newest first).
+ *
+ * Entries are indexed by content hash, so duplicates are found in O(1), and positions are found
+ * by binary search, so adding or moving an entry never sorts the whole list.
+ *
+ * All changes to persisted entries are appended to a journal file, which is replayed on [load]
+ * and compacted once it contains too many outdated records. Pinned entries are always persisted,
+ * unpinned ones only if [persistUnpinned] is set. Transient entries are never persisted. Clips
+ * longer than [LARGE_CLIP_LENGTH] are written to separate files if they are persisted, and then
+ * only their preview stays in memory. The full text is read from disk only when it's requested,
+ * i.e. when pasting.
+ * File access happens on a single background thread, so journal records keep their order.
+ * A [ClipboardSearchIndex] is kept up to date with the entries, for use in [search].
+ *
+ * Not thread safe, must only be used from the main thread.
+ */
+class ClipboardHistoryStore(private val dir: File, persistUnpinned: Boolean) {
+    private val entries = ArrayList<ClipboardHistoryEntry>()
+    private val entriesByHash = HashMap<String, ClipboardHistoryEntry>()
+    private val externalContentHashes = HashSet<String>()
+    private val searchIndex = ClipboardSearchIndex()
+    // content of large clips until it's written to disk
+    private val pendingBodies = ConcurrentHashMap<String, String>()
+    private val journalFile = File(dir, JOURNAL_FILE_NAME)
+    private val bodiesDir = File(dir, BODIES_DIR_NAME)
+    private var journalRecordCount = 0
+    // changes before load are not written to the journal, but with a snapshot after loading
+    private var hasChangesBeforeLoad = false
+    private val removedBeforeLoad = HashSet<String>()
+
+    /** Whether the journal was read successfully. Nothing is written before, to avoid overwriting history. */
+    var isLoaded = false
+        private set
+
+    /**
+     * Whether unpinned entries are written to disk (in plain text). If not, they are lost when the
+     * process is stopped. Changing it rewrites the journal, so unpinned entries are removed from
+     * or added to it immediately.
+     */
+    var persistUnpinned = persistUnpinned
+        set(value) {
+            if (field == value) return
+            field = value
+            if (isLoaded) writeSnapshotIfNecessary(true)
+        }
+
+    val size get() = entries.size
+
+    operator fun get(index: Int): ClipboardHistoryEntry = entries[index]
+
+    fun getOrNull(index: Int): ClipboardHistoryEntry? = entries.getOrNull(index)
+
+    fun getByHash(contentHash: String): ClipboardHistoryEntry? = entriesByHash[contentHash]
+
+    fun getByTimeStamp(timeStamp: Long): ClipboardHistoryEntry? =
+        findByKey(true, timeStamp) ?: findByKey(false, timeStamp)
+
+    fun indexOf(entry: ClipboardHistoryEntry): Int {
+        val i = entries.binarySearch(entry)
+        if (i < 0) return -1
+        if (entries[i] === entry) return i
+        // other entries may have the same timestamp and pinned state, look at the neighbors
+        var j = i - 1
+        while (j >= 0 && entries[j].compareTo(entry) == 0) {
+            if (entries[j] === entry) return j
+            j--
+        }
+        j = i + 1
+        while (j < entries.size && entries[j].compareTo(entry) == 0) {
+            if (entries[j] === entry) return j
+            j++
+        }
+        return -1
+    }
+
+    /** Returns the entries containing [query] (ignoring case), in the same order as all entries. */
+    fun search(query: String): List<ClipboardHistoryEntry> {
+        val matches = searchIndex.search(query)
+        return entries.filter { it in matches }
+    }
+
+    fun firstUnpinnedIndex(): Int {
+        // unpinned entries are always after pinned ones
+        var low = 0
+        var high = entries.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (entries[mid].isPinned) low = mid + 1
+            else high = mid
+        }
+        return low
+    }
+
+    /** Adds a new entry for [content] and returns its position. */
+    fun add(timeStamp: Long, contentHash: String, content: CharSequence, isTransient: Boolean): Int {
+        val entry = createEntry(timeStamp, contentHash, content, false, isTransient)
+        val index = insertionIndex(entry)
+        entries.add(index, entry)
+        entriesByHash[contentHash] = entry
+        searchIndex.add(entry, entry.preview)
+        if (!isLoaded) removedBeforeLoad.remove(contentHash)
+        if (isPersisted(entry))
+            appendRecord(createPutRecord(entry))
+        return index
+    }
+
+    private fun isPersisted(entry: ClipboardHistoryEntry) = !entry.isTransient && (entry.isPinned || persistUnpinned)
+
+    /** Creates an entry, and writes content of large persisted clips to disk instead of keeping it in memory. */
+    private fun createEntry(timeStamp: Long, contentHash: String, content: CharSequence, isPinned: Boolean, isTransient: Boolean): ClipboardHistoryEntry {
+        val preview = ClipboardHistoryEntry.createPreview(content)
+        if (isTransient || !(isPinned || persistUnpinned) || content.length <= LARGE_CLIP_LENGTH)
+            return ClipboardHistoryEntry(timeStamp, contentHash, preview, content, isPinned, isTransient)
+        val text = content.toString()
+        val bodyFile = bodyFile(contentHash)
+        externalContentHashes.add(contentHash)
+        pendingBodies[contentHash] = text
+        runIo {
+            bodiesDir.mkdirs()
+            bodyFile.writeText(text)
+            pendingBodies.remove(contentHash, text)
+        }
+        return ClipboardHistoryEntry(timeStamp, contentHash, preview, null, isPinned) { readBody(contentHash) }
+    }
+
+    private fun createPutRecord(entry: ClipboardHistoryEntry) =
+        if (entry.contentHash in externalContentHashes)
+            JournalRecord(OP_PUT, entry.contentHash, entry.timeStamp, entry.isPinned, preview = entry.preview.toString(), isExternal = true)
+        else
+            JournalRecord(OP_PUT, entry.contentHash, entry.timeStamp, entry.isPinned, entry.content.toString())
+
+    /** Sets time stamp and pinned state of an existing entry and returns its new position. */
+    fun update(entry: ClipboardHistoryEntry, timeStamp: Long, isPinned: Boolean): Int {
+        val from = indexOf(entry)
+        if (from >= 0) entries.removeAt(from)
+        val wasPersisted = isPersisted(entry)
+        entry.timeStamp = timeStamp
+        entry.isPinned = isPinned
+        val to = insertionIndex(entry)
+        entries.add(to, entry)
+        val persisted = isPersisted(entry)
+        if (persisted && !wasPersisted) // e.g. pinned, the content is not on disk yet
+            appendRecord(createPutRecord(entry))
+        else if (persisted)
+            appendRecord(JournalRecord(OP_PUT, entry.contentHash, timeStamp, isPinned))
+        else if (wasPersisted)
+            appendRecord(JournalRecord(OP_REMOVE, entry.contentHash))
+        return to
+    }
+
+    fun removeAt(index: Int): ClipboardHistoryEntry {
+        val entry = entries.removeAt(index)
+        onRemoved(entry)
+        return entry
+    }
+
+    /** Removes all entries matching [predicate], and returns the number of removed entries. */
+    fun removeIf(predicate: (ClipboardHistoryEntry) -> Boolean): Int {
+        var removed = 0
+        val iterator = entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (!predicate(entry)) continue
+            iterator.remove()
+            onRemoved(entry)
+            removed++
+        }
+        return removed
+    }
+
+    /** Removes the oldest unpinned entries exceeding [MAX_UNPINNED_ENTRIES], calling [onEvicted] with the position of each. */
+    fun evictOldEntries(onEvicted: (Int) -> Unit) {
+        val firstUnpinned = firstUnpinnedIndex()
+        while (entries.size - firstUnpinned > MAX_UNPINNED_ENTRIES) {
+            removeAt(entries.lastIndex)
+            onEvicted(entries.size)
+        }
+    }
+
+    private fun onRemoved(entry: ClipboardHistoryEntry) {
+        if (entriesByHash[entry.contentHash] === entry)
+            entriesByHash.remove(entry.contentHash)
+        searchIndex.remove(entry)
+        if (!isLoaded) removedBeforeLoad.add(entry.contentHash)
+        if (entry.isTransient) return
+        if (isPersisted(entry))
+            appendRecord(JournalRecord(OP_REMOVE, entry.contentHash))
+        if (externalContentHashes.remove(entry.contentHash)) {
+            val bodyFile = bodyFile(entry.contentHash)
+            runIo { bodyFile.delete() }
+        }
+    }
+
+    /**
+     * Reads the journal and adds its entries to the entries already in memory.
+     * Entries removed before loading stay removed. If an entry added before loading is also stored,
+     * the stored entry is kept with the newer time stamp, and stays pinned.
+     * Changes before loading are saved by writing a snapshot of the merged entries.
+     * If there is no journal yet, [legacyPinnedClips] are imported. Returns whether this happened.
+     */
+    fun load(legacyPinnedClips: () -> String): Boolean {
+        if (isLoaded) return false
+        val records = try {
+            if (journalFile.exists()) journalFile.readLines() else null
+        } catch (e: IOException) {
+            Log.w(TAG, "could not read clipboard history", e)
+            return false
+        }
+        isLoaded = true
+        val loaded = LinkedHashMap<String, ClipboardHistoryEntry>()
+        var migrated = false
+        if (records == null) {
+            val legacyString = legacyPinnedClips()
+            if (legacyString.isNotEmpty()) {
+                try {
+                    Json.decodeFromString<List<LegacyPinnedClip>>(legacyString).forEach {
+                        val hash = contentHash(it.content)
+                        loaded[hash] = createEntry(it.timeStamp, hash, it.content, it.isPinned, false)
+                    }
+                    migrated = true
+                } catch (e: SerializationException) {
+                    Log.w(TAG, "could not read legacy pinned clips", e)
+                }
+            }
+        } else {
+            records.forEach { line ->
+                val record = try { Json.decodeFromString<JournalRecord>(line) }
+                    catch (e: SerializationException) { return@forEach } // may happen for the last line if the process was killed while writing
+                replay(record, loaded)
+            }
+        }
+        loaded.values.forEach {
+            if (it.contentHash in removedBeforeLoad) {
+                externalContentHashes.remove(it.contentHash)
+                return@forEach
+            }
+            val existing = entriesByHash[it.contentHash]
+            if (existing != null) {
+                entries.remove(existing)
+                searchIndex.remove(existing)
+                it.isPinned = it.isPinned || existing.isPinned
+                it.timeStamp = maxOf(it.timeStamp, existing.timeStamp)
+            }
+            entries.add(it)
+            entriesByHash[it.contentHash] = it
+            searchIndex.add(it, it.preview)
+        }
+        entries.sort()
+        journalRecordCount = records?.size ?: 0
+        writeSnapshotIfNecessary(migrated || hasChangesBeforeLoad || removedBeforeLoad.isNotEmpty())
+        hasChangesBeforeLoad = false
+        removedBeforeLoad.clear()
+        return migrated
+    }
+
+    private fun replay(record: JournalRecord, loaded: MutableMap<String, ClipboardHistoryEntry>) {
+        when (record.op) {
+            OP_PUT -> {
+                val existing = loaded[record.hash]
+                if (existing != null) {
+                    existing.timeStamp = record.timeStamp
+                    existing.isPinned = record.isPinned
+                    return
+                }
+                val hash = record.hash
+                loaded[hash] = if (record.isExternal) {
+                    externalContentHashes.add(hash)
+                    val preview = record.preview ?: readBodyPrefix(bodyFile(hash), ClipboardHistoryEntry.PREVIEW_LENGTH)
+                    ClipboardHistoryEntry(record.timeStamp, hash, preview, null, record.isPinned) { readBody(hash) }
+                } else {
+                    val content = record.content ?: return
+                    ClipboardHistoryEntry(record.timeStamp, hash, ClipboardHistoryEntry.createPreview(content), content, record.isPinned)
+                }
+            }
+            OP_REMOVE -> {
+                loaded.remove(record.hash)
+                externalContentHashes.remove(record.hash)
+            }
+        }
+    }
+
+    private fun readBody(contentHash: String): CharSequence {
+        pendingBodies[contentHash]?.let { return it }
+        val bodyFile = bodyFile(contentHash)
+        return try {
+            bodyFile.readText()
+        } catch (e: IOException) {
+            Log.w(TAG, "could not read clip from ${bodyFile.name}", e)
+            ""
+        }
+    }
+
+    // fallback for records written without preview
+    private fun readBodyPrefix(bodyFile: File, length: Int): CharSequence = try {
+        bodyFile.reader().use { reader ->
+            val buffer = CharArray(length)
+            var read = 0
+            while (read < length) {
+                val n = reader.read(buffer, read, length - read)
+                if (n < 0) break
+                read += n
+            }
+            ClipboardHistoryEntry.createPreview(String(buffer, 0, read))
+        }
+    } catch (e: IOException) {
+        Log.w(TAG, "could not read clip from ${bodyFile.name}", e)
+        ""
+    }
+
+    private fun appendRecord(record: JournalRecord) {
+        if (!isLoaded) {
+            hasChangesBeforeLoad = true
+            return
+        }
+        journalRecordCount++
+        if (writeSnapshotIfNecessary(false)) return
+        val line = Json.encodeToString(record) + "\n"
+        runIo {
+            dir.mkdirs()
+            journalFile.appendText(line)
+        }
+    }
+
+    /** Rewrites the journal with only the current entries if it contains too many outdated records. */
+    private fun writeSnapshotIfNecessary(force: Boolean): Boolean {
+        if (!force && journalRecordCount <= COMPACTION_MIN_RECORDS + 2 * entries.size) return false
+        // records are created here, because entries must only be accessed on the main thread
+        val records = entries.filter { isPersisted(it) }.map { createPutRecord(it) }
+        val referencedBodies = HashSet(externalContentHashes)
+        journalRecordCount = records.size
+        runIo {
+            dir.mkdirs()
+            val tempFile = File(dir, "$JOURNAL_FILE_NAME.tmp")
+            tempFile.bufferedWriter().use { writer ->
+                records.forEach { writer.write(Json.encodeToString(it)); writer.write("\n") }
+            }
+            if (!tempFile.renameTo(journalFile))
+                Log.w(TAG, "could not replace clipboard history journal")
+            bodiesDir.listFiles()?.forEach { if (it.name !in referencedBodies) it.delete() }
+        }
+        return true
+    }
+
+    private fun bodyFile(contentHash: String) = File(bodiesDir, contentHash)
+
+    private fun insertionIndex(entry: ClipboardHistoryEntry): Int {
+        val i = entries.binarySearch(entry)
+        return if (i < 0) -(i + 1) else i
+    }
+
+    private fun findByKey(isPinned: Boolean, timeStamp: Long): ClipboardHistoryEntry? {
+        val i = entries.binarySearch {
+            val result = isPinned.compareTo(it.isPinned)
+            if (result != 0) result else timeStamp.compareTo(it.timeStamp)
+        }
+        return if (i < 0) null else entries[i]
+    }
+
+    /** Waits until all file access started so far is done, for tests. */
+    fun waitForIo() {
+        ioExecutor.submit { }.get()
+    }
+
+    private fun runIo(task: () -> Unit) {
+        ioExecutor.execute {
+            try {
+                task()
+            } catch (e: IOException) {
+                Log.w(TAG, "error writing clipboard history", e)
+            }
+        }
+    }
+
+    @Serializable
+    private class JournalRecord(
+        val op: Int,
+        val hash: String,
+        val timeStamp: Long = 0,
+        val isPinned: Boolean = false,
+        val content: String? = null,
+        val preview: String? = null,
+        val isExternal: Boolean = false
+    )
+
+    // format of pinned clips stored in shared preferences by previous versions
+    @Serializable
+    private class LegacyPinnedClip(val timeStamp: Long, val content: String, val isPinned: Boolean = false)
+
+    companion object {
+        private const val TAG = "ClipboardHistoryStore"
+        private const val JOURNAL_FILE_NAME = "clipboard_history"
+        private const val BODIES_DIR_NAME = "clips"
+        private const val OP_PUT = 0
+        private const val OP_REMOVE = 1
+        private const val COMPACTION_MIN_RECORDS = 100
+        const val LARGE_CLIP_LENGTH = 4096
+        const val MAX_UNPINNED_ENTRIES = 2000
+
+        private val ioExecutor = Executors.newSingleThreadExecutor()
+
+        fun contentHash(content: CharSequence): String {
+            val digest = MessageDigest.getInstance("SHA-256").digest(content.toString().toByteArray())
+            val sb = StringBuilder(digest.size * 2)
+            digest.forEach { sb.append(String.format("%02x", it)) }
+            return sb.toString()
+        }
+    }
+}
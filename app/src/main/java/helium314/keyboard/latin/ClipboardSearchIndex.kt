@@ -0,0 +1,112 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin
+
+import java.util.Locale
+
+/**
+ * Case-insensitive substring search over clipboard history entries, using a trigram index.
+ *
+ * For queries of at least 3 characters, only entries containing the query's least common trigram
+ * are checked, so typical queries only look at a small part of the history. Shorter queries check
+ * all indexed texts, which are short enough for this to be fast.
+ * Only the first [MAX_INDEXED_LENGTH] characters of each entry are searchable.
+ */
+class ClipboardSearchIndex {
+    private val idsByEntry = HashMap<ClipboardHistoryEntry, Int>()
+    private val entriesById = HashMap<Int, ClipboardHistoryEntry>()
+    private val textsById = HashMap<Int, String>()
+    private val postings = HashMap<Long, PostingList>()
+    private var nextId = 0
+
+    val size get() = idsByEntry.size
+
+    fun add(entry: ClipboardHistoryEntry, content: CharSequence) {
+        if (idsByEntry.containsKey(entry)) return
+        val id = nextId++
+        val text = normalize(content, MAX_INDEXED_LENGTH)
+        idsByEntry[entry] = id
+        entriesById[id] = entry
+        textsById[id] = text
+        forEachTrigram(text) { postings.getOrPut(it) { PostingList() }.add(id) }
+    }
+
+    fun remove(entry: ClipboardHistoryEntry) {
+        val id = idsByEntry.remove(entry) ?: return
+        entriesById.remove(id)
+        val text = textsById.remove(id) ?: return
+        forEachTrigram(text) { trigram ->
+            val posting = postings[trigram] ?: return@forEachTrigram
+            posting.remove(id)
+            if (posting.size == 0) postings.remove(trigram)
+        }
+    }
+
+    fun clear() {
+        idsByEntry.clear()
+        entriesById.clear()
+        textsById.clear()
+        postings.clear()
+    }
+
+    /** Returns all entries containing [query], ignoring case. */
+    fun search(query: String): Set<ClipboardHistoryEntry> {
+        val q = normalize(query, query.length)
+        if (q.isEmpty()) return HashSet(idsByEntry.keys)
+        val result = HashSet<ClipboardHistoryEntry>()
+        if (q.length < 3) {
+            textsById.forEach { (id, text) -> if (text.contains(q)) result.add(entriesById[id]!!) }
+            return result
+        }
+        var candidates: PostingList? = null
+        var noMatch = false
+        forEachTrigram(q) {
+            val posting = postings[it]
+            if (posting == null) noMatch = true
+            else if (candidates == null || posting.size < candidates!!.size) candidates = posting
+        }
+        if (noMatch) return result
+        candidates?.forEach { id -> if (textsById[id]!!.contains(q)) result.add(entriesById[id]!!) }
+        return result
+    }
+
+    /** Ids of entries containing a trigram, in insertion order. */
+    private class PostingList {
+        private var ids = IntArray(4)
+        var size = 0
+            private set
+
+        fun add(id: Int) {
+            // the same trigram may occur several times in a text, and ids are increasing
+            if (size > 0 && ids[size - 1] == id) return
+            if (size == ids.size) ids = ids.copyOf(size * 2)
+            ids[size++] = id
+        }
+
+        fun remove(id: Int) {
+            val i = ids.binarySearch(id, 0, size)
+            if (i < 0) return
+            System.arraycopy(ids, i + 1, ids, i, size - i - 1)
+            size--
+        }
+
+        inline fun forEach(action: (Int) -> Unit) {
+            for (i in 0 until size) action(ids[i])
+        }
+    }
+
+    companion object {
+        const val MAX_INDEXED_LENGTH = ClipboardHistoryEntry.PREVIEW_LENGTH
+
+        private fun normalize(text: CharSequence, maxLength: Int): String {
+            val end = minOf(text.length, maxLength)
+            return text.subSequence(0, end).toString().lowercase(Locale.ROOT)
+        }
+
+        private inline fun forEachTrigram(text: String, action: (Long) -> Unit) {
+            for (i in 0..text.length - 3) {
+                action((text[i].code.toLong() shl 32) or (text[i + 1].code.toLong() shl 16) or text[i + 2].code.toLong())
+            }
+        }
+    }
+}
@@ -8,9 +8,7 @@ package helium314.keyboard.latin;
 
 import android.Manifest;
 import android.content.Context;
-import android.net.Uri;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.Contacts;
 import helium314.keyboard.latin.utils.Log;
 
 import androidx.annotation.Nullable;
@@ -18,11 +16,14 @@ import androidx.annotation.Nullable;
 import com.android.inputmethod.latin.BinaryDictionary;
 
 import helium314.keyboard.latin.ContactsManager.ContactsChangedListener;
+import helium314.keyboard.latin.ContactsManager.NameChanges;
 import helium314.keyboard.latin.common.StringUtils;
 import helium314.keyboard.latin.permissions.PermissionsUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Locale;
 
 public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
@@ -39,6 +40,11 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
     private final boolean mUseFirstLastBigrams;
     private final ContactsManager mContactsManager;
 
+    /**
+     * Names from the user's profile, their words are kept when contacts are removed.
+     */
+    private ArrayList<String> mProfileNames = new ArrayList<>();
+
     protected ContactsBinaryDictionary(final Context context, final Locale locale,
             final File dictFile, final String name) {
         super(context, getDictName(name, locale, dictFile), locale, Dictionary.TYPE_CONTACTS,
@@ -67,29 +73,19 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
      */
     @Override
     public void loadInitialContentsLocked() {
-        loadDictionaryForUriLocked(ContactsContract.Profile.CONTENT_URI);
-        // TODO: Switch this URL to the newer ContactsContract too
-        loadDictionaryForUriLocked(Contacts.CONTENT_URI);
-    }
-
-    /**
-     * Loads data within content providers to the dictionary.
-     */
-    private void loadDictionaryForUriLocked(final Uri uri) {
         if (!PermissionsUtil.checkAllPermissionsGranted(
                 mContext, Manifest.permission.READ_CONTACTS)) {
             Log.i(TAG, "No permission to read contacts. Not loading the Dictionary.");
         }
+        mProfileNames = mContactsManager.getValidNames(ContactsContract.Profile.CONTENT_URI);
+        addNamesLocked(mProfileNames);
+        addNamesLocked(mContactsManager.loadContactNames());
+    }
 
-        final ArrayList<String> validNames = mContactsManager.getValidNames(uri);
-        for (final String name : validNames) {
+    private void addNamesLocked(final ArrayList<String> names) {
+        for (final String name : names) {
             addNameLocked(name);
         }
-        if (uri.equals(Contacts.CONTENT_URI)) {
-            // Since we were able to add content successfully, update the local
-            // state of the manager.
-            mContactsManager.updateLocalState(validNames);
-        }
     }
 
     /**
@@ -97,9 +93,35 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
      * bigrams depending on locale.
      */
     private void addNameLocked(final String name) {
-        int len = StringUtils.codePointCount(name);
         NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
                 BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
+        for (final String word : getWords(name)) {
+            if (DEBUG) {
+                Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
+            }
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
+                    null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            if (ngramContext.isValid() && mUseFirstLastBigrams) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                addNgramEntryLocked(ngramContext,
+                        word,
+                        ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
+                        BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            }
+            ngramContext = ngramContext.getNextNgramContext(
+                    new NgramContext.WordInfo(word));
+        }
+    }
+
+    /**
+     * Returns the words in a name that are added to the dictionary.
+     */
+    private static ArrayList<String> getWords(final String name) {
+        final ArrayList<String> words = new ArrayList<>();
+        int len = StringUtils.codePointCount(name);
         // TODO: Better tokenization for non-Latin writing systems
         for (int i = 0; i < len; i++) {
             if (Character.isLetter(name.codePointAt(i))) {
@@ -113,30 +135,55 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
                 // capitalization of i.
                 final int wordLen = StringUtils.codePointCount(word);
                 if (wordLen <= MAX_WORD_LENGTH && wordLen > 1) {
-                    if (DEBUG) {
-                        Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
-                    }
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
-                            null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (ngramContext.isValid() && mUseFirstLastBigrams) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addNgramEntryLocked(ngramContext,
-                                word,
-                                ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
-                    ngramContext = ngramContext.getNextNgramContext(
-                            new NgramContext.WordInfo(word));
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Removes the words of removed names that are not in any remaining name, and adds the
+     * added names. Bigrams of removed names remain if both words are still in other names.
+     */
+    private void applyChangesLocked(final NameChanges changes) {
+        for (final String word : getRemovedWords(changes, mProfileNames)) {
+            removeUnigramLocked(word);
+        }
+        addNamesLocked(changes.mAddedNames);
+    }
+
+    /**
+     * Returns the words of removed names that are neither in the remaining names nor in the
+     * profile names, each only once.
+     */
+    static ArrayList<String> getRemovedWords(final NameChanges changes,
+            final Collection<String> profileNames) {
+        final HashSet<String> remainingWords = new HashSet<>();
+        for (final String name : changes.mNames) {
+            remainingWords.addAll(getWords(name));
+        }
+        for (final String name : profileNames) {
+            remainingWords.addAll(getWords(name));
+        }
+        final ArrayList<String> removedWords = new ArrayList<>();
+        for (final String name : changes.mRemovedNames) {
+            for (final String word : getWords(name)) {
+                if (remainingWords.add(word)) {
+                    // added now, so it's removed only once
+                    removedWords.add(word);
                 }
             }
         }
+        return removedWords;
     }
 
     @Override
-    public void onContactsChange() {
-        setNeedsToRecreate();
+    public void onContactsChange(@Nullable final NameChanges changes) {
+        if (changes == null) {
+            setNeedsToRecreate();
+            return;
+        }
+        updateDictionaryWithWriteLock(() -> applyChangesLocked(changes));
     }
 }
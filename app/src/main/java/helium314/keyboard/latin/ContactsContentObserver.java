@@ -15,22 +15,21 @@ import android.provider.ContactsContract.Contacts;
 import helium314.keyboard.latin.utils.Log;
 
 import helium314.keyboard.latin.ContactsManager.ContactsChangedListener;
+import helium314.keyboard.latin.ContactsManager.NameChanges;
 import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.permissions.PermissionsUtil;
-import helium314.keyboard.latin.utils.ExecutorUtils;
-
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import helium314.keyboard.latin.utils.ChangeDebouncer;
 
 /**
  * A content observer that listens to updates to content provider {@link Contacts#CONTENT_URI}.
+ * Bursts of notifications are handled once, and only contacts that changed are queried.
  */
 public class ContactsContentObserver implements Runnable {
     private static final String TAG = "ContactsContentObserver";
 
     private final Context mContext;
     private final ContactsManager mManager;
-    private final AtomicBoolean mRunning = new AtomicBoolean(false);
+    private final ChangeDebouncer mDebouncer = new ChangeDebouncer(this);
 
     private ContentObserver mContentObserver;
     private ContactsChangedListener mContactsChangedListener;
@@ -55,16 +54,19 @@ public class ContactsContentObserver implements Runnable {
         mContentObserver = new ContentObserver(null /* handler */) {
             @Override
             public void onChange(boolean self) {
-                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD)
-                        .execute(ContactsContentObserver.this);
+                mDebouncer.onChange();
             }
         };
         final ContentResolver contentResolver = mContext.getContentResolver();
         contentResolver.registerContentObserver(Contacts.CONTENT_URI, true, mContentObserver);
     }
 
+    /**
+     * Queries the changes and notifies the listener. Synchronized so changes notified while
+     * running are queried afterwards.
+     */
     @Override
-    public void run() {
+    public synchronized void run() {
         if (!PermissionsUtil.checkAllPermissionsGranted(
                 mContext, Manifest.permission.READ_CONTACTS)) {
             Log.i(TAG, "No permission to read contacts. Not updating the contacts.");
@@ -72,55 +74,21 @@ public class ContactsContentObserver implements Runnable {
             return;
         }
 
-        if (!mRunning.compareAndSet(false /* expect */, true /* update */)) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "run() : Already running. Don't waste time checking again.");
-            }
-            return;
-        }
-        if (haveContentsChanged()) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "run() : Contacts have changed. Notifying listeners.");
-            }
-            mContactsChangedListener.onContactsChange();
-        }
-        mRunning.set(false);
-    }
-
-    boolean haveContentsChanged() {
-        if (!PermissionsUtil.checkAllPermissionsGranted(
-                mContext, Manifest.permission.READ_CONTACTS)) {
-            Log.i(TAG, "No permission to read contacts. Marking contacts as not changed.");
-            return false;
-        }
-
         final long startTime = SystemClock.uptimeMillis();
-        final int contactCount = mManager.getContactCount();
-        if (contactCount > ContactsDictionaryConstants.MAX_CONTACTS_PROVIDER_QUERY_LIMIT) {
-            // If there are too many contacts then return false. In this rare case it is impossible
-            // to include all of them anyways and the cost of rebuilding the dictionary is too high.
-            // TODO: Sort and check only the most recent contacts?
-            return false;
-        }
-        if (contactCount != mManager.getContactCountAtLastRebuild()) {
+        final NameChanges changes = mManager.queryChanges();
+        if (changes == null || !changes.isEmpty()) {
             if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "haveContentsChanged() : Count changed from "
-                        + mManager.getContactCountAtLastRebuild() + " to " + contactCount);
+                Log.d(TAG, "run() : Contacts have changed. Notifying listeners.");
             }
-            return true;
-        }
-        final ArrayList<String> names = mManager.getValidNames(Contacts.CONTENT_URI);
-        if (names.hashCode() != mManager.getHashCodeAtLastRebuild()) {
-            return true;
-        }
-        if (DebugFlags.DEBUG_ENABLED) {
-            Log.d(TAG, "haveContentsChanged() : No change detected in "
-                    + (SystemClock.uptimeMillis() - startTime) + " ms)");
+            mContactsChangedListener.onContactsChange(changes);
+        } else if (DebugFlags.DEBUG_ENABLED) {
+            Log.d(TAG, "run() : No change detected in "
+                    + (SystemClock.uptimeMillis() - startTime) + " ms");
         }
-        return false;
     }
 
     public void unregister() {
+        mDebouncer.cancel();
         mContext.getContentResolver().unregisterContentObserver(mContentObserver);
     }
 }
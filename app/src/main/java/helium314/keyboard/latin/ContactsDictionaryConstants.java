@@ -8,14 +8,17 @@ package helium314.keyboard.latin;
 
 import android.provider.BaseColumns;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 
 /**
  * Constants related to Contacts Content Provider.
  */
 public class ContactsDictionaryConstants {
     public static final String[] PROJECTION = { BaseColumns._ID, Contacts.DISPLAY_NAME,
-            Contacts.TIMES_CONTACTED, Contacts.LAST_TIME_CONTACTED, Contacts.IN_VISIBLE_GROUP };
-    public static final String[] PROJECTION_ID_ONLY = { BaseColumns._ID };
+            Contacts.TIMES_CONTACTED, Contacts.LAST_TIME_CONTACTED, Contacts.IN_VISIBLE_GROUP,
+            Contacts.CONTACT_LAST_UPDATED_TIMESTAMP };
+    public static final String[] PROJECTION_DELETED = { DeletedContacts.CONTACT_ID,
+            DeletedContacts.CONTACT_DELETED_TIMESTAMP };
 
     /**
      * Frequency for contacts information into the dictionary
@@ -23,17 +26,20 @@ public class ContactsDictionaryConstants {
     public static final int FREQUENCY_FOR_CONTACTS = 40;
     public static final int FREQUENCY_FOR_CONTACTS_BIGRAM = 90;
 
-    /**
-     *  Do not attempt to query contacts if there are more than this many entries.
-     */
-    public static final int MAX_CONTACTS_PROVIDER_QUERY_LIMIT = 10000;
-
     /**
      * Index of the column for 'name' in content providers:
      * Contacts & ContactsContract.Profile.
      */
+    public static final int ID_INDEX = 0;
     public static final int NAME_INDEX = 1;
     public static final int TIMES_CONTACTED_INDEX = 2;
     public static final int LAST_TIME_CONTACTED_INDEX = 3;
     public static final int IN_VISIBLE_GROUP_INDEX = 4;
+    public static final int LAST_UPDATED_INDEX = 5;
+
+    /**
+     * Indices of the columns in {@link #PROJECTION_DELETED}.
+     */
+    public static final int DELETED_ID_INDEX = 0;
+    public static final int DELETED_TIMESTAMP_INDEX = 1;
 }
@@ -10,24 +10,30 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 import android.text.TextUtils;
 import helium314.keyboard.latin.utils.Log;
 
+import androidx.annotation.Nullable;
+
 import helium314.keyboard.latin.common.Constants;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages all interactions with Contacts DB.
  * <p>
- * The manager provides an API for listening to meaning full updates by keeping a
- * measure of the current state of the content provider.
+ * The manager provides an API for listening to meaning full updates by keeping the
+ * contacts of the content provider in memory, and only querying contacts that changed
+ * since the last update.
  */
 public class ContactsManager {
     private static final String TAG = "ContactsManager";
@@ -89,25 +95,55 @@ public class ContactsManager {
         }
     }
 
+    /**
+     * Names that are used now, and how they differ from the names used before.
+     */
+    public static class NameChanges {
+        public final ArrayList<String> mAddedNames;
+        public final ArrayList<String> mRemovedNames;
+        public final HashSet<String> mNames;
+
+        NameChanges(final HashSet<String> oldNames, final HashSet<String> newNames) {
+            mAddedNames = new ArrayList<>(newNames);
+            mAddedNames.removeAll(oldNames);
+            mRemovedNames = new ArrayList<>(oldNames);
+            mRemovedNames.removeAll(newNames);
+            mNames = newNames;
+        }
+
+        public boolean isEmpty() {
+            return mAddedNames.isEmpty() && mRemovedNames.isEmpty();
+        }
+    }
+
     /**
      * Interface to implement for classes interested in getting notified for updates
      * to Contacts content provider.
      */
     public interface ContactsChangedListener {
-        void onContactsChange();
+        /**
+         * @param changes the changed names, or null if all contacts need to be reloaded
+         */
+        void onContactsChange(@Nullable NameChanges changes);
     }
 
     /**
-     * The number of contacts observed in the most recent instance of
-     * contacts content provider.
+     * Contacts with valid names by id, null if contacts have not been loaded yet.
      */
-    private final AtomicInteger mContactCountAtLastRebuild = new AtomicInteger(0);
+    @Nullable
+    private HashMap<Long, RankedContact> mContacts;
 
     /**
-     * The hash code of list of valid contacts names in the most recent dictionary
-     * rebuild.
+     * The names selected from {@link #mContacts}.
      */
-    private final AtomicInteger mHashCodeAtLastRebuild = new AtomicInteger(0);
+    private HashSet<String> mNames = new HashSet<>();
+
+    /**
+     * Most recent update and deletion times of contacts, changes after these are not in
+     * {@link #mContacts} yet.
+     */
+    private long mLastUpdatedTimestamp;
+    private long mLastDeletedTimestamp;
 
     private final Context mContext;
     private final ContactsContentObserver mObserver;
@@ -122,80 +158,161 @@ public class ContactsManager {
         mObserver.registerObserver(listener);
     }
 
-    public int getContactCountAtLastRebuild() {
-        return mContactCountAtLastRebuild.get();
-    }
-
-    public int getHashCodeAtLastRebuild() {
-        return mHashCodeAtLastRebuild.get();
-    }
-
     /**
-     * Returns all the valid names in the Contacts DB. Callers should also
-     * call {@link #updateLocalState(ArrayList)} after they are done with result
-     * so that the manager can cache local state for determining updates.
+     * Returns all the valid names in the content provider at the uri, e.g. the user's profile.
      * <p>
      * These names are sorted by their affinity to the user, with favorite
      * contacts appearing first.
      */
     public ArrayList<String> getValidNames(final Uri uri) {
-        // Check all contacts since it's not possible to find out which names have changed.
-        // This is needed because it's possible to receive extraneous onChange events even when no
-        // name has changed.
+        final ArrayList<RankedContact> contacts = new ArrayList<>();
         final Cursor cursor = mContext.getContentResolver().query(uri,
                 ContactsDictionaryConstants.PROJECTION, null, null, null);
-        final ArrayList<RankedContact> contacts = new ArrayList<>();
-        int maxTimesContacted = 0;
         if (cursor != null) {
             try {
-                if (cursor.moveToFirst()) {
-                    while (!cursor.isAfterLast()) {
-                        final String name = cursor.getString(
-                                ContactsDictionaryConstants.NAME_INDEX);
-                        if (isValidName(name)) {
-                            final int timesContacted = cursor.getInt(
-                                    ContactsDictionaryConstants.TIMES_CONTACTED_INDEX);
-                            if (timesContacted > maxTimesContacted) {
-                                maxTimesContacted = timesContacted;
-                            }
-                            contacts.add(new RankedContact(cursor));
-                        }
-                        cursor.moveToNext();
+                while (cursor.moveToNext()) {
+                    final String name = cursor.getString(
+                            ContactsDictionaryConstants.NAME_INDEX);
+                    if (isValidName(name)) {
+                        contacts.add(new RankedContact(cursor));
                     }
                 }
             } finally {
                 cursor.close();
             }
         }
-        final long currentTime = System.currentTimeMillis();
-        for (RankedContact contact : contacts) {
-            contact.computeAffinity(maxTimesContacted, currentTime);
+        return selectNames(contacts);
+    }
+
+    /**
+     * Loads all contacts of {@link Contacts#CONTENT_URI} and returns the valid names, like
+     * {@link #getValidNames}. Afterwards {@link #queryChanges} only needs to query contacts that
+     * changed.
+     */
+    public synchronized ArrayList<String> loadContactNames() {
+        final HashMap<Long, RankedContact> contacts = new HashMap<>();
+        mLastUpdatedTimestamp = 0;
+        mLastDeletedTimestamp = getLastDeletedTimestamp();
+        queryUpdatedContacts(contacts);
+        mContacts = contacts;
+        final ArrayList<String> names = selectNames(contacts.values());
+        mNames = new HashSet<>(names);
+        return names;
+    }
+
+    /**
+     * Applies the contacts changed since the last call to the loaded contacts.
+     * @return the changes of the valid names, or null if contacts have not been loaded yet
+     */
+    @Nullable
+    public synchronized NameChanges queryChanges() {
+        if (mContacts == null) {
+            return null;
         }
-        Collections.sort(contacts, new AffinityComparator());
-        final HashSet<String> names = new HashSet<>();
-        for (int i = 0; i < contacts.size() && names.size() < MAX_CONTACT_NAMES; ++i) {
-            names.add(contacts.get(i).mName);
+        try {
+            // Deletions first, in case the id of a deleted contact is used again.
+            queryDeletedContacts(mContacts);
+            queryUpdatedContacts(mContacts);
+        } catch (final SQLiteException e) {
+            Log.e(TAG, "SQLiteException in the remote Contacts process.", e);
+        }
+        final HashSet<String> names = new HashSet<>(selectNames(mContacts.values()));
+        final NameChanges changes = new NameChanges(mNames, names);
+        mNames = names;
+        return changes;
+    }
+
+    /**
+     * Puts contacts updated since {@link #mLastUpdatedTimestamp}, or all contacts if it's 0,
+     * into contacts, and removes those that don't have a valid name any more.
+     */
+    private void queryUpdatedContacts(final HashMap<Long, RankedContact> contacts) {
+        // Contacts updated in the same millisecond may not have been returned last time, so
+        // contacts at the timestamp are queried again.
+        final boolean queryAll = mLastUpdatedTimestamp == 0;
+        final Cursor cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
+                ContactsDictionaryConstants.PROJECTION,
+                queryAll ? null : Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?",
+                queryAll ? null : new String[] { Long.toString(mLastUpdatedTimestamp) }, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final long id = cursor.getLong(ContactsDictionaryConstants.ID_INDEX);
+                final String name = cursor.getString(ContactsDictionaryConstants.NAME_INDEX);
+                if (isValidName(name)) {
+                    contacts.put(id, new RankedContact(cursor));
+                } else {
+                    contacts.remove(id);
+                }
+                mLastUpdatedTimestamp = Math.max(mLastUpdatedTimestamp,
+                        cursor.getLong(ContactsDictionaryConstants.LAST_UPDATED_INDEX));
+            }
+        } finally {
+            cursor.close();
         }
-        return new ArrayList<>(names);
     }
 
     /**
-     * Returns the number of contacts in contacts content provider.
+     * Removes contacts deleted since {@link #mLastDeletedTimestamp} from contacts.
      */
-    public int getContactCount() {
-        // TODO: consider switching to a rawQuery("select count(*)...") on the database if performance is a bottleneck.
-        try (Cursor cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
-                ContactsDictionaryConstants.PROJECTION_ID_ONLY, null, null, null)
+    private void queryDeletedContacts(final HashMap<Long, RankedContact> contacts) {
+        final Cursor cursor = mContext.getContentResolver().query(DeletedContacts.CONTENT_URI,
+                ContactsDictionaryConstants.PROJECTION_DELETED,
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + " >= ?",
+                new String[] { Long.toString(mLastDeletedTimestamp) }, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                contacts.remove(cursor.getLong(ContactsDictionaryConstants.DELETED_ID_INDEX));
+                mLastDeletedTimestamp = Math.max(mLastDeletedTimestamp,
+                        cursor.getLong(ContactsDictionaryConstants.DELETED_TIMESTAMP_INDEX));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getLastDeletedTimestamp() {
+        final Uri uri = DeletedContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1").build();
+        try (Cursor cursor = mContext.getContentResolver().query(uri,
+                ContactsDictionaryConstants.PROJECTION_DELETED, null, null,
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + " DESC")
         ) {
-            if (null == cursor)
-                return 0;
-            return cursor.getCount();
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(ContactsDictionaryConstants.DELETED_TIMESTAMP_INDEX);
+            }
         } catch (final SQLiteException e) {
             Log.e(TAG, "SQLiteException in the remote Contacts process.", e);
         }
         return 0;
     }
 
+    /**
+     * Returns the names of the {@link #MAX_CONTACT_NAMES} contacts with highest affinity.
+     */
+    private static ArrayList<String> selectNames(final Collection<RankedContact> validContacts) {
+        final ArrayList<RankedContact> contacts = new ArrayList<>(validContacts);
+        int maxTimesContacted = 0;
+        for (RankedContact contact : contacts) {
+            maxTimesContacted = Math.max(maxTimesContacted, contact.mTimesContacted);
+        }
+        final long currentTime = System.currentTimeMillis();
+        for (RankedContact contact : contacts) {
+            contact.computeAffinity(maxTimesContacted, currentTime);
+        }
+        Collections.sort(contacts, new AffinityComparator());
+        final HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < contacts.size() && names.size() < MAX_CONTACT_NAMES; ++i) {
+            names.add(contacts.get(i).mName);
+        }
+        return new ArrayList<>(names);
+    }
+
     private static boolean isValidName(final String name) {
         if (TextUtils.isEmpty(name) || name.indexOf(Constants.CODE_COMMERCIAL_AT) != -1) {
             return false;
@@ -209,15 +326,6 @@ public class ContactsManager {
         return true;
     }
 
-    /**
-     * Updates the local state of the manager. This should be called when the callers
-     * are done with all the updates of the content provider successfully.
-     */
-    public void updateLocalState(final ArrayList<String> names) {
-        mContactCountAtLastRebuild.set(getContactCount());
-        mHashCodeAtLastRebuild.set(names.hashCode());
-    }
-
     /**
      * Performs any necessary cleanup.
      */
@@ -44,6 +44,10 @@ public abstract class Dictionary {
     public static final String TYPE_RESUMED = "resumed";
     public static final PhonyDictionary DICTIONARY_RESUMED = new PhonyDictionary(TYPE_RESUMED);
 
+    // Emojis for the typed word, from the emoji keyword index.
+    public static final String TYPE_EMOJI_KEYWORDS = "emoji_keywords";
+    public static final PhonyDictionary DICTIONARY_EMOJI_KEYWORDS = new PhonyDictionary(TYPE_EMOJI_KEYWORDS);
+
     // The following types of dictionary have actual functional instances. We don't need final
     // phony dictionary instances for them.
     public static final String TYPE_MAIN = "main";
@@ -32,6 +32,7 @@ import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import helium314.keyboard.latin.utils.ExecutorUtils;
 import helium314.keyboard.latin.utils.SuggestionResults;
+import helium314.keyboard.latin.utils.Tracer;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -333,6 +334,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             @Nullable final String account,
             final String dictNamePrefix,
             @Nullable final DictionaryInitializationListener listener) {
+        final long traceStart = Tracer.begin();
         final HashMap<Locale, ArrayList<String>> existingDictionariesToCleanup = new HashMap<>();
         final HashSet<String> subDictTypesToUse = new HashSet<>();
         subDictTypesToUse.add(Dictionary.TYPE_USER);
@@ -446,6 +448,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         if (mValidSpellingWordReadCache != null) {
             mValidSpellingWordReadCache.evictAll();
         }
+        Tracer.end("DictionaryFacilitator.resetDictionaries", traceStart);
     }
 
     private void asyncReloadUninitializedMainDictionaries(final Context context,
@@ -475,7 +478,9 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 mainDicts[i] = null;
                 continue;
             }
+            final long traceStart = Tracer.begin();
             mainDicts[i] = DictionaryFactoryKt.createMainDictionary(context, dictionaryGroup.mLocale);
+            Tracer.end("create main dictionary", traceStart);
         }
 
         synchronized (mLock) {
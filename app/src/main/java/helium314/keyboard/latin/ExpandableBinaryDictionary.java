@@ -20,14 +20,20 @@ import helium314.keyboard.latin.common.FileUtils;
 import helium314.keyboard.latin.define.DecoderSpecificConstants;
 import helium314.keyboard.latin.makedict.DictionaryHeader;
 import helium314.keyboard.latin.makedict.FormatSpec;
+import helium314.keyboard.latin.makedict.NgramProperty;
 import helium314.keyboard.latin.makedict.UnsupportedFormatException;
 import helium314.keyboard.latin.makedict.WordProperty;
+import helium314.keyboard.latin.personalization.LearningJournal;
+import helium314.keyboard.latin.personalization.WordListFile;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import helium314.keyboard.latin.utils.AsyncResultHolder;
 import helium314.keyboard.latin.utils.CombinedFormatUtils;
 import helium314.keyboard.latin.utils.ExecutorUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
@@ -56,6 +62,15 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private static final int TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS = 100;
 
+    /**
+     * Journaled dictionaries are only flushed when finishing input if the journal has grown
+     * beyond this size, or if GC is needed.
+     */
+    private static final long MAX_JOURNAL_SIZE_TO_SKIP_FLUSH = 64 * 1024;
+
+    /** Number of entries added to the dictionary at once when importing a word list. */
+    private static final int WORD_LIST_BATCH_SIZE = 1000;
+
     /**
      * The maximum length of a word in this dictionary.
      */
@@ -93,14 +108,30 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private final ReentrantReadWriteLock mLock;
 
+    /** Journal of updates not written to the dictionary file yet, null if not used. */
+    @Nullable
+    private final LearningJournal mJournal;
+
     /* A extension for a binary dictionary file. */
     protected static final String DICT_FILE_EXTENSION = ".dict";
 
+    /* A extension for the journal file next to the dictionary file. */
+    public static final String JOURNAL_FILE_EXTENSION = ".journal";
+
     /**
      * Abstract method for loading initial contents of a given dictionary.
      */
     protected abstract void loadInitialContentsLocked();
 
+    /**
+     * Whether updates by {@link #updateEntriesForWord} are recorded in a journal, so they are
+     * not lost if the process is killed before the dictionary is written to its file.
+     * Called by the constructor.
+     */
+    protected boolean usesJournal() {
+        return false;
+    }
+
     static boolean matchesExpectedBinaryDictFormatVersionForThisType(final int formatVersion) {
         return formatVersion == FormatSpec.VERSION4;
     }
@@ -136,6 +167,9 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         mIsReloading = new AtomicBoolean();
         mNeedsToRecreate = false;
         mLock = new ReentrantReadWriteLock();
+        mJournal = usesJournal()
+                ? new LearningJournal(new File(mDictFile.getPath() + JOURNAL_FILE_EXTENSION))
+                : null;
     }
 
     public static File getDictFile(final Context context, final String dictName,
@@ -174,6 +208,9 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             mBinaryDictionary.close();
             mBinaryDictionary = null;
         }
+        if (mJournal != null) {
+            mJournal.close();
+        }
     }
 
     /**
@@ -208,17 +245,22 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         mBinaryDictionary = new BinaryDictionary(
                 mDictFile.getAbsolutePath(), 0 /* offset */, mDictFile.length(),
                 true /* useFullEditDistance */, mLocale, mDictType, true /* isUpdatable */);
+        mBinaryDictionary.setJournal(mJournal);
     }
 
     void createOnMemoryBinaryDictionaryLocked() {
         mBinaryDictionary = new BinaryDictionary(
                 mDictFile.getAbsolutePath(), true /* useFullEditDistance */, mLocale, mDictType,
                 DICTIONARY_FORMAT_VERSION, getHeaderAttributeMap());
+        mBinaryDictionary.setJournal(mJournal);
     }
 
     public void clear() {
         asyncExecuteTaskWithWriteLock(() -> {
             removeBinaryDictionaryLocked();
+            if (mJournal != null) {
+                mJournal.clear();
+            }
             createOnMemoryBinaryDictionaryLocked();
         });
     }
@@ -235,13 +277,78 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         });
     }
 
+    /**
+     * Running GC on a copy of a dictionary, implemented by {@link BinaryDictionary}, see
+     * {@link #runGCOnCopyLocked}.
+     */
+    public interface GCOnCopy {
+        /** @return a count that changes whenever the dictionary is updated, reopened or closed. */
+        int getUpdateCount();
+        /** Runs GC on a copy, only reading the dictionary. @return whether GC succeeded. */
+        boolean runGCOnCopy();
+        /** Replaces the dictionary with the GC result. @return whether it has been replaced. */
+        boolean replaceWithGCResult();
+        /** Deletes the GC result. */
+        void discardGCResult();
+    }
+
     protected void runGCIfRequiredLocked(final boolean mindsBlockByGC) {
         if (mBinaryDictionary.needsToRunGC(mindsBlockByGC)) {
-            mBinaryDictionary.flushWithGC();
+            runGCLocked(mindsBlockByGC);
         }
     }
 
-    private void updateDictionaryWithWriteLock(@NonNull final Runnable updateTask) {
+    /**
+     * Runs GC on a copy if possible, see {@link #runGCOnCopyLocked}. If the result can't be used,
+     * GC is run with the write lock held if still required.
+     */
+    private void runGCLocked(final boolean mindsBlockByGC) {
+        final BinaryDictionary binaryDictionary = mBinaryDictionary;
+        if (mLock.getWriteHoldCount() != 1) {
+            // Can't release the write lock held by the caller.
+            binaryDictionary.flushWithGC();
+            return;
+        }
+        if (!runGCOnCopyLocked(mLock, binaryDictionary)
+                && binaryDictionary == mBinaryDictionary
+                && binaryDictionary.needsToRunGC(mindsBlockByGC)) {
+            binaryDictionary.flushWithGC();
+        }
+    }
+
+    /**
+     * Runs GC on a copy of the dictionary while only holding the read lock, so that suggestions
+     * are not blocked by GC, and only takes the write lock again for replacing the dictionary.
+     * Updates wait for the write lock while GC is running. If an update gets the write lock
+     * before the result is used, the result is discarded. This also happens if the dictionary
+     * has been replaced in between, as the old dictionary is closed then.
+     * @param lock the lock of the dictionary, write locked once by the caller
+     * @return whether the dictionary has been replaced by the GC result
+     */
+    static boolean runGCOnCopyLocked(final ReentrantReadWriteLock lock,
+            final GCOnCopy dictionary) {
+        final int updateCount = dictionary.getUpdateCount();
+        final boolean success;
+        // Downgrade to the read lock, so that no update can get in between.
+        lock.readLock().lock();
+        lock.writeLock().unlock();
+        try {
+            success = dictionary.runGCOnCopy();
+        } finally {
+            lock.readLock().unlock();
+            lock.writeLock().lock();
+        }
+        if (!success) {
+            return false;
+        }
+        if (dictionary.getUpdateCount() != updateCount) {
+            dictionary.discardGCResult();
+            return false;
+        }
+        return dictionary.replaceWithGCResult();
+    }
+
+    protected void updateDictionaryWithWriteLock(@NonNull final Runnable updateTask) {
         reloadDictionaryIfRequired();
         asyncExecuteTaskWithWriteLock(() -> {
             if (getBinaryDictionary() == null) {
@@ -282,14 +389,18 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 return;
             }
             runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            if (!binaryDictionary.removeUnigramEntry(word)) {
-                if (DEBUG) {
-                    Log.i(TAG, "Cannot remove unigram entry: " + word);
-                }
-            }
+            removeUnigramLocked(word);
         });
     }
 
+    protected void removeUnigramLocked(final String word) {
+        if (!mBinaryDictionary.removeUnigramEntry(word)) {
+            if (DEBUG) {
+                Log.i(TAG, "Cannot remove unigram entry: " + word);
+            }
+        }
+    }
+
     /**
      * Adds n-gram information of a word to the dictionary. May overwrite an existing entry.
      */
@@ -459,6 +570,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         removeBinaryDictionaryLocked();
         createOnMemoryBinaryDictionaryLocked();
         loadInitialContentsLocked();
+        // Updates in the journal are still valid if the dictionary file was lost or invalid.
+        mBinaryDictionary.replayJournal();
         // Run GC and flush to file when initial contents have been loaded.
         mBinaryDictionary.flushWithGCIfHasUpdated();
     }
@@ -505,33 +618,41 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         if (!isReloading.compareAndSet(false, true)) {
             return;
         }
-        final File dictFile = mDictFile;
         asyncExecuteTaskWithWriteLock(() -> {
             try {
-                if (!dictFile.exists() || isNeededToRecreate()) {
-                    // If the dictionary file does not exist or contents have been updated,
-                    // generate a new one.
-                    createNewDictionaryLocked();
-                } else if (getBinaryDictionary() == null) {
-                    // Otherwise, load the existing dictionary.
-                    loadBinaryDictionaryLocked();
-                    final BinaryDictionary binaryDictionary = getBinaryDictionary();
-                    if (binaryDictionary != null && !(isValidDictionaryLocked()
-                            // TODO: remove the check below
-                            && matchesExpectedBinaryDictFormatVersionForThisType(binaryDictionary.getFormatVersion()))) {
-                        // Binary dictionary or its format version is not valid. Regenerate
-                        // the dictionary file. createNewDictionaryLocked will remove the
-                        // existing files if appropriate.
-                        createNewDictionaryLocked();
-                    }
+                // The dictionary may have been reloaded by an import in between.
+                if (isReloadRequired()) {
+                    reloadDictionaryLocked();
                 }
-                clearNeedsToRecreate();
             } finally {
                 isReloading.set(false);
             }
         });
     }
 
+    private void reloadDictionaryLocked() {
+        if (!mDictFile.exists() || isNeededToRecreate()) {
+            // If the dictionary file does not exist or contents have been updated,
+            // generate a new one.
+            createNewDictionaryLocked();
+        } else if (getBinaryDictionary() == null) {
+            // Otherwise, load the existing dictionary.
+            loadBinaryDictionaryLocked();
+            final BinaryDictionary binaryDictionary = getBinaryDictionary();
+            if (binaryDictionary != null && !(isValidDictionaryLocked()
+                    // TODO: remove the check below
+                    && matchesExpectedBinaryDictFormatVersionForThisType(binaryDictionary.getFormatVersion()))) {
+                // Binary dictionary or its format version is not valid. Regenerate
+                // the dictionary file. createNewDictionaryLocked will remove the
+                // existing files if appropriate.
+                createNewDictionaryLocked();
+            } else if (binaryDictionary != null) {
+                binaryDictionary.replayJournal();
+            }
+        }
+        clearNeedsToRecreate();
+    }
+
     /**
      * Flush binary dictionary to dictionary file.
      */
@@ -544,7 +665,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             }
             if (binaryDictionary.needsToRunGC(false /* mindsBlockByGC */)) {
                 binaryDictionary.flushWithGCIfHasUpdated();
-            } else {
+            } else if (mJournal == null || mJournal.getSize() > MAX_JOURNAL_SIZE_TO_SKIP_FLUSH) {
+                // Updates of journaled dictionaries are already persisted in the journal.
                 binaryDictionary.flush();
             }
         });
@@ -597,6 +719,113 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         });
     }
 
+    /**
+     * Adds the words and n-grams of a word list written by {@link #exportWordList}, see
+     * {@link WordListFile}. Entries are added in batches with a single native call each, and the
+     * write lock is only held per batch so suggestions are not blocked for long. GC runs once at
+     * the end, and in between only if the dictionary would not accept more entries otherwise.
+     * Blocks until done, so it must not be called on the main thread.
+     * @return the number of entries that could not be added
+     * @throws IOException if reading fails or the input is not a valid word list, entries read
+     * before are still added
+     */
+    public int importWordList(@NonNull final InputStream input,
+            @Nullable final WordListFile.ProgressListener listener) throws IOException {
+        final WordListFile.Reader reader = new WordListFile.Reader(input);
+        final WordListFile.EntryBatch batch = new WordListFile.EntryBatch(WORD_LIST_BATCH_SIZE);
+        int failedCount = 0;
+        try {
+            while (reader.readBatch(batch)) {
+                mLock.writeLock().lock();
+                try {
+                    if (isReloadRequired()) {
+                        reloadDictionaryLocked();
+                    }
+                    final BinaryDictionary binaryDictionary = getBinaryDictionary();
+                    failedCount += binaryDictionary == null ? batch.entryCount
+                            : binaryDictionary.addEntries(batch.codePoints, batch.entries,
+                                    batch.entryCount);
+                } finally {
+                    mLock.writeLock().unlock();
+                }
+                if (listener != null) {
+                    listener.onProgress(reader.getEntryCount());
+                }
+            }
+        } finally {
+            mLock.writeLock().lock();
+            try {
+                final BinaryDictionary binaryDictionary = getBinaryDictionary();
+                if (binaryDictionary != null) {
+                    binaryDictionary.flushWithGCIfHasUpdated();
+                }
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+        return failedCount;
+    }
+
+    /**
+     * Writes all words and n-grams of the dictionary as word list, see {@link WordListFile}.
+     * Updates wait until the export is done, suggestions are not blocked.
+     * Blocks until done, so it must not be called on the main thread.
+     * @return the number of written entries
+     */
+    public int exportWordList(@NonNull final OutputStream output,
+            @Nullable final WordListFile.ProgressListener listener) throws IOException {
+        mLock.writeLock().lock();
+        try {
+            if (isReloadRequired()) {
+                reloadDictionaryLocked();
+            }
+            // Downgrade to the read lock, so that no update can get in between.
+            mLock.readLock().lock();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        try {
+            final WordListFile.Writer writer = new WordListFile.Writer(output);
+            final BinaryDictionary binaryDictionary = getBinaryDictionary();
+            if (binaryDictionary != null) {
+                // N-grams can only be imported if the words exist, so all words are written first.
+                for (final boolean writeNgrams : new boolean[] { false, true }) {
+                    int token = 0;
+                    do {
+                        final BinaryDictionary.GetNextWordPropertyResult result =
+                                binaryDictionary.getNextWordProperty(token);
+                        final WordProperty wordProperty = result.mWordProperty;
+                        if (wordProperty == null) {
+                            break;
+                        }
+                        final int previousCount = writer.getEntryCount();
+                        if (!writeNgrams && !wordProperty.mIsBeginningOfSentence) {
+                            writer.writeUnigram(wordProperty.mWord, wordProperty.mProbabilityInfo,
+                                    wordProperty.mIsNotAWord, wordProperty.mIsPossiblyOffensive);
+                        } else if (writeNgrams && wordProperty.mNgrams != null) {
+                            for (final NgramProperty ngram : wordProperty.mNgrams) {
+                                writer.writeNgram(ngram.mNgramContext, ngram.mTargetWord.mWord,
+                                        ngram.mTargetWord.mProbabilityInfo);
+                            }
+                        }
+                        if (listener != null && writer.getEntryCount() / WORD_LIST_BATCH_SIZE
+                                != previousCount / WORD_LIST_BATCH_SIZE) {
+                            listener.onProgress(writer.getEntryCount());
+                        }
+                        token = result.mNextToken;
+                    } while (token != 0);
+                }
+            }
+            writer.finish();
+            if (listener != null) {
+                listener.onProgress(writer.getEntryCount());
+            }
+            return writer.getEntryCount();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
     /**
      * Returns dictionary content required for syncing.
      */
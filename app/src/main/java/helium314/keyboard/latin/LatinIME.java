@@ -26,6 +26,7 @@ import android.text.InputType;
 import android.util.PrintWriterPrinter;
 import android.util.Printer;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.View;
@@ -59,6 +60,7 @@ import helium314.keyboard.keyboard.KeyboardId;
 import helium314.keyboard.keyboard.KeyboardLayoutSet;
 import helium314.keyboard.keyboard.KeyboardSwitcher;
 import helium314.keyboard.keyboard.MainKeyboardView;
+import helium314.keyboard.keyboard.emoji.EmojiGlyphCache;
 import helium314.keyboard.latin.Suggest.OnGetSuggestedWordsCallback;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ColorType;
@@ -70,10 +72,12 @@ import helium314.keyboard.latin.common.ViewOutlineProviderUtilsKt;
 import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.define.ProductionFlags;
 import helium314.keyboard.latin.inputlogic.InputLogic;
+import helium314.keyboard.latin.inputlogic.InputTransactionProfiler;
 import helium314.keyboard.latin.permissions.PermissionsManager;
 import helium314.keyboard.latin.personalization.PersonalizationHelper;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsActivity;
+import helium314.keyboard.latin.settings.SettingsDependencies;
 import helium314.keyboard.latin.settings.SettingsValues;
 import helium314.keyboard.latin.suggestions.SuggestionStripView;
 import helium314.keyboard.latin.suggestions.SuggestionStripViewAccessor;
@@ -84,10 +88,12 @@ import helium314.keyboard.latin.utils.InputMethodPickerKt;
 import helium314.keyboard.latin.utils.JniUtils;
 import helium314.keyboard.latin.utils.LeakGuardHandlerWrapper;
 import helium314.keyboard.latin.utils.Log;
+import helium314.keyboard.latin.utils.StartupScheduler;
 import helium314.keyboard.latin.utils.StatsUtils;
 import helium314.keyboard.latin.utils.StatsUtilsManager;
 import helium314.keyboard.latin.utils.SubtypeLocaleUtils;
 import helium314.keyboard.latin.utils.SubtypeSettingsKt;
+import helium314.keyboard.latin.utils.Tracer;
 import helium314.keyboard.latin.utils.ViewLayoutUtils;
 
 import java.io.FileDescriptor;
@@ -126,6 +132,8 @@ public class LatinIME extends InputMethodService implements
     private static final String SCHEME_PACKAGE = "package";
 
     final Settings mSettings;
+    private final Settings.OnSettingsChangedListener mSettingsChangedListener = this::onSettingsChanged;
+    private final StartupScheduler mStartupScheduler = new StartupScheduler();
     public final KeyboardActionListener mKeyboardActionListener;
     private int mOriginalNavBarColor = 0;
     private int mOriginalNavBarFlags = 0;
@@ -550,12 +558,6 @@ public class LatinIME extends InputMethodService implements
         }
     }
 
-    // Loading the native library eagerly to avoid unexpected UnsatisfiedLinkError at the initial
-    // JNI call as much as possible.
-    static {
-        JniUtils.loadNativeLibrary();
-    }
-
     public LatinIME() {
         super();
         mSettings = Settings.getInstance();
@@ -568,22 +570,34 @@ public class LatinIME extends InputMethodService implements
 
     @Override
     public void onCreate() {
-        Settings.init(this);
-        DebugFlags.init(this);
-        SubtypeSettingsKt.init(this);
-        KeyboardIconsSet.Companion.getInstance().loadIcons(this);
-        RichInputMethodManager.init(this);
+        final StartupScheduler startup = mStartupScheduler;
+        // Only needed for dictionaries and proximity info, each class using it loads it too.
+        // Loading it early in parallel avoids waiting for it on first use.
+        startup.deferInBackground("native library", JniUtils::loadNativeLibrary);
+        startup.runCritical("settings", () -> {
+            Settings.init(this);
+            DebugFlags.init(this);
+        });
+        startup.runCritical("subtypes", () -> SubtypeSettingsKt.init(this));
+        startup.runCritical("icons", () -> KeyboardIconsSet.Companion.getInstance().loadIcons(this));
+        startup.runCritical("input method manager", () -> RichInputMethodManager.init(this));
         mRichImm = RichInputMethodManager.getInstance();
-        AudioAndHapticFeedbackManager.init(this);
-        AccessibilityUtils.init(this);
+        // cheap, but both are used when showing the keyboard and on the first key press, so they can't be deferred
+        startup.runCritical("feedback and accessibility", () -> {
+            AudioAndHapticFeedbackManager.init(this);
+            AccessibilityUtils.init(this);
+        });
         mStatsUtilsManager.onCreate(this, mDictionaryFacilitator);
         mDisplayContext = getDisplayContext();
         KeyboardSwitcher.init(this);
         super.onCreate();
 
         mClipboardHistoryManager.onCreate();
+        // history is only needed when opening clipboard view or when the clipboard changes
+        startup.deferOnMainThread("clipboard history", mClipboardHistoryManager::loadHistory);
         mHandler.onCreate();
-        loadSettings();
+        startup.runCritical("load settings", this::loadSettings);
+        mSettings.addOnSettingsChangedListener(mSettingsChangedListener);
 
         // Register to receive ringer mode change.
         final IntentFilter filter = new IntentFilter();
@@ -632,6 +646,20 @@ public class LatinIME extends InputMethodService implements
         mStatsUtilsManager.onLoadSettings(this, currentSettingsValues);
     }
 
+    // only invalidate what depends on the changed preference, see SettingsDependencies
+    private void onSettingsChanged(final SettingsValues settingsValues, final int dependencies) {
+        mClipboardHistoryManager.onSettingsChanged(settingsValues);
+        if (SettingsDependencies.affects(dependencies, SettingsDependencies.FEEDBACK)) {
+            AudioAndHapticFeedbackManager.getInstance().onSettingsChanged(settingsValues);
+        }
+        if (SettingsDependencies.affects(dependencies, SettingsDependencies.SUGGESTIONS)) {
+            mInputLogic.mSuggest.clearNextWordSuggestionsCache();
+        }
+        if (SettingsDependencies.affects(dependencies, SettingsDependencies.DICTIONARIES)) {
+            refreshPersonalizationDictionarySession(settingsValues);
+        }
+    }
+
     private void refreshPersonalizationDictionarySession(
             final SettingsValues currentSettingsValues) {
         if (!currentSettingsValues.mUsePersonalizedDicts) {
@@ -714,8 +742,10 @@ public class LatinIME extends InputMethodService implements
 
     @Override
     public void onDestroy() {
+        mStartupScheduler.cancel();
         mClipboardHistoryManager.onDestroy();
         mDictionaryFacilitator.closeDictionaries();
+        mSettings.removeOnSettingsChangedListener(mSettingsChangedListener);
         mSettings.onDestroy();
         unregisterReceiver(mRingerModeChangeReceiver);
         unregisterReceiver(mDictionaryPackInstallReceiver);
@@ -876,6 +906,15 @@ public class LatinIME extends InputMethodService implements
     }
 
     void onStartInputInternal(final EditorInfo editorInfo, final boolean restarting) {
+        final long traceStart = Tracer.begin();
+        try {
+            startInput(editorInfo, restarting);
+        } finally {
+            Tracer.end("onStartInput", traceStart);
+        }
+    }
+
+    private void startInput(final EditorInfo editorInfo, final boolean restarting) {
         super.onStartInput(editorInfo, restarting);
 
         final List<Locale> hintLocales = EditorInfoCompatUtils.getHintLocales(editorInfo);
@@ -896,6 +935,15 @@ public class LatinIME extends InputMethodService implements
     }
 
     void onStartInputViewInternal(final EditorInfo editorInfo, final boolean restarting) {
+        final long traceStart = Tracer.begin();
+        try {
+            startInputView(editorInfo, restarting);
+        } finally {
+            Tracer.end("onStartInputView", traceStart);
+        }
+    }
+
+    private void startInputView(final EditorInfo editorInfo, final boolean restarting) {
         super.onStartInputView(editorInfo, restarting);
 
         mDictionaryFacilitator.onStartInput();
@@ -1057,6 +1105,11 @@ public class LatinIME extends InputMethodService implements
         if (isInputViewShown()) {
             setNavigationBarColor();
             workaroundForHuaweiStatusBarIssue();
+            mStartupScheduler.onKeyboardShown();
+            final long traceStart = Tracer.begin();
+            // the frame is drawn after the frame callbacks, so post to record when it's done
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                    mHandler.post(() -> Tracer.end("show keyboard until drawn", traceStart)));
         }
     }
 
@@ -1501,15 +1554,23 @@ public class LatinIME extends InputMethodService implements
     // This method is public for testability of LatinIME, but also in the future it should
     // completely replace #onCodeInput.
     public void onEvent(@NonNull final Event event) {
+        if (mKeyboardSwitcher.isSearchActive()) {
+            mKeyboardSwitcher.onSearchEvent(event);
+            return;
+        }
         if (KeyCode.VOICE_INPUT == event.getMKeyCode()) {
             mRichImm.switchToShortcutIme(this);
         }
+        InputTransactionProfiler.begin(event.getMKeyCode() == KeyCode.DELETE
+                ? InputTransactionProfiler.TYPE_BACKSPACE : InputTransactionProfiler.TYPE_CODE_INPUT);
         final InputTransaction completeInputTransaction =
                 mInputLogic.onCodeInput(mSettings.getCurrent(), event,
                         mKeyboardSwitcher.getKeyboardShiftMode(),
                         mKeyboardSwitcher.getCurrentKeyboardScript(), mHandler);
         updateStateAfterInputTransaction(completeInputTransaction);
         mKeyboardSwitcher.onEvent(event, getCurrentAutoCapsState(), getCurrentRecapitalizeState());
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_KEYBOARD_STATE);
+        InputTransactionProfiler.end();
     }
 
     // A helper method to split the code point and the key code. Ultimately, they should not be
@@ -1533,29 +1594,42 @@ public class LatinIME extends InputMethodService implements
     public void onTextInput(final String rawText) {
         // TODO: have the keyboard pass the correct key code when we need it.
         final Event event = Event.createSoftwareTextEvent(rawText, KeyCode.MULTIPLE_CODE_POINTS);
+        if (mKeyboardSwitcher.isSearchActive()) {
+            mKeyboardSwitcher.onSearchEvent(event);
+            return;
+        }
+        InputTransactionProfiler.begin(InputTransactionProfiler.TYPE_TEXT_INPUT);
         final InputTransaction completeInputTransaction =
                 mInputLogic.onTextInput(mSettings.getCurrent(), event,
                         mKeyboardSwitcher.getKeyboardShiftMode(), mHandler);
         updateStateAfterInputTransaction(completeInputTransaction);
         mInputLogic.restartSuggestionsOnWordTouchedByCursor(mSettings.getCurrent(), mKeyboardSwitcher.getCurrentKeyboardScript());
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_SUGGESTIONS);
         mKeyboardSwitcher.onEvent(event, getCurrentAutoCapsState(), getCurrentRecapitalizeState());
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_KEYBOARD_STATE);
+        InputTransactionProfiler.end();
     }
 
+    // gestures are ignored while typing a search query
     public void onStartBatchInput() {
+        if (mKeyboardSwitcher.isSearchActive()) return;
         mInputLogic.onStartBatchInput(mSettings.getCurrent(), mKeyboardSwitcher, mHandler);
         mGestureConsumer.onGestureStarted(mRichImm.getCurrentSubtypeLocale(), mKeyboardSwitcher.getKeyboard());
     }
 
     public void onUpdateBatchInput(final InputPointers batchPointers) {
+        if (mKeyboardSwitcher.isSearchActive()) return;
         mInputLogic.onUpdateBatchInput(batchPointers);
     }
 
     public void onEndBatchInput(final InputPointers batchPointers) {
+        if (mKeyboardSwitcher.isSearchActive()) return;
         mInputLogic.onEndBatchInput(batchPointers);
         mGestureConsumer.onGestureCompleted(batchPointers);
     }
 
     public void onCancelBatchInput() {
+        if (mKeyboardSwitcher.isSearchActive()) return;
         mInputLogic.onCancelBatchInput(mHandler);
         mGestureConsumer.onGestureCanceled();
     }
@@ -1732,6 +1806,7 @@ public class LatinIME extends InputMethodService implements
             default -> {
             } // SHIFT_NO_UPDATE
         }
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_KEYBOARD_STATE);
         if (inputTransaction.requiresUpdateSuggestions()) {
             final int inputStyle;
             if (inputTransaction.getMEvent().isSuggestionStripPress()) {
@@ -1744,6 +1819,7 @@ public class LatinIME extends InputMethodService implements
             }
             mHandler.postUpdateSuggestionStrip(inputStyle);
         }
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_SUGGESTIONS);
         if (inputTransaction.didAffectContents()) {
             mSubtypeState.setCurrentSubtypeHasBeenUsed();
         }
@@ -1905,6 +1981,10 @@ public class LatinIME extends InputMethodService implements
         final SettingsValues settingsValues = mSettings.getCurrent();
         p.println(settingsValues.dump());
         p.println(mDictionaryFacilitator.dump(this));
+        p.println("Startup:");
+        p.println(mStartupScheduler.getTrace());
+        p.println("Feedback:");
+        p.println(AudioAndHapticFeedbackManager.getInstance().dump());
     }
 
     // slightly modified from Simple Keyboard: https://github.com/rkkr/simple-keyboard/blob/master/app/src/main/java/rkr/simplekeyboard/inputmethod/latin/LatinIME.java
@@ -1965,8 +2045,10 @@ public class LatinIME extends InputMethodService implements
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
         switch (level) {
-            case TRIM_MEMORY_RUNNING_LOW, TRIM_MEMORY_RUNNING_CRITICAL, TRIM_MEMORY_COMPLETE ->
-                    KeyboardLayoutSet.onSystemLocaleChanged(); // clears caches, nothing else
+            case TRIM_MEMORY_RUNNING_LOW, TRIM_MEMORY_RUNNING_CRITICAL, TRIM_MEMORY_COMPLETE -> {
+                KeyboardLayoutSet.onSystemLocaleChanged(); // clears caches, nothing else
+                EmojiGlyphCache.INSTANCE.clear();
+            }
             // deallocateMemory always called on hiding, and should not be called when showing
         }
     }
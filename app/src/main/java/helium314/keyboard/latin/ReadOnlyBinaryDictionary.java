@@ -34,7 +34,8 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
             final boolean useFullEditDistance, final Locale locale, final String dictType) {
         super(dictType, locale);
         mBinaryDictionary = new BinaryDictionary(filename, offset, length, useFullEditDistance,
-                locale, dictType, false /* isUpdatable */);
+                locale, dictType, false /* isUpdatable */,
+                BinaryDictionary.DEFAULT_PREFIX_CACHE_SIZE);
     }
 
     public boolean isValidDictionary() {
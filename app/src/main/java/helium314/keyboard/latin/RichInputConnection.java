@@ -43,6 +43,7 @@ import helium314.keyboard.latin.utils.NgramContextUtils;
 import helium314.keyboard.latin.utils.ScriptUtils;
 import helium314.keyboard.latin.utils.SpannableStringUtils;
 import helium314.keyboard.latin.utils.StatsUtils;
+import helium314.keyboard.latin.utils.TextBeforeCursorAnalyzer;
 import helium314.keyboard.latin.utils.TextRange;
 
 import java.util.concurrent.TimeUnit;
@@ -114,6 +115,12 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      * This contains the currently composing text, as LatinIME thinks the TextView is seeing it.
      */
     private final StringBuilder mComposingText = new StringBuilder();
+    /**
+     * Caches caps mode and n-gram context for the current content of the text cache. Must be
+     * notified whenever mCommittedTextBeforeComposingText, mComposingText or the expected
+     * selection changes.
+     */
+    private final TextBeforeCursorAnalyzer mTextAnalyzer = new TextBeforeCursorAnalyzer();
 
     /**
      * This variable is a temporary object used in {@link #commitText(CharSequence,int)}
@@ -228,6 +235,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     public boolean resetCachesUponCursorMoveAndReturnSuccess(final int newSelStart,
             final int newSelEnd, final boolean shouldFinishComposition) {
         mComposingText.setLength(0);
+        mTextAnalyzer.onTextChanged();
         final boolean didReloadTextSuccessfully = reloadTextCache();
         if (!didReloadTextSuccessfully) {
             Log.d(TAG, "Will try to retrieve text later.");
@@ -237,6 +245,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (mExpectedSelStart != newSelStart || mExpectedSelEnd != newSelEnd) {
             mExpectedSelStart = newSelStart;
             mExpectedSelEnd = newSelEnd;
+            mTextAnalyzer.onTextChanged();
             reloadTextCache();
             if (mExpectedSelStart != newSelStart || mExpectedSelEnd != newSelEnd) {
                 Log.i(TAG, "resetCachesUponCursorMove: tried to set "+newSelStart+"/"+newSelEnd+", but input field has "+mExpectedSelStart+"/"+mExpectedSelEnd);
@@ -259,6 +268,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // be necessary when reloading text. Only when called by setSelection, mComposingText isn't
         // always empty, but looks like things still work normally
         mComposingText.setLength(0);
+        mTextAnalyzer.onTextChanged();
         mIC = mParent.getCurrentInputConnection();
         // Call upon the inputconnection directly since our own method is using the cache, and
         // we want to refresh it.
@@ -276,6 +286,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             return false;
         }
         mCommittedTextBeforeComposingText.append(textBeforeCursor);
+        mTextAnalyzer.onTextChanged();
         return true;
     }
 
@@ -285,6 +296,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (et == null) return;
         mExpectedSelStart = et.selectionStart + et.startOffset;
         mExpectedSelEnd = et.selectionEnd + et.startOffset;
+        mTextAnalyzer.onTextChanged();
     }
 
     private void checkBatchEdit() {
@@ -303,6 +315,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // it works, but it's wrong and should be fixed.
         mCommittedTextBeforeComposingText.append(mComposingText);
         mComposingText.setLength(0);
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             mIC.finishComposingText();
         }
@@ -328,6 +341,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         mExpectedSelStart += text.length() - mComposingText.length();
         mExpectedSelEnd = mExpectedSelStart;
         mComposingText.setLength(0);
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             mTempObjectForCommitText.clear();
             mTempObjectForCommitText.append(text);
@@ -411,10 +425,12 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         }
         // This never calls InputConnection#getCapsMode - in fact, it's a static method that
         // never blocks or initiates IPC.
-        // TODO: don't call #toString() here. Instead, all accesses to
-        //  mCommittedTextBeforeComposingText should be done on the main thread.
-        return CapsModeUtils.getCapsMode(mCommittedTextBeforeComposingText.toString(), inputType,
-                spacingAndPunctuations, hasSpaceBefore);
+        // The result is cached until the text changes, as this is called several times per key
+        // press. No copy of the text is necessary because we are on the main thread, and
+        // CapsModeUtils only scans back as far as needed.
+        return mTextAnalyzer.getCapsMode(inputType, spacingAndPunctuations, hasSpaceBefore,
+                () -> CapsModeUtils.getCapsMode(mCommittedTextBeforeComposingText, inputType,
+                        spacingAndPunctuations, hasSpaceBefore));
     }
 
     public int getCodePointBeforeCursor() {
@@ -578,6 +594,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             mExpectedSelEnd -= mExpectedSelStart;
             mExpectedSelStart = 0;
         }
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             mIC.deleteSurroundingText(beforeLength, 0);
         }
@@ -640,6 +657,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 mExpectedSelEnd = mExpectedSelStart;
                 break;
             }
+            mTextAnalyzer.onTextChanged();
         }
         if (isConnected()) {
             mIC.sendKeyEvent(keyEvent);
@@ -664,6 +682,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             mCommittedTextBeforeComposingText.append(
                     textBeforeCursor.subSequence(0, indexOfStartOfComposingText));
         }
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             mIC.setComposingRegion(start, end);
         }
@@ -678,6 +697,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         mExpectedSelEnd = mExpectedSelStart;
         mComposingText.setLength(0);
         mComposingText.append(text);
+        mTextAnalyzer.onTextChanged();
         // TODO: support values of newCursorPosition != 1. At this time, this is never called with
         //  newCursorPosition != 1.
         if (isConnected()) {
@@ -717,6 +737,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         }
         mExpectedSelStart = start;
         mExpectedSelEnd = end;
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             final boolean isIcValid = mIC.setSelection(start, end);
             if (!isIcValid) {
@@ -788,6 +809,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         mExpectedSelStart += text.length() - mComposingText.length();
         mExpectedSelEnd = mExpectedSelStart;
         mComposingText.setLength(0);
+        mTextAnalyzer.onTextChanged();
         if (isConnected()) {
             mIC.commitCompletion(completionInfo);
         }
@@ -801,6 +823,13 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return NgramContext.EMPTY_PREV_WORDS_INFO;
         }
+        return mTextAnalyzer.getNgramContext(spacingAndPunctuations, n,
+                () -> computeNgramContextFromNthPreviousWord(spacingAndPunctuations, n));
+    }
+
+    @NonNull
+    private NgramContext computeNgramContextFromNthPreviousWord(
+            final SpacingAndPunctuations spacingAndPunctuations, final int n) {
         final CharSequence prev = getTextBeforeCursor(NUM_CHARS_TO_GET_BEFORE_CURSOR, 0);
         if (DEBUG_PREVIOUS_TEXT && null != prev) {
             final int checkLength = NUM_CHARS_TO_GET_BEFORE_CURSOR - 1;
@@ -1196,6 +1225,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 reloadCursorPosition();
             }
         }
+        mTextAnalyzer.onTextChanged();
     }
 
     @Override
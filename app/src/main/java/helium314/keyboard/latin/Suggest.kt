@@ -5,9 +5,11 @@
  */
 package helium314.keyboard.latin
 
+import android.content.Context
 import android.text.TextUtils
 import com.android.inputmethod.latin.utils.BinaryDictionaryUtils
 import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.emoji.EmojiKeywordIndex
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
 import helium314.keyboard.latin.common.ComposedData
 import helium314.keyboard.latin.common.Constants
@@ -28,7 +30,7 @@ import java.util.Locale
  * This class loads a dictionary and provides a list of suggestions for a given sequence of
  * characters. This includes corrections and completions.
  */
-class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
+class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator, private val mContext: Context) {
     private var mAutoCorrectionThreshold = 0f
     private val mPlausibilityThreshold = 0f
     private val nextWordSuggestionsCache = HashMap<NgramContext, SuggestionResults>()
@@ -130,6 +132,8 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
                 )
             }
         }
+        if (!resultsArePredictions && Settings.getInstance().current.mEmojiKeywordSuggestions)
+            addEmojiSuggestions(typedWordString, suggestionsList)
         val isTypedWordValid = firstOccurrenceOfTypedWordInSuggestions > -1 || (!resultsArePredictions && !allowsToBeAutoCorrected)
         callback.onGetSuggestedWords(SuggestedWords(suggestionsList, suggestionResults.mRawSuggestions,
             typedWordInfo, isTypedWordValid, hasAutoCorrection, false, inputStyle, sequenceNumber))
@@ -247,6 +251,26 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         return allowsToBeAutoCorrected to hasAutoCorrection
     }
 
+    // Adds emojis for the typed word from the emoji keyword index. If the word is a keyword, the best
+    // emoji is shown in the suggestion strip, other emojis and emojis for longer keywords are added
+    // at the end. Emojis are never used for auto-correction.
+    private fun addEmojiSuggestions(typedWord: String, suggestions: ArrayList<SuggestedWordInfo>) {
+        if (typedWord.length < 2) return
+        val index = EmojiKeywordIndex.getInstance(mContext, mDictionaryFacilitator.mainLocale) ?: return
+        val exactMatches = index.getEmojisForKeyword(typedWord, MAX_EMOJI_SUGGESTIONS)
+        val emojis = if (exactMatches.isEmpty() && typedWord.length >= MIN_LENGTH_FOR_EMOJI_COMPLETIONS)
+                index.search(typedWord, MAX_EMOJI_SUGGESTIONS)
+            else exactMatches
+        emojis.forEachIndexed { i, emoji ->
+            if (suggestions.any { it.mWord == emoji }) return@forEachIndexed
+            val kind = if (exactMatches.isEmpty()) SuggestedWordInfo.KIND_COMPLETION else SuggestedWordInfo.KIND_CORRECTION
+            val info = SuggestedWordInfo(emoji, "", 0, kind, Dictionary.DICTIONARY_EMOJI_KEYWORDS,
+                SuggestedWordInfo.NOT_AN_INDEX, SuggestedWordInfo.NOT_A_CONFIDENCE)
+            if (i == 0 && exactMatches.isNotEmpty()) suggestions.add(minOf(EMOJI_SUGGESTION_POSITION, suggestions.size), info)
+            else suggestions.add(info)
+        }
+    }
+
     // Retrieves suggestions for the batch input
     // and calls the callback function with the suggestions.
     private fun getSuggestedWordsForBatchInput(
@@ -390,6 +414,11 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         // Close to -2**31
         private const val SUPPRESS_SUGGEST_THRESHOLD = -2000000000
 
+        private const val MAX_EMOJI_SUGGESTIONS = 5
+        // after typed word and the usual 2 suggestions, so the emoji doesn't replace a word in the strip
+        private const val EMOJI_SUGGESTION_POSITION = 3
+        private const val MIN_LENGTH_FOR_EMOJI_COMPLETIONS = 3
+
         private const val MAXIMUM_AUTO_CORRECT_LENGTH_FOR_GERMAN = 12
         // TODO: should we add Finnish here?
         private val sLanguageToMaximumAutoCorrectionWithSpaceLength = hashMapOf(Locale.GERMAN.language to MAXIMUM_AUTO_CORRECT_LENGTH_FOR_GERMAN)
@@ -18,16 +18,26 @@ import androidx.annotation.Nullable;
 
 import com.android.inputmethod.latin.BinaryDictionary;
 
+import helium314.keyboard.latin.utils.ChangeDebouncer;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.SubtypeLocaleUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * An expandable dictionary that stores the words in the user dictionary provider into a binary
  * dictionary file to use it from native code.
+ * <p>
+ * The rows of the provider are kept in memory, so when the provider changes only the rows that
+ * were inserted, updated or deleted are applied to the dictionary. The provider has no
+ * modification time, so changed rows are found by comparing all rows by id.
  */
 public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     private static final String TAG = ExpandableBinaryDictionary.class.getSimpleName();
@@ -41,18 +51,77 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     private static final int USER_DICT_SHORTCUT_FREQUENCY = 14;
 
     private static final String[] PROJECTION_QUERY_WITH_SHORTCUT = new String[] {
+            Words._ID,
             Words.WORD,
             Words.SHORTCUT,
             Words.FREQUENCY,
     };
     private static final String[] PROJECTION_QUERY_WITHOUT_SHORTCUT = new String[] {
+            Words._ID,
             Words.WORD,
             Words.FREQUENCY,
     };
 
     private static final String NAME = "userunigram";
 
+    /**
+     * A row of the user dictionary provider, with the frequency already scaled.
+     */
+    static final class Entry {
+        final String mWord;
+        @Nullable final String mShortcut;
+        final int mFrequency;
+
+        Entry(final String word, @Nullable final String shortcut, final int frequency) {
+            mWord = word;
+            mShortcut = shortcut;
+            mFrequency = frequency;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Entry)) return false;
+            final Entry e = (Entry) o;
+            return mWord.equals(e.mWord) && Objects.equals(mShortcut, e.mShortcut)
+                    && mFrequency == e.mFrequency;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mWord, mShortcut, mFrequency);
+        }
+    }
+
+    /**
+     * Rows by id in the order of the provider, and which query they are from. Results of an
+     * older query than the one currently applied are outdated.
+     */
+    static final class Entries {
+        final int mGeneration;
+        final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>();
+
+        Entries(final int generation) {
+            mGeneration = generation;
+        }
+    }
+
+    /**
+     * Words to remove from the dictionary and rows to add to it, to get from the applied rows
+     * to newer rows.
+     */
+    static final class Changes {
+        final HashSet<String> mRemovedWords = new HashSet<>();
+        final ArrayList<Entry> mAddedEntries = new ArrayList<>();
+    }
+
     private ContentObserver mObserver;
+    private final ChangeDebouncer mDebouncer = new ChangeDebouncer(this::updateFromProvider);
+    private final Object mQueryLock = new Object();
+    private int mQueryGeneration;
+    // The rows added to the dictionary, null if the dictionary was loaded from its file.
+    @Nullable
+    private Entries mEntries;
     // this really needs to be the locale string, as it interacts with system
     final private String mLocaleString;
     final private boolean mAlsoUseMoreRestrictiveLocales;
@@ -74,7 +143,7 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
         mObserver = new ContentObserver(null) {
             @Override
             public void onChange(final boolean self, final Uri uri) {
-                setNeedsToRecreate();
+                mDebouncer.onChange();
             }
         };
         context.getContentResolver().registerContentObserver(Words.CONTENT_URI, true, mObserver);
@@ -93,11 +162,98 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
             mContext.getContentResolver().unregisterContentObserver(mObserver);
             mObserver = null;
         }
+        mDebouncer.cancel();
         super.close();
     }
 
     @Override
     public void loadInitialContentsLocked() {
+        mEntries = queryEntries();
+        if (mEntries == null) {
+            return;
+        }
+        for (final Entry entry : mEntries.mEntries.values()) {
+            addEntryLocked(entry);
+        }
+    }
+
+    /**
+     * Queries the rows and applies the changes to the dictionary.
+     */
+    private void updateFromProvider() {
+        final Entries entries = queryEntries();
+        if (entries == null) {
+            return;
+        }
+        updateDictionaryWithWriteLock(() -> {
+            if (mEntries == null) {
+                // Unknown which rows are in the dictionary file.
+                setNeedsToRecreate();
+                return;
+            }
+            final Changes changes = getChanges(mEntries, entries);
+            if (changes == null) {
+                return;
+            }
+            for (final String word : changes.mRemovedWords) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                removeUnigramLocked(word);
+            }
+            for (final Entry entry : changes.mAddedEntries) {
+                addEntryLocked(entry);
+            }
+            mEntries = entries;
+        });
+    }
+
+    /**
+     * Returns the changes from the applied rows to the queried rows, or null if the queried rows
+     * are not newer. Words and shortcuts of deleted or changed rows are removed if no other row
+     * has them. Inserted and changed rows are added, and rows with the same words as deleted or
+     * changed rows are added again, as their word may have been overwritten.
+     */
+    @Nullable
+    static Changes getChanges(final Entries applied, final Entries queried) {
+        if (queried.mGeneration <= applied.mGeneration) {
+            return null;
+        }
+        final LinkedHashMap<Long, Entry> oldEntries = applied.mEntries;
+        final LinkedHashMap<Long, Entry> newEntries = queried.mEntries;
+        final HashSet<String> changedWords = new HashSet<>();
+        for (final Map.Entry<Long, Entry> oldEntry : oldEntries.entrySet()) {
+            final Entry entry = oldEntry.getValue();
+            if (!entry.equals(newEntries.get(oldEntry.getKey()))) {
+                changedWords.add(entry.mWord);
+                if (entry.mShortcut != null) changedWords.add(entry.mShortcut);
+            }
+        }
+        final HashSet<String> remainingWords = new HashSet<>();
+        for (final Entry entry : newEntries.values()) {
+            remainingWords.add(entry.mWord);
+            if (entry.mShortcut != null) remainingWords.add(entry.mShortcut);
+        }
+        final Changes changes = new Changes();
+        for (final String word : changedWords) {
+            if (!remainingWords.contains(word)) {
+                changes.mRemovedWords.add(word);
+            }
+        }
+        for (final Map.Entry<Long, Entry> newEntry : newEntries.entrySet()) {
+            final Entry entry = newEntry.getValue();
+            if (!entry.equals(oldEntries.get(newEntry.getKey()))
+                    || changedWords.contains(entry.mWord)
+                    || (entry.mShortcut != null && changedWords.contains(entry.mShortcut))) {
+                changes.mAddedEntries.add(entry);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the rows for the locale, or null if the query failed.
+     */
+    @Nullable
+    private Entries queryEntries() {
         // Split the locale. For example "en" => ["en"], "de_DE" => ["de", "DE"],
         // "en_US_foo_bar_qux" => ["en", "US", "foo_bar_qux"] because of the limit of 3.
         // This is correct for locale processing. (well, and it sucks e.g. for sr-Latn, resp. sr__#Latn as string)
@@ -145,24 +301,34 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
             requestArguments = localeElements;
         }
         final String requestString = request.toString();
-        try {
-            addWordsFromProjectionLocked(PROJECTION_QUERY_WITH_SHORTCUT, requestString, requestArguments);
-        } catch (IllegalArgumentException e) {
-            // This may happen on some non-compliant devices where the declared API is JB+ but
-            // the SHORTCUT column is not present for some reason.
-            addWordsFromProjectionLocked(PROJECTION_QUERY_WITHOUT_SHORTCUT, requestString, requestArguments);
+        // Synchronized so the generation matches the order of the queries.
+        synchronized (mQueryLock) {
+            final Entries entries = new Entries(++mQueryGeneration);
+            try {
+                try {
+                    readEntriesFromProjection(entries.mEntries, PROJECTION_QUERY_WITH_SHORTCUT, requestString, requestArguments);
+                } catch (IllegalArgumentException e) {
+                    // This may happen on some non-compliant devices where the declared API is JB+ but
+                    // the SHORTCUT column is not present for some reason.
+                    entries.mEntries.clear();
+                    readEntriesFromProjection(entries.mEntries, PROJECTION_QUERY_WITHOUT_SHORTCUT, requestString, requestArguments);
+                }
+            } catch (final SQLiteException e) {
+                Log.e(TAG, "SQLiteException in the remote User dictionary process.", e);
+                return null;
+            }
+            return entries;
         }
     }
 
-    private void addWordsFromProjectionLocked(final String[] query, String request, final String[] requestArguments)
+    private void readEntriesFromProjection(final LinkedHashMap<Long, Entry> entries,
+            final String[] query, String request, final String[] requestArguments)
             throws IllegalArgumentException {
         Cursor cursor = null;
         try {
             cursor = mContext.getContentResolver().query(
                     Words.CONTENT_URI, query, request, requestArguments, null);
-            addWordsLocked(cursor);
-        } catch (final SQLiteException e) {
-            Log.e(TAG, "SQLiteException in the remote User dictionary process.", e);
+            readEntries(entries, cursor);
         } finally {
             try {
                 if (null != cursor) cursor.close();
@@ -184,35 +350,41 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
                 / HISTORICAL_DEFAULT_USER_DICTIONARY_FREQUENCY;
     }
 
-    private void addWordsLocked(final Cursor cursor) {
-        final boolean hasShortcutColumn = true;
+    private static void readEntries(final LinkedHashMap<Long, Entry> entries, final Cursor cursor) {
         if (cursor == null) return;
         if (cursor.moveToFirst()) {
+            final int indexId = cursor.getColumnIndex(Words._ID);
             final int indexWord = cursor.getColumnIndex(Words.WORD);
-            final int indexShortcut = hasShortcutColumn ? cursor.getColumnIndex(Words.SHORTCUT) : 0;
+            final int indexShortcut = cursor.getColumnIndex(Words.SHORTCUT);
             final int indexFrequency = cursor.getColumnIndex(Words.FREQUENCY);
             while (!cursor.isAfterLast()) {
                 final String word = cursor.getString(indexWord);
-                final String shortcut = hasShortcutColumn ? cursor.getString(indexShortcut) : null;
+                final String shortcut = indexShortcut >= 0 ? cursor.getString(indexShortcut) : null;
                 final int frequency = cursor.getInt(indexFrequency);
-                final int adjustedFrequency = scaleFrequencyFromDefaultToLatinIme(frequency);
-                // Safeguard against adding really long words.
-                if (word.length() <= MAX_WORD_LENGTH) {
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word, adjustedFrequency, null /* shortcutTarget */,
-                            0 /* shortcutFreq */, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (null != shortcut && shortcut.length() <= MAX_WORD_LENGTH) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addUnigramLocked(shortcut, adjustedFrequency, word,
-                                USER_DICT_SHORTCUT_FREQUENCY, true /* isNotAWord */,
-                                false /* isPossiblyOffensive */,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
+                if (word != null) {
+                    entries.put(cursor.getLong(indexId), new Entry(word, shortcut,
+                            scaleFrequencyFromDefaultToLatinIme(frequency)));
                 }
                 cursor.moveToNext();
             }
         }
     }
+
+    private void addEntryLocked(final Entry entry) {
+        // Safeguard against adding really long words.
+        if (entry.mWord.length() <= MAX_WORD_LENGTH) {
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(entry.mWord, entry.mFrequency, null /* shortcutTarget */,
+                    0 /* shortcutFreq */, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            if (null != entry.mShortcut && entry.mShortcut.length() <= MAX_WORD_LENGTH) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                addUnigramLocked(entry.mShortcut, entry.mFrequency, entry.mWord,
+                        USER_DICT_SHORTCUT_FREQUENCY, true /* isNotAWord */,
+                        false /* isPossiblyOffensive */,
+                        BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            }
+        }
+    }
 }
@@ -56,6 +56,8 @@ public final class WordComposer {
     private String mRejectedBatchModeSuggestion;
 
     // Cache these values for performance
+    // The typed word may be a view on the combiner chain, so it needs to be refreshed whenever
+    // the chain changes.
     private CharSequence mTypedWordCache;
     private int mCapsCount;
     private int mDigitsCount;
@@ -267,6 +269,7 @@ public final class WordComposer {
         mCursorPositionWithinWord = cursorPos;
         mCombinerChain.applyProcessedEvent(mCombinerChain.processEvent(
                 mEvents, Event.createCursorMovedEvent(cursorPos)));
+        refreshTypedWordCache();
         return true;
     }
 
@@ -119,7 +119,7 @@ public final class InputLogic {
         mWordComposer = new WordComposer();
         mConnection = new RichInputConnection(latinIME);
         mInputLogicHandler = InputLogicHandler.NULL_HANDLER;
-        mSuggest = new Suggest(dictionaryFacilitator);
+        mSuggest = new Suggest(dictionaryFacilitator, latinIME);
         mDictionaryFacilitator = dictionaryFacilitator;
     }
 
@@ -247,7 +247,9 @@ public final class InputLogic {
         }
         mConnection.commitText(text, 1);
         StatsUtils.onWordCommitUserTyped(mEnteredText, mWordComposer.isBatchMode());
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_HANDLE_EVENT);
         mConnection.endBatchEdit();
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_END_BATCH_EDIT);
         // Space state must be updated before calling updateShiftState
         mSpaceState = SpaceState.NONE;
         mEnteredText = text;
@@ -455,6 +457,7 @@ public final class InputLogic {
             mWordComposer.setHangul(false);
             processedEvent = mWordComposer.processEvent(event);
         }
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_COMBINE);
         final InputTransaction inputTransaction = new InputTransaction(settingsValues,
                 processedEvent, SystemClock.uptimeMillis(), mSpaceState,
                 getActualCapsMode(settingsValues, keyboardShiftMode));
@@ -503,7 +506,9 @@ public final class InputLogic {
         if (KeyCode.DELETE != processedEvent.getMKeyCode()) {
             mEnteredText = null;
         }
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_HANDLE_EVENT);
         mConnection.endBatchEdit();
+        InputTransactionProfiler.mark(InputTransactionProfiler.STAGE_END_BATCH_EDIT);
         return inputTransaction;
     }
 
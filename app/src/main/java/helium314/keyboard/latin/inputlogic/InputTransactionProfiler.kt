@@ -0,0 +1,109 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.inputlogic
+
+import android.os.SystemClock
+import helium314.keyboard.latin.define.DebugFlags
+import helium314.keyboard.latin.utils.RingBufferRecorder
+import java.io.StringWriter
+import java.io.Writer
+
+/**
+ * Records how long the stages of each input transaction take, only if debug mode is enabled.
+ *
+ * A transaction is started with [begin] and finished with [end], both on the main thread. In
+ * between, [mark] adds the time since the previous mark to the given stage. Finished records are
+ * written to a [RingBufferRecorder], so they can be exported from any thread.
+ */
+object InputTransactionProfiler {
+    const val TYPE_CODE_INPUT = 0
+    const val TYPE_BACKSPACE = 1
+    const val TYPE_TEXT_INPUT = 2
+    private val TYPE_NAMES = arrayOf("code", "backspace", "text")
+
+    /** Combiner chain processing the event. */
+    const val STAGE_COMBINE = 0
+    /** Handling the event, including WordComposer updates and the input connection calls this requires. */
+    const val STAGE_HANDLE_EVENT = 1
+    /** Finishing the batch edit, which sends the changes to the editor. */
+    const val STAGE_END_BATCH_EDIT = 2
+    /** Scheduling suggestion updates. */
+    const val STAGE_SUGGESTIONS = 3
+    /** Updating shift state and keyboard switcher state. */
+    const val STAGE_KEYBOARD_STATE = 4
+    private val STAGE_NAMES = arrayOf("combine", "handle_event", "end_batch_edit", "suggestions", "keyboard_state")
+    private const val STAGE_COUNT = 5
+
+    private const val CAPACITY = 1024 // must be a power of 2
+    // record layout: type, start time, total duration, stage durations
+    private const val FIELD_TYPE = 0
+    private const val FIELD_START = 1
+    private const val FIELD_TOTAL = 2
+    private const val FIELD_STAGES = 3
+    private const val FIELD_COUNT = FIELD_STAGES + STAGE_COUNT
+
+    private val recorder = RingBufferRecorder<Nothing>(CAPACITY, FIELD_COUNT)
+    // only accessed on the main thread
+    private var isOpen = false
+    private var startNanos = 0L
+    private var lastMarkNanos = 0L
+    private val current = LongArray(FIELD_COUNT)
+
+    @JvmStatic
+    fun begin(type: Int) {
+        if (!DebugFlags.DEBUG_ENABLED) return
+        isOpen = true
+        current.fill(0)
+        current[FIELD_TYPE] = type.toLong()
+        startNanos = System.nanoTime()
+        lastMarkNanos = startNanos
+    }
+
+    @JvmStatic
+    fun mark(stage: Int) {
+        if (!isOpen) return
+        val now = System.nanoTime()
+        current[FIELD_STAGES + stage] += now - lastMarkNanos
+        lastMarkNanos = now
+    }
+
+    @JvmStatic
+    fun end() {
+        if (!isOpen) return
+        isOpen = false
+        current[FIELD_START] = SystemClock.uptimeMillis() - (System.nanoTime() - startNanos) / 1000000
+        current[FIELD_TOTAL] = lastMarkNanos - startNanos
+        recorder.record(null, current)
+    }
+
+    @JvmStatic
+    fun getRecordCount() = recorder.snapshot().size
+
+    /** Returns percentiles of total and stage durations, followed by all records in csv format. */
+    @JvmStatic
+    fun export(): String {
+        val snapshot = recorder.snapshot()
+        val writer = StringWriter()
+        writer.write("${snapshot.size} transactions, durations in µs\n")
+        writer.write("stage: p50 p90 p99 max\n")
+        writeSummary(writer, "total", snapshot.map { it.fields[FIELD_TOTAL] })
+        for (i in 0 until STAGE_COUNT)
+            writeSummary(writer, STAGE_NAMES[i], snapshot.map { it.fields[FIELD_STAGES + i] })
+        writer.write("\nsequence,type,start_uptime_ms,total,${STAGE_NAMES.joinToString(",")}\n")
+        snapshot.forEach { record ->
+            val fields = record.fields
+            writer.write("${record.sequence},${TYPE_NAMES[fields[FIELD_TYPE].toInt()]},${fields[FIELD_START]}")
+            for (i in FIELD_TOTAL until FIELD_COUNT)
+                writer.write(",${fields[i] / 1000}")
+            writer.write("\n")
+        }
+        return writer.toString()
+    }
+
+    private fun writeSummary(writer: Writer, name: String, durations: List<Long>) {
+        if (durations.isEmpty()) return
+        val sorted = durations.sorted()
+        fun percentile(p: Int) = sorted[(sorted.size - 1) * p / 100] / 1000
+        writer.write("$name: ${percentile(50)} ${percentile(90)} ${percentile(99)} ${sorted.last() / 1000}\n")
+    }
+}
@@ -0,0 +1,182 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.personalization
+
+import helium314.keyboard.latin.utils.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+
+/**
+ * Append-only journal of the learning events of an updatable dictionary that have not been written
+ * to the dictionary file yet, so learning is not lost if the process is killed before the next flush.
+ * Appending an event is a single small write. It's not synced to disk, but data in the page cache
+ * survives the process being killed, which is what usually happens to the keyboard.
+ * Events are replayed after loading the dictionary, and the journal is cleared whenever the
+ * dictionary is written to its file. It's not thread safe, and used while holding the dictionary lock.
+ *
+ * Format (big endian):
+ *  int magic, short version, then records of int payload length, payload, int CRC32 of the payload
+ *  payload: byte previous word count, for each previous word boolean beginning of sentence and word,
+ *   then word, boolean valid word, int count, int timestamp
+ *  words: short code point count, int code points
+ * A record that is cut off or doesn't match its checksum ends the journal, as the process was killed
+ * while writing it.
+ */
+class LearningJournal(private val file: File) {
+    class Event(
+        @JvmField val prevWordCodePointArrays: Array<IntArray>,
+        @JvmField val isBeginningOfSentenceArray: BooleanArray,
+        @JvmField val word: IntArray,
+        @JvmField val isValidWord: Boolean,
+        @JvmField val count: Int,
+        @JvmField val timestamp: Int
+    )
+
+    private var output: FileOutputStream? = null
+    private val checksum = CRC32()
+
+    /** Size of the journal file in bytes. */
+    val size get() = file.length()
+
+    fun append(prevWordCodePointArrays: Array<IntArray>, isBeginningOfSentenceArray: BooleanArray, word: IntArray,
+               isValidWord: Boolean, count: Int, timestamp: Int): Boolean {
+        val payloadSize = 1 + prevWordCodePointArrays.sumOf { 1 + 2 + it.size * 4 } + 2 + word.size * 4 + 1 + 4 + 4
+        val record = ByteBuffer.allocate(4 + payloadSize + 4)
+        record.putInt(payloadSize)
+        record.put(prevWordCodePointArrays.size.toByte())
+        prevWordCodePointArrays.forEachIndexed { i, prevWord ->
+            record.put((if (isBeginningOfSentenceArray[i]) 1 else 0).toByte())
+            putCodePoints(record, prevWord)
+        }
+        putCodePoints(record, word)
+        record.put((if (isValidWord) 1 else 0).toByte())
+        record.putInt(count)
+        record.putInt(timestamp)
+        checksum.reset()
+        checksum.update(record.array(), 4, payloadSize)
+        record.putInt(checksum.value.toInt())
+        return write(record.array())
+    }
+
+    fun append(events: List<Event>): Boolean = events.all {
+        append(it.prevWordCodePointArrays, it.isBeginningOfSentenceArray, it.word, it.isValidWord, it.count, it.timestamp)
+    }
+
+    /** Reads all complete events, and removes an incomplete event at the end. */
+    fun read(): List<Event> {
+        if (!file.exists()) return emptyList()
+        close()
+        val bytes = try {
+            file.readBytes()
+        } catch (e: IOException) {
+            Log.w(TAG, "can't read journal ${file.name}", e)
+            return emptyList()
+        }
+        val buffer = ByteBuffer.wrap(bytes)
+        if (bytes.size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort().toInt() != VERSION) {
+            Log.w(TAG, "invalid journal ${file.name}")
+            clear()
+            return emptyList()
+        }
+        val events = ArrayList<Event>()
+        while (buffer.remaining() >= 8) {
+            val payloadStart = buffer.position() + 4
+            val payloadSize = buffer.getInt(buffer.position())
+            if (payloadSize < 0 || payloadSize > buffer.remaining() - 8) break
+            checksum.reset()
+            checksum.update(bytes, payloadStart, payloadSize)
+            if (buffer.getInt(payloadStart + payloadSize) != checksum.value.toInt()) break
+            events.add(readEvent(ByteBuffer.wrap(bytes, payloadStart, payloadSize)) ?: break)
+            buffer.position(payloadStart + payloadSize + 4)
+        }
+        if (buffer.position() < bytes.size) {
+            Log.i(TAG, "removing incomplete event at the end of journal ${file.name}")
+            truncate(buffer.position().toLong())
+        }
+        return events
+    }
+
+    /** Removes all events, called when the dictionary has been written to its file. */
+    fun clear() {
+        close()
+        if (file.exists() && !file.delete())
+            Log.w(TAG, "can't delete journal ${file.name}")
+    }
+
+    fun close() {
+        try {
+            output?.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "can't close journal ${file.name}", e)
+        }
+        output = null
+    }
+
+    private fun write(record: ByteArray): Boolean {
+        try {
+            val out = output ?: openOutput()
+            out.write(record)
+            return true
+        } catch (e: IOException) {
+            Log.w(TAG, "can't write to journal ${file.name}", e)
+            close()
+            return false
+        }
+    }
+
+    private fun openOutput(): FileOutputStream {
+        val out = if (file.length() >= HEADER_SIZE) {
+            FileOutputStream(file, true)
+        } else {
+            FileOutputStream(file).also {
+                it.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION.toShort()).array())
+            }
+        }
+        output = out
+        return out
+    }
+
+    private fun truncate(length: Long) {
+        try {
+            RandomAccessFile(file, "rw").use { it.setLength(length) }
+        } catch (e: IOException) {
+            Log.w(TAG, "can't truncate journal ${file.name}", e)
+            clear()
+        }
+    }
+
+    private fun putCodePoints(buffer: ByteBuffer, codePoints: IntArray) {
+        buffer.putShort(codePoints.size.toShort())
+        codePoints.forEach { buffer.putInt(it) }
+    }
+
+    private fun readCodePoints(buffer: ByteBuffer) = IntArray(buffer.getShort().toInt()) { buffer.getInt() }
+
+    // the checksum matched, so null only if the event was written by a different version
+    private fun readEvent(buffer: ByteBuffer): Event? = try {
+        val prevWordCount = buffer.get().toInt()
+        val isBeginningOfSentenceArray = BooleanArray(prevWordCount)
+        val prevWordCodePointArrays = Array(prevWordCount) {
+            isBeginningOfSentenceArray[it] = buffer.get().toInt() != 0
+            readCodePoints(buffer)
+        }
+        val word = readCodePoints(buffer)
+        Event(prevWordCodePointArrays, isBeginningOfSentenceArray, word, buffer.get().toInt() != 0, buffer.getInt(), buffer.getInt())
+    } catch (e: BufferUnderflowException) {
+        null
+    } catch (e: NegativeArraySizeException) {
+        null
+    }
+
+    companion object {
+        private const val TAG = "LearningJournal"
+        private const val MAGIC = 0x48424C4A // "HBLJ"
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 6
+    }
+}
@@ -80,6 +80,11 @@ public class UserHistoryDictionary extends ExpandableBinaryDictionary {
         return attributeMap;
     }
 
+    @Override
+    protected boolean usesJournal() {
+        return true;
+    }
+
     @Override
     protected void loadInitialContentsLocked() {
         // No initial contents.
@@ -0,0 +1,213 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.personalization
+
+import com.android.inputmethod.latin.BinaryDictionary
+import helium314.keyboard.latin.NgramContext
+import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.makedict.ProbabilityInfo
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Compact binary word list for importing large numbers of words and n-grams into dynamic dictionaries,
+ * and exporting them, see [helium314.keyboard.latin.ExpandableBinaryDictionary.importWordList].
+ * Entries are read in batches that are added to the dictionary with a single native call.
+ *
+ * Format: int magic and short version (big endian), then records of varints:
+ *  previous word count + 1 (0 ends the list), flags, then zigzag encoded probability, timestamp, level
+ *  and count, then each previous word and the word as code point count followed by the code points.
+ * Entries without previous words are unigrams. N-grams can only be added for existing words, so all
+ * unigrams should be written before the n-grams. Flags are [BinaryDictionary.ENTRY_FLAG_NOT_A_WORD] etc.
+ */
+object WordListFile {
+    private const val MAGIC = 0x4842574C // "HBWL"
+    private const val VERSION = 1
+
+    fun interface ProgressListener {
+        fun onProgress(processedEntries: Int)
+    }
+
+    /** Entries in the layout used by [BinaryDictionary.addEntries]. */
+    class EntryBatch(val capacity: Int) {
+        @JvmField var codePoints = IntArray(capacity * 8)
+        @JvmField val entries = IntArray(capacity * BinaryDictionary.ENTRY_SIZE)
+        @JvmField var entryCount = 0
+        private var codePointCount = 0
+
+        val isFull get() = entryCount == capacity
+
+        fun clear() {
+            entryCount = 0
+            codePointCount = 0
+        }
+
+        fun add(prevWords: Array<IntArray>, word: IntArray, flags: Int, probability: Int, timestamp: Int, level: Int, count: Int) {
+            check(!isFull)
+            val entry = entryCount * BinaryDictionary.ENTRY_SIZE
+            entries[entry + BinaryDictionary.ENTRY_PROBABILITY] = probability
+            entries[entry + BinaryDictionary.ENTRY_TIMESTAMP] = timestamp
+            entries[entry + BinaryDictionary.ENTRY_LEVEL] = level
+            entries[entry + BinaryDictionary.ENTRY_COUNT] = count
+            entries[entry + BinaryDictionary.ENTRY_FLAGS] = flags
+            entries[entry + BinaryDictionary.ENTRY_PREV_WORD_COUNT] = prevWords.size
+            prevWords.forEachIndexed { i, prevWord ->
+                entries[entry + BinaryDictionary.ENTRY_PREV_WORDS + 2 * i] = addCodePoints(prevWord)
+                entries[entry + BinaryDictionary.ENTRY_PREV_WORDS + 2 * i + 1] = prevWord.size
+            }
+            entries[entry + BinaryDictionary.ENTRY_WORD_START] = addCodePoints(word)
+            entries[entry + BinaryDictionary.ENTRY_WORD_LENGTH] = word.size
+            entryCount++
+        }
+
+        /** @return start of the added code points */
+        private fun addCodePoints(word: IntArray): Int {
+            if (codePointCount + word.size > codePoints.size)
+                codePoints = codePoints.copyOf(maxOf(codePoints.size * 2, codePointCount + word.size))
+            word.copyInto(codePoints, codePointCount)
+            codePointCount += word.size
+            return codePointCount - word.size
+        }
+    }
+
+    class Writer(output: OutputStream) {
+        private val output = BufferedOutputStream(output)
+        var entryCount = 0
+            private set
+
+        init {
+            repeat(4) { this.output.write(MAGIC ushr (24 - it * 8)) }
+            this.output.write(VERSION ushr 8)
+            this.output.write(VERSION)
+        }
+
+        fun writeUnigram(word: String, probabilityInfo: ProbabilityInfo, isNotAWord: Boolean, isPossiblyOffensive: Boolean) {
+            var flags = 0
+            if (isNotAWord) flags = flags or BinaryDictionary.ENTRY_FLAG_NOT_A_WORD
+            if (isPossiblyOffensive) flags = flags or BinaryDictionary.ENTRY_FLAG_POSSIBLY_OFFENSIVE
+            writeEntry(emptyArray(), StringUtils.toCodePointArray(word), flags, probabilityInfo)
+        }
+
+        fun writeNgram(ngramContext: NgramContext, word: String, probabilityInfo: ProbabilityInfo) {
+            var flags = 0
+            val prevWords = Array(ngramContext.prevWordCount) {
+                if (ngramContext.isNthPrevWordBeginningOfSentence(it + 1)) {
+                    flags = flags or (BinaryDictionary.ENTRY_FLAG_PREV_WORD_IS_BEGINNING_OF_SENTENCE shl it)
+                    IntArray(0)
+                } else StringUtils.toCodePointArray(ngramContext.getNthPrevWord(it + 1)?.toString() ?: "")
+            }
+            writeEntry(prevWords, StringUtils.toCodePointArray(word), flags, probabilityInfo)
+        }
+
+        fun writeEntry(prevWords: Array<IntArray>, word: IntArray, flags: Int, probabilityInfo: ProbabilityInfo) {
+            require(prevWords.size <= BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM)
+            writeVarInt(prevWords.size + 1)
+            writeVarInt(flags)
+            writeVarInt(zigzag(probabilityInfo.mProbability))
+            writeVarInt(zigzag(probabilityInfo.mTimestamp))
+            writeVarInt(zigzag(probabilityInfo.mLevel))
+            writeVarInt(zigzag(probabilityInfo.mCount))
+            prevWords.forEach { writeCodePoints(it) }
+            writeCodePoints(word)
+            entryCount++
+        }
+
+        /** Writes the end of the list and flushes, the output is not closed. */
+        fun finish() {
+            writeVarInt(0)
+            output.flush()
+        }
+
+        private fun writeCodePoints(codePoints: IntArray) {
+            writeVarInt(codePoints.size)
+            codePoints.forEach { writeVarInt(it) }
+        }
+
+        private fun writeVarInt(value: Int) {
+            var v = value
+            while (v and 0x7F.inv() != 0) {
+                output.write((v and 0x7F) or 0x80)
+                v = v ushr 7
+            }
+            output.write(v)
+        }
+
+        private fun zigzag(value: Int) = (value shl 1) xor (value shr 31)
+    }
+
+    /** @throws IOException if the input is not a word list */
+    class Reader(input: InputStream) {
+        private val input = BufferedInputStream(input)
+        private var isDone = false
+        var entryCount = 0
+            private set
+
+        init {
+            val magic = (0 until 4).fold(0) { acc, _ -> (acc shl 8) or readByte() }
+            val version = (readByte() shl 8) or readByte()
+            if (magic != MAGIC) throw IOException("not a word list")
+            if (version != VERSION) throw IOException("unsupported word list version $version")
+        }
+
+        /**
+         * Replaces the entries in [batch] with the next entries, until it's full or the list ends.
+         * @return false if there were no more entries
+         * @throws IOException if the list is invalid or incomplete
+         */
+        fun readBatch(batch: EntryBatch): Boolean {
+            batch.clear()
+            while (!isDone && !batch.isFull) {
+                val storedPrevWordCount = readVarInt()
+                if (storedPrevWordCount == 0) {
+                    isDone = true
+                    break
+                }
+                val prevWordCount = storedPrevWordCount - 1
+                if (prevWordCount < 0 || prevWordCount > BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM)
+                    throw IOException("invalid word list entry $entryCount")
+                val flags = readVarInt()
+                val probability = unzigzag(readVarInt())
+                val timestamp = unzigzag(readVarInt())
+                val level = unzigzag(readVarInt())
+                val count = unzigzag(readVarInt())
+                val prevWords = Array(prevWordCount) { readCodePoints() }
+                batch.add(prevWords, readCodePoints(), flags, probability, timestamp, level, count)
+                entryCount++
+            }
+            return batch.entryCount > 0
+        }
+
+        private fun readCodePoints(): IntArray {
+            val size = readVarInt()
+            if (size < 0 || size > BinaryDictionary.DICTIONARY_MAX_WORD_LENGTH)
+                throw IOException("invalid word list entry $entryCount")
+            return IntArray(size) { readVarInt() }
+        }
+
+        private fun readVarInt(): Int {
+            var value = 0
+            var shift = 0
+            while (shift < 35) {
+                val b = readByte()
+                // only the lowest 4 bits of the 5th byte fit into an int
+                if (shift == 28 && b and 0x70 != 0) break
+                value = value or ((b and 0x7F) shl shift)
+                if (b and 0x80 == 0) return value
+                shift += 7
+            }
+            throw IOException("invalid word list entry $entryCount")
+        }
+
+        private fun readByte(): Int {
+            val b = input.read()
+            if (b < 0) throw EOFException("word list is incomplete")
+            return b
+        }
+
+        private fun unzigzag(value: Int) = (value ushr 1) xor -(value and 1)
+    }
+}
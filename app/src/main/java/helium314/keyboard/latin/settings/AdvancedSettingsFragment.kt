@@ -39,6 +39,7 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.LAYOUT_SYMBOLS_SHIFT
 import helium314.keyboard.keyboard.internal.keyboard_parser.RawKeyboardParser
 import helium314.keyboard.latin.AudioAndHapticFeedbackManager
 import helium314.keyboard.latin.BuildConfig
+import helium314.keyboard.latin.ExpandableBinaryDictionary
 import helium314.keyboard.latin.R
 import helium314.keyboard.latin.SystemBroadcastReceiver
 import helium314.keyboard.latin.checkVersionUpgrade
@@ -90,6 +91,7 @@ class AdvancedSettingsFragment : SubScreenFragment() {
         "layouts/$CUSTOM_LAYOUT_PREFIX+\\..{0,4}".toRegex(), // can't expect a period at the end, as this would break restoring older backups
         "dicts/.*/.*user\\.dict".toRegex(),
         "UserHistoryDictionary.*/UserHistoryDictionary.*\\.(body|header)".toRegex(),
+        "UserHistoryDictionary.*\\.journal".toRegex(),
         "custom_background_image.*".toRegex(),
     ) }
 
@@ -383,6 +385,8 @@ class AdvancedSettingsFragment : SubScreenFragment() {
                         val filesDir = requireContext().filesDir?.path ?: return@execute
                         val deviceProtectedFilesDir = DeviceProtectedUtils.getFilesDir(requireContext()).path
                         Settings.getInstance().stopListener()
+                        // journals of the current user history must not be replayed on the restored dictionaries
+                        val replacedJournals = HashSet<String>()
                         while (entry != null) {
                             if (entry.name.startsWith("unprotected${File.separator}")) {
                                 val adjustedName = entry.name.substringAfter("unprotected${File.separator}")
@@ -393,6 +397,14 @@ class AdvancedSettingsFragment : SubScreenFragment() {
                                 }
                             } else if (backupFilePatterns.any { entry!!.name.matches(it) }) {
                                 val targetFileName = upgradeFileNames(entry.name)
+                                if (targetFileName.startsWith("UserHistoryDictionary")) {
+                                    // the journal is next to the dictionary directory, and may be in the backup too
+                                    val dictName = if (targetFileName.endsWith(ExpandableBinaryDictionary.JOURNAL_FILE_EXTENSION))
+                                            targetFileName.removeSuffix(ExpandableBinaryDictionary.JOURNAL_FILE_EXTENSION)
+                                        else targetFileName.substringBefore(File.separator)
+                                    if (replacedJournals.add(dictName))
+                                        File(filesDir, dictName + ExpandableBinaryDictionary.JOURNAL_FILE_EXTENSION).delete()
+                                }
                                 val file = File(filesDir, targetFileName)
                                 FileUtils.copyStreamToNewFile(zip, file)
                             } else if (entry.name == PREFS_FILE_NAME) {
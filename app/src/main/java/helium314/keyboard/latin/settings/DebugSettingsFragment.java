@@ -6,12 +6,17 @@
 
 package helium314.keyboard.latin.settings;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
+import androidx.core.util.Supplier;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
 import androidx.preference.TwoStatePreference;
@@ -21,6 +26,14 @@ import helium314.keyboard.latin.BuildConfig;
 import helium314.keyboard.latin.DictionaryDumpBroadcastReceiver;
 import helium314.keyboard.latin.DictionaryFacilitator;
 import helium314.keyboard.latin.R;
+import helium314.keyboard.latin.inputlogic.InputTransactionProfiler;
+import helium314.keyboard.latin.utils.ExecutorUtils;
+import helium314.keyboard.latin.utils.Log;
+import helium314.keyboard.latin.utils.Tracer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * "Debug mode" settings sub screen.
@@ -29,12 +42,39 @@ import helium314.keyboard.latin.R;
  */
 public final class DebugSettingsFragment extends SubScreenFragment
         implements Preference.OnPreferenceClickListener {
+    private static final String TAG = DebugSettingsFragment.class.getSimpleName();
     private static final String PREF_KEY_DUMP_DICTS = "dump_dictionaries";
     private static final String PREF_KEY_DUMP_DICT_PREFIX = "dump_dictionaries";
+    private static final String PREF_KEY_EXPORT_INPUT_TIMINGS = "export_input_timings";
+    private static final String PREF_KEY_EXPORT_TRACE = "export_trace";
 
     private boolean mServiceNeedsRestart = false;
     private TwoStatePreference mDebugMode;
 
+    private final ActivityResultLauncher<Intent> mInputTimingsFilePicker =
+            registerExportFilePicker("input timings", InputTransactionProfiler::export);
+
+    private final ActivityResultLauncher<Intent> mTraceFilePicker =
+            registerExportFilePicker("trace", Tracer::exportChromeTrace);
+
+    // writes the content to the file picked by the user, in the background as content may be large
+    private ActivityResultLauncher<Intent> registerExportFilePicker(final String name, final Supplier<String> content) {
+        return registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
+            if (result.getResultCode() != Activity.RESULT_OK || result.getData() == null) return;
+            final Uri uri = result.getData().getData();
+            if (uri == null) return;
+            final Context context = requireContext().getApplicationContext();
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
+                try (OutputStream os = context.getContentResolver().openOutputStream(uri)) {
+                    if (os == null) return;
+                    os.write(content.get().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    Log.e(TAG, "could not export " + name, e);
+                }
+            });
+        });
+    }
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -49,6 +89,14 @@ public final class DebugSettingsFragment extends SubScreenFragment
         if (BuildConfig.DEBUG)
             removePreference(DebugSettings.PREF_SHOW_DEBUG_SETTINGS);
 
+        final Preference exportInputTimings = findPreference(PREF_KEY_EXPORT_INPUT_TIMINGS);
+        exportInputTimings.setSummary(getString(R.string.prefs_export_input_timings_summary,
+                InputTransactionProfiler.getRecordCount()));
+        exportInputTimings.setOnPreferenceClickListener(this);
+        final Preference exportTrace = findPreference(PREF_KEY_EXPORT_TRACE);
+        exportTrace.setSummary(getString(R.string.prefs_export_trace_summary, Tracer.getSpanCount()));
+        exportTrace.setOnPreferenceClickListener(this);
+
         mServiceNeedsRestart = false;
         mDebugMode = findPreference(DebugSettings.PREF_DEBUG_MODE);
         findPreference(DebugSettings.PREF_SHOW_SUGGESTION_INFOS).setVisible(mDebugMode.isChecked());
@@ -76,6 +124,22 @@ public final class DebugSettingsFragment extends SubScreenFragment
             pref.getContext().sendBroadcast(intent);
             return true;
         }
+        if (PREF_KEY_EXPORT_INPUT_TIMINGS.equals(pref.getKey())) {
+            final Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                    .addCategory(Intent.CATEGORY_OPENABLE)
+                    .putExtra(Intent.EXTRA_TITLE, "input_timings_" + System.currentTimeMillis() + ".txt")
+                    .setType("text/plain");
+            mInputTimingsFilePicker.launch(intent);
+            return true;
+        }
+        if (PREF_KEY_EXPORT_TRACE.equals(pref.getKey())) {
+            final Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                    .addCategory(Intent.CATEGORY_OPENABLE)
+                    .putExtra(Intent.EXTRA_TITLE, "trace_" + System.currentTimeMillis() + ".json")
+                    .setType("application/json");
+            mTraceFilePicker.launch(intent);
+            return true;
+        }
         return true;
     }
 
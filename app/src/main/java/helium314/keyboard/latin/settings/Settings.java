@@ -47,7 +47,6 @@ import helium314.keyboard.latin.utils.SubtypeSettingsKt;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantLock;
@@ -109,6 +108,7 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
     public static final String PREF_ALWAYS_INCOGNITO_MODE = "always_incognito_mode";
     public static final String PREF_BIGRAM_PREDICTIONS = "next_word_prediction";
     public static final String PREF_SUGGEST_CLIPBOARD_CONTENT = "suggest_clipboard_content";
+    public static final String PREF_EMOJI_KEYWORD_SUGGESTIONS = "emoji_keyword_suggestions";
     public static final String PREF_GESTURE_INPUT = "gesture_input";
     public static final String PREF_VIBRATION_DURATION_SETTINGS = "vibration_duration_settings";
     public static final String PREF_KEYPRESS_SOUND_VOLUME = "keypress_sound_volume";
@@ -144,6 +144,7 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
 
     public static final String PREF_ENABLE_CLIPBOARD_HISTORY = "enable_clipboard_history";
     public static final String PREF_CLIPBOARD_HISTORY_RETENTION_TIME = "clipboard_history_retention_time";
+    public static final String PREF_PERSIST_CLIPBOARD_HISTORY = "persist_clipboard_history";
 
     public static final String PREF_SECONDARY_LOCALES_PREFIX = "secondary_locales_";
     public static final String PREF_ADD_TO_PERSONAL_DICTIONARY = "add_to_personal_dictionary";
@@ -170,6 +171,8 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
     public static final String PREF_EMOJI_RECENT_KEYS = "emoji_recent_keys";
     public static final String PREF_LAST_SHOWN_EMOJI_CATEGORY_ID = "last_shown_emoji_category_id";
     public static final String PREF_LAST_SHOWN_EMOJI_CATEGORY_PAGE_ID = "last_shown_emoji_category_page_id";
+    public static final String PREF_EMOJI_GLYPH_PROBE_FINGERPRINT = "emoji_glyph_probe_fingerprint";
+    public static final String PREF_EMOJI_GLYPH_PROBE_FLAGS = "emoji_glyph_probe_flags";
 
     public static final String PREF_PINNED_CLIPS = "pinned_clips";
     public static final String PREF_VERSION_CODE = "version_code";
@@ -190,15 +193,13 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
 
     private static final Settings sInstance = new Settings();
 
-    // preferences that are not used in SettingsValues and thus should not trigger reload when changed
-    private static final HashSet<String> dontReloadOnChanged = new HashSet<>() {{
-        add(PREF_PINNED_CLIPS);
-        add(PREF_LAST_SHOWN_EMOJI_CATEGORY_PAGE_ID);
-        add(PREF_LAST_SHOWN_EMOJI_CATEGORY_ID);
-        add(PREF_EMOJI_RECENT_KEYS);
-        add(PREF_DONT_SHOW_MISSING_DICTIONARY_DIALOG);
-        add(PREF_SELECTED_SUBTYPE);
-    }};
+    private final ArrayList<OnSettingsChangedListener> mListeners = new ArrayList<>();
+
+    /** Notified on the main thread after settings have been reloaded because a preference changed. */
+    public interface OnSettingsChangedListener {
+        /** @param dependencies {@link SettingsDependencies} flags of the changed preference */
+        void onSettingsChanged(@NonNull SettingsValues settingsValues, int dependencies);
+    }
 
     public static Settings getInstance() {
         return sInstance;
@@ -224,8 +225,10 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
 
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences prefs, final String key) {
-        if (dontReloadOnChanged.contains(key))
+        final int dependencies = SettingsDependencies.of(key);
+        if (dependencies == SettingsDependencies.NONE)
             return;
+        final SettingsValues settingsValues;
         mSettingsValuesLock.lock();
         try {
             if (mSettingsValues == null) {
@@ -234,8 +237,12 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
                 Log.w(TAG, "onSharedPreferenceChanged called before loadSettings.");
                 return;
             }
-            loadSettings(mContext, mSettingsValues.mLocale, mSettingsValues.mInputAttributes);
-            StatsUtils.onLoadSettings(mSettingsValues);
+            // colors are the most expensive part, keep them if they can't have changed
+            final SettingsValues previous = SettingsDependencies.affects(dependencies, SettingsDependencies.COLORS)
+                    ? null : mSettingsValues;
+            loadSettings(mContext, mSettingsValues.mLocale, mSettingsValues.mInputAttributes, previous);
+            settingsValues = mSettingsValues;
+            StatsUtils.onLoadSettings(settingsValues);
         } finally {
             mSettingsValuesLock.unlock();
         }
@@ -243,22 +250,39 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
             final String additionalSubtypes = readPrefAdditionalSubtypes(prefs, mContext.getResources());
             SubtypeSettingsKt.updateAdditionalSubtypes(AdditionalSubtypeUtils.createAdditionalSubtypesArray(additionalSubtypes));
         }
+        for (final OnSettingsChangedListener listener : mListeners) {
+            listener.onSettingsChanged(settingsValues, dependencies);
+        }
     }
 
     public void loadSettings(final Context context, final Locale locale,
                              @NonNull final InputAttributes inputAttributes) {
+        loadSettings(context, locale, inputAttributes, null);
+    }
+
+    // previous settings values are used to avoid re-creating unchanged colors
+    private void loadSettings(final Context context, final Locale locale,
+                              @NonNull final InputAttributes inputAttributes, @Nullable final SettingsValues previous) {
         mSettingsValuesLock.lock();
         mContext = context;
         try {
             final SharedPreferences prefs = mPrefs;
             Log.i(TAG, "loadSettings");
             mSettingsValues = RunInLocaleKt.runInLocale(context, locale,
-                    ctx -> new SettingsValues(ctx, prefs, ctx.getResources(), inputAttributes));
+                    ctx -> new SettingsValues(ctx, prefs, ctx.getResources(), inputAttributes, previous));
         } finally {
             mSettingsValuesLock.unlock();
         }
     }
 
+    public void addOnSettingsChangedListener(@NonNull final OnSettingsChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnSettingsChangedListener(@NonNull final OnSettingsChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
     public void stopListener() {
         mPrefs.unregisterOnSharedPreferenceChangeListener(this);
     }
@@ -401,6 +425,10 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
         return prefs.getBoolean(PREF_ENABLE_CLIPBOARD_HISTORY, true);
     }
 
+    public static boolean readPersistClipboardHistory(final SharedPreferences prefs) {
+        return prefs.getBoolean(PREF_PERSIST_CLIPBOARD_HISTORY, false);
+    }
+
     public static int readClipboardHistoryRetentionTime(final SharedPreferences prefs,
                                               final Resources res) {
         final int minutes = prefs.getInt(
@@ -0,0 +1,138 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.settings
+
+/**
+ * What depends on a preference, as flags. When a preference changes, [Settings] only rebuilds
+ * the expensive parts of [SettingsValues] that depend on it, and listeners only invalidate their
+ * caches if they depend on it. Preferences not listed here are assumed to affect everything.
+ */
+object SettingsDependencies {
+    /** Not used in [SettingsValues], no reload necessary */
+    const val NONE = 0
+    /** Only read when used, e.g. by input logic; settings are reloaded, but nothing else needs to be done */
+    const val VALUES = 1
+    /** Keypress sound and vibration */
+    const val FEEDBACK = VALUES or (1 shl 1)
+    /** [SettingsValues.mColors] */
+    const val COLORS = VALUES or (1 shl 2)
+    /** Suggestion results, e.g. cached next word suggestions */
+    const val SUGGESTIONS = VALUES or (1 shl 3)
+    /** Which dictionaries are used */
+    const val DICTIONARIES = SUGGESTIONS or (1 shl 4)
+    /** Keyboard layouts, built keyboards and keyboard views, reloaded by the settings screens when they are left */
+    const val KEYBOARD = VALUES or (1 shl 5)
+    const val ALL = FEEDBACK or COLORS or DICTIONARIES or KEYBOARD
+
+    private val dependencies = hashMapOf(
+        Settings.PREF_PINNED_CLIPS to NONE,
+        Settings.PREF_LAST_SHOWN_EMOJI_CATEGORY_PAGE_ID to NONE,
+        Settings.PREF_LAST_SHOWN_EMOJI_CATEGORY_ID to NONE,
+        Settings.PREF_EMOJI_RECENT_KEYS to NONE,
+        Settings.PREF_EMOJI_GLYPH_PROBE_FINGERPRINT to NONE,
+        Settings.PREF_EMOJI_GLYPH_PROBE_FLAGS to NONE,
+        Settings.PREF_DONT_SHOW_MISSING_DICTIONARY_DIALOG to NONE,
+        Settings.PREF_SELECTED_SUBTYPE to NONE,
+        Settings.PREF_ENABLED_SUBTYPES to NONE, // subtype settings reload the enabled subtypes themselves
+
+        Settings.PREF_VIBRATE_ON to FEEDBACK,
+        Settings.PREF_SOUND_ON to FEEDBACK,
+        Settings.PREF_VIBRATION_DURATION_SETTINGS to FEEDBACK,
+        Settings.PREF_KEYPRESS_SOUND_VOLUME to FEEDBACK,
+
+        Settings.PREF_AUTO_CAP to VALUES,
+        Settings.PREF_POPUP_ON to VALUES,
+        Settings.PREF_KEY_USE_DOUBLE_SPACE_PERIOD to VALUES,
+        Settings.PREF_SPACE_HORIZONTAL_SWIPE to VALUES,
+        Settings.PREF_SPACE_VERTICAL_SWIPE to VALUES,
+        Settings.PREF_DELETE_SWIPE to VALUES,
+        Settings.PREF_AUTOSPACE_AFTER_PUNCTUATION to VALUES,
+        Settings.PREF_KEY_LONGPRESS_TIMEOUT to VALUES,
+        Settings.PREF_ENABLE_EMOJI_ALT_PHYSICAL_KEY to VALUES,
+        Settings.PREF_GESTURE_INPUT to VALUES,
+        Settings.PREF_GESTURE_PREVIEW_TRAIL to VALUES,
+        Settings.PREF_GESTURE_FLOATING_PREVIEW_TEXT to VALUES,
+        Settings.PREF_GESTURE_FLOATING_PREVIEW_DYNAMIC to VALUES,
+        Settings.PREF_GESTURE_DYNAMIC_PREVIEW_FOLLOW_SYSTEM to VALUES,
+        Settings.PREF_GESTURE_FAST_TYPING_COOLDOWN to VALUES,
+        Settings.PREF_GESTURE_TRAIL_FADEOUT_DURATION to VALUES,
+        Settings.PREF_SPACE_TO_CHANGE_LANG to VALUES,
+        Settings.PREF_ENABLE_CLIPBOARD_HISTORY to VALUES,
+        Settings.PREF_CLIPBOARD_HISTORY_RETENTION_TIME to VALUES,
+        Settings.PREF_PERSIST_CLIPBOARD_HISTORY to VALUES,
+        Settings.PREF_VARIABLE_TOOLBAR_DIRECTION to VALUES,
+        Settings.PREF_AUTO_SHOW_TOOLBAR to VALUES,
+        Settings.PREF_AUTO_HIDE_TOOLBAR to VALUES,
+        Settings.PREF_ABC_AFTER_EMOJI to VALUES,
+        Settings.PREF_ABC_AFTER_CLIP to VALUES,
+        Settings.PREF_ABC_AFTER_SYMBOL_SPACE to VALUES,
+
+        Settings.PREF_AUTO_CORRECTION to SUGGESTIONS,
+        Settings.PREF_MORE_AUTO_CORRECTION to SUGGESTIONS,
+        Settings.PREF_AUTO_CORRECTION_CONFIDENCE to SUGGESTIONS,
+        Settings.PREF_CENTER_SUGGESTION_TEXT_TO_ENTER to SUGGESTIONS,
+        Settings.PREF_SHOW_SUGGESTIONS to SUGGESTIONS,
+        Settings.PREF_ALWAYS_SHOW_SUGGESTIONS to SUGGESTIONS,
+        Settings.PREF_BLOCK_POTENTIALLY_OFFENSIVE to SUGGESTIONS,
+        Settings.PREF_BIGRAM_PREDICTIONS to SUGGESTIONS,
+        Settings.PREF_SUGGEST_CLIPBOARD_CONTENT to SUGGESTIONS,
+        Settings.PREF_EMOJI_KEYWORD_SUGGESTIONS to SUGGESTIONS,
+        Settings.PREF_GESTURE_SPACE_AWARE to SUGGESTIONS,
+        Settings.PREF_URL_DETECTION to SUGGESTIONS,
+
+        Settings.PREF_KEY_USE_PERSONALIZED_DICTS to DICTIONARIES,
+        Settings.PREF_USE_CONTACTS to DICTIONARIES,
+        Settings.PREF_ADD_TO_PERSONAL_DICTIONARY to DICTIONARIES,
+        Settings.PREF_ALWAYS_INCOGNITO_MODE to DICTIONARIES,
+
+        Settings.PREF_THEME_STYLE to (COLORS or KEYBOARD),
+        Settings.PREF_ICON_STYLE to KEYBOARD,
+        Settings.PREF_THEME_COLORS to (COLORS or KEYBOARD),
+        Settings.PREF_THEME_COLORS_NIGHT to (COLORS or KEYBOARD),
+        Settings.PREF_THEME_KEY_BORDERS to (COLORS or KEYBOARD),
+        Settings.PREF_THEME_DAY_NIGHT to (COLORS or KEYBOARD),
+        Settings.PREF_NAVBAR_COLOR to VALUES,
+        Settings.PREF_SHOW_NUMBER_ROW to KEYBOARD,
+        Settings.PREF_LOCALIZED_NUMBER_ROW to KEYBOARD,
+        Settings.PREF_SHOW_HINTS to KEYBOARD,
+        Settings.PREF_SHOW_POPUP_HINTS to KEYBOARD,
+        Settings.PREF_MORE_POPUP_KEYS to KEYBOARD,
+        Settings.PREF_SHOW_EMOJI_KEY to KEYBOARD,
+        Settings.PREF_SHOW_LANGUAGE_SWITCH_KEY to KEYBOARD,
+        Settings.PREF_LANGUAGE_SWITCH_KEY to KEYBOARD,
+        Settings.PREF_ENABLE_SPLIT_KEYBOARD to KEYBOARD,
+        Settings.PREF_SPLIT_SPACER_SCALE to KEYBOARD,
+        Settings.PREF_KEYBOARD_HEIGHT_SCALE to KEYBOARD,
+        Settings.PREF_BOTTOM_PADDING_SCALE to KEYBOARD,
+        Settings.PREF_NARROW_KEY_GAPS to KEYBOARD,
+        Settings.PREF_REMOVE_REDUNDANT_POPUPS to KEYBOARD,
+        Settings.PREF_SPACE_BAR_TEXT to KEYBOARD,
+        Settings.PREF_QUICK_PIN_TOOLBAR_KEYS to KEYBOARD,
+        Settings.PREF_TOOLBAR_KEYS to KEYBOARD,
+        Settings.PREF_PINNED_TOOLBAR_KEYS to KEYBOARD,
+        Settings.PREF_CLIPBOARD_TOOLBAR_KEYS to KEYBOARD,
+        Settings.PREFS_LONG_PRESS_SYMBOLS_FOR_NUMPAD to KEYBOARD,
+    )
+
+    // preferences that exist per locale, orientation or color
+    private val prefixDependencies = listOf(
+        Settings.PREF_THEME_USER_COLOR_PREFIX to (COLORS or KEYBOARD),
+        Settings.PREF_THEME_USER_COLOR_NIGHT_PREFIX to (COLORS or KEYBOARD),
+        Settings.PREF_POPUP_KEYS_ORDER to KEYBOARD,
+        Settings.PREF_POPUP_KEYS_LABELS_ORDER to KEYBOARD,
+        Settings.PREF_ONE_HANDED_MODE_PREFIX to KEYBOARD,
+        Settings.PREF_ONE_HANDED_GRAVITY_PREFIX to KEYBOARD,
+        Settings.PREF_ONE_HANDED_SCALE_PREFIX to KEYBOARD,
+        Settings.PREF_SECONDARY_LOCALES_PREFIX to DICTIONARIES,
+    )
+
+    /** Flags of what depends on the preference [key], [ALL] if unknown. */
+    @JvmStatic
+    fun of(key: String?): Int {
+        if (key == null) return ALL // preferences were cleared
+        dependencies[key]?.let { return it }
+        return prefixDependencies.firstOrNull { key.startsWith(it.first) }?.second ?: ALL
+    }
+
+    @JvmStatic
+    fun affects(dependencies: Int, flags: Int) = (dependencies and flags) == flags
+}
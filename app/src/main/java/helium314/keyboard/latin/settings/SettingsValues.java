@@ -82,6 +82,7 @@ public class SettingsValues {
     public final boolean mAutospaceAfterPunctuationEnabled;
     public final boolean mClipboardHistoryEnabled;
     public final long mClipboardHistoryRetentionTime;
+    public final boolean mPersistClipboardHistory;
     public final boolean mOneHandedModeEnabled;
     public final int mOneHandedModeGravity;
     public final float mOneHandedModeScale;
@@ -133,6 +134,7 @@ public class SettingsValues {
     private final boolean mSuggestionsEnabledPerUserSettings;
     private final boolean mOverrideShowingSuggestions;
     public final boolean mSuggestClipboardContent;
+    public final boolean mEmojiKeywordSuggestions;
     public final SettingsValuesForSuggestion mSettingsValuesForSuggestion;
     public final boolean mIncognitoModeEnabled;
     public final boolean mLongPressSymbolsForNumpad;
@@ -145,8 +147,9 @@ public class SettingsValues {
     public final String mAccount; // todo: always null, remove?
 
     // creation of Colors and SpacingAndPunctuations are the slowest parts in here, but still ok
+    // they are taken from previous if not null and they can't have changed
     public SettingsValues(final Context context, final SharedPreferences prefs, final Resources res,
-                          @NonNull final InputAttributes inputAttributes) {
+                          @NonNull final InputAttributes inputAttributes, @Nullable final SettingsValues previous) {
         mLocale = ConfigurationCompatKt.locale(res.getConfiguration());
 
         // Store the input attributes
@@ -188,6 +191,7 @@ public class SettingsValues {
                 : (mAutoCorrectionThreshold < 0.07 ? 800000 : 950000); // aggressive or modest
         mBigramPredictionEnabled = readBigramPredictionEnabled(prefs, res);
         mSuggestClipboardContent = readSuggestClipboardContent(prefs, res);
+        mEmojiKeywordSuggestions = prefs.getBoolean(Settings.PREF_EMOJI_KEYWORD_SUGGESTIONS, false);
         mDoubleSpacePeriodTimeout = res.getInteger(R.integer.config_double_space_period_timeout);
         mHasHardwareKeyboard = Settings.readHasHardwareKeyboard(res.getConfiguration());
         final float displayWidthDp = TypedValueCompat.pxToDp(res.getDisplayMetrics().widthPixels, res.getDisplayMetrics());
@@ -225,6 +229,7 @@ public class SettingsValues {
         mAutospaceAfterPunctuationEnabled = Settings.readAutospaceAfterPunctuationEnabled(prefs);
         mClipboardHistoryEnabled = Settings.readClipboardHistoryEnabled(prefs);
         mClipboardHistoryRetentionTime = Settings.readClipboardHistoryRetentionTime(prefs, res);
+        mPersistClipboardHistory = Settings.readPersistClipboardHistory(prefs);
 
         mOneHandedModeEnabled = Settings.readOneHandedModeEnabled(prefs, mDisplayOrientation == Configuration.ORIENTATION_PORTRAIT);
         mOneHandedModeGravity = Settings.readOneHandedModeGravity(prefs, mDisplayOrientation == Configuration.ORIENTATION_PORTRAIT);
@@ -239,7 +244,7 @@ public class SettingsValues {
         mShowMorePopupKeys = selectedSubtype.isAsciiCapable()
                 ? Settings.readMorePopupKeysPref(prefs)
                 : LocaleKeyboardInfosKt.POPUP_KEYS_NORMAL;
-        mColors = Settings.getColorsForCurrentTheme(context, prefs);
+        mColors = previous != null ? previous.mColors : Settings.getColorsForCurrentTheme(context, prefs);
 
         // read locale-specific popup key settings, fall back to global settings
         final String popupKeyTypesDefault = prefs.getString(Settings.PREF_POPUP_KEYS_ORDER, PopupKeysUtilsKt.POPUP_KEYS_ORDER_DEFAULT);
@@ -255,7 +260,10 @@ public class SettingsValues {
                 mBlockPotentiallyOffensive,
                 prefs.getBoolean(Settings.PREF_GESTURE_SPACE_AWARE, false)
         );
-        mSpacingAndPunctuations = new SpacingAndPunctuations(res, mUrlDetectionEnabled);
+        mSpacingAndPunctuations = previous != null && previous.mLocale.equals(mLocale)
+                && previous.mUrlDetectionEnabled == mUrlDetectionEnabled
+                ? previous.mSpacingAndPunctuations
+                : new SpacingAndPunctuations(res, mUrlDetectionEnabled);
         mBottomPaddingScale = prefs.getFloat(Settings.PREF_BOTTOM_PADDING_SCALE, DEFAULT_SIZE_SCALE);
         mLongPressSymbolsForNumpad = prefs.getBoolean(Settings.PREFS_LONG_PRESS_SYMBOLS_FOR_NUMPAD, false);
         mAutoShowToolbar = prefs.getBoolean(Settings.PREF_AUTO_SHOW_TOOLBAR, false);
@@ -0,0 +1,31 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.utils
+
+import android.os.Handler
+import android.os.Looper
+
+/**
+ * Runs [task] on the keyboard background executor once no further change was notified for
+ * [DELAY_MILLIS], as content providers often notify many changes in a short time, e.g. when
+ * syncing or when the settings write many rows at once.
+ */
+class ChangeDebouncer(task: Runnable) {
+    private val handler = Handler(Looper.getMainLooper())
+    private val scheduledTask = Runnable { ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(task) }
+
+    /** Can be called on any thread. */
+    fun onChange() {
+        handler.removeCallbacks(scheduledTask)
+        handler.postDelayed(scheduledTask, DELAY_MILLIS)
+    }
+
+    /** Cancels the task if it was not started yet. */
+    fun cancel() {
+        handler.removeCallbacks(scheduledTask)
+    }
+
+    companion object {
+        const val DELAY_MILLIS = 1000L
+    }
+}
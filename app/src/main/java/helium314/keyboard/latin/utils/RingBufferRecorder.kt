@@ -0,0 +1,59 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.utils
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Fixed size ring buffer of records with [fieldCount] long fields and an optional attachment,
+ * used for profiling data that should be cheap to record and readable from any thread.
+ *
+ * Records may be written on any thread, slots are claimed by incrementing the shared sequence. When
+ * the buffer is full, the oldest records are overwritten. Reading doesn't lock: each slot has a
+ * sequence number that is cleared before and set after writing the slot, so [snapshot] can skip
+ * slots that are being overwritten. Writers only conflict if one is slower than [capacity] other
+ * records, so the capacity should be much larger than the number of concurrently writing threads.
+ */
+class RingBufferRecorder<T>(private val capacity: Int, private val fieldCount: Int) {
+    class Record<T>(val sequence: Long, val attachment: T?, val fields: LongArray)
+
+    private val recordSize = fieldCount + 1
+    // slot layout: sequence, fields
+    private val records = AtomicLongArray(capacity * recordSize)
+    private val attachments = AtomicReferenceArray<T>(capacity)
+    private val writeSequence = AtomicLong()
+
+    init {
+        require(capacity > 0 && capacity and (capacity - 1) == 0) { "capacity must be a power of 2" }
+    }
+
+    /** Records a copy of the first [fieldCount] values of [fields]. */
+    fun record(attachment: T?, fields: LongArray) {
+        val sequence = writeSequence.incrementAndGet()
+        val slot = (sequence and (capacity - 1).toLong()).toInt()
+        val base = slot * recordSize
+        records.set(base, 0)
+        attachments.set(slot, attachment)
+        for (i in 0 until fieldCount)
+            records.set(base + 1 + i, fields[i])
+        records.set(base, sequence)
+    }
+
+    /** Returns a consistent copy of the records, oldest first. */
+    fun snapshot(): List<Record<T>> {
+        val result = ArrayList<Record<T>>(capacity)
+        for (slot in 0 until capacity) {
+            val base = slot * recordSize
+            val sequence = records.get(base)
+            if (sequence == 0L) continue
+            val attachment = attachments.get(slot)
+            val fields = LongArray(fieldCount) { records.get(base + 1 + it) }
+            if (records.get(base) != sequence) continue
+            result.add(Record(sequence, attachment, fields))
+        }
+        result.sortBy { it.sequence }
+        return result
+    }
+}
@@ -0,0 +1,132 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.utils
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.view.Choreographer
+
+/**
+ * Initialization of the input method service, split so the first keyboard can be shown as soon as
+ * possible after the process was started.
+ *
+ * Critical tasks are needed for showing the first keyboard, and run immediately on the calling thread.
+ * Deferred tasks must not depend on each other. Background tasks run on the keyboard executor,
+ * concurrently with the main thread. They only run in parallel with each other if the executor has
+ * more than one thread, which depends on the number of cores.
+ * Main thread tasks run after the first keyboard has been drawn, or after
+ * [MAX_MAIN_THREAD_DELAY_MILLIS] if no keyboard is shown.
+ * When all tasks are done, the startup trace with timing of each task is logged.
+ */
+class StartupScheduler {
+    private class Task(val name: String, val onMainThread: Boolean, val action: Runnable) {
+        @Volatile var isDone = false
+        var isStarted = false
+        var startMillis = 0L
+        var durationMillis = 0L
+        var threadName = ""
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val creationMillis = SystemClock.uptimeMillis()
+    private val tasks = ArrayList<Task>()
+    private var mainThreadTasksAllowed = false
+    private var isCancelled = false
+    private var isTraceLogged = false
+
+    init {
+        handler.postDelayed({ allowMainThreadTasks() }, MAX_MAIN_THREAD_DELAY_MILLIS)
+    }
+
+    /** Runs the [action] now, it's part of the startup trace. */
+    fun runCritical(name: String, action: Runnable) {
+        val task = Task(name, true, action)
+        synchronized(this) {
+            task.isStarted = true
+            tasks.add(task)
+        }
+        run(task)
+    }
+
+    fun deferInBackground(name: String, action: Runnable) = add(Task(name, false, action))
+
+    fun deferOnMainThread(name: String, action: Runnable) = add(Task(name, true, action))
+
+    /** Called when the keyboard is shown, deferred main thread tasks run after it has been drawn. */
+    fun onKeyboardShown() {
+        if (mainThreadTasksAllowed) return
+        Choreographer.getInstance().postFrameCallback {
+            // the frame is drawn after the frame callbacks, so post to run afterwards
+            handler.post { allowMainThreadTasks() }
+        }
+    }
+
+    /** Tasks that are not started yet will not run. */
+    fun cancel() {
+        synchronized(this) { isCancelled = true }
+        handler.removeCallbacksAndMessages(null)
+    }
+
+    /** Durations of the tasks in order of creation, with start relative to creation of the scheduler. */
+    @Synchronized
+    fun getTrace(): String = tasks.joinToString("\n") {
+        if (!it.isStarted) "${it.name}: waiting"
+        else if (!it.isDone) "${it.name}: running"
+        else "${it.name}: ${it.startMillis - creationMillis} ms +${it.durationMillis} ms on ${it.threadName}"
+    }
+
+    private fun add(task: Task) {
+        synchronized(this) { tasks.add(task) }
+        startReadyTasks()
+    }
+
+    private fun allowMainThreadTasks() {
+        synchronized(this) {
+            if (mainThreadTasksAllowed) return
+            mainThreadTasksAllowed = true
+        }
+        startReadyTasks()
+        logTraceIfDone()
+    }
+
+    private fun startReadyTasks() {
+        val ready = synchronized(this) {
+            if (isCancelled) return
+            tasks.filter { !it.isStarted && (!it.onMainThread || mainThreadTasksAllowed) }
+                .onEach { it.isStarted = true }
+        }
+        ready.forEach { task ->
+            if (task.onMainThread) handler.post { run(task) }
+            else ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute { run(task) }
+        }
+    }
+
+    private fun run(task: Task) {
+        task.threadName = Thread.currentThread().name
+        task.startMillis = SystemClock.uptimeMillis()
+        val traceStart = Tracer.begin()
+        try {
+            task.action.run()
+        } catch (e: Exception) {
+            Log.e(TAG, "startup task ${task.name} failed", e)
+        }
+        task.durationMillis = SystemClock.uptimeMillis() - task.startMillis
+        Tracer.end("startup: ${task.name}", traceStart)
+        task.isDone = true
+        logTraceIfDone()
+    }
+
+    private fun logTraceIfDone() {
+        synchronized(this) {
+            // all tasks are added before main thread tasks are allowed
+            if (isTraceLogged || !mainThreadTasksAllowed || tasks.any { !it.isDone }) return
+            isTraceLogged = true
+        }
+        Log.i(TAG, "startup trace\n${getTrace()}")
+    }
+
+    companion object {
+        private const val TAG = "StartupScheduler"
+        private const val MAX_MAIN_THREAD_DELAY_MILLIS = 2000L
+    }
+}
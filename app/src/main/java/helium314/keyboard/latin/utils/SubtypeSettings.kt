@@ -21,6 +21,7 @@ import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.ScriptUtils.script
 import org.xmlpull.v1.XmlPullParser
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /** @return enabled subtypes. If no subtypes are enabled, but a contextForFallback is provided,
  *  subtypes for system locales will be returned, or en-US if none found. */
@@ -35,12 +36,17 @@ fun getEnabledSubtypes(prefs: SharedPreferences, fallback: Boolean = false): Lis
 
 fun getAllAvailableSubtypes(): List<InputMethodSubtype> {
     require(initialized)
-    return resourceSubtypesByLocale.values.flatten() + additionalSubtypes
+    return index().allSubtypes
 }
 
 fun getMatchingLayoutSetNameForLocale(locale: Locale): String {
-    val subtypes = resourceSubtypesByLocale.values.flatten()
-    val name = LocaleUtils.getBestMatch(locale, subtypes) { it.locale() }?.getExtraValueOf(Constants.Subtype.ExtraValue.KEYBOARD_LAYOUT_SET)
+    if (!initialized) return findMatchingLayoutSetNameForLocale(locale)
+    // resource subtypes don't change after init, so the result can be cached
+    return matchingLayoutSetNames.getOrPut(locale) { findMatchingLayoutSetNameForLocale(locale) }
+}
+
+private fun findMatchingLayoutSetNameForLocale(locale: Locale): String {
+    val name = LocaleUtils.getBestMatch(locale, allResourceSubtypes) { it.locale() }?.getExtraValueOf(Constants.Subtype.ExtraValue.KEYBOARD_LAYOUT_SET)
     if (name != null) return name
     return when (locale.script()) {
         ScriptUtils.SCRIPT_LATIN -> "qwerty"
@@ -64,6 +70,7 @@ fun addEnabledSubtype(prefs: SharedPreferences, newSubtype: InputMethodSubtype)
     if (newSubtype !in enabledSubtypes) {
         enabledSubtypes.add(newSubtype)
         enabledSubtypes.sortBy { it.locale().toLanguageTag() } // for consistent order
+        subtypesVersion++
         RichInputMethodManager.getInstance().refreshSubtypeCaches()
     }
 }
@@ -73,6 +80,7 @@ fun removeEnabledSubtype(prefs: SharedPreferences, subtype: InputMethodSubtype)
     require(initialized)
     removeEnabledSubtype(prefs, subtype.prefString())
     enabledSubtypes.remove(subtype)
+    subtypesVersion++
     RichInputMethodManager.getInstance().refreshSubtypeCaches()
 }
 
@@ -94,8 +102,15 @@ fun removeAdditionalSubtype(prefs: SharedPreferences, resources: Resources, subt
 
 fun getSelectedSubtype(prefs: SharedPreferences): InputMethodSubtype {
     require(initialized)
-    val localeAndLayout = prefs.getString(Settings.PREF_SELECTED_SUBTYPE, "")!!.toLocaleAndLayout()
-    val subtypes = if (prefs.getBoolean(Settings.PREF_USE_SYSTEM_LOCALES, true)) getDefaultEnabledSubtypes()
+    val selectedSubtypeString = prefs.getString(Settings.PREF_SELECTED_SUBTYPE, "")!!
+    val useSystemLocales = prefs.getBoolean(Settings.PREF_USE_SYSTEM_LOCALES, true)
+    val index = index()
+    val indexedSubtype = if (useSystemLocales) index.defaultSubtypesByPrefString[selectedSubtypeString]
+        else index.enabledSubtypesByPrefString[selectedSubtypeString]
+    if (indexedSubtype != null) return indexedSubtype
+
+    val localeAndLayout = selectedSubtypeString.toLocaleAndLayout()
+    val subtypes = if (useSystemLocales) getDefaultEnabledSubtypes()
         else enabledSubtypes
     val subtype = subtypes.firstOrNull { localeAndLayout.first == it.locale() && localeAndLayout.second == SubtypeLocaleUtils.getKeyboardLayoutSetName(it) }
     if (subtype != null) {
@@ -125,6 +140,7 @@ fun isAdditionalSubtype(subtype: InputMethodSubtype): Boolean {
 fun updateAdditionalSubtypes(subtypes: Array<InputMethodSubtype>) {
     additionalSubtypes.clear()
     additionalSubtypes.addAll(subtypes)
+    subtypesVersion++
     RichInputMethodManager.getInstance().refreshSubtypeCaches()
 }
 
@@ -136,6 +152,7 @@ fun reloadSystemLocales(context: Context) {
         if (locale != null) systemLocales.add(locale)
     }
     systemSubtypes.clear()
+    subtypesVersion++
 }
 
 fun getSystemLocales(): List<Locale> {
@@ -158,6 +175,7 @@ fun reloadEnabledSubtypes(context: Context) {
     enabledSubtypes.clear()
     removeInvalidCustomSubtypes(context)
     loadEnabledSubtypes(context)
+    subtypesVersion++
 }
 
 fun init(context: Context) {
@@ -172,6 +190,7 @@ fun init(context: Context) {
     removeInvalidCustomSubtypes(context)
     loadAdditionalSubtypes(context)
     loadEnabledSubtypes(context)
+    subtypesVersion++
     initialized = true
 }
 
@@ -192,6 +211,27 @@ private fun getDefaultEnabledSubtypes(): List<InputMethodSubtype> {
     return systemSubtypes
 }
 
+/** Subtypes indexed by [prefString], built for one [version] of the subtype lists. */
+private class SubtypeIndex(val version: Int) {
+    val enabledSubtypesByPrefString = enabledSubtypes.associateByPrefString()
+    val defaultSubtypesByPrefString = getDefaultEnabledSubtypes().associateByPrefString()
+    val allSubtypes = allResourceSubtypes + additionalSubtypes
+}
+
+/** @return the index for the current subtype lists, rebuilt only if they changed */
+private fun index(): SubtypeIndex {
+    val current = subtypeIndex
+    if (current != null && current.version == subtypesVersion) return current
+    return SubtypeIndex(subtypesVersion).also { subtypeIndex = it }
+}
+
+/** like associateBy, but keeps the first subtype for each [prefString] like a search in the list would */
+private fun List<InputMethodSubtype>.associateByPrefString(): Map<String, InputMethodSubtype> {
+    val map = HashMap<String, InputMethodSubtype>(size * 2)
+    forEach { map.putIfAbsent(it.prefString(), it) }
+    return map
+}
+
 /** string for for identifying a subtype, does not contain all necessary information to actually create it */
 private fun InputMethodSubtype.prefString(): String {
     if (DebugFlags.DEBUG_ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && locale().toLanguageTag() == "und") {
@@ -235,10 +275,13 @@ private fun loadResourceSubtypes(resources: Resources) {
             b.setIsAsciiCapable(isAsciiCapable)
             val locale = if (languageTag.isEmpty()) localeString.constructLocale()
                 else languageTag.constructLocale()
-            resourceSubtypesByLocale.getOrPut(locale) { ArrayList(2) }.add(b.build())
+            val subtype = b.build()
+            resourceSubtypesByLocale.getOrPut(locale) { ArrayList(2) }.add(subtype)
+            resourceSubtypesByPrefString.putIfAbsent(subtype.prefString(), subtype)
         }
         eventType = xml.next()
     }
+    allResourceSubtypes.addAll(resourceSubtypesByLocale.values.flatten())
 }
 
 // remove custom subtypes without a layout file
@@ -271,9 +314,9 @@ private fun loadEnabledSubtypes(context: Context) {
     val subtypeStrings = prefs.getString(Settings.PREF_ENABLED_SUBTYPES, "")!!
         .split(SUBTYPE_SEPARATOR).filter { it.isNotEmpty() }.map { it.toLocaleAndLayout() }
 
+    val additionalSubtypesByPrefString = additionalSubtypes.associateByPrefString()
     for (localeAndLayout in subtypeStrings) {
-        val subtypesForLocale = resourceSubtypesByLocale[localeAndLayout.first]
-        if (subtypesForLocale == null) {
+        if (!resourceSubtypesByLocale.containsKey(localeAndLayout.first)) {
             val message = "no resource subtype for $localeAndLayout"
             Log.w(TAG, message)
             if (DebugFlags.DEBUG_ENABLED)
@@ -283,8 +326,8 @@ private fun loadEnabledSubtypes(context: Context) {
             continue
         }
 
-        val subtype = subtypesForLocale.firstOrNull { SubtypeLocaleUtils.getKeyboardLayoutSetName(it) == localeAndLayout.second }
-            ?: additionalSubtypes.firstOrNull { it.locale() == localeAndLayout.first && SubtypeLocaleUtils.getKeyboardLayoutSetName(it) == localeAndLayout.second }
+        val subtypeString = localeAndLayout.prefString()
+        val subtype = resourceSubtypesByPrefString[subtypeString] ?: additionalSubtypesByPrefString[subtypeString]
         if (subtype == null) {
             val message = "subtype $localeAndLayout could not be loaded"
             Log.w(TAG, message)
@@ -321,9 +364,15 @@ var initialized = false
     private set
 private val enabledSubtypes = mutableListOf<InputMethodSubtype>()
 private val resourceSubtypesByLocale = LinkedHashMap<Locale, MutableList<InputMethodSubtype>>(100)
+private val resourceSubtypesByPrefString = HashMap<String, InputMethodSubtype>(200)
+private val allResourceSubtypes = mutableListOf<InputMethodSubtype>()
+private val matchingLayoutSetNames = ConcurrentHashMap<Locale, String>()
 private val additionalSubtypes = mutableListOf<InputMethodSubtype>()
 private val systemLocales = mutableListOf<Locale>()
 private val systemSubtypes = mutableListOf<InputMethodSubtype>()
+// incremented whenever the subtype lists above change, to invalidate the index
+@Volatile private var subtypesVersion = 0
+@Volatile private var subtypeIndex: SubtypeIndex? = null
 
 private const val SUBTYPE_SEPARATOR = ";"
 private const val LOCALE_LAYOUT_SEPARATOR = ":"
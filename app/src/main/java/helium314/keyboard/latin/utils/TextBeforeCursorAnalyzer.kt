@@ -0,0 +1,74 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.utils
+
+import helium314.keyboard.latin.NgramContext
+import helium314.keyboard.latin.settings.SpacingAndPunctuations
+
+/**
+ * Memoizes the results of analyzing the text before the cursor (caps mode and n-gram context), so
+ * they are computed at most once for each state of the text cache in RichInputConnection.
+ *
+ * This is not an incremental analyzer: the owner must call [onTextChanged] whenever the cached
+ * text or the expected cursor position changes, and the next request then does a full rescan.
+ * It avoids scanning / tokenizing the same text several times per keystroke, as caps mode is
+ * requested from many places (input logic, keyboard switcher, LatinIME handler).
+ *
+ * Writes to the text cache happen on the main thread, but n-gram context may be requested from
+ * a worker thread. Each entry is immutable and tagged with the text version it was computed
+ * for, so a stale or concurrently computed entry is simply not used.
+ */
+class TextBeforeCursorAnalyzer {
+    @Volatile private var textVersion = 0
+    @Volatile private var capsModeEntry: CapsModeEntry? = null
+    private val ngramContextEntries = arrayOfNulls<NgramContextEntry>(MAX_CACHED_NTH_PREVIOUS_WORD + 1)
+
+    fun onTextChanged() {
+        textVersion++
+    }
+
+    /** Returns the caps mode for the current text, calling [compute] only if it's not known yet. */
+    fun getCapsMode(inputType: Int, spacingAndPunctuations: SpacingAndPunctuations, hasSpaceBefore: Boolean, compute: () -> Int): Int {
+        val version = textVersion
+        val entry = capsModeEntry
+        if (entry != null && entry.version == version && entry.inputType == inputType
+                && entry.hasSpaceBefore == hasSpaceBefore && entry.spacingAndPunctuations === spacingAndPunctuations)
+            return entry.capsMode
+        val capsMode = compute()
+        capsModeEntry = CapsModeEntry(version, inputType, hasSpaceBefore, spacingAndPunctuations, capsMode)
+        return capsMode
+    }
+
+    /** Returns the n-gram context for the current text, calling [compute] only if it's not known yet. */
+    fun getNgramContext(spacingAndPunctuations: SpacingAndPunctuations, n: Int, compute: () -> NgramContext): NgramContext {
+        if (n < 0 || n > MAX_CACHED_NTH_PREVIOUS_WORD) return compute()
+        val version = textVersion
+        val entry = synchronized(ngramContextEntries) { ngramContextEntries[n] }
+        if (entry != null && entry.version == version && entry.spacingAndPunctuations === spacingAndPunctuations)
+            return entry.ngramContext
+        val ngramContext = compute()
+        synchronized(ngramContextEntries) {
+            ngramContextEntries[n] = NgramContextEntry(version, spacingAndPunctuations, ngramContext)
+        }
+        return ngramContext
+    }
+
+    private class CapsModeEntry(
+        val version: Int,
+        val inputType: Int,
+        val hasSpaceBefore: Boolean,
+        val spacingAndPunctuations: SpacingAndPunctuations,
+        val capsMode: Int
+    )
+
+    private class NgramContextEntry(
+        val version: Int,
+        val spacingAndPunctuations: SpacingAndPunctuations,
+        val ngramContext: NgramContext
+    )
+
+    companion object {
+        // input logic only asks for the 1st and 2nd previous word
+        private const val MAX_CACHED_NTH_PREVIOUS_WORD = 2
+    }
+}
@@ -0,0 +1,111 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.utils
+
+import helium314.keyboard.latin.define.DebugFlags
+import java.io.StringWriter
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Records named spans of slow phases like starting input, loading keyboards and opening dictionaries,
+ * so the timeline can be exported in Chrome trace event format and viewed in chrome://tracing or Perfetto.
+ *
+ * A span is started with [begin], which just returns the current time, and recorded with [end] on the
+ * same thread. Spans are only recorded if debug mode is enabled, otherwise tracing does nothing.
+ * Spans are kept in a [RingBufferRecorder], so tracing may happen on any thread without locking.
+ */
+object Tracer {
+    private const val CAPACITY = 2048 // must be a power of 2
+    // record layout: start time, duration, thread id, with the name as attachment
+    private const val FIELD_START = 0
+    private const val FIELD_DURATION = 1
+    private const val FIELD_THREAD = 2
+    private const val FIELD_COUNT = 3
+    private const val INSTANT = -1L
+
+    private val recorder = RingBufferRecorder<String>(CAPACITY, FIELD_COUNT)
+    private val threadNames = ConcurrentHashMap<Long, String>()
+
+    /** Returns the start time to pass to [end], 0 if tracing is disabled. */
+    @JvmStatic
+    fun begin(): Long = if (DebugFlags.DEBUG_ENABLED) System.nanoTime() else 0L
+
+    /** Records a span that started at [startNanos] and ends now. */
+    @JvmStatic
+    fun end(name: String, startNanos: Long) {
+        // tracing may have been enabled after begin
+        if (startNanos == 0L || !DebugFlags.DEBUG_ENABLED) return
+        record(name, startNanos, System.nanoTime() - startNanos)
+    }
+
+    /** Records an event without duration. */
+    @JvmStatic
+    fun instant(name: String) {
+        if (!DebugFlags.DEBUG_ENABLED) return
+        record(name, System.nanoTime(), INSTANT)
+    }
+
+    inline fun <T> trace(name: String, block: () -> T): T {
+        val start = begin()
+        try {
+            return block()
+        } finally {
+            end(name, start)
+        }
+    }
+
+    private fun record(name: String, startNanos: Long, durationNanos: Long) {
+        val thread = Thread.currentThread()
+        val threadId = thread.id
+        if (!threadNames.containsKey(threadId))
+            threadNames[threadId] = thread.name
+        recorder.record(name, longArrayOf(startNanos, durationNanos, threadId))
+    }
+
+    private class Span(val name: String, val start: Long, val duration: Long, val thread: Long)
+
+    /** Returns the recorded spans, oldest first. */
+    private fun snapshot(): List<Span> = recorder.snapshot().map {
+        Span(it.attachment ?: "", it.fields[FIELD_START], it.fields[FIELD_DURATION], it.fields[FIELD_THREAD])
+    }
+
+    @JvmStatic
+    fun getSpanCount() = snapshot().size
+
+    /** Returns the recorded spans in Chrome trace event JSON format, times in µs. */
+    @JvmStatic
+    fun exportChromeTrace(): String {
+        val snapshot = snapshot()
+        val writer = StringWriter()
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[")
+        var first = true
+        fun writeEvent(event: String) {
+            if (!first) writer.write(",")
+            first = false
+            writer.write("\n")
+            writer.write(event)
+        }
+        snapshot.map { it.thread }.distinct().forEach {
+            writeEvent("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":$it,\"args\":{\"name\":${quote(threadNames[it] ?: "")}}}")
+        }
+        snapshot.forEach {
+            val common = "\"name\":${quote(it.name)},\"pid\":1,\"tid\":${it.thread},\"ts\":${it.start / 1000}"
+            if (it.duration == INSTANT) writeEvent("{$common,\"ph\":\"i\",\"s\":\"t\"}")
+            else writeEvent("{$common,\"ph\":\"X\",\"dur\":${it.duration / 1000}}")
+        }
+        writer.write("\n]}\n")
+        return writer.toString()
+    }
+
+    private fun quote(string: String): String {
+        val sb = StringBuilder(string.length + 2).append('"')
+        string.forEach { c ->
+            when {
+                c == '"' || c == '\\' -> sb.append('\\').append(c)
+                c < ' ' -> sb.append(String.format("\\u%04x", c.code))
+                else -> sb.append(c)
+            }
+        }
+        return sb.append('"').toString()
+    }
+}
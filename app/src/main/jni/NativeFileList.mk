@@ -36,6 +36,7 @@ LATIN_IME_CORE_SRC_FILES := \
         shortcut/shortcut_list_reading_utils.cpp) \
     $(addprefix dictionary/structure/v2/, \
         patricia_trie_policy.cpp \
+        pt_node_array_cache.cpp \
         ver2_patricia_trie_node_reader.cpp \
         ver2_pt_node_array_reader.cpp) \
     $(addprefix dictionary/structure/v4/, \
@@ -137,6 +138,7 @@ LATIN_IME_CORE_TEST_FILES := \
     dictionary/utils/sparse_table_test.cpp \
     dictionary/utils/trie_map_test.cpp \
     suggest/core/dicnode/dic_node_pool_test.cpp \
+    suggest/core/dicnode/dic_node_priority_queue_test.cpp \
     suggest/core/layout/geometry_utils_test.cpp \
     suggest/core/layout/normal_distribution_2d_test.cpp \
     suggest/policyimpl/utils/damerau_levenshtein_edit_distance_policy_test.cpp \
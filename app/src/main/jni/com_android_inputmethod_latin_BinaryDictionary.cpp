@@ -18,7 +18,7 @@
 
 #include "com_android_inputmethod_latin_BinaryDictionary.h"
 
-#include <cstring> // for memset()
+#include <cstring> // for memset() and memmove()
 #include <vector>
 
 #include "defines.h"
@@ -43,7 +43,7 @@ namespace latinime {
 class ProximityInfo;
 
 static jlong latinime_BinaryDictionary_open(JNIEnv *env, jclass clazz, jstring sourceDir,
-        jlong dictOffset, jlong dictSize, jboolean isUpdatable) {
+        jlong dictOffset, jlong dictSize, jboolean isUpdatable, jint ptNodeArrayCacheSize) {
     PROF_INIT;
     PROF_TIMER_START(66);
     const jsize sourceDirUtf8Length = env->GetStringUTFLength(sourceDir);
@@ -57,7 +57,7 @@ static jlong latinime_BinaryDictionary_open(JNIEnv *env, jclass clazz, jstring s
     DictionaryStructureWithBufferPolicy::StructurePolicyPtr dictionaryStructureWithBufferPolicy(
             DictionaryStructureWithBufferPolicyFactory::newPolicyForExistingDictFile(
                     sourceDirChars, static_cast<int>(dictOffset), static_cast<int>(dictSize),
-                    isUpdatable == JNI_TRUE));
+                    isUpdatable == JNI_TRUE, static_cast<int>(ptNodeArrayCacheSize)));
     if (!dictionaryStructureWithBufferPolicy) {
         return 0;
     }
@@ -508,6 +508,107 @@ static int latinime_BinaryDictionary_updateEntriesForInputEvents(JNIEnv *env, jc
     return inputEventCount;
 }
 
+// Layout of the entries for addEntriesNative, must match BinaryDictionary.java.
+static const int ENTRY_PROBABILITY = 0;
+static const int ENTRY_TIMESTAMP = 1;
+static const int ENTRY_LEVEL = 2;
+static const int ENTRY_COUNT = 3;
+static const int ENTRY_FLAGS = 4;
+static const int ENTRY_WORD_START = 5;
+static const int ENTRY_WORD_LENGTH = 6;
+static const int ENTRY_PREV_WORD_COUNT = 7;
+// Start and length of each previous word.
+static const int ENTRY_PREV_WORDS = 8;
+static const int ENTRY_SIZE = ENTRY_PREV_WORDS + 2 * MAX_PREV_WORD_COUNT_FOR_N_GRAM;
+static const int ENTRY_FLAG_NOT_A_WORD = 0x1;
+static const int ENTRY_FLAG_POSSIBLY_OFFENSIVE = 0x2;
+// Shifted left by the index of the previous word.
+static const int ENTRY_FLAG_PREV_WORD_IS_BEGINNING_OF_SENTENCE = 0x4;
+
+static bool isValidCodePointRange(const int start, const int length, const int codePointCount) {
+    return start >= 0 && length >= 0 && length <= MAX_WORD_LENGTH
+            && start + length <= codePointCount;
+}
+
+// Adds unigram entries (no previous words) and n-gram entries, with words given as ranges in
+// codePoints. Stops after an entry if GC is needed. Returns the index of the next entry to add,
+// and outputs the number of entries that could not be added.
+static int latinime_BinaryDictionary_addEntries(JNIEnv *env, jclass clazz, jlong dict,
+        jintArray codePoints, jintArray entries, jint entryCount, jint startIndex,
+        jintArray outFailedCount) {
+    Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
+    if (!dictionary || startIndex >= entryCount
+            || env->GetArrayLength(entries) < entryCount * ENTRY_SIZE) {
+        return startIndex;
+    }
+    const jsize codePointCount = env->GetArrayLength(codePoints);
+    std::vector<int> codePointBuffer(codePointCount);
+    env->GetIntArrayRegion(codePoints, 0, codePointCount, codePointBuffer.data());
+    std::vector<int> entryBuffer((entryCount - startIndex) * ENTRY_SIZE);
+    env->GetIntArrayRegion(entries, startIndex * ENTRY_SIZE,
+            (entryCount - startIndex) * ENTRY_SIZE, entryBuffer.data());
+
+    int failedCount = 0;
+    int index = startIndex;
+    while (index < entryCount) {
+        const int *const entry = &entryBuffer[(index - startIndex) * ENTRY_SIZE];
+        ++index;
+        const int wordStart = entry[ENTRY_WORD_START];
+        const int wordLength = entry[ENTRY_WORD_LENGTH];
+        const int prevWordCount = entry[ENTRY_PREV_WORD_COUNT];
+        const int flags = entry[ENTRY_FLAGS];
+        if (wordLength == 0 || !isValidCodePointRange(wordStart, wordLength, codePointCount)
+                || prevWordCount < 0 || prevWordCount > MAX_PREV_WORD_COUNT_FOR_N_GRAM) {
+            ++failedCount;
+            continue;
+        }
+        const CodePointArrayView word(&codePointBuffer[wordStart], wordLength);
+        const HistoricalInfo historicalInfo(entry[ENTRY_TIMESTAMP], entry[ENTRY_LEVEL],
+                entry[ENTRY_COUNT]);
+        bool added = false;
+        if (prevWordCount == 0) {
+            const UnigramProperty unigramProperty(false /* representsBeginningOfSentence */,
+                    (flags & ENTRY_FLAG_NOT_A_WORD) != 0,
+                    (flags & ENTRY_FLAG_POSSIBLY_OFFENSIVE) != 0, entry[ENTRY_PROBABILITY],
+                    historicalInfo);
+            added = dictionary->addUnigramEntry(word, &unigramProperty);
+        } else {
+            int prevWordCodePoints[MAX_PREV_WORD_COUNT_FOR_N_GRAM][MAX_WORD_LENGTH];
+            int prevWordCodePointCount[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+            bool isBeginningOfSentence[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+            bool hasValidPrevWords = true;
+            for (int i = 0; i < prevWordCount; ++i) {
+                const int prevWordStart = entry[ENTRY_PREV_WORDS + 2 * i];
+                const int prevWordLength = entry[ENTRY_PREV_WORDS + 2 * i + 1];
+                if (!isValidCodePointRange(prevWordStart, prevWordLength, codePointCount)) {
+                    hasValidPrevWords = false;
+                    break;
+                }
+                memmove(prevWordCodePoints[i], &codePointBuffer[prevWordStart],
+                        sizeof(int) * prevWordLength);
+                prevWordCodePointCount[i] = prevWordLength;
+                isBeginningOfSentence[i] =
+                        (flags & (ENTRY_FLAG_PREV_WORD_IS_BEGINNING_OF_SENTENCE << i)) != 0;
+            }
+            if (hasValidPrevWords) {
+                const NgramContext ngramContext(prevWordCodePoints, prevWordCodePointCount,
+                        isBeginningOfSentence, prevWordCount);
+                const NgramProperty ngramProperty(ngramContext, word.toVector(),
+                        entry[ENTRY_PROBABILITY], historicalInfo);
+                added = dictionary->addNgramEntry(&ngramProperty);
+            }
+        }
+        if (!added) {
+            ++failedCount;
+        }
+        if (dictionary->needsToRunGC(true /* mindsBlockByGC */)) {
+            break;
+        }
+    }
+    env->SetIntArrayRegion(outFailedCount, 0, 1 /* len */, &failedCount);
+    return index;
+}
+
 static jstring latinime_BinaryDictionary_getProperty(JNIEnv *env, jclass clazz, jlong dict,
         jstring query) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
@@ -539,7 +640,8 @@ static DictionaryStructureWithBufferPolicy::StructurePolicyPtr runGCAndGetNewStr
     structurePolicy->flushWithGC(dictFilePath);
     structurePolicy.release();
     return DictionaryStructureWithBufferPolicyFactory::newPolicyForExistingDictFile(
-            dictFilePath, 0 /* offset */, 0 /* size */, true /* isUpdatable */);
+            dictFilePath, 0 /* offset */, 0 /* size */, true /* isUpdatable */,
+            0 /* ptNodeArrayCacheSize */);
 }
 
 static bool latinime_BinaryDictionary_migrateNative(JNIEnv *env, jclass clazz, jlong dict,
@@ -619,7 +721,7 @@ static bool latinime_BinaryDictionary_migrateNative(JNIEnv *env, jclass clazz, j
 static const JNINativeMethod sMethods[] = {
     {
         const_cast<char *>("openNative"),
-        const_cast<char *>("(Ljava/lang/String;JJZ)J"),
+        const_cast<char *>("(Ljava/lang/String;JJZI)J"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_open)
     },
     {
@@ -720,6 +822,11 @@ static const JNINativeMethod sMethods[] = {
                 "(J[Lcom/android/inputmethod/latin/utils/WordInputEventForPersonalization;I)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_updateEntriesForInputEvents)
     },
+    {
+        const_cast<char *>("addEntriesNative"),
+        const_cast<char *>("(J[I[III[I)I"),
+        reinterpret_cast<void *>(latinime_BinaryDictionary_addEntries)
+    },
     {
         const_cast<char *>("getPropertyNative"),
         const_cast<char *>("(JLjava/lang/String;)Ljava/lang/String;"),
@@ -38,7 +38,7 @@ namespace latinime {
 /* static */ DictionaryStructureWithBufferPolicy::StructurePolicyPtr
         DictionaryStructureWithBufferPolicyFactory::newPolicyForExistingDictFile(
                 const char *const path, const int bufOffset, const int size,
-                const bool isUpdatable) {
+                const bool isUpdatable, const int ptNodeArrayCacheSize) {
     if (FileUtils::existsDir(path)) {
         // Given path represents a directory.
         return newPolicyForDirectoryDict(path, isUpdatable);
@@ -48,7 +48,7 @@ namespace latinime {
             ASSERT(false);
             return nullptr;
         }
-        return newPolicyForFileDict(path, bufOffset, size);
+        return newPolicyForFileDict(path, bufOffset, size, ptNodeArrayCacheSize);
     }
 }
 
@@ -167,7 +167,8 @@ template<class DictConstants, class DictBuffers, class DictBuffersPtr, class Str
 
 /* static */ DictionaryStructureWithBufferPolicy::StructurePolicyPtr
         DictionaryStructureWithBufferPolicyFactory::newPolicyForFileDict(
-                const char *const path, const int bufOffset, const int size) {
+                const char *const path, const int bufOffset, const int size,
+                const int ptNodeArrayCacheSize) {
     // Allocated buffer in MmapedBuffer::openBuffer() will be freed in the destructor of
     // MmappedBufferPtr if the instance has the responsibility.
     MmappedBuffer::MmappedBufferPtr mmappedBuffer(
@@ -182,7 +183,7 @@ template<class DictConstants, class DictBuffers, class DictBuffersPtr, class Str
             break;
         case FormatUtils::VERSION_202:
             return DictionaryStructureWithBufferPolicy::StructurePolicyPtr(
-                    new PatriciaTriePolicy(std::move(mmappedBuffer)));
+                    new PatriciaTriePolicy(std::move(mmappedBuffer), ptNodeArrayCacheSize));
         case FormatUtils::VERSION_4_ONLY_FOR_TESTING:
         case FormatUtils::VERSION_402:
         case FormatUtils::VERSION_403:
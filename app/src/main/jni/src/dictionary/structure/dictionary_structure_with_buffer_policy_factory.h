@@ -31,7 +31,7 @@ class DictionaryStructureWithBufferPolicyFactory {
  public:
     static DictionaryStructureWithBufferPolicy::StructurePolicyPtr
             newPolicyForExistingDictFile(const char *const path, const int bufOffset,
-                    const int size, const bool isUpdatable);
+                    const int size, const bool isUpdatable, const int ptNodeArrayCacheSize);
 
     static DictionaryStructureWithBufferPolicy::StructurePolicyPtr
             newPolicyForOnMemoryDict(const int formatVersion, const std::vector<int> &locale,
@@ -55,7 +55,8 @@ class DictionaryStructureWithBufferPolicyFactory {
                     MmappedBuffer::MmappedBufferPtr &&mmappedBuffer);
 
     static DictionaryStructureWithBufferPolicy::StructurePolicyPtr
-            newPolicyForFileDict(const char *const path, const int bufOffset, const int size);
+            newPolicyForFileDict(const char *const path, const int bufOffset, const int size,
+                    const int ptNodeArrayCacheSize);
 
     static void getHeaderFilePathInDictDir(const char *const dirPath,
             const int outHeaderFileBufSize, char *const outHeaderFilePath);
@@ -30,12 +30,30 @@
 
 namespace latinime {
 
+// The root array and the arrays for the first two PtNodes are always cached if they fit, arrays
+// one level deeper as long as the size limit allows.
+const int PatriciaTriePolicy::MAX_CACHED_PT_NODE_ARRAY_DEPTH = 3;
+
 void PatriciaTriePolicy::createAndGetAllChildDicNodes(const DicNode *const dicNode,
         DicNodeVector *const childDicNodes) const {
     if (!dicNode->hasChildren()) {
         return;
     }
     int nextPos = dicNode->getChildrenPtNodeArrayPos();
+    if (!mPtNodeArrayCache.isEmpty()) {
+        int cachedPtNodeCount = 0;
+        const int firstCachedPtNodeIndex =
+                mPtNodeArrayCache.getPtNodeArray(nextPos, &cachedPtNodeCount);
+        if (firstCachedPtNodeIndex != NOT_AN_INDEX) {
+            for (int i = 0; i < cachedPtNodeCount; ++i) {
+                const PtNodeArrayCache::CachedPtNode &ptNode =
+                        mPtNodeArrayCache.getPtNode(firstCachedPtNodeIndex + i);
+                childDicNodes->pushLeavingChild(dicNode, ptNode.getChildrenPos(),
+                        ptNode.getWordId(), mPtNodeArrayCache.getCodePoints(ptNode));
+            }
+            return;
+        }
+    }
     if (!isValidPos(nextPos)) {
         AKLOGE("Children PtNode array position is invalid. pos: %d, dict size: %zd",
                 nextPos, mBuffer.size());
@@ -519,6 +537,76 @@ int PatriciaTriePolicy::getTerminalPtNodePosFromWordId(const int wordId) const {
     return wordId == NOT_A_WORD_ID ? NOT_A_DICT_POS : wordId;
 }
 
+void PatriciaTriePolicy::buildPtNodeArrayCache() {
+    if (!mPtNodeArrayCache.isEnabled()) {
+        return;
+    }
+    std::vector<int> ptNodeArrayPositions(1, getRootPosition());
+    std::vector<int> childPtNodeArrayPositions;
+    std::vector<PtNodeArrayCache::CachedPtNode> ptNodes;
+    std::vector<int> codePoints;
+    // Breadth-first, so shallow arrays are preferred when the size limit is reached.
+    for (int depth = 0; depth < MAX_CACHED_PT_NODE_ARRAY_DEPTH; ++depth) {
+        childPtNodeArrayPositions.clear();
+        for (const int ptNodeArrayPos : ptNodeArrayPositions) {
+            ptNodes.clear();
+            codePoints.clear();
+            if (!readPtNodeArrayForCache(ptNodeArrayPos, &ptNodes, &codePoints)) {
+                // Leave reporting the corruption to the regular traversal.
+                return;
+            }
+            if (!mPtNodeArrayCache.addPtNodeArray(ptNodeArrayPos, ptNodes, codePoints)) {
+                return;
+            }
+            for (const PtNodeArrayCache::CachedPtNode &ptNode : ptNodes) {
+                if (ptNode.getChildrenPos() != NOT_A_DICT_POS) {
+                    childPtNodeArrayPositions.push_back(ptNode.getChildrenPos());
+                }
+            }
+        }
+        ptNodeArrayPositions.swap(childPtNodeArrayPositions);
+    }
+}
+
+// Reads the PtNodes like createAndGetAllChildDicNodes() does.
+bool PatriciaTriePolicy::readPtNodeArrayForCache(const int ptNodeArrayPos,
+        std::vector<PtNodeArrayCache::CachedPtNode> *const outPtNodes,
+        std::vector<int> *const outCodePoints) const {
+    int nextPos = ptNodeArrayPos;
+    if (!isValidPos(nextPos)) {
+        return false;
+    }
+    const int childCount = PatriciaTrieReadingUtils::getPtNodeArraySizeAndAdvancePosition(
+            mBuffer.data(), &nextPos);
+    const int *const codePointTable = mHeaderPolicy.getCodePointTable();
+    for (int i = 0; i < childCount; i++) {
+        if (!isValidPos(nextPos)) {
+            return false;
+        }
+        const int ptNodePos = nextPos;
+        PatriciaTrieReadingUtils::NodeFlags flags;
+        int mergedNodeCodePointCount = 0;
+        int mergedNodeCodePoints[MAX_WORD_LENGTH];
+        int probability = NOT_A_PROBABILITY;
+        int childrenPos = NOT_A_DICT_POS;
+        int shortcutPos = NOT_A_DICT_POS;
+        int bigramPos = NOT_A_DICT_POS;
+        PatriciaTrieReadingUtils::readPtNodeInfo(mBuffer.data(), ptNodePos, &mShortcutListPolicy,
+                &mBigramListPolicy, codePointTable, &flags, &mergedNodeCodePointCount,
+                mergedNodeCodePoints, &probability, &childrenPos, &shortcutPos, &bigramPos,
+                &nextPos);
+        if (!CharUtils::isInUnicodeSpace(mergedNodeCodePoints[0])) {
+            continue;
+        }
+        const int wordId = PatriciaTrieReadingUtils::isTerminal(flags) ? ptNodePos : NOT_A_WORD_ID;
+        outPtNodes->emplace_back(childrenPos, wordId, static_cast<int>(outCodePoints->size()),
+                mergedNodeCodePointCount);
+        outCodePoints->insert(outCodePoints->end(), mergedNodeCodePoints,
+                mergedNodeCodePoints + mergedNodeCodePointCount);
+    }
+    return true;
+}
+
 bool PatriciaTriePolicy::isValidPos(const int pos) const {
     return pos >= 0 && pos < static_cast<int>(mBuffer.size());
 }
@@ -24,6 +24,7 @@
 #include "dictionary/header/header_policy.h"
 #include "dictionary/interface/dictionary_structure_with_buffer_policy.h"
 #include "dictionary/structure/v2/bigram/bigram_list_policy.h"
+#include "dictionary/structure/v2/pt_node_array_cache.h"
 #include "dictionary/structure/v2/shortcut/shortcut_list_policy.h"
 #include "dictionary/structure/v2/ver2_patricia_trie_node_reader.h"
 #include "dictionary/structure/v2/ver2_pt_node_array_reader.h"
@@ -41,7 +42,10 @@ class DicNodeVector;
 // Max supported n-gram is bigram.
 class PatriciaTriePolicy : public DictionaryStructureWithBufferPolicy {
  public:
-    PatriciaTriePolicy(MmappedBuffer::MmappedBufferPtr mmappedBuffer)
+    // ptNodeArrayCacheSize limits the memory used for caching the PtNode arrays near the root,
+    // 0 disables the cache.
+    PatriciaTriePolicy(MmappedBuffer::MmappedBufferPtr mmappedBuffer,
+            const int ptNodeArrayCacheSize)
             : mMmappedBuffer(std::move(mmappedBuffer)),
               mHeaderPolicy(mMmappedBuffer->getReadOnlyByteArrayView().data(),
                       FormatUtils::detectFormatVersion(mMmappedBuffer->getReadOnlyByteArrayView())),
@@ -50,7 +54,9 @@ class PatriciaTriePolicy : public DictionaryStructureWithBufferPolicy {
               mPtNodeReader(mBuffer, &mBigramListPolicy, &mShortcutListPolicy,
                       mHeaderPolicy.getCodePointTable()),
               mPtNodeArrayReader(mBuffer), mTerminalPtNodePositionsForIteratingWords(),
-              mIsCorrupted(false) {}
+              mPtNodeArrayCache(ptNodeArrayCacheSize), mIsCorrupted(false) {
+        buildPtNodeArrayCache();
+    }
 
     AK_FORCE_INLINE int getRootPosition() const {
         return 0;
@@ -153,6 +159,8 @@ class PatriciaTriePolicy : public DictionaryStructureWithBufferPolicy {
  private:
     DISALLOW_IMPLICIT_CONSTRUCTORS(PatriciaTriePolicy);
 
+    static const int MAX_CACHED_PT_NODE_ARRAY_DEPTH;
+
     const MmappedBuffer::MmappedBufferPtr mMmappedBuffer;
     const HeaderPolicy mHeaderPolicy;
     const ReadOnlyByteArrayView mBuffer;
@@ -161,8 +169,14 @@ class PatriciaTriePolicy : public DictionaryStructureWithBufferPolicy {
     const Ver2ParticiaTrieNodeReader mPtNodeReader;
     const Ver2PtNodeArrayReader mPtNodeArrayReader;
     std::vector<int> mTerminalPtNodePositionsForIteratingWords;
+    PtNodeArrayCache mPtNodeArrayCache;
     mutable bool mIsCorrupted;
 
+    void buildPtNodeArrayCache();
+    bool readPtNodeArrayForCache(const int ptNodeArrayPos,
+            std::vector<PtNodeArrayCache::CachedPtNode> *const outPtNodes,
+            std::vector<int> *const outCodePoints) const;
+
     int getCodePointsAndProbabilityAndReturnCodePointCount(const int wordId,
             const int maxCodePointCount, int *const outCodePoints,
             int *const outUnigramProbability) const;
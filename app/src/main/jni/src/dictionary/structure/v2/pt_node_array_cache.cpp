@@ -0,0 +1,48 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "dictionary/structure/v2/pt_node_array_cache.h"
+
+#include <algorithm>
+
+namespace latinime {
+
+int PtNodeArrayCache::getPtNodeArray(const int ptNodeArrayPos, int *const outPtNodeCount) const {
+    const auto it = std::lower_bound(mPtNodeArrays.begin(), mPtNodeArrays.end(), ptNodeArrayPos,
+            [](const CachedPtNodeArray &array, const int pos) { return array.mPos < pos; });
+    if (it == mPtNodeArrays.end() || it->mPos != ptNodeArrayPos) {
+        return NOT_AN_INDEX;
+    }
+    *outPtNodeCount = it->mPtNodeCount;
+    return it->mFirstPtNodeIndex;
+}
+
+bool PtNodeArrayCache::addPtNodeArray(const int ptNodeArrayPos,
+        const std::vector<CachedPtNode> &ptNodes, const std::vector<int> &codePoints) {
+    const int size = static_cast<int>(sizeof(CachedPtNodeArray)
+            + ptNodes.size() * sizeof(CachedPtNode) + codePoints.size() * sizeof(int));
+    if (mSizeInBytes + size > mMaxSizeInBytes) {
+        return false;
+    }
+    int ptNodeCount;
+    if (getPtNodeArray(ptNodeArrayPos, &ptNodeCount) != NOT_AN_INDEX) {
+        // Already cached, arrays can be shared by PtNodes in corrupted dictionaries.
+        return true;
+    }
+    const int codePointOffset = static_cast<int>(mCodePoints.size());
+    const CachedPtNodeArray array(ptNodeArrayPos, static_cast<int>(mPtNodes.size()),
+            static_cast<int>(ptNodes.size()));
+    for (const CachedPtNode &ptNode : ptNodes) {
+        mPtNodes.emplace_back(ptNode.mChildrenPos, ptNode.mWordId,
+                ptNode.mCodePointStart + codePointOffset, ptNode.mCodePointCount);
+    }
+    mCodePoints.insert(mCodePoints.end(), codePoints.begin(), codePoints.end());
+    // Arrays are usually added in the order of their positions, as tries are written breadth-first.
+    mPtNodeArrays.insert(std::upper_bound(mPtNodeArrays.begin(), mPtNodeArrays.end(),
+            ptNodeArrayPos, [](const int pos, const CachedPtNodeArray &cachedArray) {
+                return pos < cachedArray.mPos;
+            }), array);
+    mSizeInBytes += size;
+    return true;
+}
+
+} // namespace latinime
@@ -0,0 +1,94 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_PT_NODE_ARRAY_CACHE_H
+#define LATINIME_PT_NODE_ARRAY_CACHE_H
+
+#include <cstddef>
+#include <vector>
+
+#include "defines.h"
+#include "utils/int_array_view.h"
+
+namespace latinime {
+
+// Decoded PtNode arrays of the shallow part of a read-only trie, keyed by the position of the
+// array. Every suggestion query expands the root array and the arrays for the first few letters,
+// so caching them saves decoding the same PtNodes again for every query.
+// The cache is filled once and only read afterwards, so it can be shared by traverse sessions.
+class PtNodeArrayCache {
+ public:
+    class CachedPtNode {
+     public:
+        CachedPtNode(const int childrenPos, const int wordId, const int codePointStart,
+                const int codePointCount)
+                : mChildrenPos(childrenPos), mWordId(wordId), mCodePointStart(codePointStart),
+                  mCodePointCount(codePointCount) {}
+
+        int getChildrenPos() const { return mChildrenPos; }
+        int getWordId() const { return mWordId; }
+
+     private:
+        friend class PtNodeArrayCache;
+
+        int mChildrenPos;
+        int mWordId;
+        int mCodePointStart;
+        int mCodePointCount;
+    };
+
+    explicit PtNodeArrayCache(const int maxSizeInBytes)
+            : mMaxSizeInBytes(maxSizeInBytes), mSizeInBytes(0), mPtNodeArrays(), mPtNodes(),
+              mCodePoints() {}
+
+    // Returns the index of the first PtNode of the array and sets outPtNodeCount, or returns
+    // NOT_AN_INDEX if the array is not cached.
+    int getPtNodeArray(const int ptNodeArrayPos, int *const outPtNodeCount) const;
+
+    const CachedPtNode &getPtNode(const int index) const {
+        return mPtNodes[index];
+    }
+
+    const CodePointArrayView getCodePoints(const CachedPtNode &ptNode) const {
+        return CodePointArrayView(mCodePoints.data() + ptNode.mCodePointStart,
+                ptNode.mCodePointCount);
+    }
+
+    // Adds the PtNode array read into the given vectors, where the code point starts of the
+    // PtNodes are relative to codePoints. Returns false if the array doesn't fit in the size limit.
+    bool addPtNodeArray(const int ptNodeArrayPos, const std::vector<CachedPtNode> &ptNodes,
+            const std::vector<int> &codePoints);
+
+    bool isEnabled() const {
+        return mMaxSizeInBytes > 0;
+    }
+
+    bool isEmpty() const {
+        return mPtNodeArrays.empty();
+    }
+
+    int getSizeInBytes() const {
+        return mSizeInBytes;
+    }
+
+ private:
+    DISALLOW_IMPLICIT_CONSTRUCTORS(PtNodeArrayCache);
+
+    class CachedPtNodeArray {
+     public:
+        CachedPtNodeArray(const int pos, const int firstPtNodeIndex, const int ptNodeCount)
+                : mPos(pos), mFirstPtNodeIndex(firstPtNodeIndex), mPtNodeCount(ptNodeCount) {}
+
+        int mPos;
+        int mFirstPtNodeIndex;
+        int mPtNodeCount;
+    };
+
+    const int mMaxSizeInBytes;
+    int mSizeInBytes;
+    // Sorted by position.
+    std::vector<CachedPtNodeArray> mPtNodeArrays;
+    std::vector<CachedPtNode> mPtNodes;
+    std::vector<int> mCodePoints;
+};
+} // namespace latinime
+#endif /* LATINIME_PT_NODE_ARRAY_CACHE_H */
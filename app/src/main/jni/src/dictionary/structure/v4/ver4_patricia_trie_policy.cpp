@@ -41,6 +41,8 @@ const char *const Ver4PatriciaTriePolicy::UNIGRAM_COUNT_QUERY = "UNIGRAM_COUNT";
 const char *const Ver4PatriciaTriePolicy::BIGRAM_COUNT_QUERY = "BIGRAM_COUNT";
 const char *const Ver4PatriciaTriePolicy::MAX_UNIGRAM_COUNT_QUERY = "MAX_UNIGRAM_COUNT";
 const char *const Ver4PatriciaTriePolicy::MAX_BIGRAM_COUNT_QUERY = "MAX_BIGRAM_COUNT";
+// Completed and total GC steps as "completed/total".
+const char *const Ver4PatriciaTriePolicy::GC_PROGRESS_QUERY = "GC_PROGRESS";
 const int Ver4PatriciaTriePolicy::MARGIN_TO_REFUSE_DYNAMIC_OPERATIONS = 1024;
 const int Ver4PatriciaTriePolicy::MIN_DICT_SIZE_TO_REFUSE_DYNAMIC_OPERATIONS =
         Ver4DictConstants::MAX_DICTIONARY_SIZE - MARGIN_TO_REFUSE_DYNAMIC_OPERATIONS;
@@ -498,6 +500,9 @@ void Ver4PatriciaTriePolicy::getProperty(const char *const query, const int quer
                                 mHeaderPolicy->getMaxNgramCounts().getNgramCount(
                                         NgramType::Bigram)) :
                         static_cast<int>(Ver4DictConstants::MAX_DICTIONARY_SIZE));
+    } else if (strncmp(query, GC_PROGRESS_QUERY, compareLength) == 0) {
+        snprintf(outResult, maxResultLength, "%d/%d", mWritingHelper.getCompletedGcStepCount(),
+                Ver4PatriciaTrieWritingHelper::GC_STEP_COUNT);
     }
 }
 
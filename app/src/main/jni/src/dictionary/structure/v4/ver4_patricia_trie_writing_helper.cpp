@@ -33,6 +33,9 @@
 
 namespace latinime {
 
+// Steps of runGC() and writing the result.
+const int Ver4PatriciaTrieWritingHelper::GC_STEP_COUNT = 10;
+
 bool Ver4PatriciaTrieWritingHelper::writeToDictFile(const char *const dictDirPath,
         const EntryCounts &entryCounts) const {
     const HeaderPolicy *const headerPolicy = mBuffers->getHeaderPolicy();
@@ -55,6 +58,7 @@ bool Ver4PatriciaTrieWritingHelper::writeToDictFile(const char *const dictDirPat
 
 bool Ver4PatriciaTrieWritingHelper::writeToDictFileWithGC(const int rootPtNodeArrayPos,
         const char *const dictDirPath) {
+    mCompletedGcStepCount.store(0, std::memory_order_relaxed);
     const HeaderPolicy *const headerPolicy = mBuffers->getHeaderPolicy();
     Ver4DictBuffers::Ver4DictBuffersPtr dictBuffers(
             Ver4DictBuffers::createVer4DictBuffers(headerPolicy,
@@ -69,7 +73,11 @@ bool Ver4PatriciaTrieWritingHelper::writeToDictFileWithGC(const int rootPtNodeAr
             entryCounters.getEntryCounts(), 0 /* extendedRegionSize */, &headerBuffer)) {
         return false;
     }
-    return dictBuffers->flushHeaderAndDictBuffers(dictDirPath, &headerBuffer);
+    if (!dictBuffers->flushHeaderAndDictBuffers(dictDirPath, &headerBuffer)) {
+        return false;
+    }
+    onGcStepCompleted();
+    return true;
 }
 
 bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
@@ -87,6 +95,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
         AKLOGE("Failed to update probabilities in language model dict content.");
         return false;
     }
+    onGcStepCompleted();
     if (headerPolicy->isDecayingDict()) {
         const EntryCounts &maxEntryCounts = headerPolicy->getMaxNgramCounts();
         if (!mBuffers->getMutableLanguageModelDictContent()->truncateEntries(
@@ -96,6 +105,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             return false;
         }
     }
+    onGcStepCompleted();
 
     DynamicPtReadingHelper readingHelper(&ptNodeReader, &ptNodeArrayReader);
     readingHelper.initWithPtNodeArrayPos(rootPtNodeArrayPos);
@@ -107,6 +117,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             &traversePolicyToUpdateUnigramProbabilityAndMarkUselessPtNodesAsDeleted)) {
         return false;
     }
+    onGcStepCompleted();
 
     // Mapping from positions in mBuffer to positions in bufferToWrite.
     PtNodeWriter::DictPositionRelocationMap dictPositionRelocationMap;
@@ -120,6 +131,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             &traversePolicyToPlaceAndWriteValidPtNodesToBuffer)) {
         return false;
     }
+    onGcStepCompleted();
 
     // Create policy instances for the GCed dictionary.
     Ver4PatriciaTrieNodeReader newPtNodeReader(buffersToWrite->getTrieBuffer());
@@ -135,16 +147,19 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             &terminalIdMap)) {
         return false;
     }
+    onGcStepCompleted();
     // Run GC for language model dict content.
     if (!buffersToWrite->getMutableLanguageModelDictContent()->runGC(&terminalIdMap,
             mBuffers->getLanguageModelDictContent())) {
         return false;
     }
+    onGcStepCompleted();
     // Run GC for shortcut dict content.
     if(!buffersToWrite->getMutableShortcutDictContent()->runGC(&terminalIdMap,
             mBuffers->getShortcutDictContent())) {
         return false;
     }
+    onGcStepCompleted();
     DynamicPtReadingHelper newDictReadingHelper(&newPtNodeReader, &newPtNodeArrayreader);
     newDictReadingHelper.initWithPtNodeArrayPos(rootPtNodeArrayPos);
     DynamicPtGcEventListeners::TraversePolicyToUpdateAllPositionFields
@@ -153,6 +168,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             &traversePolicyToUpdateAllPositionFields)) {
         return false;
     }
+    onGcStepCompleted();
     newDictReadingHelper.initWithPtNodeArrayPos(rootPtNodeArrayPos);
     TraversePolicyToUpdateAllPtNodeFlagsAndTerminalIds
             traversePolicyToUpdateAllPtNodeFlagsAndTerminalIds(&newPtNodeWriter, &terminalIdMap);
@@ -160,6 +176,7 @@ bool Ver4PatriciaTrieWritingHelper::runGC(const int rootPtNodeArrayPos,
             &traversePolicyToUpdateAllPtNodeFlagsAndTerminalIds)) {
         return false;
     }
+    onGcStepCompleted();
     return true;
 }
 
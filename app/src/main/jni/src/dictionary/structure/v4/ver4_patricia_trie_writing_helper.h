@@ -17,6 +17,8 @@
 #ifndef LATINIME_VER4_PATRICIA_TRIE_WRITING_HELPER_H
 #define LATINIME_VER4_PATRICIA_TRIE_WRITING_HELPER_H
 
+#include <atomic>
+
 #include "defines.h"
 #include "dictionary/structure/pt_common/dynamic_pt_gc_event_listeners.h"
 #include "dictionary/structure/v4/content/terminal_position_lookup_table.h"
@@ -31,8 +33,10 @@ class Ver4PatriciaTrieNodeWriter;
 
 class Ver4PatriciaTrieWritingHelper {
  public:
+    static const int GC_STEP_COUNT;
+
     Ver4PatriciaTrieWritingHelper(Ver4DictBuffers *const buffers)
-            : mBuffers(buffers) {}
+            : mBuffers(buffers), mCompletedGcStepCount(0) {}
 
     bool writeToDictFile(const char *const dictDirPath, const EntryCounts &entryCounts) const;
 
@@ -40,6 +44,11 @@ class Ver4PatriciaTrieWritingHelper {
     // useless PtNodes during GC.
     bool writeToDictFileWithGC(const int rootPtNodeArrayPos, const char *const dictDirPath);
 
+    // Progress of the running or last GC, can be read from other threads while GC is running.
+    int getCompletedGcStepCount() const {
+        return mCompletedGcStepCount.load(std::memory_order_relaxed);
+    }
+
  private:
     DISALLOW_IMPLICIT_CONSTRUCTORS(Ver4PatriciaTrieWritingHelper);
 
@@ -69,7 +78,12 @@ class Ver4PatriciaTrieWritingHelper {
     bool runGC(const int rootPtNodeArrayPos, const HeaderPolicy *const headerPolicy,
             Ver4DictBuffers *const buffersToWrite, MutableEntryCounters *const outEntryCounters);
 
+    void onGcStepCompleted() {
+        mCompletedGcStepCount.fetch_add(1, std::memory_order_relaxed);
+    }
+
     Ver4DictBuffers *const mBuffers;
+    std::atomic<int> mCompletedGcStepCount;
 };
 } // namespace latinime
 
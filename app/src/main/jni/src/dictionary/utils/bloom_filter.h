@@ -17,7 +17,9 @@
 #ifndef LATINIME_BLOOM_FILTER_H
 #define LATINIME_BLOOM_FILTER_H
 
-#include <bitset>
+#include <algorithm>
+#include <cstdint>
+#include <vector>
 
 #include "defines.h"
 
@@ -31,39 +33,91 @@ namespace latinime {
 //   Total 145900.64 (sum of others 145874.30)
 //  always read binary dictionary:
 //   Total 148603.14 (sum of others 148579.90)
+//
+// The filter is sized for the expected number of elements, so it stays useful for contexts with
+// many more n-grams than the bigrams of a word in the main dictionaries.
 class BloomFilter {
  public:
-    BloomFilter() : mFilter() {}
+    BloomFilter() : BloomFilter(DEFAULT_EXPECTED_ELEMENT_COUNT) {}
+
+    // The probability of false positive is (1 - e ** (-kn/m))**k, where k is the number of hash
+    // functions, n the number of elements, and m the number of bits. With m >= 10n and k = 3, the
+    // false positive rate for expectedElementCount elements is at most 1.7%.
+    explicit BloomFilter(const int expectedElementCount, const int hashCount = DEFAULT_HASH_COUNT)
+            : mFilter(), mBitMask(0), mHashCount(hashCount) {
+        reset(expectedElementCount);
+    }
+
+    // Clears the filter and sizes it for the given number of elements.
+    void reset(const int expectedElementCount) {
+        const uint32_t bitCount = getBitCount(expectedElementCount);
+        mFilter.assign(bitCount / 64, 0);
+        mBitMask = bitCount - 1;
+    }
 
     AK_FORCE_INLINE void setInFilter(const int position) {
-        mFilter.set(getIndex(position));
+        const uint64_t hash = getHash(position);
+        for (int i = 0; i < mHashCount; ++i) {
+            const uint32_t index = getIndex(hash, i);
+            mFilter[index >> 6] |= UINT64_C(1) << (index & 63);
+        }
     }
 
     AK_FORCE_INLINE bool isInFilter(const int position) const {
-        return mFilter.test(getIndex(position));
+        const uint64_t hash = getHash(position);
+        for (int i = 0; i < mHashCount; ++i) {
+            const uint32_t index = getIndex(hash, i);
+            if ((mFilter[index >> 6] & (UINT64_C(1) << (index & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
  private:
     DISALLOW_ASSIGNMENT_OPERATOR(BloomFilter);
 
-    AK_FORCE_INLINE size_t getIndex(const int position) const {
-        return static_cast<size_t>(position) % BIGRAM_FILTER_MODULO;
+    // At the moment 100 is the maximum number of bigrams for a word with the current main
+    // dictionaries.
+    static const int DEFAULT_EXPECTED_ELEMENT_COUNT = 100;
+    static const int DEFAULT_HASH_COUNT = 3;
+    static const int BITS_PER_ELEMENT = 10;
+    static const uint32_t MIN_BIT_COUNT = 1024;
+    // 2^26 bits, 8MB.
+    static const uint32_t MAX_BIT_COUNT = 1 << 26;
+
+    // Power of 2, so that indices can be computed with a mask.
+    static uint32_t getBitCount(const int expectedElementCount) {
+        uint32_t bitCount = MIN_BIT_COUNT;
+        const uint64_t requiredBitCount =
+                static_cast<uint64_t>(std::max(expectedElementCount, 0)) * BITS_PER_ELEMENT;
+        while (bitCount < requiredBitCount && bitCount < MAX_BIT_COUNT) {
+            bitCount <<= 1;
+        }
+        return bitCount;
     }
 
-    // Size, in bits, of the bloom filter index for bigrams
-    // The probability of false positive is (1 - e ** (-kn/m))**k,
-    // where k is the number of hash functions, n the number of bigrams, and m the number of
-    // bits we can test.
-    // At the moment 100 is the maximum number of bigrams for a word with the current main
-    // dictionaries, so n = 100. 1024 buckets give us m = 1024.
-    // With 1 hash function, our false positive rate is about 9.3%, which should be enough for
-    // our uses since we are only using this to increase average performance. For the record,
-    // k = 2 gives 3.1% and k = 3 gives 1.6%. With k = 1, making m = 2048 gives 4.8%,
-    // and m = 4096 gives 2.4%.
-    // This is assigned here because it is used for bitset size.
-    // 1021 is the largest prime under 1024.
-    static const size_t BIGRAM_FILTER_MODULO = 1021;
-    std::bitset<BIGRAM_FILTER_MODULO> mFilter;
+    // Word ids and positions are dense, so they are mixed before use (MurmurHash3 finalizer).
+    AK_FORCE_INLINE static uint64_t getHash(const int position) {
+        uint64_t hash = static_cast<uint32_t>(position);
+        hash ^= hash >> 33;
+        hash *= UINT64_C(0xFF51AFD7ED558CCD);
+        hash ^= hash >> 33;
+        hash *= UINT64_C(0xC4CEB9FE1A85EC53);
+        hash ^= hash >> 33;
+        return hash;
+    }
+
+    // Double hashing, the odd second hash makes the indices differ for every hash function.
+    AK_FORCE_INLINE uint32_t getIndex(const uint64_t hash, const int i) const {
+        const uint32_t hash1 = static_cast<uint32_t>(hash >> 32);
+        const uint32_t hash2 = static_cast<uint32_t>(hash) | 1;
+        return (hash1 + static_cast<uint32_t>(i) * hash2) & mBitMask;
+    }
+
+    std::vector<uint64_t> mFilter;
+    uint32_t mBitMask;
+    const int mHashCount;
 };
 } // namespace latinime
 #endif // LATINIME_BLOOM_FILTER_H
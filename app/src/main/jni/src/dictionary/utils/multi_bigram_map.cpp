@@ -16,6 +16,7 @@
 
 #include "dictionary/utils/multi_bigram_map.h"
 
+#include <algorithm>
 #include <cstddef>
 #include <unordered_map>
 
@@ -29,7 +30,7 @@ namespace latinime {
 const size_t MultiBigramMap::MAX_CACHED_PREV_WORDS_IN_BIGRAM_MAP = 25;
 
 // Most common previous word contexts currently have 100 bigrams
-const int MultiBigramMap::BigramMap::DEFAULT_HASH_MAP_SIZE_FOR_EACH_BIGRAM_MAP = 100;
+const int MultiBigramMap::BigramMap::DEFAULT_ENTRY_COUNT_FOR_EACH_BIGRAM_MAP = 100;
 
 // Look up the bigram probability for the given word pair from the cached bigram maps.
 // Also caches the bigrams if there is space remaining and they have not been cached already.
@@ -57,7 +58,26 @@ int MultiBigramMap::getBigramProbability(
 void MultiBigramMap::BigramMap::init(
         const DictionaryStructureWithBufferPolicy *const structurePolicy,
         const WordIdArrayView prevWordIds) {
+    mEntries.reserve(DEFAULT_ENTRY_COUNT_FOR_EACH_BIGRAM_MAP);
     structurePolicy->iterateNgramEntries(prevWordIds, this /* listener */);
+    // Later entries are for longer contexts and replace earlier ones for the same word.
+    std::stable_sort(mEntries.begin(), mEntries.end(), [](const Entry &left, const Entry &right) {
+        return left.mWordId < right.mWordId;
+    });
+    size_t entryCount = 0;
+    for (const Entry &entry : mEntries) {
+        if (entryCount > 0 && mEntries[entryCount - 1].mWordId == entry.mWordId) {
+            mEntries[entryCount - 1].mProbability = entry.mProbability;
+        } else {
+            mEntries[entryCount++] = entry;
+        }
+    }
+    mEntries.erase(mEntries.begin() + entryCount, mEntries.end());
+    mEntries.shrink_to_fit();
+    mBloomFilter.reset(static_cast<int>(mEntries.size()));
+    for (const Entry &entry : mEntries) {
+        mBloomFilter.setInFilter(entry.mWordId);
+    }
 }
 
 int MultiBigramMap::BigramMap::getBigramProbability(
@@ -65,9 +85,10 @@ int MultiBigramMap::BigramMap::getBigramProbability(
         const int nextWordId, const int unigramProbability) const {
     int bigramProbability = NOT_A_PROBABILITY;
     if (mBloomFilter.isInFilter(nextWordId)) {
-        const auto bigramProbabilityIt = mBigramMap.find(nextWordId);
-        if (bigramProbabilityIt != mBigramMap.end()) {
-            bigramProbability = bigramProbabilityIt->second;
+        const auto entryIt = std::lower_bound(mEntries.begin(), mEntries.end(), nextWordId,
+                [](const Entry &entry, const int wordId) { return entry.mWordId < wordId; });
+        if (entryIt != mEntries.end() && entryIt->mWordId == nextWordId) {
+            bigramProbability = entryIt->mProbability;
         }
     }
     return structurePolicy->getProbability(unigramProbability, bigramProbability);
@@ -77,8 +98,7 @@ void MultiBigramMap::BigramMap::onVisitEntry(const int ngramProbability, const i
     if (targetWordId == NOT_A_WORD_ID) {
         return;
     }
-    mBigramMap[targetWordId] = ngramProbability;
-    mBloomFilter.setInFilter(targetWordId);
+    mEntries.emplace_back(targetWordId, ngramProbability);
 }
 
 void MultiBigramMap::addBigramsForWord(
@@ -19,6 +19,7 @@
 
 #include <cstddef>
 #include <unordered_map>
+#include <vector>
 
 #include "defines.h"
 #include "dictionary/interface/dictionary_structure_with_buffer_policy.h"
@@ -49,12 +50,15 @@ class MultiBigramMap {
  private:
     DISALLOW_COPY_AND_ASSIGN(MultiBigramMap);
 
+    // Next words of a context, sorted by word id. Much more compact than a hash map, which
+    // matters for contexts with many n-grams, and the bloom filter skips most of the searches
+    // for words that are not in the context.
     class BigramMap : public NgramListener {
      public:
-        BigramMap() : mBigramMap(DEFAULT_HASH_MAP_SIZE_FOR_EACH_BIGRAM_MAP), mBloomFilter() {}
+        BigramMap() : mEntries(), mBloomFilter() {}
         // Copy constructor needed for std::unordered_map.
         BigramMap(const BigramMap &bigramMap)
-                : mBigramMap(bigramMap.mBigramMap), mBloomFilter(bigramMap.mBloomFilter) {}
+                : mEntries(bigramMap.mEntries), mBloomFilter(bigramMap.mBloomFilter) {}
         virtual ~BigramMap() {}
 
         void init(const DictionaryStructureWithBufferPolicy *const structurePolicy,
@@ -65,8 +69,17 @@ class MultiBigramMap {
         virtual void onVisitEntry(const int ngramProbability, const int targetWordId);
 
      private:
-        static const int DEFAULT_HASH_MAP_SIZE_FOR_EACH_BIGRAM_MAP;
-        std::unordered_map<int, int> mBigramMap;
+        class Entry {
+         public:
+            Entry(const int wordId, const int probability)
+                    : mWordId(wordId), mProbability(probability) {}
+
+            int mWordId;
+            int mProbability;
+        };
+
+        static const int DEFAULT_ENTRY_COUNT_FOR_EACH_BIGRAM_MAP;
+        std::vector<Entry> mEntries;
         BloomFilter mBloomFilter;
     };
 
@@ -18,6 +18,8 @@
 
 namespace latinime {
 
+const float DicNode::COMPOUND_DISTANCE_EPSILON = 0.000001f;
+
 DicNode::DicNode(const DicNode &dicNode)
         :
 #if DEBUG_DICT
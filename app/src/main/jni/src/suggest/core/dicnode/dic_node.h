@@ -81,6 +81,9 @@ class DicNode {
     friend class Weighting;
 
  public:
+    // Normalized compound distances closer than this are considered equal when comparing nodes.
+    static const float COMPOUND_DISTANCE_EPSILON;
+
 #if DEBUG_DICT
     DicNodeProfiler mProfiler;
 #endif
@@ -421,10 +424,9 @@ class DicNode {
         }
         const float diff =
                 right->getNormalizedCompoundDistance() - getNormalizedCompoundDistance();
-        static const float MIN_DIFF = 0.000001f;
-        if (diff > MIN_DIFF) {
+        if (diff > COMPOUND_DISTANCE_EPSILON) {
             return true;
-        } else if (diff < -MIN_DIFF) {
+        } else if (diff < -COMPOUND_DISTANCE_EPSILON) {
             return false;
         }
         const int depth = getNodeCodePointCount();
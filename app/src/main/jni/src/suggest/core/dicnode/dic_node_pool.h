@@ -17,7 +17,6 @@
 #ifndef LATINIME_DIC_NODE_POOL_H
 #define LATINIME_DIC_NODE_POOL_H
 
-#include <deque>
 #include <unordered_set>
 #include <vector>
 
@@ -41,6 +40,7 @@ class DicNodePool {
         mDicNodes.resize(capacity);
         mDicNodes.shrink_to_fit();
         mPooledDicNodes.clear();
+        mPooledDicNodes.reserve(capacity);
         for (auto &dicNode : mDicNodes) {
             mPooledDicNodes.emplace_back(&dicNode);
         }
@@ -62,6 +62,20 @@ class DicNodePool {
         mPooledDicNodes.emplace_back(dicNode);
     }
 
+    // Index of an instance in the pool, in [0, capacity). Allows keeping per-instance data in
+    // arrays parallel to the pool.
+    int getIndex(const DicNode *const dicNode) const {
+        return static_cast<int>(dicNode - mDicNodes.data());
+    }
+
+    DicNode *getInstanceAt(const int index) {
+        return &mDicNodes[index];
+    }
+
+    const DicNode *getInstanceAt(const int index) const {
+        return &mDicNodes[index];
+    }
+
     void dump() const {
         AKLOGI("\n\n\n\n\n===========================");
         std::unordered_set<const DicNode*> usedDicNodes;
@@ -81,7 +95,8 @@ class DicNodePool {
     DISALLOW_IMPLICIT_CONSTRUCTORS(DicNodePool);
 
     std::vector<DicNode> mDicNodes;
-    std::deque<DicNode*> mPooledDicNodes;
+    // Used as a stack, so recently returned (and likely cached) instances are reused first.
+    std::vector<DicNode*> mPooledDicNodes;
 };
 } // namespace latinime
 #endif // LATINIME_DIC_NODE_POOL_H
@@ -18,19 +18,26 @@
 #define LATINIME_DIC_NODE_PRIORITY_QUEUE_H
 
 #include <algorithm>
-#include <queue>
 #include <vector>
 
 #include "defines.h"
 #include "suggest/core/dicnode/dic_node.h"
 #include "suggest/core/dicnode/dic_node_pool.h"
+#include "suggest/core/dictionary/error_type_utils.h"
 
 namespace latinime {
 
+// Bounded priority queue of DicNodes that keeps the best nodes. The top of the queue is the worst
+// node, which is the one replaced when pushing into a full queue.
+//
+// The queue is a 4-ary heap of indices into the node pool. The fields used for ordering are copied
+// into an array parallel to the pool when a node is pushed, so heap operations work on a small
+// contiguous array and only read the nodes themselves to break ties. Nodes that would be dropped
+// immediately are rejected before being copied into the pool.
 class DicNodePriorityQueue {
  public:
     AK_FORCE_INLINE explicit DicNodePriorityQueue(const int capacity)
-            : mMaxSize(capacity), mDicNodesQueue(), mDicNodePool(capacity) {
+            : mMaxSize(capacity), mHeap(), mSortKeys(), mDicNodePool(capacity) {
         clear();
     }
 
@@ -38,7 +45,7 @@ class DicNodePriorityQueue {
     AK_FORCE_INLINE ~DicNodePriorityQueue() {}
 
     AK_FORCE_INLINE int getSize() const {
-        return static_cast<int>(mDicNodesQueue.size());
+        return static_cast<int>(mHeap.size());
     }
 
     AK_FORCE_INLINE int getMaxSize() const {
@@ -55,41 +62,50 @@ class DicNodePriorityQueue {
 
     AK_FORCE_INLINE void clearAndResize(const int maxSize) {
         mMaxSize = maxSize;
-        while (!mDicNodesQueue.empty()) {
-            mDicNodesQueue.pop();
-        }
+        mHeap.clear();
+        mHeap.reserve(mMaxSize + 1);
         mDicNodePool.reset(mMaxSize + 1);
+        mSortKeys.resize(mMaxSize + 1);
     }
 
     AK_FORCE_INLINE void copyPush(const DicNode *const dicNode) {
-        DicNode *const pooledDicNode = newDicNode(dicNode);
-        if (!pooledDicNode) {
+        const bool isFull = getSize() >= mMaxSize;
+        if (isFull && (mHeap.empty() || !isBetterThan(dicNode, mHeap[0]))) {
+            // Would be dropped right away, avoid copying it.
             return;
         }
-        if (getSize() < mMaxSize) {
-            mDicNodesQueue.push(pooledDicNode);
+        DicNode *const pooledDicNode = mDicNodePool.getInstance();
+        if (!pooledDicNode) {
             return;
         }
-        if (betterThanWorstDicNode(pooledDicNode)) {
-            mDicNodePool.placeBackInstance(mDicNodesQueue.top());
-            mDicNodesQueue.pop();
-            mDicNodesQueue.push(pooledDicNode);
+        DicNodeUtils::initByCopy(dicNode, pooledDicNode);
+        const int index = mDicNodePool.getIndex(pooledDicNode);
+        mSortKeys[index].set(pooledDicNode);
+        if (!isFull) {
+            mHeap.push_back(index);
+            siftUp(getSize() - 1);
             return;
         }
-        mDicNodePool.placeBackInstance(pooledDicNode);
+        mDicNodePool.placeBackInstance(mDicNodePool.getInstanceAt(mHeap[0]));
+        mHeap[0] = index;
+        siftDown(0);
     }
 
     AK_FORCE_INLINE void copyPop(DicNode *const dest) {
-        if (mDicNodesQueue.empty()) {
+        if (mHeap.empty()) {
             ASSERT(false);
             return;
         }
-        DicNode *node = mDicNodesQueue.top();
+        DicNode *const node = mDicNodePool.getInstanceAt(mHeap[0]);
         if (dest) {
             DicNodeUtils::initByCopy(node, dest);
         }
         mDicNodePool.placeBackInstance(node);
-        mDicNodesQueue.pop();
+        mHeap[0] = mHeap.back();
+        mHeap.pop_back();
+        if (!mHeap.empty()) {
+            siftDown(0);
+        }
     }
 
     AK_FORCE_INLINE void dump() {
@@ -99,36 +115,82 @@ class DicNodePriorityQueue {
  private:
     DISALLOW_IMPLICIT_CONSTRUCTORS(DicNodePriorityQueue);
 
-    AK_FORCE_INLINE static bool compareDicNode(const DicNode *const left,
-            const DicNode *const right) {
-        return left->compare(right);
-    }
+    static const int HEAP_ARITY = 4;
+
+    // The fields DicNode::compare looks at first.
+    struct SortKey {
+        float mNormalizedCompoundDistance;
+        bool mIsExactMatch;
 
-    struct DicNodeComparator {
-        bool operator ()(const DicNode *left, const DicNode *right) const {
-            return compareDicNode(left, right);
+        AK_FORCE_INLINE void set(const DicNode *const dicNode) {
+            mNormalizedCompoundDistance = dicNode->getNormalizedCompoundDistance();
+            mIsExactMatch = ErrorTypeUtils::isExactMatch(dicNode->getContainedErrorTypes());
         }
     };
 
-    typedef std::priority_queue<DicNode *, std::vector<DicNode *>, DicNodeComparator> DicNodesQueue;
     int mMaxSize;
-    DicNodesQueue mDicNodesQueue;
+    // Pool indices, each node is not better than its children.
+    std::vector<int> mHeap;
+    // Indexed like the pool.
+    std::vector<SortKey> mSortKeys;
     DicNodePool mDicNodePool;
 
-    AK_FORCE_INLINE bool betterThanWorstDicNode(const DicNode *const dicNode) const {
-        DicNode *worstNode = mDicNodesQueue.top();
-        if (!worstNode) {
+    // Same order as DicNode::compare.
+    AK_FORCE_INLINE bool isBetter(const int leftIndex, const int rightIndex) const {
+        const SortKey &left = mSortKeys[leftIndex];
+        const SortKey &right = mSortKeys[rightIndex];
+        if (left.mIsExactMatch != right.mIsExactMatch) {
+            return left.mIsExactMatch;
+        }
+        const float diff = right.mNormalizedCompoundDistance - left.mNormalizedCompoundDistance;
+        if (diff > DicNode::COMPOUND_DISTANCE_EPSILON) {
             return true;
+        } else if (diff < -DicNode::COMPOUND_DISTANCE_EPSILON) {
+            return false;
+        }
+        return mDicNodePool.getInstanceAt(leftIndex)->compare(
+                mDicNodePool.getInstanceAt(rightIndex));
+    }
+
+    AK_FORCE_INLINE bool isBetterThan(const DicNode *const dicNode, const int index) const {
+        return dicNode->compare(mDicNodePool.getInstanceAt(index));
+    }
+
+    AK_FORCE_INLINE void siftUp(int position) {
+        const int index = mHeap[position];
+        while (position > 0) {
+            const int parent = (position - 1) / HEAP_ARITY;
+            if (!isBetter(mHeap[parent], index)) {
+                break;
+            }
+            mHeap[position] = mHeap[parent];
+            position = parent;
         }
-        return compareDicNode(dicNode, worstNode);
+        mHeap[position] = index;
     }
 
-    AK_FORCE_INLINE DicNode *newDicNode(const DicNode *const dicNode) {
-        DicNode *newNode = mDicNodePool.getInstance();
-        if (newNode) {
-            DicNodeUtils::initByCopy(dicNode, newNode);
+    AK_FORCE_INLINE void siftDown(int position) {
+        const int size = getSize();
+        const int index = mHeap[position];
+        while (true) {
+            const int firstChild = position * HEAP_ARITY + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            const int lastChild = std::min(firstChild + HEAP_ARITY, size);
+            int worstChild = firstChild;
+            for (int child = firstChild + 1; child < lastChild; ++child) {
+                if (isBetter(mHeap[worstChild], mHeap[child])) {
+                    worstChild = child;
+                }
+            }
+            if (!isBetter(index, mHeap[worstChild])) {
+                break;
+            }
+            mHeap[position] = mHeap[worstChild];
+            position = worstChild;
         }
-        return newNode;
+        mHeap[position] = index;
     }
 };
 } // namespace latinime
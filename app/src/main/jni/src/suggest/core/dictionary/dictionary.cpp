@@ -21,6 +21,7 @@
 #include "defines.h"
 #include "dictionary/interface/dictionary_header_structure_policy.h"
 #include "dictionary/property/ngram_context.h"
+#include "dictionary/utils/multi_bigram_map.h"
 #include "suggest/core/dictionary/dictionary_utils.h"
 #include "suggest/core/result/suggestion_results.h"
 #include "suggest/core/session/dic_traverse_session.h"
@@ -60,9 +61,11 @@ void Dictionary::getSuggestions(ProximityInfo *proximityInfo, DicTraverseSession
 Dictionary::NgramListenerForPrediction::NgramListenerForPrediction(
         const NgramContext *const ngramContext, const WordIdArrayView prevWordIds,
         SuggestionResults *const suggestionResults,
-        const DictionaryStructureWithBufferPolicy *const dictStructurePolicy)
+        const DictionaryStructureWithBufferPolicy *const dictStructurePolicy,
+        MultiBigramMap *const multiBigramMap)
     : mNgramContext(ngramContext), mPrevWordIds(prevWordIds),
-      mSuggestionResults(suggestionResults), mDictStructurePolicy(dictStructurePolicy) {}
+      mSuggestionResults(suggestionResults), mDictStructurePolicy(dictStructurePolicy),
+      mMultiBigramMap(multiBigramMap) {}
 
 void Dictionary::NgramListenerForPrediction::onVisitEntry(const int ngramProbability,
         const int targetWordId) {
@@ -73,17 +76,20 @@ void Dictionary::NgramListenerForPrediction::onVisitEntry(const int ngramProbabi
             && ngramProbability == NOT_A_PROBABILITY) {
         return;
     }
+    // Looking up the n-grams of the context in the map instead of the dictionary avoids reading
+    // the whole bigram list of v2 dictionaries for every entry.
+    const WordAttributes wordAttributes = mDictStructurePolicy->getWordAttributesInContext(
+            mPrevWordIds, targetWordId, mMultiBigramMap);
+    if (wordAttributes.getProbability() == NOT_A_PROBABILITY
+            || !mSuggestionResults->canAddScore(wordAttributes.getProbability())) {
+        return;
+    }
     int targetWordCodePoints[MAX_WORD_LENGTH];
     const int codePointCount = mDictStructurePolicy->getCodePointsAndReturnCodePointCount(
             targetWordId, MAX_WORD_LENGTH, targetWordCodePoints);
     if (codePointCount <= 0) {
         return;
     }
-    const WordAttributes wordAttributes = mDictStructurePolicy->getWordAttributesInContext(
-            mPrevWordIds, targetWordId, nullptr /* multiBigramMap */);
-    if (wordAttributes.getProbability() == NOT_A_PROBABILITY) {
-        return;
-    }
     mSuggestionResults->addPrediction(targetWordCodePoints, codePointCount,
             wordAttributes.getProbability());
 }
@@ -95,8 +101,9 @@ void Dictionary::getPredictions(const NgramContext *const ngramContext,
     const WordIdArrayView prevWordIds = ngramContext->getPrevWordIds(
             mDictionaryStructureWithBufferPolicy.get(), &prevWordIdArray,
             true /* tryLowerCaseSearch */);
+    MultiBigramMap multiBigramMap;
     NgramListenerForPrediction listener(ngramContext, prevWordIds, outSuggestionResults,
-            mDictionaryStructureWithBufferPolicy.get());
+            mDictionaryStructureWithBufferPolicy.get(), &multiBigramMap);
     mDictionaryStructureWithBufferPolicy->iterateNgramEntries(prevWordIds, &listener);
 }
 
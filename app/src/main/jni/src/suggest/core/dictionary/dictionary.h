@@ -125,7 +125,8 @@ class Dictionary {
      public:
         NgramListenerForPrediction(const NgramContext *const ngramContext,
                 const WordIdArrayView prevWordIds, SuggestionResults *const suggestionResults,
-                const DictionaryStructureWithBufferPolicy *const dictStructurePolicy);
+                const DictionaryStructureWithBufferPolicy *const dictStructurePolicy,
+                MultiBigramMap *const multiBigramMap);
         virtual void onVisitEntry(const int ngramProbability, const int targetWordId);
 
      private:
@@ -135,6 +136,7 @@ class Dictionary {
         const WordIdArrayView mPrevWordIds;
         SuggestionResults *const mSuggestionResults;
         const DictionaryStructureWithBufferPolicy *const mDictStructurePolicy;
+        MultiBigramMap *const mMultiBigramMap;
     };
 
     static const int HEADER_ATTRIBUTE_BUFFER_SIZE;
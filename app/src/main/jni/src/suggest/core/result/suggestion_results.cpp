@@ -58,6 +58,12 @@ void SuggestionResults::addPrediction(const int *const codePoints, const int cod
             NOT_AN_INDEX, NOT_A_FIRST_WORD_CONFIDENCE);
 }
 
+bool SuggestionResults::canAddScore(const int score) const {
+    // Equal scores are decided by the code point count in addSuggestion().
+    return getSuggestionCount() < mMaxSuggestionCount
+            || score >= mSuggestedWords.top().getScore();
+}
+
 void SuggestionResults::addSuggestion(const int *const codePoints, const int codePointCount,
         const int score, const int type, const int indexToPartialCommit,
         const int autocimmitFirstWordConfindence) {
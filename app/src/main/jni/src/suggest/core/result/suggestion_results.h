@@ -39,6 +39,9 @@ class SuggestionResults {
             jintArray outAutoCommitFirstWordConfidenceArray,
             jfloatArray outWeightOfLangModelVsSpatialModel);
     void addPrediction(const int *const codePoints, const int codePointCount, const int score);
+    // Whether a suggestion with the score may be added, so that the code points of suggestions
+    // that would be discarded don't need to be read.
+    bool canAddScore(const int score) const;
     void addSuggestion(const int *const codePoints, const int codePointCount,
             const int score, const int type, const int indexToPartialCommit,
             const int autocimmitFirstWordConfindence);
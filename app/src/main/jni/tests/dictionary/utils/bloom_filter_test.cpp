@@ -76,5 +76,34 @@ TEST(BloomFilterTest, TestFilter) {
     }
 }
 
+TEST(BloomFilterTest, TestFalsePositiveRateForExpectedElementCount) {
+    static const int ELEMENT_COUNT = 100000;
+    static const int TEST_COUNT = 100000;
+    BloomFilter bloomFilter(ELEMENT_COUNT);
+    // Word ids are dense, so use consecutive ids.
+    for (int i = 0; i < ELEMENT_COUNT; ++i) {
+        bloomFilter.setInFilter(i);
+    }
+    for (int i = 0; i < ELEMENT_COUNT; ++i) {
+        ASSERT_TRUE(bloomFilter.isInFilter(i)) << "elem: " << i;
+    }
+    int falsePositiveCount = 0;
+    for (int i = ELEMENT_COUNT; i < ELEMENT_COUNT + TEST_COUNT; ++i) {
+        if (bloomFilter.isInFilter(i)) {
+            ++falsePositiveCount;
+        }
+    }
+    EXPECT_LT(falsePositiveCount, TEST_COUNT / 50);
+}
+
+TEST(BloomFilterTest, TestReset) {
+    BloomFilter bloomFilter;
+    bloomFilter.setInFilter(1);
+    bloomFilter.reset(1000);
+    EXPECT_FALSE(bloomFilter.isInFilter(1));
+    bloomFilter.setInFilter(1);
+    EXPECT_TRUE(bloomFilter.isInFilter(1));
+}
+
 }  // namespace
 }  // namespace latinime
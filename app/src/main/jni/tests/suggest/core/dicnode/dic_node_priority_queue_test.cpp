@@ -0,0 +1,91 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/core/dicnode/dic_node_priority_queue.h"
+
+#include <gtest/gtest.h>
+
+#include <algorithm>
+#include <random>
+#include <vector>
+
+#include "defines.h"
+#include "utils/int_array_view.h"
+
+namespace latinime {
+namespace {
+
+// Nodes only differing in their code point, a smaller code point is better.
+void initChildNode(const DicNode *const root, const int codePoint, DicNode *const dicNode) {
+    dicNode->initAsChild(root, NOT_A_DICT_POS, NOT_A_WORD_ID,
+            CodePointArrayView::singleElementView(&codePoint));
+}
+
+TEST(DicNodePriorityQueueTest, TestKeepsBestNodes) {
+    static const int CAPACITY = 4;
+    DicNodePriorityQueue queue(CAPACITY);
+    DicNode root;
+    root.initAsRoot(NOT_A_DICT_POS, WordIdArrayView());
+    std::vector<int> codePoints;
+    for (int codePoint = 'a'; codePoint <= 'z'; ++codePoint) {
+        codePoints.push_back(codePoint);
+    }
+    std::shuffle(codePoints.begin(), codePoints.end(), std::mt19937(42));
+
+    DicNode dicNode;
+    for (const int codePoint : codePoints) {
+        initChildNode(&root, codePoint, &dicNode);
+        queue.copyPush(&dicNode);
+        EXPECT_LE(queue.getSize(), CAPACITY);
+    }
+    EXPECT_EQ(CAPACITY, queue.getSize());
+    // Worst node first
+    for (int codePoint = 'a' + CAPACITY - 1; codePoint >= 'a'; --codePoint) {
+        queue.copyPop(&dicNode);
+        EXPECT_EQ(codePoint, dicNode.getNodeCodePoint());
+    }
+    EXPECT_EQ(0, queue.getSize());
+}
+
+TEST(DicNodePriorityQueueTest, TestPopOrder) {
+    static const int CAPACITY = 100;
+    DicNodePriorityQueue queue(CAPACITY);
+    DicNode root;
+    root.initAsRoot(NOT_A_DICT_POS, WordIdArrayView());
+    std::vector<int> codePoints;
+    for (int i = 0; i < CAPACITY; ++i) {
+        codePoints.push_back('a' + i);
+    }
+    std::shuffle(codePoints.begin(), codePoints.end(), std::mt19937(42));
+
+    DicNode dicNode;
+    for (const int codePoint : codePoints) {
+        initChildNode(&root, codePoint, &dicNode);
+        queue.copyPush(&dicNode);
+    }
+    for (int i = CAPACITY - 1; i >= 0; --i) {
+        queue.copyPop(&dicNode);
+        EXPECT_EQ('a' + i, dicNode.getNodeCodePoint());
+    }
+}
+
+TEST(DicNodePriorityQueueTest, TestClearAndResize) {
+    DicNodePriorityQueue queue(2);
+    DicNode root;
+    root.initAsRoot(NOT_A_DICT_POS, WordIdArrayView());
+    DicNode dicNode;
+    initChildNode(&root, 'a', &dicNode);
+    queue.copyPush(&dicNode);
+    queue.copyPush(&dicNode);
+    EXPECT_EQ(2, queue.getSize());
+
+    queue.clearAndResize(3);
+    EXPECT_EQ(0, queue.getSize());
+    EXPECT_EQ(3, queue.getMaxSize());
+    for (int i = 0; i < 5; ++i) {
+        queue.copyPush(&dicNode);
+    }
+    EXPECT_EQ(3, queue.getSize());
+}
+
+}  // namespace
+}  // namespace latinime
@@ -0,0 +1,81 @@
+package helium314.keyboard
+
+import helium314.keyboard.keyboard.emoji.EmojiKeywordIndex
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.util.Locale
+
+class EmojiKeywordIndexTest {
+    // null for emojis not supported on this API level
+    private val emojis = listOf("🐱", "🐈", "🐶", null, "😀")
+
+    private val index = EmojiKeywordIndex.create(
+        ByteBuffer.wrap(indexBytes(sortedMapOf(
+            "cat" to listOf(0, 1),
+            "cats" to listOf(1, 0),
+            "category" to listOf(3),
+            "dog" to listOf(2),
+            "grinning" to listOf(4),
+            "ñu" to listOf(2),
+        ))),
+        { emojis.getOrNull(it) },
+        Locale.ENGLISH
+    )!!
+
+    // same format as written by EmojiKeywordIndexWriter in tools/make-emoji-keys
+    private fun indexBytes(keywords: Map<String, List<Int>>): ByteArray {
+        val records = ByteArrayOutputStream()
+        val recordsOut = DataOutputStream(records)
+        val offsets = keywords.map { (keyword, emojis) ->
+            val offset = recordsOut.size()
+            val bytes = keyword.toByteArray()
+            recordsOut.writeByte(bytes.size)
+            recordsOut.write(bytes)
+            recordsOut.writeByte(emojis.size)
+            emojis.forEach { recordsOut.writeShort(it) }
+            offset
+        }
+        val output = ByteArrayOutputStream()
+        DataOutputStream(output).use { out ->
+            out.writeInt(0x4842454B)
+            out.writeShort(1)
+            out.writeInt(offsets.size)
+            offsets.forEach { out.writeInt(10 + offsets.size * 4 + it) }
+            records.writeTo(out)
+        }
+        return output.toByteArray()
+    }
+
+    @Test fun `exact keywords are found`() {
+        assertEquals(listOf("🐱", "🐈"), index.getEmojisForKeyword("cat", 10))
+        assertEquals(listOf("🐈", "🐱"), index.getEmojisForKeyword("Cats", 10))
+        assertEquals(listOf("🐶"), index.getEmojisForKeyword("dog", 10))
+        assertEquals(listOf("🐶"), index.getEmojisForKeyword("Ñu", 10))
+        assertEquals(listOf("🐱"), index.getEmojisForKeyword("cat", 1))
+    }
+
+    @Test fun `missing keywords and unsupported emojis are not found`() {
+        assertEquals(emptyList<String>(), index.getEmojisForKeyword("ca", 10))
+        assertEquals(emptyList<String>(), index.getEmojisForKeyword("catz", 10))
+        assertEquals(emptyList<String>(), index.getEmojisForKeyword("", 10))
+        assertEquals(emptyList<String>(), index.getEmojisForKeyword("zebra", 10))
+        assertEquals(emptyList<String>(), index.getEmojisForKeyword("category", 10))
+    }
+
+    @Test fun `search finds keywords starting with the query`() {
+        assertEquals(listOf("🐱", "🐈"), index.search("ca", 10))
+        assertEquals(listOf("🐱"), index.search("ca", 1))
+        assertEquals(listOf("😀"), index.search("GRIN", 10))
+        assertEquals(emptyList<String>(), index.search("catx", 10))
+        assertEquals(emptyList<String>(), index.search("z", 10))
+    }
+
+    @Test fun `invalid index is rejected`() {
+        assertNull(EmojiKeywordIndex.create(ByteBuffer.wrap("not an index".toByteArray()), { null }, Locale.ENGLISH))
+        assertNull(EmojiKeywordIndex.create(ByteBuffer.allocate(4), { null }, Locale.ENGLISH))
+    }
+}
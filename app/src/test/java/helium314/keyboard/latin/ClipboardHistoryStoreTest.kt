@@ -0,0 +1,173 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.file.Files
+
+@RunWith(RobolectricTestRunner::class)
+class ClipboardHistoryStoreTest {
+    private val dir = Files.createTempDirectory("clipboard").toFile()
+
+    @After fun cleanup() {
+        dir.deleteRecursively()
+    }
+
+    private fun ClipboardHistoryStore.add(timeStamp: Long, content: String) =
+        add(timeStamp, ClipboardHistoryStore.contentHash(content), content, false)
+
+    private fun ClipboardHistoryStore.contents() = (0 until size).map { get(it).content.toString() }
+
+    private fun reloaded(persistUnpinned: Boolean = true): ClipboardHistoryStore {
+        val store = ClipboardHistoryStore(dir, persistUnpinned)
+        store.load { "" }
+        return store
+    }
+
+    private fun journalLines() = File(dir, "clipboard_history").readLines().size
+
+    @Test fun `changes are restored from the journal`() {
+        val store = reloaded()
+        store.add(1, "a")
+        store.add(2, "b")
+        store.add(3, "c")
+        store.update(store.getByHash(ClipboardHistoryStore.contentHash("a"))!!, 4, true)
+        store.removeAt(store.indexOf(store.getByHash(ClipboardHistoryStore.contentHash("b"))!!))
+        store.waitForIo()
+
+        val restored = reloaded()
+        assertEquals(listOf("a", "c"), restored.contents())
+        assertTrue(restored[0].isPinned)
+        assertEquals(4L, restored[0].timeStamp)
+    }
+
+    @Test fun `transient entries are not stored`() {
+        val store = reloaded()
+        store.add(1, ClipboardHistoryStore.contentHash("secret"), "secret", true)
+        store.add(2, "public")
+        store.waitForIo()
+        assertEquals(listOf("public"), reloaded().contents())
+    }
+
+    @Test fun `journal is compacted`() {
+        val store = reloaded()
+        store.add(1, "a")
+        val entry = store[0]
+        for (i in 2L..500L) store.update(entry, i, i % 2 == 0L)
+        store.waitForIo()
+        assertTrue(journalLines() < 200)
+        val restored = reloaded()
+        assertEquals(listOf("a"), restored.contents())
+        assertEquals(500L, restored[0].timeStamp)
+        assertTrue(restored[0].isPinned)
+    }
+
+    @Test fun `large clips are stored separately`() {
+        val large = "x".repeat(ClipboardHistoryStore.LARGE_CLIP_LENGTH + 1)
+        val store = reloaded()
+        store.add(1, large)
+        assertEquals(large, store[0].content.toString())
+        store.waitForIo()
+        assertTrue(File(dir, "clips").listFiles()!!.size == 1)
+
+        val restored = reloaded()
+        assertEquals(ClipboardHistoryEntry.PREVIEW_LENGTH, restored[0].preview.length)
+        assertEquals(large, restored[0].content.toString())
+        restored.removeAt(0)
+        restored.waitForIo()
+        assertTrue(File(dir, "clips").listFiles()!!.isEmpty())
+    }
+
+    @Test fun `changes before loading are saved`() {
+        val store = reloaded()
+        store.add(1, "stored")
+        store.add(2, "removed")
+        store.waitForIo()
+
+        val notLoaded = ClipboardHistoryStore(dir, true)
+        notLoaded.add(3, "new")
+        notLoaded.removeAt(notLoaded.add(4, "removed"))
+        notLoaded.load { "" }
+        notLoaded.waitForIo()
+        assertEquals(listOf("new", "stored"), notLoaded.contents())
+
+        assertEquals(listOf("new", "stored"), reloaded().contents())
+    }
+
+    @Test fun `pinned clip stays pinned when copied again before loading`() {
+        val store = reloaded()
+        val hash = ClipboardHistoryStore.contentHash("pinned")
+        store.add(1, "pinned")
+        store.update(store.getByHash(hash)!!, 2, true)
+        store.add(3, "other")
+        store.waitForIo()
+
+        val notLoaded = ClipboardHistoryStore(dir, true)
+        notLoaded.add(10, "pinned")
+        assertFalse(notLoaded[0].isPinned)
+        notLoaded.load { "" }
+        notLoaded.waitForIo()
+        val merged = notLoaded.getByHash(hash)!!
+        assertTrue(merged.isPinned)
+        // the newer time stamp is kept
+        assertEquals(10L, merged.timeStamp)
+        assertEquals(listOf("pinned", "other"), notLoaded.contents())
+
+        val restored = reloaded()
+        assertTrue(restored.getByHash(hash)!!.isPinned)
+        assertEquals(2, restored.size)
+    }
+
+    @Test fun `unpinned entries are only stored if enabled`() {
+        val store = reloaded(false)
+        store.add(1, "unpinned")
+        store.add(2, "pinned")
+        store.update(store.getByHash(ClipboardHistoryStore.contentHash("pinned"))!!, 3, true)
+        store.waitForIo()
+        assertEquals(listOf("pinned"), reloaded(false).contents())
+
+        store.persistUnpinned = true
+        store.waitForIo()
+        assertEquals(listOf("pinned", "unpinned"), reloaded(false).contents())
+
+        store.persistUnpinned = false
+        store.waitForIo()
+        assertFalse(File(dir, "clipboard_history").readText().contains("unpinned"))
+        assertEquals(listOf("pinned"), reloaded(false).contents())
+    }
+
+    @Test fun `unpinned entries are stored when pinned and removed when unpinned`() {
+        val large = "x".repeat(ClipboardHistoryStore.LARGE_CLIP_LENGTH + 1)
+        val store = reloaded(false)
+        store.add(1, large)
+        store.waitForIo()
+        assertNull(File(dir, "clips").listFiles()?.firstOrNull())
+
+        store.update(store[0], 2, true)
+        store.waitForIo()
+        val restored = reloaded(false)
+        assertEquals(large, restored[0].content.toString())
+        assertTrue(restored[0].isPinned)
+
+        store.update(store[0], 3, false)
+        store.waitForIo()
+        assertEquals(0, reloaded(false).size)
+    }
+
+    @Test fun `legacy pinned clips are imported`() {
+        val store = ClipboardHistoryStore(dir, true)
+        assertTrue(store.load { """[{"timeStamp":5,"content":"old","isPinned":true}]""" })
+        store.waitForIo()
+        val restored = reloaded()
+        assertEquals(listOf("old"), restored.contents())
+        assertTrue(restored[0].isPinned)
+        assertNull(restored.getByHash(ClipboardHistoryStore.contentHash("missing")))
+    }
+}
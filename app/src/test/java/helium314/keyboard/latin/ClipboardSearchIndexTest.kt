@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ClipboardSearchIndexTest {
+    private val index = ClipboardSearchIndex()
+
+    private fun add(content: String) = ClipboardHistoryEntry(0, content, content, content).also { index.add(it, content) }
+
+    private fun search(query: String) = index.search(query).map { it.preview.toString() }.toSet()
+
+    @Test fun `finds substrings ignoring case`() {
+        add("Hello World")
+        add("world peace")
+        add("something else")
+        assertEquals(setOf("Hello World", "world peace"), search("WORLD"))
+        assertEquals(setOf("Hello World"), search("lo wo"))
+        assertEquals(setOf("something else"), search("ing e"))
+        assertTrue(search("worlds").isEmpty())
+        // all trigrams occur, but not in this order
+        assertTrue(search("peace world").isEmpty())
+    }
+
+    @Test fun `short queries are matched`() {
+        add("abc")
+        add("xyz")
+        assertEquals(setOf("abc"), search("b"))
+        assertEquals(setOf("xyz"), search("YZ"))
+        assertEquals(setOf("abc", "xyz"), search(""))
+    }
+
+    @Test fun `results are not changed by later changes to the index`() {
+        val entry = add("abc")
+        val all = index.search("")
+        add("xyz")
+        index.remove(entry)
+        assertEquals(setOf(entry), all)
+    }
+
+    @Test fun `repeated trigrams are matched`() {
+        add("aaaa")
+        add("aaa")
+        add("aa")
+        assertEquals(setOf("aaaa"), search("aaaa"))
+        assertEquals(setOf("aaaa", "aaa"), search("aaa"))
+    }
+
+    @Test fun `removed entries are not found`() {
+        val first = add("remove me")
+        add("keep me")
+        index.remove(first)
+        assertEquals(setOf("keep me"), search(" me"))
+        assertEquals(1, index.size)
+        index.remove(first)
+        assertEquals(1, index.size)
+        index.clear()
+        assertTrue(search("me").isEmpty())
+    }
+
+    @Test fun `only the start of long entries is searchable`() {
+        add("a".repeat(ClipboardSearchIndex.MAX_INDEXED_LENGTH) + "needle")
+        assertTrue(search("needle").isEmpty())
+        assertEquals(1, search("aaa").size)
+    }
+}
@@ -0,0 +1,46 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ContactsNameChangesTest {
+    private fun changes(oldNames: Set<String>, newNames: Set<String>) =
+        ContactsManager.NameChanges(HashSet(oldNames), HashSet(newNames))
+
+    private fun removedWords(changes: ContactsManager.NameChanges, profileNames: List<String> = emptyList()) =
+        ContactsBinaryDictionary.getRemovedWords(changes, profileNames)
+
+    @Test fun `added and removed names are found`() {
+        val changes = changes(setOf("Anna Bell", "Carl Dunn"), setOf("Carl Dunn", "Eve Fox"))
+        assertEquals(listOf("Eve Fox"), changes.mAddedNames)
+        assertEquals(listOf("Anna Bell"), changes.mRemovedNames)
+        assertEquals(setOf("Carl Dunn", "Eve Fox"), changes.mNames)
+        assertFalse(changes.isEmpty)
+    }
+
+    @Test fun `same names are no change`() {
+        assertTrue(changes(setOf("Anna Bell"), setOf("Anna Bell")).isEmpty)
+        assertTrue(changes(emptySet(), emptySet()).isEmpty)
+    }
+
+    @Test fun `words of remaining names are kept`() {
+        val changes = changes(setOf("Anna Bell Zed", "Anna Cox"), setOf("Anna Cox"))
+        assertEquals(setOf("Bell", "Zed"), removedWords(changes).toSet())
+        // words in the user's profile are kept too
+        assertEquals(listOf("Zed"), removedWords(changes, listOf("Bell")))
+    }
+
+    @Test fun `removed words are returned once`() {
+        val removed = removedWords(changes(setOf("Anna Bell", "Bell Anna", "Anna Bell-Cox", "Eve"), emptySet()))
+        assertEquals(removed.distinct(), removed)
+        assertEquals(setOf("Anna", "Bell", "Bell-Cox", "Eve"), removed.toSet())
+    }
+
+    @Test fun `single letters are not removed`() {
+        assertEquals(listOf("Smith"), removedWords(changes(setOf("J Smith"), emptySet())))
+        assertTrue(removedWords(changes(setOf("Anna"), setOf("Anna"))).isEmpty())
+    }
+}
@@ -0,0 +1,80 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.thread
+
+class DictionaryGCTest {
+    private class FakeDictionary(private val gc: FakeDictionary.() -> Boolean) : ExpandableBinaryDictionary.GCOnCopy {
+        @Volatile var updates = 0
+        var replaced = false
+        var discarded = false
+        override fun getUpdateCount() = updates
+        override fun runGCOnCopy() = gc()
+        override fun replaceWithGCResult() = true.also { replaced = true }
+        override fun discardGCResult() { discarded = true }
+    }
+
+    private fun runGC(lock: ReentrantReadWriteLock, dictionary: FakeDictionary): Boolean {
+        lock.writeLock().lock()
+        try {
+            return ExpandableBinaryDictionary.runGCOnCopyLocked(lock, dictionary)
+        } finally {
+            assertEquals(1, lock.writeHoldCount)
+            lock.writeLock().unlock()
+        }
+    }
+
+    @Test fun `result replaces the dictionary if there was no update`() {
+        val dictionary = FakeDictionary { true }
+        assertTrue(runGC(ReentrantReadWriteLock(), dictionary))
+        assertTrue(dictionary.replaced)
+        assertFalse(dictionary.discarded)
+    }
+
+    @Test fun `dictionary can be read during GC`() {
+        val lock = ReentrantReadWriteLock()
+        var canRead = false
+        val dictionary = FakeDictionary {
+            assertFalse(lock.isWriteLockedByCurrentThread)
+            thread {
+                canRead = lock.readLock().tryLock(1, TimeUnit.SECONDS)
+                if (canRead) lock.readLock().unlock()
+            }.join()
+            true
+        }
+        assertTrue(runGC(lock, dictionary))
+        assertTrue(canRead)
+    }
+
+    @Test fun `update during GC discards the result`() {
+        // fair, so the waiting update gets the write lock before GC can take it again
+        val lock = ReentrantReadWriteLock(true)
+        lateinit var update: Thread
+        val dictionary = FakeDictionary {
+            update = thread {
+                lock.writeLock().lock()
+                updates++
+                lock.writeLock().unlock()
+            }
+            while (!lock.hasQueuedThread(update)) Thread.yield()
+            true
+        }
+        assertFalse(runGC(lock, dictionary))
+        update.join()
+        assertEquals(1, dictionary.updates)
+        assertTrue(dictionary.discarded)
+        assertFalse(dictionary.replaced)
+    }
+
+    @Test fun `failed GC is not used`() {
+        val dictionary = FakeDictionary { false }
+        assertFalse(runGC(ReentrantReadWriteLock(), dictionary))
+        assertFalse(dictionary.replaced)
+    }
+}
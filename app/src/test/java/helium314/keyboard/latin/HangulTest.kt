@@ -0,0 +1,54 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.event.Event
+import helium314.keyboard.event.Hangul
+import helium314.keyboard.event.HangulCombiner
+import helium314.keyboard.event.HangulEventDecoder
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.text.Normalizer
+
+@RunWith(RobolectricTestRunner::class)
+class HangulTest {
+    private fun HangulCombiner.input(text: String): String {
+        text.forEach {
+            val event = Event.createSoftwareKeypressEvent(it.code, it.code, 0, 0, 0, false)
+            processEvent(emptyList(), HangulEventDecoder.decodeSoftwareKeyEvent(event))
+        }
+        return combiningStateFeedback.toString()
+    }
+
+    private fun HangulCombiner.delete(): String {
+        processEvent(emptyList(), Event.createSoftwareKeypressEvent(Event.NOT_A_CODE_POINT, KeyCode.DELETE, 0, 0, 0, false))
+        return combiningStateFeedback.toString()
+    }
+
+    @Test fun `dubeolsik jamo are composed`() {
+        val combiner = HangulCombiner()
+        assertEquals("한글", combiner.input("ㅎㅏㄴㄱㅡㄹ"))
+        combiner.reset()
+        assertEquals("닭이", combiner.input("ㄷㅏㄹㄱㅇㅣ"))
+        combiner.reset()
+        assertEquals("달기", combiner.input("ㄷㅏㄹㄱㅣ"))
+        combiner.reset()
+        assertEquals("ㅘ", combiner.input("ㅗㅏ"))
+    }
+
+    @Test fun `delete removes the last jamo`() {
+        val combiner = HangulCombiner()
+        combiner.input("ㄷㅏㄹㄱ")
+        assertEquals("달", combiner.delete())
+        assertEquals("다", combiner.delete())
+        assertEquals("ㄷ", combiner.delete())
+    }
+
+    @Test fun `dictionary form is NFD with standard jamo`() {
+        val text = "한글 ㄱㅏ abc"
+        assertEquals(Normalizer.normalize("한글 가 abc", Normalizer.Form.NFD), Hangul.toDictionaryForm(text))
+        assertEquals("한글 가 abc", Hangul.fromDictionaryForm(Hangul.toDictionaryForm(text)))
+    }
+}
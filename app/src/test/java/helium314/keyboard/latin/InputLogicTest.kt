@@ -596,8 +596,38 @@ class InputLogicTest {
         assertEquals("{\"label\": \"c", text)
     }
 
+    @Test fun `caps mode is updated after commit and delete`() {
+        reset()
+        setText("hello.")
+        assertEquals(0, sentenceCapsMode())
+        input(' ')
+        assertEquals(android.text.TextUtils.CAP_MODE_SENTENCES, sentenceCapsMode())
+        functionalKeyPress(KeyCode.DELETE)
+        assertEquals("hello.", text)
+        assertEquals(0, sentenceCapsMode())
+    }
+
+    @Test fun `caps mode and previous word are updated after cursor move`() {
+        reset()
+        setText("one. two, ")
+        assertEquals(0, sentenceCapsMode())
+        assertEquals("two", previousWord())
+        setCursorPosition(5)
+        assertEquals(android.text.TextUtils.CAP_MODE_SENTENCES, sentenceCapsMode())
+        assertEquals("one", previousWord())
+        setCursorPosition(10)
+        assertEquals(0, sentenceCapsMode())
+        assertEquals("two", previousWord())
+    }
+
     // ------- helper functions ---------
 
+    private fun sentenceCapsMode() =
+        connection.getCursorCapsMode(android.text.TextUtils.CAP_MODE_SENTENCES, settingsValues.mSpacingAndPunctuations, false)
+
+    private fun previousWord() =
+        connection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 1).getNthPrevWord(1)?.toString()
+
     // should be called before every test, so the same state is guaranteed
     private fun reset() {
         // reset input connection & facilitator
@@ -0,0 +1,53 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.personalization.LearningJournal
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.io.RandomAccessFile
+
+@RunWith(RobolectricTestRunner::class)
+class LearningJournalTest {
+    private val file = File.createTempFile("test", ".journal").also { it.delete() }
+
+    private fun LearningJournal.appendEvent(timestamp: Int) =
+        append(arrayOf("hi".codePoints().toArray(), IntArray(0)), booleanArrayOf(false, true),
+            "you".codePoints().toArray(), true, 1, timestamp)
+
+    @Test fun `appended events are read`() {
+        val journal = LearningJournal(file)
+        for (i in 0 until 10) journal.appendEvent(i)
+        val events = journal.read()
+        assertEquals(10, events.size)
+        assertEquals(9, events.last().timestamp)
+        assertArrayEquals("hi".codePoints().toArray(), events.first().prevWordCodePointArrays[0])
+        assertEquals(true, events.first().isBeginningOfSentenceArray[1])
+        assertArrayEquals("you".codePoints().toArray(), events.first().word)
+        file.delete()
+    }
+
+    @Test fun `incomplete event at the end is removed`() {
+        val journal = LearningJournal(file)
+        for (i in 0 until 3) journal.appendEvent(i)
+        journal.close()
+        RandomAccessFile(file, "rw").use { it.setLength(file.length() - 5) }
+        assertEquals(2, journal.read().size)
+        journal.appendEvent(3)
+        assertEquals(listOf(0, 1, 3), journal.read().map { it.timestamp })
+        file.delete()
+    }
+
+    @Test fun `cleared journal is empty`() {
+        val journal = LearningJournal(file)
+        journal.appendEvent(0)
+        journal.clear()
+        assertEquals(0, journal.read().size)
+        journal.appendEvent(1)
+        assertEquals(1, journal.read().size)
+        file.delete()
+    }
+}
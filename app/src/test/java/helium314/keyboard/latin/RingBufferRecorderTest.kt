@@ -0,0 +1,56 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.utils.RingBufferRecorder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class RingBufferRecorderTest {
+    @Test fun `records are returned oldest first`() {
+        val recorder = RingBufferRecorder<String>(4, 2)
+        assertTrue(recorder.snapshot().isEmpty())
+        val fields = longArrayOf(1, 2, 99)
+        recorder.record("a", fields)
+        fields[0] = 3 // recorded fields are copied
+        recorder.record(null, fields)
+        val snapshot = recorder.snapshot()
+        assertEquals(listOf(1L, 2L), snapshot.map { it.sequence })
+        assertEquals(listOf("a", null), snapshot.map { it.attachment })
+        assertEquals(listOf(listOf(1L, 2L), listOf(3L, 2L)), snapshot.map { it.fields.toList() })
+    }
+
+    @Test fun `oldest records are overwritten`() {
+        val recorder = RingBufferRecorder<Int>(4, 1)
+        for (i in 1..10)
+            recorder.record(i, longArrayOf(i * 10L))
+        val snapshot = recorder.snapshot()
+        assertEquals(listOf(7L, 8L, 9L, 10L), snapshot.map { it.sequence })
+        assertEquals(listOf(7, 8, 9, 10), snapshot.map { it.attachment })
+        assertEquals(listOf(70L, 80L, 90L, 100L), snapshot.map { it.fields[0] })
+    }
+
+    @Test fun `records from several threads are consistent`() {
+        val recorder = RingBufferRecorder<Long>(4096, 2)
+        val threads = (1..4).map { t ->
+            thread {
+                for (i in 0L until 1000L)
+                    recorder.record(t * i, longArrayOf(t * i, -t * i))
+            }
+        }
+        repeat(100) {
+            recorder.snapshot().forEach {
+                assertEquals(it.attachment, it.fields[0])
+                assertEquals(-it.fields[0], it.fields[1])
+            }
+        }
+        threads.forEach { it.join() }
+        assertEquals((1L..4000L).toList(), recorder.snapshot().map { it.sequence })
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `capacity must be a power of 2`() {
+        RingBufferRecorder<Unit>(6, 1)
+    }
+}
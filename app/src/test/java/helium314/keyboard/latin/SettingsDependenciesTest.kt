@@ -0,0 +1,43 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.settings.SettingsDependencies
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SettingsDependenciesTest {
+    @Test fun `vibration duration only affects feedback`() {
+        val dependencies = SettingsDependencies.of(Settings.PREF_VIBRATION_DURATION_SETTINGS)
+        assertTrue(SettingsDependencies.affects(dependencies, SettingsDependencies.FEEDBACK))
+        assertFalse(SettingsDependencies.affects(dependencies, SettingsDependencies.KEYBOARD))
+        assertFalse(SettingsDependencies.affects(dependencies, SettingsDependencies.COLORS))
+        assertFalse(SettingsDependencies.affects(dependencies, SettingsDependencies.SUGGESTIONS))
+    }
+
+    @Test fun `prefixed preferences are found`() {
+        val colorDependencies = SettingsDependencies.of(Settings.getColorPref(Settings.PREF_COLOR_ACCENT_SUFFIX, true))
+        assertTrue(SettingsDependencies.affects(colorDependencies, SettingsDependencies.COLORS))
+        val popupDependencies = SettingsDependencies.of(Settings.PREF_POPUP_KEYS_ORDER + "_de")
+        assertEquals(SettingsDependencies.KEYBOARD, popupDependencies)
+    }
+
+    @Test fun `dictionaries affect suggestions`() {
+        val dependencies = SettingsDependencies.of(Settings.PREF_USE_CONTACTS)
+        assertTrue(SettingsDependencies.affects(dependencies, SettingsDependencies.SUGGESTIONS))
+        assertFalse(SettingsDependencies.affects(dependencies, SettingsDependencies.KEYBOARD))
+    }
+
+    @Test fun `unknown preferences affect everything`() {
+        assertEquals(SettingsDependencies.ALL, SettingsDependencies.of("some_unknown_pref"))
+        assertEquals(SettingsDependencies.ALL, SettingsDependencies.of(null))
+        assertEquals(SettingsDependencies.NONE, SettingsDependencies.of(Settings.PREF_PINNED_CLIPS))
+    }
+
+    @Test fun `preferences written while typing are known`() {
+        assertEquals(SettingsDependencies.KEYBOARD, SettingsDependencies.of(Settings.PREF_PINNED_TOOLBAR_KEYS))
+        assertEquals(SettingsDependencies.NONE, SettingsDependencies.of(Settings.PREF_ENABLED_SUBTYPES))
+    }
+}
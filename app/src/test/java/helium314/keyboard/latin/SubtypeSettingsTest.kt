@@ -0,0 +1,125 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.content.SharedPreferences
+import android.view.inputmethod.InputMethodSubtype
+import androidx.core.content.edit
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.ShadowLocaleManagerCompat
+import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.utils.AdditionalSubtypeUtils.createEmojiCapableAdditionalSubtype
+import helium314.keyboard.latin.utils.DeviceProtectedUtils
+import helium314.keyboard.latin.utils.SubtypeLocaleUtils
+import helium314.keyboard.latin.utils.addEnabledSubtype
+import helium314.keyboard.latin.utils.getAllAvailableSubtypes
+import helium314.keyboard.latin.utils.getEnabledSubtypes
+import helium314.keyboard.latin.utils.getSelectedSubtype
+import helium314.keyboard.latin.utils.locale
+import helium314.keyboard.latin.utils.reloadEnabledSubtypes
+import helium314.keyboard.latin.utils.removeEnabledSubtype
+import helium314.keyboard.latin.utils.setSelectedSubtype
+import helium314.keyboard.latin.utils.updateAdditionalSubtypes
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Locale
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowLocaleManagerCompat::class,
+    ShadowInputMethodManager2::class,
+])
+class SubtypeSettingsTest {
+    private lateinit var latinIME: LatinIME
+    private lateinit var prefs: SharedPreferences
+
+    @Before fun setUp() {
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        prefs = DeviceProtectedUtils.getSharedPreferences(latinIME)
+        prefs.edit { putBoolean(Settings.PREF_USE_SYSTEM_LOCALES, false) }
+        // subtype settings are global, make sure they match the preferences of this test
+        updateAdditionalSubtypes(emptyArray())
+        reloadEnabledSubtypes(latinIME)
+    }
+
+    @After fun tearDown() {
+        updateAdditionalSubtypes(emptyArray())
+    }
+
+    private fun resourceSubtype(locale: Locale, layout: String) =
+        getAllAvailableSubtypes().first { it.locale() == locale && SubtypeLocaleUtils.getKeyboardLayoutSetName(it) == layout }
+
+    // how the selected subtype was found before there was an index
+    private fun searchSelectedSubtype(subtypes: List<InputMethodSubtype>): InputMethodSubtype? {
+        val selected = prefs.getString(Settings.PREF_SELECTED_SUBTYPE, "")!!
+        return subtypes.firstOrNull {
+            selected == it.locale().toLanguageTag() + ":" + SubtypeLocaleUtils.getKeyboardLayoutSetName(it)
+        }
+    }
+
+    @Test fun `selected subtype is the same as found by search`() {
+        val english = resourceSubtype(Locale.US, "qwerty")
+        val german = resourceSubtype(Locale.GERMAN, "qwertz")
+        addEnabledSubtype(prefs, english)
+        addEnabledSubtype(prefs, german)
+        for (subtype in listOf(english, german)) {
+            setSelectedSubtype(prefs, subtype)
+            assertSame(searchSelectedSubtype(getEnabledSubtypes(prefs)), getSelectedSubtype(prefs))
+            assertSame(subtype, getSelectedSubtype(prefs))
+        }
+
+        // subtypes are sorted by language tag, so the first enabled subtype is German
+        prefs.edit { putString(Settings.PREF_SELECTED_SUBTYPE, "fr:azerty") }
+        assertSame(german, getSelectedSubtype(prefs))
+    }
+
+    @Test fun `selected subtype of system locales is the same as found by search`() {
+        prefs.edit { putBoolean(Settings.PREF_USE_SYSTEM_LOCALES, true) }
+        val defaultSubtype = getEnabledSubtypes(prefs).first()
+        setSelectedSubtype(prefs, defaultSubtype)
+        assertSame(searchSelectedSubtype(getEnabledSubtypes(prefs)), getSelectedSubtype(prefs))
+        assertSame(defaultSubtype, getSelectedSubtype(prefs))
+    }
+
+    @Test fun `index is updated when enabling and disabling subtypes`() {
+        val english = resourceSubtype(Locale.US, "qwerty")
+        val german = resourceSubtype(Locale.GERMAN, "qwertz")
+        addEnabledSubtype(prefs, english)
+        setSelectedSubtype(prefs, english)
+        assertSame(english, getSelectedSubtype(prefs))
+
+        addEnabledSubtype(prefs, german)
+        setSelectedSubtype(prefs, german)
+        assertSame(german, getSelectedSubtype(prefs))
+
+        // a stale index would still return the disabled subtype
+        removeEnabledSubtype(prefs, german)
+        setSelectedSubtype(prefs, german)
+        assertSame(english, getSelectedSubtype(prefs))
+    }
+
+    @Test fun `index is updated when additional subtypes change`() {
+        val resourceSubtypeCount = getAllAvailableSubtypes().size
+        val dvorak = createEmojiCapableAdditionalSubtype(Locale.ENGLISH, "dvorak", true)
+        assertFalse(dvorak in getAllAvailableSubtypes())
+
+        updateAdditionalSubtypes(arrayOf(dvorak))
+        assertTrue(dvorak in getAllAvailableSubtypes())
+        assertEquals(resourceSubtypeCount + 1, getAllAvailableSubtypes().size)
+        addEnabledSubtype(prefs, dvorak)
+        setSelectedSubtype(prefs, dvorak)
+        assertSame(dvorak, getSelectedSubtype(prefs))
+
+        updateAdditionalSubtypes(emptyArray())
+        assertFalse(dvorak in getAllAvailableSubtypes())
+        assertEquals(resourceSubtypeCount, getAllAvailableSubtypes().size)
+    }
+}
@@ -0,0 +1,67 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.settings.SpacingAndPunctuations
+import helium314.keyboard.latin.utils.TextBeforeCursorAnalyzer
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.Mockito
+
+class TextBeforeCursorAnalyzerTest {
+    private val spacingAndPunctuations = Mockito.mock(SpacingAndPunctuations::class.java)
+    private val analyzer = TextBeforeCursorAnalyzer()
+    private var computeCount = 0
+
+    private fun capsMode(sp: SpacingAndPunctuations = spacingAndPunctuations, inputType: Int = 1, hasSpaceBefore: Boolean = false) =
+        analyzer.getCapsMode(inputType, sp, hasSpaceBefore) { ++computeCount }
+
+    private fun ngramContext(sp: SpacingAndPunctuations = spacingAndPunctuations, n: Int = 1) =
+        analyzer.getNgramContext(sp, n) { computeCount++; NgramContext.EMPTY_PREV_WORDS_INFO }
+
+    @Test fun `caps mode is computed once per text change`() {
+        assertEquals(1, capsMode())
+        assertEquals(1, capsMode())
+        analyzer.onTextChanged()
+        assertEquals(2, capsMode())
+        assertEquals(2, capsMode())
+    }
+
+    @Test fun `caps mode is computed again for different arguments`() {
+        capsMode()
+        capsMode(inputType = 2)
+        capsMode(hasSpaceBefore = true)
+        assertEquals(3, computeCount)
+        // only the last result is kept
+        capsMode(hasSpaceBefore = true)
+        assertEquals(3, computeCount)
+    }
+
+    @Test fun `results are not used after spacing and punctuations changed`() {
+        capsMode()
+        ngramContext()
+        assertEquals(2, computeCount)
+        val newSpacingAndPunctuations = Mockito.mock(SpacingAndPunctuations::class.java)
+        capsMode(newSpacingAndPunctuations)
+        ngramContext(newSpacingAndPunctuations)
+        assertEquals(4, computeCount)
+        capsMode(newSpacingAndPunctuations)
+        ngramContext(newSpacingAndPunctuations)
+        assertEquals(4, computeCount)
+    }
+
+    @Test fun `ngram context is computed once per text change and n`() {
+        ngramContext(n = 1)
+        ngramContext(n = 2)
+        ngramContext(n = 1)
+        ngramContext(n = 2)
+        assertEquals(2, computeCount)
+        analyzer.onTextChanged()
+        ngramContext(n = 1)
+        ngramContext(n = 2)
+        assertEquals(4, computeCount)
+        // not cached
+        ngramContext(n = 3)
+        ngramContext(n = 3)
+        assertEquals(6, computeCount)
+    }
+}
@@ -0,0 +1,71 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.UserBinaryDictionary.Entries
+import helium314.keyboard.latin.UserBinaryDictionary.Entry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class UserDictionaryChangesTest {
+    private fun entries(generation: Int, vararg rows: Pair<Long, Entry>) =
+        Entries(generation).also { entries -> rows.forEach { entries.mEntries[it.first] = it.second } }
+
+    private fun changes(oldRows: List<Pair<Long, Entry>>, newRows: List<Pair<Long, Entry>>) =
+        UserBinaryDictionary.getChanges(entries(1, *oldRows.toTypedArray()), entries(2, *newRows.toTypedArray()))!!
+
+    private val foo = Entry("foo", null, 100)
+    private val bar = Entry("bar", "b", 100)
+
+    @Test fun `older or same queries are not applied`() {
+        assertNull(UserBinaryDictionary.getChanges(entries(2, 1L to foo), entries(1, 1L to bar)))
+        assertNull(UserBinaryDictionary.getChanges(entries(2, 1L to foo), entries(2, 1L to bar)))
+    }
+
+    @Test fun `unchanged rows are not added again`() {
+        val changes = changes(listOf(1L to foo, 2L to bar), listOf(1L to foo, 2L to Entry("bar", "b", 100)))
+        assertTrue(changes.mRemovedWords.isEmpty())
+        assertTrue(changes.mAddedEntries.isEmpty())
+    }
+
+    @Test fun `rows are compared by id`() {
+        val inserted = changes(listOf(1L to foo), listOf(1L to foo, 2L to bar))
+        assertTrue(inserted.mRemovedWords.isEmpty())
+        assertEquals(listOf(bar), inserted.mAddedEntries)
+
+        // same word with a new id, e.g. after deleting and adding it again
+        val newId = changes(listOf(1L to foo), listOf(2L to foo))
+        assertTrue(newId.mRemovedWords.isEmpty())
+        assertEquals(listOf(foo), newId.mAddedEntries)
+
+        val changed = Entry("foo", null, 120)
+        val updated = changes(listOf(1L to foo, 2L to bar), listOf(1L to changed, 2L to bar))
+        assertTrue(updated.mRemovedWords.isEmpty())
+        assertEquals(listOf(changed), updated.mAddedEntries)
+    }
+
+    @Test fun `words and shortcuts of deleted rows are removed`() {
+        val deleted = changes(listOf(1L to foo, 2L to bar), listOf(1L to foo))
+        assertEquals(setOf("bar", "b"), deleted.mRemovedWords)
+        assertTrue(deleted.mAddedEntries.isEmpty())
+
+        val renamed = Entry("baz", "b", 100)
+        val changed = changes(listOf(1L to bar), listOf(1L to renamed))
+        assertEquals(setOf("bar"), changed.mRemovedWords)
+        assertEquals(listOf(renamed), changed.mAddedEntries)
+    }
+
+    @Test fun `rows sharing a word with a removed row are added again`() {
+        val other = Entry("foo", null, 200)
+        val sameWord = changes(listOf(1L to foo, 2L to other), listOf(2L to other))
+        assertTrue(sameWord.mRemovedWords.isEmpty())
+        assertEquals(listOf(other), sameWord.mAddedEntries)
+
+        // the deleted word is the shortcut of another row
+        val b = Entry("b", null, 50)
+        val sameShortcut = changes(listOf(1L to b, 2L to bar, 3L to foo), listOf(2L to bar, 3L to foo))
+        assertTrue(sameShortcut.mRemovedWords.isEmpty())
+        assertEquals(listOf(bar), sameShortcut.mAddedEntries)
+    }
+}
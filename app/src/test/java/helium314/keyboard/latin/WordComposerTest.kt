@@ -0,0 +1,41 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.event.Event
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.lang.management.ManagementFactory
+
+@RunWith(RobolectricTestRunner::class)
+class WordComposerTest {
+    private val events = "keyboard".map { Event.createSoftwareKeypressEvent(it.code, it.code, 0, 0, 0, false) }
+
+    private fun WordComposer.type() {
+        for (i in events.indices) {
+            applyProcessedEvent(processEvent(events[i]))
+        }
+    }
+
+    @Test fun `typed word is composed`() {
+        val wordComposer = WordComposer()
+        wordComposer.type()
+        assertEquals("keyboard", wordComposer.typedWord)
+        assertEquals(8, wordComposer.size())
+    }
+
+    @Test fun `plain latin keystrokes don't allocate`() {
+        val wordComposer = WordComposer()
+        // load classes and grow the event list first
+        repeat(3) {
+            wordComposer.type()
+            wordComposer.reset()
+        }
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val before = threadBean.currentThreadAllocatedBytes
+        wordComposer.type()
+        val allocated = threadBean.currentThreadAllocatedBytes - before
+        assertEquals(0L, allocated)
+    }
+}
@@ -0,0 +1,102 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import com.android.inputmethod.latin.BinaryDictionary
+import helium314.keyboard.latin.makedict.ProbabilityInfo
+import helium314.keyboard.latin.personalization.WordListFile
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.IOException
+
+class WordListFileTest {
+    private fun WordListFile.EntryBatch.field(index: Int, field: Int) =
+        entries[index * BinaryDictionary.ENTRY_SIZE + field]
+
+    private fun WordListFile.EntryBatch.word(index: Int, start: Int, length: Int) =
+        String(codePoints, field(index, start), field(index, length))
+
+    private fun writeList(entries: Int): ByteArray {
+        val output = ByteArrayOutputStream()
+        val writer = WordListFile.Writer(output)
+        for (i in 0 until entries)
+            writer.writeUnigram("wörd$i", ProbabilityInfo(i, -i, 1, 2), false, i == 1)
+        // "wörd0" after beginning of sentence, followed by "wörd1"
+        writer.writeNgram(NgramContext(NgramContext.WordInfo("wörd0"),
+            NgramContext.WordInfo.BEGINNING_OF_SENTENCE_WORD_INFO), "wörd1", ProbabilityInfo(100, 5, 0, 1))
+        writer.finish()
+        return output.toByteArray()
+    }
+
+    @Test fun `written entries are read in batches`() {
+        val reader = WordListFile.Reader(ByteArrayInputStream(writeList(5)))
+        val batch = WordListFile.EntryBatch(4)
+        assertTrue(reader.readBatch(batch))
+        assertEquals(4, batch.entryCount)
+        assertEquals("wörd3", batch.word(3, BinaryDictionary.ENTRY_WORD_START, BinaryDictionary.ENTRY_WORD_LENGTH))
+        assertEquals(-3, batch.field(3, BinaryDictionary.ENTRY_TIMESTAMP))
+        assertEquals(BinaryDictionary.ENTRY_FLAG_POSSIBLY_OFFENSIVE, batch.field(1, BinaryDictionary.ENTRY_FLAGS))
+
+        assertTrue(reader.readBatch(batch))
+        assertEquals(2, batch.entryCount)
+        assertEquals(2, batch.field(1, BinaryDictionary.ENTRY_PREV_WORD_COUNT))
+        assertEquals(BinaryDictionary.ENTRY_FLAG_PREV_WORD_IS_BEGINNING_OF_SENTENCE shl 1,
+            batch.field(1, BinaryDictionary.ENTRY_FLAGS))
+        assertEquals("wörd0", batch.word(1, BinaryDictionary.ENTRY_PREV_WORDS, BinaryDictionary.ENTRY_PREV_WORDS + 1))
+        assertEquals("wörd1", batch.word(1, BinaryDictionary.ENTRY_WORD_START, BinaryDictionary.ENTRY_WORD_LENGTH))
+        assertEquals(100, batch.field(1, BinaryDictionary.ENTRY_PROBABILITY))
+
+        assertFalse(reader.readBatch(batch))
+        assertEquals(6, reader.entryCount)
+    }
+
+    @Test fun `incomplete list is detected`() {
+        val bytes = writeList(3)
+        val reader = WordListFile.Reader(ByteArrayInputStream(bytes.copyOf(bytes.size - 3)))
+        assertThrows(EOFException::class.java) {
+            while (reader.readBatch(WordListFile.EntryBatch(10))) Unit
+        }
+    }
+
+    @Test fun `extreme values are read`() {
+        val output = ByteArrayOutputStream()
+        val writer = WordListFile.Writer(output)
+        writer.writeUnigram("a", ProbabilityInfo(Int.MIN_VALUE, Int.MAX_VALUE, -1, 0), false, false)
+        writer.finish()
+        val batch = WordListFile.EntryBatch(1)
+        assertTrue(WordListFile.Reader(ByteArrayInputStream(output.toByteArray())).readBatch(batch))
+        assertEquals(Int.MIN_VALUE, batch.field(0, BinaryDictionary.ENTRY_PROBABILITY))
+        assertEquals(Int.MAX_VALUE, batch.field(0, BinaryDictionary.ENTRY_TIMESTAMP))
+        assertEquals(-1, batch.field(0, BinaryDictionary.ENTRY_LEVEL))
+    }
+
+    @Test fun `corrupt list is rejected`() {
+        val header = byteArrayOf(0x48, 0x42, 0x57, 0x4C, 0, 1)
+        val minusOne = intArrayOf(0xFF, 0xFF, 0xFF, 0xFF, 0x0F)
+        val unigramStart = intArrayOf(1, 0, 0, 0, 0, 0)
+        val corruptLists = listOf(
+            minusOne, // negative previous word count
+            intArrayOf(0x80, 0x80, 0x80, 0x80, 0x10), // varint overflows int
+            intArrayOf(0x81, 0x80, 0x80, 0x80, 0x80, 0x00), // varint too long
+            unigramStart + minusOne, // negative word length
+            unigramStart + (BinaryDictionary.DICTIONARY_MAX_WORD_LENGTH + 1), // word too long
+            intArrayOf(BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM + 2), // too many previous words
+        )
+        corruptLists.forEach { list ->
+            val bytes = header + ByteArray(list.size) { list[it].toByte() }
+            val reader = WordListFile.Reader(ByteArrayInputStream(bytes))
+            val e = assertThrows(IOException::class.java) { reader.readBatch(WordListFile.EntryBatch(10)) }
+            assertFalse(e is EOFException)
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun `other files are rejected`() {
+        WordListFile.Reader(ByteArrayInputStream("not a word list".toByteArray()))
+    }
+}
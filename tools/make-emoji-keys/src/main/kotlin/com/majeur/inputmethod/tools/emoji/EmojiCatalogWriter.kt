@@ -0,0 +1,92 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.majeur.inputmethod.tools.emoji
+
+import com.majeur.inputmethod.tools.emoji.model.EmojiData
+import com.majeur.inputmethod.tools.emoji.model.EmojiGroup
+import com.majeur.inputmethod.tools.emoji.model.EmojiSpec
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Writes the emojis to a binary catalog that can be read without parsing, see EmojiCatalog in the app.
+ * Contains the same emojis as the resource file, in the same order.
+ *
+ * Format (big endian):
+ *  int magic, short version, byte category count
+ *  for each category: int index of first emoji, int emoji count
+ *  int emoji count, followed by the byte offset of each emoji
+ *  emojis: code points with minimum sdk, byte variant count, code points with minimum sdk of each variant
+ *  code points with minimum sdk: short minimum sdk (0 if no restriction), byte code point count, int code points
+ */
+class EmojiCatalogWriter {
+
+    /** Writes the catalog and returns the contained emojis, indices in the list are the catalog indices. */
+    fun writeToAndroidAssets(outDir: String, emojiData: EmojiData, supportData: Map<Int, Int>): List<EmojiSpec> {
+        val records = ByteArrayOutputStream()
+        val recordsOut = DataOutputStream(records)
+        val offsets = mutableListOf<Int>()
+        val emojis = mutableListOf<EmojiSpec>()
+        val categories = CATALOG_GROUPS.map { group ->
+            val first = offsets.size
+            emojiData[group].forEach { emoji ->
+                val minApi = EmojiCategoriesResource.getMinApi(emoji.codes, supportData)
+                if (minApi < 0) return@forEach // ignored in resource file too
+                offsets.add(recordsOut.size())
+                emojis.add(emoji)
+                writeCodes(recordsOut, emoji.codes, minApi)
+                // resource file only has variants for people & body
+                val variants = if (group != EmojiGroup.PEOPLE_AND_BODY) emptyList()
+                    else emoji.variants.filter { EmojiCategoriesResource.getMinApi(it.codes, supportData) >= 0 }
+                recordsOut.writeByte(variants.size)
+                variants.forEach { writeCodes(recordsOut, it.codes, EmojiCategoriesResource.getMinApi(it.codes, supportData)) }
+            }
+            first to offsets.size - first
+        }
+
+        val headerSize = 4 + 2 + 1 + categories.size * 8 + 4 + offsets.size * 4
+        val outputFile = File(File(outDir, ASSETS_DIR), CATALOG_FILE_NAME)
+        outputFile.parentFile.mkdirs()
+        println("Building emoji catalog into ${outputFile.absoluteFile}")
+        DataOutputStream(outputFile.outputStream().buffered()).use { out ->
+            out.writeInt(MAGIC)
+            out.writeShort(VERSION)
+            out.writeByte(categories.size)
+            categories.forEach { (first, count) ->
+                out.writeInt(first)
+                out.writeInt(count)
+            }
+            out.writeInt(offsets.size)
+            offsets.forEach { out.writeInt(headerSize + it) }
+            records.writeTo(out)
+        }
+        return emojis
+    }
+
+    private fun writeCodes(out: DataOutputStream, codes: IntArray, minApi: Int) {
+        out.writeShort(if (minApi > 19) minApi else 0)
+        out.writeByte(codes.size)
+        codes.forEach { out.writeInt(it) }
+    }
+
+    companion object {
+        private const val MAGIC = 0x48424543 // "HBEC"
+        private const val VERSION = 1
+        private const val ASSETS_DIR = "emoji"
+        private const val CATALOG_FILE_NAME = "emoji_catalog.bin"
+
+        // order of the emoji categories in the keyboard
+        private val CATALOG_GROUPS = listOf(
+            EmojiGroup.SMILEYS_AND_EMOTION,
+            EmojiGroup.PEOPLE_AND_BODY,
+            EmojiGroup.ANIMALS_AND_NATURE,
+            EmojiGroup.FOOD_AND_DRINK,
+            EmojiGroup.TRAVEL_AND_PLACES,
+            EmojiGroup.ACTIVITIES,
+            EmojiGroup.OBJECTS,
+            EmojiGroup.SYMBOLS,
+            EmojiGroup.FLAGS
+        )
+    }
+}
@@ -124,19 +124,19 @@ class EmojiCategoriesResource(private val jarFile: JarFile) {
         return if (minApi > 19) "$cps||$minApi" else cps
     }
 
-    private fun getMinApi(codes: IntArray, supportData: Map<Int, Int>): Int {
-        val hash = codes
-                .joinToString(separator = "")
-                .hashCode()
-        return supportData[hash] ?: -1
-    }
-
     private fun printCompatNotFound(codes: IntArray) {
         val formattedCps = codes.joinToString(" ") { "U+" + it.toString(radix = 16).uppercase() }
         println(" - No android compatibility found for emoji $formattedCps, ignoring...")
     }
 
     companion object {
+        fun getMinApi(codes: IntArray, supportData: Map<Int, Int>): Int {
+            val hash = codes
+                    .joinToString(separator = "")
+                    .hashCode()
+            return supportData[hash] ?: -1
+        }
+
         private const val ANDROID_RES_TEMPLATE = "emoji-categories.tmpl"
         private const val MARK_UNICODE_VER = "@UNICODE_VERSION@"
         private const val MARK_API_LEVEL = "@ANDROID_API_LEVEL@"
@@ -0,0 +1,139 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.majeur.inputmethod.tools.emoji
+
+import com.majeur.inputmethod.tools.emoji.model.EmojiSpec
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.Locale
+
+/**
+ * Writes keyword indexes for emoji search and suggestions, see EmojiKeywordIndex in the app.
+ * English keywords are taken from the emoji names in the Unicode emoji test file. Further keywords
+ * are read from CLDR annotation files (e.g. common/annotations/de.xml in the CLDR repository)
+ * in the annotations directory, if given. One index is written per language.
+ *
+ * Format (big endian):
+ *  int magic, short version, int keyword count
+ *  byte offset of each keyword, keywords sorted by their UTF-8 bytes
+ *  keywords: byte length, UTF-8 bytes, byte emoji count, unsigned short catalog index of each emoji
+ */
+class EmojiKeywordIndexWriter(private val catalogEmojis: List<EmojiSpec>) {
+
+    // emoji text without variation selectors to catalog index, as annotations don't always have them
+    private val catalogIndices = catalogEmojis.withIndex().associate { (index, emoji) -> toKey(emoji.codes) to index }
+
+    fun writeToAndroidAssets(outDir: String, annotationsDir: String?) {
+        val keywordsByLanguage = mutableMapOf<String, MutableMap<String, MutableMap<Int, Int>>>()
+        val english = keywordsByLanguage.getOrPut("en") { mutableMapOf() }
+        catalogEmojis.forEachIndexed { index, emoji -> addKeywords(english, emoji.name, index, Locale.ENGLISH, true) }
+
+        annotationsDir?.let { File(it).listFiles { file -> file.extension == "xml" } }?.forEach { file ->
+            val language = file.nameWithoutExtension
+            val keywords = keywordsByLanguage.getOrPut(language) { mutableMapOf() }
+            val count = readAnnotations(file, keywords, Locale.forLanguageTag(language))
+            println(" - $count annotations for language $language")
+        }
+
+        keywordsByLanguage.forEach { (language, keywords) ->
+            if (keywords.isEmpty()) return@forEach
+            val outputFile = File(File(outDir, ASSETS_DIR), "$FILE_NAME_PREFIX$language.bin")
+            outputFile.parentFile.mkdirs()
+            println("Building emoji keyword index into ${outputFile.absoluteFile}")
+            write(outputFile, keywords)
+        }
+    }
+
+    // returns the number of annotations used
+    private fun readAnnotations(file: File, keywords: MutableMap<String, MutableMap<Int, Int>>, locale: Locale): Int {
+        var count = 0
+        ANNOTATION_REGEX.findAll(file.readText()).forEach { match ->
+            val (cp, type, text) = match.destructured
+            val index = catalogIndices[toKey(cp.codePoints().toArray())] ?: return@forEach
+            if (type == "tts") {
+                addKeywords(keywords, unescape(text), index, locale, false)
+            } else {
+                unescape(text).split('|').forEach { addKeywords(keywords, it, index, locale, false) }
+            }
+            count++
+        }
+        return count
+    }
+
+    /**
+     * Adds the words of [phrase] as keywords for the emoji. Emojis are ranked by how well the
+     * phrase matches the keyword: the whole phrase, its first word, or any other word.
+     */
+    private fun addKeywords(keywords: MutableMap<String, MutableMap<Int, Int>>, phrase: String, emojiIndex: Int,
+                            locale: Locale, ignoreStopWords: Boolean) {
+        val words = phrase.lowercase(locale).split(WORD_SEPARATOR_REGEX).filter { it.isNotEmpty() }
+        words.forEachIndexed { i, word ->
+            if (word.length < 2 || word.toByteArray().size > 255) return@forEachIndexed
+            if (ignoreStopWords && word in ENGLISH_STOP_WORDS) return@forEachIndexed
+            val rank = when {
+                words.size == 1 -> RANK_WHOLE_PHRASE
+                i == 0 -> RANK_FIRST_WORD
+                else -> RANK_OTHER_WORD
+            }
+            val emojis = keywords.getOrPut(word) { mutableMapOf() }
+            emojis[emojiIndex] = minOf(rank, emojis[emojiIndex] ?: rank)
+        }
+    }
+
+    private fun write(outputFile: File, keywords: Map<String, Map<Int, Int>>) {
+        val sorted = keywords.entries.map { it.key.toByteArray() to it.value }.sortedWith { a, b -> compareBytes(a.first, b.first) }
+        val records = ByteArrayOutputStream()
+        val recordsOut = DataOutputStream(records)
+        val offsets = sorted.map { (word, emojis) ->
+            val offset = recordsOut.size()
+            recordsOut.writeByte(word.size)
+            recordsOut.write(word)
+            // best rank first, then catalog order
+            val ordered = emojis.entries.sortedWith(compareBy({ it.value }, { it.key })).take(MAX_EMOJIS_PER_KEYWORD)
+            recordsOut.writeByte(ordered.size)
+            ordered.forEach { recordsOut.writeShort(it.key) }
+            offset
+        }
+        val headerSize = 4 + 2 + 4 + offsets.size * 4
+        DataOutputStream(outputFile.outputStream().buffered()).use { out ->
+            out.writeInt(MAGIC)
+            out.writeShort(VERSION)
+            out.writeInt(offsets.size)
+            offsets.forEach { out.writeInt(headerSize + it) }
+            records.writeTo(out)
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x4842454B // "HBEK"
+        private const val VERSION = 1
+        private const val ASSETS_DIR = "emoji"
+        private const val FILE_NAME_PREFIX = "keywords_"
+        private const val MAX_EMOJIS_PER_KEYWORD = 32
+
+        private const val RANK_WHOLE_PHRASE = 0
+        private const val RANK_FIRST_WORD = 1
+        private const val RANK_OTHER_WORD = 2
+
+        private const val CP_VARIANT_SELECTOR = 0xFE0F
+
+        private val ANNOTATION_REGEX = Regex("<annotation cp=\"([^\"]+)\"(?: type=\"(tts)\")?>([^<]*)</annotation>")
+        private val WORD_SEPARATOR_REGEX = Regex("[^\\p{L}\\p{N}\\p{M}]+")
+        private val ENGLISH_STOP_WORDS = setOf("a", "an", "and", "as", "at", "by", "for", "in", "of", "on", "or", "the", "to", "with")
+
+        private fun toKey(codes: IntArray) = codes.filter { it != CP_VARIANT_SELECTOR }.joinToString(" ")
+
+        private fun unescape(text: String) = text.replace("&lt;", "<").replace("&gt;", ">")
+            .replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&")
+
+        // unsigned comparison, which is the same as comparing code points
+        private fun compareBytes(a: ByteArray, b: ByteArray): Int {
+            for (i in 0 until minOf(a.size, b.size)) {
+                val c = (a[i].toInt() and 0xFF) - (b[i].toInt() and 0xFF)
+                if (c != 0) return c
+            }
+            return a.size - b.size
+        }
+    }
+}